@@ -0,0 +1,80 @@
+package com.tencent.mm.benchmark;
+
+import com.tencent.mm.androlib.ApkDecoder;
+import com.tencent.mm.androlib.res.decoder.RawARSCDecoder;
+import com.tencent.mm.resourceproguard.Configuration;
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.FileOperation;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The passes over resources.arsc. ApkDecoder.decode unzips the apk before ARSCDecoder reads and writes the table,
+ * so decodeAndWrite includes the unzip, see {@link ZipBenchmark} for its share.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArscBenchmark {
+  @Param({ "1000", "10000", "30000" })
+  public int entryCount;
+
+  private File mWorkDir;
+  private File mApk;
+  private byte[] mArsc;
+  private Configuration mConfig;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    mWorkDir = Files.createTempDirectory("arsc-benchmark").toFile();
+    mApk = new File(mWorkDir, "synthetic.apk");
+    SyntheticApkGenerator generator = new SyntheticApkGenerator.Builder().setEntryCount(entryCount).create();
+    generator.writeApk(mApk);
+    mArsc = generator.writeArsc();
+    mConfig = new Configuration(new InputParam.Builder().setApkPath(mApk.getAbsolutePath())
+        .setWhiteList(new ArrayList<String>())
+        .setCompressFilePattern(new ArrayList<String>())
+        .create());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    FileOperation.deleteDir(mWorkDir);
+  }
+
+  @Benchmark
+  public HashMap<Integer, Set<String>> rawDecode() throws Exception {
+    return RawARSCDecoder.decode(new ByteArrayInputStream(mArsc));
+  }
+
+  @Benchmark
+  public File decodeAndWrite() throws Exception {
+    File outDir = new File(mWorkDir, "out");
+    FileOperation.deleteDir(outDir);
+    ApkDecoder decoder = new ApkDecoder(mConfig, mApk);
+    decoder.setOutDir(outDir);
+    decoder.decode();
+    return decoder.getOutARSCFile();
+  }
+}
@@ -0,0 +1,188 @@
+package com.tencent.mm.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the json written by {@link com.tencent.mm.util.JsonWriter}: objects become maps, arrays lists and numbers
+ * doubles.
+ */
+class JsonReader {
+  private final String mText;
+  private int mPos;
+
+  private JsonReader(String text) {
+    mText = text;
+  }
+
+  static Object parse(String text) throws IOException {
+    JsonReader reader = new JsonReader(text);
+    Object value = reader.readValue();
+    reader.skipSpaces();
+    if (reader.mPos != text.length()) {
+      throw reader.error("unexpected text after the value");
+    }
+    return value;
+  }
+
+  private Object readValue() throws IOException {
+    skipSpaces();
+    if (mPos >= mText.length()) {
+      throw error("unexpected end");
+    }
+    char c = mText.charAt(mPos);
+    switch (c) {
+      case '{':
+        return readObject();
+      case '[':
+        return readArray();
+      case '"':
+        return readString();
+      case 't':
+        expect("true");
+        return Boolean.TRUE;
+      case 'f':
+        expect("false");
+        return Boolean.FALSE;
+      case 'n':
+        expect("null");
+        return null;
+      default:
+        return readNumber();
+    }
+  }
+
+  private Map<String, Object> readObject() throws IOException {
+    Map<String, Object> object = new LinkedHashMap<>();
+    mPos++;
+    skipSpaces();
+    if (peek() == '}') {
+      mPos++;
+      return object;
+    }
+    while (true) {
+      skipSpaces();
+      String name = readString();
+      skipSpaces();
+      expect(":");
+      object.put(name, readValue());
+      skipSpaces();
+      char c = next();
+      if (c == '}') {
+        return object;
+      } else if (c != ',') {
+        throw error("expect , or }");
+      }
+    }
+  }
+
+  private List<Object> readArray() throws IOException {
+    List<Object> array = new ArrayList<>();
+    mPos++;
+    skipSpaces();
+    if (peek() == ']') {
+      mPos++;
+      return array;
+    }
+    while (true) {
+      array.add(readValue());
+      skipSpaces();
+      char c = next();
+      if (c == ']') {
+        return array;
+      } else if (c != ',') {
+        throw error("expect , or ]");
+      }
+    }
+  }
+
+  private String readString() throws IOException {
+    if (next() != '"') {
+      throw error("expect a string");
+    }
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      char c = next();
+      if (c == '"') {
+        return sb.toString();
+      }
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      c = next();
+      switch (c) {
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'u':
+          if (mPos + 4 > mText.length()) {
+            throw error("bad unicode escape");
+          }
+          sb.append((char) Integer.parseInt(mText.substring(mPos, mPos + 4), 16));
+          mPos += 4;
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+  }
+
+  private Double readNumber() throws IOException {
+    int start = mPos;
+    while (mPos < mText.length() && "+-0123456789.eE".indexOf(mText.charAt(mPos)) >= 0) {
+      mPos++;
+    }
+    try {
+      return Double.valueOf(mText.substring(start, mPos));
+    } catch (NumberFormatException e) {
+      mPos = start;
+      throw error("bad number");
+    }
+  }
+
+  private void expect(String token) throws IOException {
+    if (!mText.startsWith(token, mPos)) {
+      throw error("expect " + token);
+    }
+    mPos += token.length();
+  }
+
+  private void skipSpaces() {
+    while (mPos < mText.length() && Character.isWhitespace(mText.charAt(mPos))) {
+      mPos++;
+    }
+  }
+
+  private char peek() throws IOException {
+    if (mPos >= mText.length()) {
+      throw error("unexpected end");
+    }
+    return mText.charAt(mPos);
+  }
+
+  private char next() throws IOException {
+    char c = peek();
+    mPos++;
+    return c;
+  }
+
+  private IOException error(String message) {
+    return new IOException(String.format("bad json at %d: %s", mPos, message));
+  }
+}
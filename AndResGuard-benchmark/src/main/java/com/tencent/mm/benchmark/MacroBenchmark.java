@@ -0,0 +1,432 @@
+package com.tencent.mm.benchmark;
+
+import com.tencent.mm.androlib.AndrolibException;
+import com.tencent.mm.resourceproguard.Configuration;
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.resourceproguard.Main;
+import com.tencent.mm.util.FileOperation;
+import com.tencent.mm.util.JsonWriter;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the whole resguard pipeline on generated apks and records the time of every phase, the peak rss and heap,
+ * and the bytes read and written by the process. The medians are written to json and compared with a baseline,
+ * the exit code is not zero if a phase got slower than the tolerance allows, or if the baseline is missing and
+ * -updateBaseline is not given.
+ * <p>
+ * MacroBenchmark [-corpus small,medium,large] [-warmup 1] [-iterations 5] [-workDir dir] [-out result.json]
+ * [-baseline baseline.json] [-tolerance 0.2] [-minDelta 50] [-updateBaseline] [-config config.xml]
+ * [-signatureType v1|v2|v3]
+ */
+public class MacroBenchmark extends Main {
+  private static final int ERRNO_REGRESSION = 3;
+  private static final int ERRNO_NO_BASELINE = 4;
+  private static final String WALL = "wall";
+  private static final String PEAK_HEAP = "peak_heap";
+  private static final long MIN_HEAP_DELTA = 16L * 1024 * 1024;
+
+  private static final Map<String, SyntheticApkGenerator.Builder> CORPUS = new LinkedHashMap<>();
+
+  static {
+    CORPUS.put("small", new SyntheticApkGenerator.Builder().setSeed(1).setEntryCount(5000).setConfigCount(4));
+    CORPUS.put("medium", new SyntheticApkGenerator.Builder().setSeed(2)
+        .setTypeCount(60)
+        .setEntryCount(30000)
+        .setConfigCount(8)
+        .setUtf8(false));
+    CORPUS.put("large", new SyntheticApkGenerator.Builder().setSeed(3)
+        .setPackageCount(2)
+        .setTypeCount(200)
+        .setEntryCount(100000)
+        .setConfigCount(8)
+        .setDuplicateRatio(0.1));
+  }
+
+  private List<String> mCorpus = Arrays.asList("small", "medium");
+  private int mWarmup = 1;
+  private int mIterations = 5;
+  private File mWorkDir = new File("build/macro-benchmark");
+  private File mResultFile;
+  private File mBaselineFile;
+  private double mTolerance = 0.2;
+  private long mMinDeltaMs = 50;
+  private boolean mUpdateBaseline;
+  private File mConfigFile;
+  private InputParam.SignatureType mSignatureType = InputParam.SignatureType.SchemaV1;
+
+  public static void main(String[] args) throws Exception {
+    MacroBenchmark benchmark = new MacroBenchmark();
+    benchmark.parseArgs(args);
+    System.exit(benchmark.runAll());
+  }
+
+  private void parseArgs(String[] args) throws IOException {
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("-updateBaseline")) {
+        mUpdateBaseline = true;
+        continue;
+      }
+      if (i + 1 >= args.length) {
+        throw new IOException("missing the value of " + arg);
+      }
+      String value = args[++i];
+      switch (arg) {
+        case "-corpus":
+          mCorpus = Arrays.asList(value.split(","));
+          for (String name : mCorpus) {
+            if (!CORPUS.containsKey(name)) {
+              throw new IOException("unknown corpus apk " + name + ", choose from " + CORPUS.keySet());
+            }
+          }
+          break;
+        case "-warmup":
+          mWarmup = Integer.parseInt(value);
+          break;
+        case "-iterations":
+          mIterations = Math.max(1, Integer.parseInt(value));
+          break;
+        case "-workDir":
+          mWorkDir = new File(value);
+          break;
+        case "-out":
+          mResultFile = new File(value);
+          break;
+        case "-baseline":
+          mBaselineFile = new File(value);
+          break;
+        case "-tolerance":
+          mTolerance = Double.parseDouble(value);
+          break;
+        case "-minDelta":
+          mMinDeltaMs = Long.parseLong(value);
+          break;
+        case "-config":
+          mConfigFile = new File(value);
+          break;
+        case "-signatureType":
+          mSignatureType = value.equals("v3") ? InputParam.SignatureType.SchemaV3
+              : value.equals("v2") ? InputParam.SignatureType.SchemaV2 : InputParam.SignatureType.SchemaV1;
+          break;
+        default:
+          throw new IOException("unknown option " + arg);
+      }
+    }
+    if (mResultFile == null) {
+      mResultFile = new File(mWorkDir, "macro-benchmark.json");
+    }
+  }
+
+  private int runAll() throws Exception {
+    // a missing baseline would pass every run, so it fails before the corpus is generated
+    if (mBaselineFile != null && !mUpdateBaseline && !mBaselineFile.exists()) {
+      System.err.printf("[MacroBenchmark] no baseline %s, write one with -updateBaseline\n",
+          mBaselineFile.getAbsolutePath()
+      );
+      return ERRNO_NO_BASELINE;
+    }
+    config = loadConfig();
+    File corpusDir = new File(mWorkDir, "corpus");
+    corpusDir.mkdirs();
+    Map<String, List<Sample>> results = new LinkedHashMap<>();
+    Map<String, Long> apkSizes = new LinkedHashMap<>();
+    for (String name : mCorpus) {
+      File apk = new File(corpusDir, name + ".apk");
+      System.out.printf("[MacroBenchmark] generating %s\n", apk.getAbsolutePath());
+      CORPUS.get(name).create().writeApk(apk);
+      apkSizes.put(name, apk.length());
+      File outDir = new File(mWorkDir, "out" + File.separator + name);
+      for (int i = 0; i < mWarmup; i++) {
+        runOnce(apk, outDir);
+      }
+      List<Sample> samples = new ArrayList<>(mIterations);
+      for (int i = 0; i < mIterations; i++) {
+        samples.add(runOnce(apk, outDir));
+      }
+      results.put(name, samples);
+      FileOperation.deleteDir(outDir);
+    }
+    writeResult(results, apkSizes);
+    System.out.printf("[MacroBenchmark] result %s\n", mResultFile.getAbsolutePath());
+
+    if (mBaselineFile == null) {
+      return 0;
+    }
+    if (mUpdateBaseline) {
+      Files.copy(mResultFile.toPath(), mBaselineFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      System.out.printf("[MacroBenchmark] baseline updated %s\n", mBaselineFile.getAbsolutePath());
+      return 0;
+    }
+    return compareWithBaseline(results) ? 0 : ERRNO_REGRESSION;
+  }
+
+  private Configuration loadConfig() throws Exception {
+    if (mConfigFile != null) {
+      return new Configuration(mConfigFile, null, null, null, null, null, null, null);
+    }
+    // no signing and no 7z, only the steps in process
+    return new Configuration(new InputParam.Builder().setUseSign(false)
+        .setMergeDuplicatedRes(true)
+        .setWhiteList(new ArrayList<String>())
+        .setCompressFilePattern(new ArrayList<String>())
+        .create());
+  }
+
+  private Sample runOnce(File apk, File outDir) throws AndrolibException {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+    resetPeakRss();
+    long[] ioBefore = readProcessIo();
+    long start = System.nanoTime();
+    resourceProguard(outDir, null, apk.getAbsolutePath(), mSignatureType);
+    Sample sample = new Sample();
+    sample.wallNanos = System.nanoTime() - start;
+    long[] ioAfter = readProcessIo();
+    sample.phaseNanos = getMetrics().getPhaseNanos();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        sample.peakHeap += pool.getPeakUsage().getUsed();
+      }
+    }
+    sample.peakRssKb = readStatusKb("VmHWM:");
+    sample.bytesRead = ioBefore == null || ioAfter == null ? -1 : ioAfter[0] - ioBefore[0];
+    sample.bytesWritten = ioBefore == null || ioAfter == null ? -1 : ioAfter[1] - ioBefore[1];
+    System.out.printf("[MacroBenchmark] %s: %.1f ms %s\n", apk.getName(), sample.wallNanos / 1e6, sample.phaseNanos);
+    return sample;
+  }
+
+  /**
+   * the peak rss of a linux process is reset by writing 5 to clear_refs, it is the peak of the whole process
+   * anywhere else
+   */
+  private static void resetPeakRss() {
+    try {
+      FileOutputStream out = new FileOutputStream("/proc/self/clear_refs");
+      try {
+        out.write('5');
+      } finally {
+        out.close();
+      }
+    } catch (IOException ignored) {
+      // not linux or not allowed
+    }
+  }
+
+  /**
+   * @return rchar and wchar of /proc/self/io, null if it is not there
+   */
+  private static long[] readProcessIo() {
+    long[] io = new long[] { -1, -1 };
+    for (String line : readLines(new File("/proc/self/io"))) {
+      if (line.startsWith("rchar:")) {
+        io[0] = Long.parseLong(line.substring("rchar:".length()).trim());
+      } else if (line.startsWith("wchar:")) {
+        io[1] = Long.parseLong(line.substring("wchar:".length()).trim());
+      }
+    }
+    return io[0] < 0 || io[1] < 0 ? null : io;
+  }
+
+  private static long readStatusKb(String key) {
+    for (String line : readLines(new File("/proc/self/status"))) {
+      if (line.startsWith(key)) {
+        return Long.parseLong(line.substring(key.length()).replace("kB", "").trim());
+      }
+    }
+    return -1;
+  }
+
+  private static List<String> readLines(File file) {
+    List<String> lines = new ArrayList<>();
+    if (!file.exists()) {
+      return lines;
+    }
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+          StandardCharsets.UTF_8
+      ));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException ignored) {
+      // the process statistics are optional
+    }
+    return lines;
+  }
+
+  private void writeResult(Map<String, List<Sample>> results, Map<String, Long> apkSizes) throws IOException {
+    File parent = mResultFile.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    JsonWriter json = new JsonWriter(new OutputStreamWriter(new FileOutputStream(mResultFile),
+        StandardCharsets.UTF_8
+    ));
+    try {
+      json.beginObject();
+      json.name("java").value(System.getProperty("java.version"));
+      json.name("processors").value(Runtime.getRuntime().availableProcessors());
+      json.name("maxHeap").value(Runtime.getRuntime().maxMemory());
+      json.name("signatureType").value(mSignatureType.name());
+      json.name("warmup").value(mWarmup);
+      json.name("apks").beginArray();
+      for (Map.Entry<String, List<Sample>> entry : results.entrySet()) {
+        List<Sample> samples = entry.getValue();
+        json.beginObject();
+        json.name("name").value(entry.getKey());
+        json.name("apkSize").value(apkSizes.get(entry.getKey()));
+        json.name("median");
+        writeMetrics(json, median(samples));
+        json.name("iterations").beginArray();
+        for (Sample sample : samples) {
+          writeMetrics(json, sample.toMetrics());
+        }
+        json.endArray();
+        json.endObject();
+      }
+      json.endArray();
+      json.endObject();
+    } finally {
+      json.close();
+    }
+  }
+
+  /**
+   * the times are in ms, the sizes in bytes
+   */
+  private static void writeMetrics(JsonWriter json, Map<String, Double> metrics) throws IOException {
+    json.beginObject();
+    for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+      json.name(metric.getKey()).value(metric.getValue());
+    }
+    json.endObject();
+  }
+
+  private static Map<String, Double> median(List<Sample> samples) {
+    Map<String, List<Double>> values = new LinkedHashMap<>();
+    for (Sample sample : samples) {
+      for (Map.Entry<String, Double> metric : sample.toMetrics().entrySet()) {
+        List<Double> list = values.get(metric.getKey());
+        if (list == null) {
+          list = new ArrayList<>();
+          values.put(metric.getKey(), list);
+        }
+        list.add(metric.getValue());
+      }
+    }
+    Map<String, Double> medians = new LinkedHashMap<>();
+    for (Map.Entry<String, List<Double>> entry : values.entrySet()) {
+      List<Double> list = entry.getValue();
+      Collections.sort(list);
+      int middle = list.size() / 2;
+      medians.put(entry.getKey(), list.size() % 2 == 1 ? list.get(middle) : (list.get(middle - 1) + list.get(middle)) / 2);
+    }
+    return medians;
+  }
+
+  /**
+   * @return false if an apk is not in the baseline, or if the wall time, a phase or the peak heap of an apk got
+   * worse than the tolerance, it must also be worse by the min delta so the short phases do not fail on noise
+   */
+  @SuppressWarnings("unchecked")
+  private boolean compareWithBaseline(Map<String, List<Sample>> results) throws IOException {
+    Map<String, Object> baseline = (Map<String, Object>) JsonReader.parse(new String(
+        Files.readAllBytes(mBaselineFile.toPath()),
+        StandardCharsets.UTF_8
+    ));
+    Map<String, Map<String, Object>> baselineApks = new LinkedHashMap<>();
+    for (Object apk : (List<Object>) baseline.get("apks")) {
+      Map<String, Object> apkObject = (Map<String, Object>) apk;
+      baselineApks.put((String) apkObject.get("name"), (Map<String, Object>) apkObject.get("median"));
+    }
+    boolean passed = true;
+    System.out.printf("[MacroBenchmark] compare with %s, tolerance %.0f%%\n",
+        mBaselineFile.getAbsolutePath(),
+        mTolerance * 100
+    );
+    for (Map.Entry<String, List<Sample>> entry : results.entrySet()) {
+      Map<String, Object> base = baselineApks.get(entry.getKey());
+      if (base == null) {
+        System.out.printf("  %s: not in the baseline, update it with -updateBaseline\n", entry.getKey());
+        passed = false;
+        continue;
+      }
+      for (Map.Entry<String, Double> metric : median(entry.getValue()).entrySet()) {
+        if (!metric.getKey().equals(WALL) && !metric.getKey().equals(PEAK_HEAP)
+            && !metric.getKey().startsWith("phase.")) {
+          continue;
+        }
+        Object baseValue = base.get(metric.getKey());
+        if (!(baseValue instanceof Double)) {
+          continue;
+        }
+        double before = (Double) baseValue;
+        double now = metric.getValue();
+        double minDelta = metric.getKey().equals(PEAK_HEAP) ? MIN_HEAP_DELTA : mMinDeltaMs;
+        boolean regressed = now > before * (1 + mTolerance) && now - before > minDelta;
+        if (regressed) {
+          passed = false;
+        }
+        System.out.printf("  %s %-20s %14.1f -> %14.1f %+7.1f%%%s\n",
+            entry.getKey(),
+            metric.getKey(),
+            before,
+            now,
+            before > 0 ? (now - before) * 100 / before : 0,
+            regressed ? "  REGRESSION" : ""
+        );
+      }
+    }
+    System.out.printf("[MacroBenchmark] %s\n", passed ? "no regression" : "regression found");
+    return passed;
+  }
+
+  private static class Sample {
+    long wallNanos;
+    Map<String, Long> phaseNanos;
+    long peakHeap;
+    long peakRssKb;
+    long bytesRead;
+    long bytesWritten;
+
+    Map<String, Double> toMetrics() {
+      Map<String, Double> metrics = new LinkedHashMap<>();
+      metrics.put(WALL, wallNanos / 1e6);
+      for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+        metrics.put("phase." + phase.getKey(), phase.getValue() / 1e6);
+      }
+      metrics.put(PEAK_HEAP, (double) peakHeap);
+      metrics.put("peak_rss", peakRssKb < 0 ? -1 : peakRssKb * 1024.0);
+      metrics.put("bytes_read", (double) bytesRead);
+      metrics.put("bytes_written", (double) bytesWritten);
+      return metrics;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.tencent.mm.benchmark;
+
+import com.tencent.mm.androlib.res.decoder.ResguardStringBuilder;
+import com.tencent.mm.util.Utils;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The resguard names of one type: the candidates filtered by the white list, the names used by the old mapping
+ * removed, then the names handed out one by one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NamingBenchmark {
+  @Param({ "1000", "10000", "30000" })
+  public int entryCount;
+
+  @Param({ "0", "20" })
+  public int patternCount;
+
+  private HashSet<Pattern> mPatterns;
+  private List<String> mUsedNames;
+  private List<String> mSpecNames;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    mPatterns = new HashSet<>();
+    for (int i = 0; i < patternCount; i++) {
+      mPatterns.add(Pattern.compile(Utils.convertToPatternString("keep_" + i + "_*")));
+    }
+    ResguardStringBuilder builder = new ResguardStringBuilder();
+    builder.reset(null);
+    mUsedNames = new ArrayList<>();
+    // an old mapping keeps a tenth of the names
+    for (int i = 0; i < entryCount / 10; i++) {
+      mUsedNames.add(builder.getReplaceString());
+    }
+    mSpecNames = new ArrayList<>(entryCount);
+    // without patterns every name is an icon_ name
+    for (int i = 0; i < entryCount; i++) {
+      mSpecNames.add((patternCount > 0 && i % 40 == 0 ? "keep_" + (i / 40 % patternCount) + "_icon_" : "icon_") + i);
+    }
+  }
+
+  @Benchmark
+  public ResguardStringBuilder reset() {
+    ResguardStringBuilder builder = new ResguardStringBuilder();
+    builder.reset(mPatterns);
+    return builder;
+  }
+
+  @Benchmark
+  public void resetRemoveAndDrain(Blackhole blackhole) throws Exception {
+    ResguardStringBuilder builder = new ResguardStringBuilder();
+    builder.reset(mPatterns);
+    builder.removeStrings(mUsedNames);
+    for (int i = mUsedNames.size(); i < entryCount; i++) {
+      blackhole.consume(builder.getReplaceString());
+    }
+  }
+
+  @Benchmark
+  public int match() {
+    int matched = 0;
+    for (String specName : mSpecNames) {
+      if (Utils.match(specName, mPatterns)) {
+        matched++;
+      }
+    }
+    return matched;
+  }
+}
@@ -0,0 +1,112 @@
+package com.tencent.mm.benchmark;
+
+import com.mindprod.ledatastream.LEDataInputStream;
+import com.mindprod.ledatastream.LEDataOutputStream;
+import com.tencent.mm.androlib.res.decoder.ResguardStringBuilder;
+import com.tencent.mm.androlib.res.decoder.StringBlock;
+import com.tencent.mm.util.ExtDataInput;
+import com.tencent.mm.util.ExtDataOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading a string pool and writing the resguarded spec name and table string pools.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StringBlockBenchmark {
+  @Param({ "1000", "10000", "30000" })
+  public int stringCount;
+
+  @Param({ "true", "false" })
+  public boolean utf8;
+
+  private byte[] mPool;
+  private Map<String, Set<String>> mSpecNames;
+  private Map<Integer, String> mTableReplaces;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    List<String> strings = new ArrayList<>(stringCount);
+    for (int i = 0; i < stringCount; i++) {
+      strings.add(i % 2 == 0 ? "res/drawable-xhdpi/icon_" + i + ".png" : "label text " + i);
+    }
+    mPool = SyntheticApkGenerator.stringPool(strings, utf8);
+
+    // names as the resguard builder hands them out, every second string is replaced in the table
+    List<String> names = resguardNames(stringCount);
+    mSpecNames = new LinkedHashMap<>();
+    mTableReplaces = new LinkedHashMap<>();
+    for (int i = 0; i < stringCount; i++) {
+      Set<String> specNames = new HashSet<>();
+      specNames.add(names.get(i));
+      mSpecNames.put(names.get(i), specNames);
+      if (i % 2 == 0) {
+        mTableReplaces.put(i, "r/a/" + names.get(i) + ".png");
+      }
+    }
+  }
+
+  @Benchmark
+  public void read(Blackhole blackhole) throws Exception {
+    StringBlock block = StringBlock.read(input());
+    for (int i = 0; i < stringCount; i++) {
+      blackhole.consume(block.getString(i));
+    }
+  }
+
+  @Benchmark
+  public int writeSpecNameStringBlock() throws Exception {
+    return StringBlock.writeSpecNameStringBlock(input(), output(), mSpecNames, new LinkedHashMap<String, Integer>());
+  }
+
+  @Benchmark
+  public int writeTableNameStringBlock() throws Exception {
+    return StringBlock.writeTableNameStringBlock(input(), output(), mTableReplaces);
+  }
+
+  private ExtDataInput input() {
+    return new ExtDataInput(new LEDataInputStream(new ByteArrayInputStream(mPool)));
+  }
+
+  private ExtDataOutput output() {
+    return new ExtDataOutput(new LEDataOutputStream(new ByteArrayOutputStream(mPool.length)));
+  }
+
+  /**
+   * @return the first names of a {@link ResguardStringBuilder}
+   */
+  private static List<String> resguardNames(int count) throws Exception {
+    ResguardStringBuilder builder = new ResguardStringBuilder();
+    builder.reset(null);
+    List<String> names = new ArrayList<>(count);
+    while (names.size() < count) {
+      names.add(builder.getReplaceString());
+    }
+    return names;
+  }
+}
@@ -0,0 +1,538 @@
+package com.tencent.mm.benchmark;
+
+import com.tencent.mm.androlib.res.decoder.ARSCDecoder;
+import com.tencent.mm.androlib.res.decoder.StringBlock;
+import com.tencent.mm.util.TypedValue;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates valid apks with a resources.arsc of any shape: several packages, many types, configs with sparse
+ * entries, duplicated res files and utf-8 or utf-16 string pools. The same builder and seed always give the same
+ * apk, byte for byte.
+ */
+public class SyntheticApkGenerator {
+  private static final int TABLE_HEADER_SIZE = 12;
+  private static final int PACKAGE_HEADER_SIZE = 288;
+  private static final int STRING_POOL_HEADER_SIZE = 28;
+  private static final int TYPE_SPEC_HEADER_SIZE = 16;
+  private static final int CONFIG_SIZE = 64;
+  private static final int TYPE_HEADER_SIZE = 20 + CONFIG_SIZE;
+  private static final int SIMPLE_ENTRY_SIZE = 8;
+  private static final int COMPLEX_ENTRY_SIZE = 16;
+  private static final int VALUE_SIZE = 8;
+  private static final int NO_ENTRY = -1;
+  private static final String PACKAGE_NAME = "com.tencent.mm.synthetic";
+  // a fixed time for the zip entries, or the apk changes every run
+  private static final long ENTRY_TIME = 1262304000000L;
+
+  private static final Kind[] KINDS = {
+      new Kind("drawable", ".png", 0),
+      new Kind("layout", ".xml", 0),
+      new Kind("string", null, TypedValue.TYPE_STRING),
+      new Kind("color", null, TypedValue.TYPE_INT_COLOR_ARGB8),
+      new Kind("mipmap", ".png", 0),
+      new Kind("dimen", null, TypedValue.TYPE_DIMENSION),
+      new Kind("style", null, TypedValue.TYPE_INT_DEC),
+      new Kind("xml", ".xml", 0),
+      new Kind("id", null, TypedValue.TYPE_INT_BOOLEAN),
+      new Kind("raw", ".bin", 0),
+      new Kind("anim", ".xml", 0),
+      new Kind("integer", null, TypedValue.TYPE_INT_DEC)
+  };
+  private static final String[] WORDS = {
+      "ic", "bg", "btn", "item", "list", "title", "icon", "arrow", "chat", "emoji", "dialog", "text", "view", "main",
+      "tab", "bar", "menu", "normal", "pressed", "selected", "large", "small", "white", "dark", "card", "avatar"
+  };
+  private static final String[] LANGUAGES = {
+      "en", "zh", "fr", "de", "es", "it", "ja", "ko", "pt", "ru", "ar", "hi", "th", "vi", "id", "tr", "pl", "nl",
+      "sv", "da", "fi", "nb", "cs", "el", "he", "hu", "ro", "uk", "ms", "fa"
+  };
+  private static final int[] DENSITIES = { 120, 160, 240, 320, 480, 640 };
+  private static final String[] DENSITY_NAMES = { "ldpi", "mdpi", "hdpi", "xhdpi", "xxhdpi", "xxxhdpi" };
+
+  private final long mSeed;
+  private final int mPackageCount;
+  private final int mTypeCount;
+  private final int mEntryCount;
+  private final int mConfigCount;
+  private final double mConfigEntryRatio;
+  private final double mDuplicateRatio;
+  private final boolean mUtf8;
+  private final int mMinFileSize;
+  private final int mMaxFileSize;
+
+  private SyntheticApkGenerator(Builder builder) {
+    mSeed = builder.seed;
+    mPackageCount = builder.packageCount;
+    mTypeCount = builder.typeCount;
+    mEntryCount = builder.entryCount;
+    mConfigCount = Math.min(builder.configCount, DENSITIES.length + LANGUAGES.length * (DENSITIES.length + 1));
+    mConfigEntryRatio = builder.configEntryRatio;
+    mDuplicateRatio = builder.duplicateRatio;
+    mUtf8 = builder.utf8;
+    mMinFileSize = builder.minFileSize;
+    mMaxFileSize = Math.max(builder.minFileSize, builder.maxFileSize);
+  }
+
+  /**
+   * @param apk the output apk, the res files are deflated except the png files, resources.arsc is stored
+   */
+  public void writeApk(File apk) throws IOException {
+    Table table = generate();
+    ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(apk)));
+    try {
+      putStored(out, "AndroidManifest.xml", new byte[] { 0x03, 0x00, 0x08, 0x00 });
+      putStored(out, "resources.arsc", table.arsc);
+      for (Map.Entry<String, byte[]> file : table.files.entrySet()) {
+        if (file.getKey().endsWith(".png")) {
+          putStored(out, file.getKey(), file.getValue());
+        } else {
+          ZipEntry entry = new ZipEntry(file.getKey());
+          entry.setTime(ENTRY_TIME);
+          out.putNextEntry(entry);
+          out.write(file.getValue());
+          out.closeEntry();
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return the resources.arsc of the apk
+   */
+  public byte[] writeArsc() {
+    return generate().arsc;
+  }
+
+  /**
+   * @return the type names of a package, in the order of the type ids
+   */
+  public List<String> getTypeNames() {
+    List<String> names = new ArrayList<>(mTypeCount);
+    for (int i = 0; i < mTypeCount; i++) {
+      names.add(typeName(i));
+    }
+    return names;
+  }
+
+  private Table generate() {
+    Random random = new Random(mSeed);
+    Table table = new Table();
+    List<byte[]> packages = new ArrayList<>(mPackageCount);
+    for (int i = 0; i < mPackageCount; i++) {
+      packages.add(generatePackage(i, random, table));
+    }
+
+    byte[] tablePool = stringPool(table.strings, mUtf8);
+    int size = TABLE_HEADER_SIZE + tablePool.length;
+    for (byte[] pkg : packages) {
+      size += pkg.length;
+    }
+    ByteBuffer chunk = chunk(ARSCDecoder.Header.TYPE_TABLE, TABLE_HEADER_SIZE, size);
+    chunk.putInt(mPackageCount);
+    chunk.put(tablePool);
+    for (byte[] pkg : packages) {
+      chunk.put(pkg);
+    }
+    table.arsc = chunk.array();
+    return table;
+  }
+
+  private byte[] generatePackage(int index, Random random, Table table) {
+    List<String> keys = new ArrayList<>();
+    ByteArrayOutputStream types = new ByteArrayOutputStream();
+    for (int type = 0; type < mTypeCount; type++) {
+      int entryCount = entriesOfType(index * mTypeCount + type);
+      int firstKey = keys.size();
+      for (int i = 0; i < entryCount; i++) {
+        keys.add(keyName(random, index, i));
+      }
+      write(types, typeSpec(type + 1, entryCount));
+      for (int config = 0; config < mConfigCount; config++) {
+        write(types, type(type, config, firstKey, keys, entryCount, random, table));
+      }
+    }
+
+    byte[] typePool = stringPool(getTypeNames(), mUtf8);
+    byte[] keyPool = stringPool(keys, mUtf8);
+    int size = PACKAGE_HEADER_SIZE + typePool.length + keyPool.length + types.size();
+    ByteBuffer chunk = chunk(ARSCDecoder.Header.TYPE_PACKAGE, PACKAGE_HEADER_SIZE, size);
+    chunk.putInt(0x7f - index);
+    String name = index == 0 ? PACKAGE_NAME : PACKAGE_NAME + ".lib" + index;
+    for (int i = 0; i < 128; i++) {
+      chunk.putChar(i < name.length() ? name.charAt(i) : 0);
+    }
+    chunk.putInt(PACKAGE_HEADER_SIZE);
+    chunk.putInt(mTypeCount);
+    chunk.putInt(PACKAGE_HEADER_SIZE + typePool.length);
+    chunk.putInt(keys.size());
+    /* typeIdOffset */
+    chunk.putInt(0);
+    chunk.put(typePool).put(keyPool).put(types.toByteArray());
+    return chunk.array();
+  }
+
+  private byte[] type(
+      int type, int config, int firstKey, List<String> keys, int entryCount, Random random, Table table) {
+    Kind kind = KINDS[type % KINDS.length];
+    String dir = "res/" + typeName(type) + qualifier(config);
+    int[] offsets = new int[entryCount];
+    ByteArrayOutputStream entries = new ByteArrayOutputStream();
+    for (int i = 0; i < entryCount; i++) {
+      // every entry has the default config, the other configs only have some of them
+      if (config != 0 && random.nextDouble() >= mConfigEntryRatio) {
+        offsets[i] = NO_ENTRY;
+        continue;
+      }
+      offsets[i] = entries.size();
+      int key = firstKey + i;
+      if (kind.name.equals("style")) {
+        ByteBuffer entry = ByteBuffer.allocate(COMPLEX_ENTRY_SIZE + 2 * (4 + VALUE_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putShort((short) COMPLEX_ENTRY_SIZE).putShort(ARSCDecoder.ENTRY_FLAG_COMPLEX).putInt(key);
+        /* parent */
+        entry.putInt(0);
+        entry.putInt(2);
+        for (int attr = 0; attr < 2; attr++) {
+          entry.putInt(0x01010000 + random.nextInt(0x400));
+          value(entry, TypedValue.TYPE_INT_DEC, random.nextInt());
+        }
+        write(entries, entry.array());
+        continue;
+      }
+      int valueType = kind.valueType;
+      int data;
+      if (kind.extension != null) {
+        String path = dir + "/" + keys.get(key) + kind.extension;
+        data = table.addString(path);
+        table.files.put(path, fileContents(random, table));
+        valueType = TypedValue.TYPE_STRING;
+      } else if (valueType == TypedValue.TYPE_STRING) {
+        data = table.addString(text(random));
+      } else {
+        data = random.nextInt();
+      }
+      ByteBuffer entry = ByteBuffer.allocate(SIMPLE_ENTRY_SIZE + VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      entry.putShort((short) SIMPLE_ENTRY_SIZE).putShort((short) 0).putInt(key);
+      value(entry, valueType, data);
+      write(entries, entry.array());
+    }
+
+    int entriesStart = TYPE_HEADER_SIZE + 4 * entryCount;
+    ByteBuffer chunk = chunk(ARSCDecoder.Header.TYPE_TYPE, TYPE_HEADER_SIZE, entriesStart + entries.size());
+    chunk.put((byte) (type + 1)).put((byte) 0).putShort((short) 0);
+    chunk.putInt(entryCount);
+    chunk.putInt(entriesStart);
+    config(chunk, config);
+    for (int offset : offsets) {
+      chunk.putInt(offset);
+    }
+    chunk.put(entries.toByteArray());
+    return chunk.array();
+  }
+
+  private byte[] fileContents(Random random, Table table) {
+    if (!table.contents.isEmpty() && random.nextDouble() < mDuplicateRatio) {
+      return table.contents.get(random.nextInt(table.contents.size()));
+    }
+    byte[] contents = new byte[mMinFileSize + random.nextInt(mMaxFileSize - mMinFileSize + 1)];
+    // half random and half zero, so the files are neither incompressible nor empty
+    byte[] noise = new byte[contents.length / 2];
+    random.nextBytes(noise);
+    System.arraycopy(noise, 0, contents, 0, noise.length);
+    table.contents.add(contents);
+    return contents;
+  }
+
+  private int entriesOfType(int globalType) {
+    int types = mPackageCount * mTypeCount;
+    return mEntryCount / types + (globalType < mEntryCount % types ? 1 : 0);
+  }
+
+  private static String typeName(int type) {
+    String name = KINDS[type % KINDS.length].name;
+    return type < KINDS.length ? name : name + (type / KINDS.length);
+  }
+
+  private static String keyName(Random random, int pkg, int index) {
+    String word = WORDS[random.nextInt(WORDS.length)] + "_" + WORDS[random.nextInt(WORDS.length)];
+    return pkg == 0 ? word + "_" + index : word + "_" + index + "_lib" + pkg;
+  }
+
+  private static String text(Random random) {
+    StringBuilder text = new StringBuilder();
+    int words = 1 + random.nextInt(8);
+    for (int i = 0; i < words; i++) {
+      text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return text.toString();
+  }
+
+  /**
+   * config 0 is the default, then the densities, the languages and the languages with each density
+   */
+  private static String qualifier(int config) {
+    if (config == 0) {
+      return "";
+    }
+    config--;
+    if (config < DENSITIES.length) {
+      return "-" + DENSITY_NAMES[config];
+    }
+    config -= DENSITIES.length;
+    String language = LANGUAGES[config % LANGUAGES.length];
+    int density = config / LANGUAGES.length - 1;
+    return density < 0 ? "-" + language : "-" + language + "-" + DENSITY_NAMES[density];
+  }
+
+  private static void config(ByteBuffer chunk, int config) {
+    int start = chunk.position();
+    chunk.putInt(CONFIG_SIZE);
+    if (config > 0) {
+      int index = config - 1;
+      int density = 0;
+      String language = null;
+      if (index < DENSITIES.length) {
+        density = DENSITIES[index];
+      } else {
+        index -= DENSITIES.length;
+        language = LANGUAGES[index % LANGUAGES.length];
+        int densityIndex = index / LANGUAGES.length - 1;
+        density = densityIndex < 0 ? 0 : DENSITIES[densityIndex];
+      }
+      /* mcc, mnc */
+      chunk.putInt(0);
+      if (language != null) {
+        chunk.put((byte) language.charAt(0)).put((byte) language.charAt(1));
+      } else {
+        chunk.putShort((short) 0);
+      }
+      /* country, orientation, touchscreen */
+      chunk.putInt(0);
+      chunk.putShort((short) density);
+    }
+    chunk.position(start + CONFIG_SIZE);
+  }
+
+  private static byte[] typeSpec(int id, int entryCount) {
+    ByteBuffer chunk = chunk(ARSCDecoder.Header.TYPE_SPEC_TYPE, TYPE_SPEC_HEADER_SIZE,
+        TYPE_SPEC_HEADER_SIZE + 4 * entryCount
+    );
+    chunk.put((byte) id).put((byte) 0).putShort((short) 0);
+    chunk.putInt(entryCount);
+    // the config flags are all zero
+    return chunk.array();
+  }
+
+  private static void value(ByteBuffer entry, int type, int data) {
+    entry.putShort((short) VALUE_SIZE).put((byte) 0).put((byte) type).putInt(data);
+  }
+
+  /**
+   * @param strings the strings
+   * @param utf8    utf-8 or utf-16
+   * @return a string pool chunk without styles
+   */
+  public static byte[] stringPool(List<String> strings, boolean utf8) {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    int[] offsets = new int[strings.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = data.size();
+      String string = strings.get(i);
+      if (utf8) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeUtf8Length(data, string.length());
+        writeUtf8Length(data, bytes.length);
+        write(data, bytes);
+        data.write(0);
+      } else {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_16LE);
+        writeUtf16Length(data, string.length());
+        write(data, bytes);
+        data.write(0);
+        data.write(0);
+      }
+    }
+    while (data.size() % 4 != 0) {
+      data.write(0);
+    }
+    int stringsStart = STRING_POOL_HEADER_SIZE + 4 * offsets.length;
+    ByteBuffer pool = ByteBuffer.allocate(stringsStart + data.size()).order(ByteOrder.LITTLE_ENDIAN);
+    pool.putInt(StringBlock.CHUNK_STRINGPOOL_TYPE);
+    pool.putInt(pool.capacity());
+    pool.putInt(offsets.length);
+    /* styleCount */
+    pool.putInt(0);
+    pool.putInt(utf8 ? StringBlock.UTF8_FLAG : 0);
+    pool.putInt(stringsStart);
+    /* stylesStart */
+    pool.putInt(0);
+    for (int offset : offsets) {
+      pool.putInt(offset);
+    }
+    pool.put(data.toByteArray());
+    return pool.array();
+  }
+
+  private static void writeUtf8Length(ByteArrayOutputStream out, int length) {
+    if (length > 0x7f) {
+      out.write((length >> 8) | 0x80);
+    }
+    out.write(length & 0xff);
+  }
+
+  private static void writeUtf16Length(ByteArrayOutputStream out, int length) {
+    if (length > 0x7fff) {
+      int high = (length >> 16) | 0x8000;
+      out.write(high & 0xff);
+      out.write(high >> 8);
+    }
+    out.write(length & 0xff);
+    out.write((length >> 8) & 0xff);
+  }
+
+  private static ByteBuffer chunk(short type, int headerSize, int size) {
+    ByteBuffer chunk = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    chunk.putShort(type).putShort((short) headerSize).putInt(size);
+    return chunk;
+  }
+
+  private static void putStored(ZipOutputStream out, String name, byte[] data) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    entry.setTime(ENTRY_TIME);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(data.length);
+    entry.setCompressedSize(data.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(data);
+    out.closeEntry();
+  }
+
+  private static void write(ByteArrayOutputStream out, byte[] data) {
+    out.write(data, 0, data.length);
+  }
+
+  private static class Kind {
+    final String name;
+    /**
+     * the extension of the res files, null for a value type
+     */
+    final String extension;
+    final int valueType;
+
+    Kind(String name, String extension, int valueType) {
+      this.name = name;
+      this.extension = extension;
+      this.valueType = valueType;
+    }
+  }
+
+  private static class Table {
+    final List<String> strings = new ArrayList<>();
+    final Map<String, byte[]> files = new LinkedHashMap<>();
+    final List<byte[]> contents = new ArrayList<>();
+    byte[] arsc;
+
+    int addString(String string) {
+      strings.add(string);
+      return strings.size() - 1;
+    }
+  }
+
+  public static class Builder {
+    private long seed = 1;
+    private int packageCount = 1;
+    private int typeCount = KINDS.length;
+    private int entryCount = 10000;
+    private int configCount = 8;
+    private double configEntryRatio = 0.25;
+    private double duplicateRatio = 0.05;
+    private boolean utf8 = true;
+    private int minFileSize = 64;
+    private int maxFileSize = 1024;
+
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public Builder setPackageCount(int packageCount) {
+      this.packageCount = Math.max(1, packageCount);
+      return this;
+    }
+
+    /**
+     * @param typeCount types of every package, beyond the common ones they are named drawable1, layout1 ...
+     */
+    public Builder setTypeCount(int typeCount) {
+      this.typeCount = Math.max(1, Math.min(typeCount, 0xff));
+      return this;
+    }
+
+    /**
+     * @param entryCount entries of all the packages, spread evenly over the types
+     */
+    public Builder setEntryCount(int entryCount) {
+      this.entryCount = entryCount;
+      return this;
+    }
+
+    /**
+     * @param configCount configs of every type including the default, at most {@code 6 + 30 * 7}
+     */
+    public Builder setConfigCount(int configCount) {
+      this.configCount = Math.max(1, configCount);
+      return this;
+    }
+
+    /**
+     * @param configEntryRatio chance of an entry to have a value in a config besides the default
+     */
+    public Builder setConfigEntryRatio(double configEntryRatio) {
+      this.configEntryRatio = configEntryRatio;
+      return this;
+    }
+
+    /**
+     * @param duplicateRatio chance of a res file to have the same contents as an earlier one
+     */
+    public Builder setDuplicateRatio(double duplicateRatio) {
+      this.duplicateRatio = duplicateRatio;
+      return this;
+    }
+
+    public Builder setUtf8(boolean utf8) {
+      this.utf8 = utf8;
+      return this;
+    }
+
+    public Builder setFileSize(int minFileSize, int maxFileSize) {
+      this.minFileSize = minFileSize;
+      this.maxFileSize = maxFileSize;
+      return this;
+    }
+
+    public SyntheticApkGenerator create() {
+      return new SyntheticApkGenerator(this);
+    }
+  }
+}
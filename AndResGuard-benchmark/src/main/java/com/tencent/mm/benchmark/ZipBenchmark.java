@@ -0,0 +1,94 @@
+package com.tencent.mm.benchmark;
+
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.FileOperation;
+import com.tencent.mm.util.Md5Util;
+import com.tencent.mm.util.ZipCompressor;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Unzipping the apk, zipping the resguarded files again and the md5 of the res files that merges the duplicates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipBenchmark {
+  @Param({ "1000", "10000" })
+  public int entryCount;
+
+  private File mWorkDir;
+  private File mApk;
+  private File mUnzipDir;
+  private List<File> mFiles;
+  private HashMap<String, Integer> mCompressData;
+  private File[] mResFiles;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    mWorkDir = Files.createTempDirectory("zip-benchmark").toFile();
+    mApk = new File(mWorkDir, "synthetic.apk");
+    new SyntheticApkGenerator.Builder().setEntryCount(entryCount).create().writeApk(mApk);
+    mUnzipDir = new File(mWorkDir, "unzip");
+    mCompressData = FileOperation.unZipAPk(mApk.getAbsolutePath(), mUnzipDir.getAbsolutePath());
+    mFiles = Arrays.asList(mUnzipDir.listFiles());
+    mResFiles = new File(mUnzipDir, "res/drawable").listFiles();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    FileOperation.deleteDir(mWorkDir);
+  }
+
+  @Benchmark
+  public HashMap<String, Integer> unZipApk() throws Exception {
+    File outDir = new File(mWorkDir, "unzip-again");
+    FileOperation.deleteDir(outDir);
+    return FileOperation.unZipAPk(mApk.getAbsolutePath(), outDir.getAbsolutePath());
+  }
+
+  @Benchmark
+  public long zipFiles() throws Exception {
+    File zip = new File(mWorkDir, "zip-files.apk");
+    FileOperation.zipFiles(mFiles, mUnzipDir, zip, mCompressData);
+    return zip.length();
+  }
+
+  @Benchmark
+  public int zipFilesWithCompressor() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FileOperation.zipFiles(mFiles, mUnzipDir, out, mCompressData,
+        new ZipCompressor(InputParam.CompressionLevel.DEFAULT, 1), 4
+    );
+    return out.size();
+  }
+
+  @Benchmark
+  public void md5(Blackhole blackhole) {
+    for (File file : mResFiles) {
+      blackhole.consume(Md5Util.getMD5Str(file));
+    }
+  }
+}
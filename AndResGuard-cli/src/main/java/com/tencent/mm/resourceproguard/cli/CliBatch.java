@@ -0,0 +1,220 @@
+package com.tencent.mm.resourceproguard.cli;
+
+import com.tencent.mm.resourceproguard.Configuration;
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Resguards many apks with one config in one process. The parsed config, its patterns and the signer keys are
+ * shared by all the apks, every apk has its own output directory. The result of each apk is written to
+ * the summary file.
+ */
+public class CliBatch {
+  public static final String SUMMARY_FILE = "batch_summary.txt";
+
+  private final Configuration mConfig;
+  private final File mOutDir;
+  private final File mFinalApkDir;
+  private final InputParam.SignatureType mSignatureType;
+  private final int mParallelism;
+
+  /**
+   * @param config        shared by every apk, it must not be changed while running
+   * @param outDir        parent of the output directories, null for the running location
+   * @param finalApkDir   directory of the final apks, null to skip the backup
+   * @param signatureType signature type of every apk
+   * @param parallelism   apks in progress at the same time, the processor count if it is not positive
+   */
+  public CliBatch(
+      Configuration config, File outDir, File finalApkDir, InputParam.SignatureType signatureType, int parallelism) {
+    mConfig = config;
+    mOutDir = outDir;
+    mFinalApkDir = finalApkDir;
+    mSignatureType = signatureType;
+    mParallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * @param source a directory of apks, or a text file with one apk path per line, relative to the file.
+   *               empty lines and lines starting with # are ignored
+   * @return the apks in order
+   */
+  public static List<File> collectApks(File source) throws IOException {
+    List<File> apks = new ArrayList<>();
+    if (source.isDirectory()) {
+      File[] files = source.listFiles();
+      if (files != null) {
+        Arrays.sort(files);
+        for (File file : files) {
+          if (file.isFile() && file.getName().endsWith(".apk")) {
+            apks.add(file);
+          }
+        }
+      }
+      return apks;
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source),
+        StandardCharsets.UTF_8
+    ));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        File apk = new File(line);
+        apks.add(apk.isAbsolute() ? apk : new File(source.getAbsoluteFile().getParentFile(), line));
+      }
+    } finally {
+      reader.close();
+    }
+    return apks;
+  }
+
+  /**
+   * @param apks       the apks to resguard
+   * @param summaryDir directory of the summary file
+   * @return whether all the apks succeed
+   * @throws IOException two apks have the same file name, their outputs would overwrite each other
+   */
+  public boolean run(List<File> apks, File summaryDir) throws IOException {
+    checkNames(apks);
+    Log.i("[AndResGuard] batch of %d apks, parallelism %d", apks.size(), mParallelism);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(mParallelism, apks.size())));
+    List<Future<Result>> futures = new ArrayList<>(apks.size());
+    List<Result> results = new ArrayList<>(apks.size());
+    try {
+      for (final File apk : apks) {
+        futures.add(executor.submit(new Callable<Result>() {
+          @Override
+          public Result call() {
+            return resguard(apk);
+          }
+        }));
+      }
+      for (Future<Result> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted while waiting for the batch", e);
+        } catch (ExecutionException e) {
+          throw new IOException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return writeSummary(results, summaryDir);
+  }
+
+  /**
+   * the output directory and the final apk are named after the apk, the case is ignored for the file systems
+   * which ignore it
+   */
+  private static void checkNames(List<File> apks) throws IOException {
+    Map<String, File> names = new HashMap<>();
+    for (File apk : apks) {
+      File other = names.put(apk.getName().toLowerCase(Locale.ROOT), apk);
+      if (other != null) {
+        throw new IOException(String.format("the batch has two apks named %s: %s and %s, rename one of them",
+            apk.getName(),
+            other.getAbsolutePath(),
+            apk.getAbsolutePath()
+        ));
+      }
+    }
+  }
+
+  private Result resguard(File apk) {
+    long begin = System.currentTimeMillis();
+    String name = apk.getName();
+    String baseName = name.endsWith(".apk") ? name.substring(0, name.length() - ".apk".length()) : name;
+    File outDir = mOutDir != null ? new File(mOutDir, baseName) : null;
+    File finalApk = mFinalApkDir != null ? new File(mFinalApkDir, name) : null;
+    // every apk owns a Main, they only share the read-only config
+    Throwable error = null;
+    try {
+      outDir = new CliMain().resguardWithConfig(mConfig, outDir, finalApk, apk.getAbsolutePath(), mSignatureType);
+    } catch (Exception e) {
+      Log.e(e);
+      error = e;
+    }
+    return new Result(apk, outDir, error, System.currentTimeMillis() - begin);
+  }
+
+  private static boolean writeSummary(List<Result> results, File summaryDir) throws IOException {
+    if (!summaryDir.exists() && !summaryDir.mkdirs()) {
+      throw new IOException("can not create the summary directory " + summaryDir.getAbsolutePath());
+    }
+    File summary = new File(summaryDir, SUMMARY_FILE);
+    int failed = 0;
+    PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(summary), StandardCharsets.UTF_8));
+    try {
+      writer.println("# apk\tresult\tseconds\toutput\terror");
+      for (Result result : results) {
+        if (result.error != null) {
+          failed++;
+        }
+        writer.printf("%s\t%s\t%.3f\t%s\t%s\n",
+            result.apk.getAbsolutePath(),
+            result.error == null ? "ok" : "failed",
+            result.costMs / 1000.0,
+            result.outDir == null ? "" : result.outDir.getAbsolutePath(),
+            result.error == null ? "" : describe(result.error)
+        );
+      }
+    } finally {
+      writer.close();
+    }
+    Log.i("[AndResGuard] batch result: %d ok, %d failed, summary %s",
+        results.size() - failed,
+        failed,
+        summary.getAbsolutePath()
+    );
+    return failed == 0;
+  }
+
+  private static String describe(Throwable error) {
+    StringBuilder sb = new StringBuilder(String.valueOf(error.getMessage()));
+    for (Throwable cause = error.getCause(); cause != null; cause = cause.getCause()) {
+      sb.append(": ").append(cause.getMessage());
+    }
+    return sb.toString().replace('\n', ' ').replace('\t', ' ');
+  }
+
+  private static class Result {
+    final File apk;
+    final File outDir;
+    final Throwable error;
+    final long costMs;
+
+    Result(File apk, File outDir, Throwable error, long costMs) {
+      this.apk = apk;
+      this.outDir = outDir;
+      this.error = error;
+      this.costMs = costMs;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package com.tencent.mm.resourceproguard.cli;
+
+import com.tencent.mm.resourceproguard.Main;
+import com.tencent.mm.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the cli jobs in a warm process. The client sends its working directory and arguments to the localhost
+ * port, the daemon runs them on a shared pool and replies with the exit code, the logs stay in the daemon output.
+ * The parsed configs and the signer keys are cached by the process, so only the first job pays for them.
+ * The port is open to every local user, so a client first sends the token the daemon writes to a file only its
+ * owner can read, and the tool paths which the daemon would execute can not be sent.
+ */
+public class CliDaemon {
+  private static final int MAGIC = 0x41524744;
+  private static final int MAX_ARGS = 256;
+  private static final int TOKEN_BYTES = 32;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final int mPort;
+  private final ExecutorService mExecutor;
+  private byte[] mToken;
+
+  public CliDaemon(int port) {
+    this(port, Runtime.getRuntime().availableProcessors());
+  }
+
+  public CliDaemon(int port, int threads) {
+    mPort = port;
+    mExecutor = Executors.newFixedThreadPool(Math.max(1, threads));
+  }
+
+  /**
+   * accept the jobs until the process is killed, only the connections from localhost are accepted
+   */
+  public void serve() throws IOException {
+    ServerSocket server = new ServerSocket(mPort, 50, InetAddress.getLoopbackAddress());
+    mToken = writeToken(mPort);
+    Log.i("[AndResGuard] daemon is listening on %s", server.getLocalSocketAddress());
+    try {
+      while (true) {
+        final Socket socket = server.accept();
+        mExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            handle(socket);
+          }
+        });
+      }
+    } finally {
+      server.close();
+      mExecutor.shutdown();
+    }
+  }
+
+  private void handle(Socket socket) {
+    try {
+      try {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != MAGIC) {
+          throw new IOException("not an AndResGuard client");
+        }
+        if (!MessageDigest.isEqual(mToken, in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+          throw new IOException("the client does not have the token of the daemon");
+        }
+        File workingDir = new File(in.readUTF());
+        int argCount = in.readInt();
+        if (argCount < 0 || argCount > MAX_ARGS) {
+          throw new IOException(String.format("bad argument count %d", argCount));
+        }
+        String[] args = new String[argCount];
+        for (int i = 0; i < args.length; i++) {
+          args[i] = in.readUTF();
+        }
+        int errno;
+        if (hasToolPath(args)) {
+          Log.w("reject the job, a client can not give %s or %s", CliMain.ARG_7ZIP, CliMain.ARG_ZIPALIGN);
+          errno = Main.ERRNO_USAGE;
+        } else {
+          errno = runJob(workingDir, args);
+        }
+        out.writeInt(errno);
+        out.flush();
+      } finally {
+        socket.close();
+      }
+    } catch (IOException e) {
+      Log.e(e);
+    }
+  }
+
+  private static boolean hasToolPath(String[] args) {
+    for (String arg : args) {
+      if (arg.equals(CliMain.ARG_7ZIP) || arg.equals(CliMain.ARG_ZIPALIGN)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * write a new random token to the token file of the port, only the user can read it
+   *
+   * @return the token
+   */
+  private static byte[] writeToken(int port) throws IOException {
+    byte[] random = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(random);
+    StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+    for (byte b : random) {
+      token.append(HEX[(b >>> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+    File file = tokenFile(port);
+    File dir = file.getParentFile();
+    if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+      throw new IOException("can not create the daemon directory " + dir.getAbsolutePath());
+    }
+    restrictToOwner(dir);
+    file.delete();
+    if (!file.createNewFile()) {
+      throw new IOException("can not create the token file " + file.getAbsolutePath());
+    }
+    // the permissions are set before the token is written
+    restrictToOwner(file);
+    byte[] bytes = token.toString().getBytes(StandardCharsets.UTF_8);
+    Files.write(file.toPath(), bytes);
+    file.deleteOnExit();
+    return bytes;
+  }
+
+  private static void restrictToOwner(File file) throws IOException {
+    try {
+      Files.setPosixFilePermissions(file.toPath(),
+          PosixFilePermissions.fromString(file.isDirectory() ? "rwx------" : "rw-------")
+      );
+    } catch (UnsupportedOperationException e) {
+      // not a posix file system, such as windows
+      boolean restricted = file.setReadable(false, false) && file.setReadable(true, true)
+                           && file.setWritable(false, false) && file.setWritable(true, true);
+      if (!restricted) {
+        throw new IOException("can not restrict the access of " + file.getAbsolutePath());
+      }
+    }
+  }
+
+  private static File tokenFile(int port) {
+    return new File(new File(System.getProperty("user.home"), ".andresguard"), "daemon-" + port + ".token");
+  }
+
+  private static int runJob(File workingDir, String[] args) {
+    DaemonJob job = new DaemonJob(workingDir);
+    try {
+      job.run(args);
+      return 0;
+    } catch (JobExitException e) {
+      return e.errno;
+    } catch (RuntimeException e) {
+      Log.e(e);
+      return Main.ERRNO_ERRORS;
+    }
+  }
+
+  /**
+   * send a job to the daemon and wait for it
+   *
+   * @param port the port of the daemon
+   * @param args the same arguments as the cli, the relative paths are resolved against the current directory
+   * @return the exit code of the job
+   */
+  public static int submit(int port, String[] args) {
+    try {
+      String token = new String(Files.readAllBytes(tokenFile(port).toPath()), StandardCharsets.UTF_8);
+      Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      try {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(MAGIC);
+        out.writeUTF(token);
+        out.writeUTF(new File("").getAbsolutePath());
+        out.writeInt(args.length);
+        for (String arg : args) {
+          out.writeUTF(arg);
+        }
+        out.flush();
+        return new DataInputStream(socket.getInputStream()).readInt();
+      } finally {
+        socket.close();
+      }
+    } catch (IOException e) {
+      Log.e("can not run the job on the daemon of port %d: %s", port, e.getMessage());
+      return Main.ERRNO_ERRORS;
+    }
+  }
+
+  /**
+   * a cli run which ends the job instead of the process
+   */
+  private static class DaemonJob extends CliMain {
+    DaemonJob(File workingDir) {
+      mWorkingDir = workingDir;
+    }
+
+    @Override
+    protected void exit(int errno) {
+      throw new JobExitException(errno);
+    }
+  }
+
+  private static class JobExitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int errno;
+
+    JobExitException(int errno) {
+      super("exit " + errno);
+      this.errno = errno;
+    }
+  }
+}
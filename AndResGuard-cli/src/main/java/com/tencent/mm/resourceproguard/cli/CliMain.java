@@ -1,15 +1,24 @@
 package com.tencent.mm.resourceproguard.cli;
 
+import com.tencent.mm.androlib.AndrolibException;
 import com.tencent.mm.androlib.ResourceRepackage;
 import com.tencent.mm.resourceproguard.Configuration;
 import com.tencent.mm.resourceproguard.InputParam;
 import com.tencent.mm.resourceproguard.Main;
+import com.tencent.mm.util.BinaryMapping;
+import com.tencent.mm.util.CompressionCache;
+import com.tencent.mm.util.Log;
 import com.tencent.mm.util.TypedValue;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
 
@@ -22,28 +31,72 @@ public class CliMain extends Main {
   private static final String ARG_OUT = "-out";
   private static final String ARG_FINAL_APK_PATH = "-finalApkPath";
   private static final String ARG_CONFIG = "-config";
-  private static final String ARG_7ZIP = "-7zip";
-  private static final String ARG_ZIPALIGN = "-zipalign";
+  static final String ARG_7ZIP = "-7zip";
+  static final String ARG_ZIPALIGN = "-zipalign";
   private static final String ARG_SIGNATURE = "-signature";
   private static final String ARG_KEEPMAPPING = "-mapping";
   private static final String ARG_REPACKAGE = "-repackage";
   private static final String ARG_SIGNATURE_TYPE = "-signatureType";
+  private static final String ARG_COMPRESSION_LEVEL = "-compressionLevel";
+  private static final String ARG_COMPRESSION_CACHE = "-compressionCache";
+  private static final String ARG_DAEMON = "-daemon";
+  private static final String ARG_CLIENT = "-client";
+  private static final String ARG_BATCH = "-batch";
+  private static final String ARG_PARALLELISM = "-parallelism";
+  private static final String ARG_CHANNELS = "-channels";
+  private static final String ARG_LOG_LEVEL = "-logLevel";
+  private static final String ARG_MAPPING_TEXT = "-mappingText";
   private static final String VALUE_SIGNATURE_TYPE_V1 = "v1";
   private static final String VALUE_SIGNATURE_TYPE_V2 = "v2";
 
+  /**
+   * the configs parsed by the daemon, they are read only once they are created
+   */
+  private static final ConcurrentHashMap<String, Configuration> sConfigurations = new ConcurrentHashMap<>();
+
+  private long mBeginTime;
+  /**
+   * the relative paths of the arguments are resolved against it, the daemon sets the directory of the client
+   */
+  protected File mWorkingDir;
+
   public static void main(String[] args) {
-    mBeginTime = System.currentTimeMillis();
     CliMain m = new CliMain();
     setRunningLocation(m);
+    if (args.length == 2 && args[0].equals(ARG_DAEMON)) {
+      try {
+        new CliDaemon(parsePort(args[1])).serve();
+      } catch (IOException e) {
+        Log.e(e);
+        System.exit(ERRNO_ERRORS);
+      }
+      return;
+    }
+    if (args.length >= 2 && args[0].equals(ARG_CLIENT)) {
+      String[] jobArgs = new String[args.length - 2];
+      System.arraycopy(args, 2, jobArgs, 0, jobArgs.length);
+      System.exit(CliDaemon.submit(parsePort(args[1]), jobArgs));
+    }
     m.run(args);
   }
 
+  private static int parsePort(String port) {
+    try {
+      return Integer.parseInt(port);
+    } catch (NumberFormatException e) {
+      System.err.printf("bad port %s\n", port);
+      printUsage(System.err);
+      System.exit(ERRNO_USAGE);
+      return -1;
+    }
+  }
+
   private static void setRunningLocation(CliMain m) {
     mRunningLocation = m.getClass().getProtectionDomain().getCodeSource().getLocation().getPath();
     try {
       mRunningLocation = URLDecoder.decode(mRunningLocation, "utf-8");
     } catch (UnsupportedEncodingException e) {
-      e.printStackTrace();
+      Log.e(e);
     }
     if (mRunningLocation.endsWith(".jar")) {
       mRunningLocation = mRunningLocation.substring(0, mRunningLocation.lastIndexOf(File.separator) + 1);
@@ -88,6 +141,13 @@ public class CliMain extends Main {
         VALUE_SIGNATURE_TYPE_V2
     );
 
+    out.println("if you want to special the compression level, you can input:");
+    out.printf("Such as: java -jar %s input.apk %s default/best/extreme %s cache_directory\n",
+        command,
+        ARG_COMPRESSION_LEVEL,
+        ARG_COMPRESSION_CACHE
+    );
+
     out.println("if you want to special 7za or zipalign path, you can input:");
     out.println("Such as: java -jar "
                 + command
@@ -112,6 +172,22 @@ public class CliMain extends Main {
                 + " /home/shwenzhang/tools/7za "
                 + ARG_ZIPALIGN
                 + "/home/shwenzhang/sdk/tools/zipalign");
+    out.println("if you want to read a binary mapping, you can write its text mapping next to it:");
+    out.printf("Such as: java -jar %s %s resource_mapping_xxx.bin\n", command, ARG_MAPPING_TEXT);
+    out.println("if you want to resguard many apks with the same config, you can input a directory or a list file:");
+    out.printf("Such as: java -jar %s %s apk_directory_or_list_file %s 4 %s output_directory\n",
+        command,
+        ARG_BATCH,
+        ARG_PARALLELISM,
+        ARG_OUT
+    );
+    out.println("if you run many apks, you can start a daemon once and send the jobs to it:");
+    out.printf("Such as: java -jar %s %s 9527\n", command, ARG_DAEMON);
+    out.printf("Such as: java -jar %s %s 9527 input.apk %s yourconfig.xml\n", command, ARG_CLIENT, ARG_CONFIG);
+    out.printf("the client must be run by the same user and can not give %s or %s, the daemon uses the ones in its PATH\n",
+        ARG_7ZIP,
+        ARG_ZIPALIGN
+    );
     out.println("if you want to special the final apk path, you can input:");
     out.printf("Such as: java -jar %s input.apk %s final_apk_path\n", command, ARG_FINAL_APK_PATH);
     out.println();
@@ -129,7 +205,16 @@ public class CliMain extends Main {
         "set the 7zip path, such as /home/shwenzhang/tools/7za, window will be end of 7za.exe", ARG_ZIPALIGN,
         "set the zipalign, such as /home/shwenzhang/sdk/tools/zipalign, window will be end of zipalign.exe",
         ARG_REPACKAGE, "usually, when we build the channeles apk, it may destroy the 7zip.", "  ",
-        "so you may need to use 7zip to repackage the apk",
+        "so you may need to use 7zip to repackage the apk", ARG_COMPRESSION_LEVEL,
+        "set the compression level: default, best or extreme, extreme compresses in process instead of 7zip",
+        ARG_COMPRESSION_CACHE, "set the directory caching the compressed entries of the best and extreme level",
+        ARG_LOG_LEVEL, "set the log level: debug, info, warn or error, default is info",
+        ARG_MAPPING_TEXT, "write the text mapping of a binary mapping file next to it, then exit",
+        ARG_BATCH, "resguard every apk of the directory, or of the list file with one path per line, in one process",
+        ARG_PARALLELISM, "how many apks of the batch run at the same time, default is the processor count",
+        ARG_CHANNELS, "stamp a signed apk for every channel of the list file, one channel per line, from the built apk",
+        ARG_DAEMON, "listen on the localhost port, the jobs run in this process and share the parsed configs and keys",
+        ARG_CLIENT, "send the following arguments to the daemon on the localhost port, exit with the code of the job",
     });
     out.println();
     out.println("if you donot know how to write the config file, look at the comment in the default config.xml");
@@ -204,67 +289,154 @@ public class CliMain extends Main {
     return sb.toString();
   }
 
-  private void run(String[] args) {
-    synchronized (CliMain.class) {
-      if (args.length < 1) {
-        goToError();
-      }
-      final ReadArgs readArgs = new ReadArgs(args).invoke();
-      final File configFile = readArgs.getConfigFile();
-      final File signatureFile = readArgs.getSignatureFile();
-      final File mappingFile = readArgs.getMappingFile();
-      final String keypass = readArgs.getKeypass();
-      final String storealias = readArgs.getStorealias();
-      final String storepass = readArgs.getStorepass();
-      final String signedFile = readArgs.getSignedFile();
-      final File outputFile = readArgs.getOutputFile();
-      final File finalApkFile = readArgs.getFinalApkFile();
-      final String apkFileName = readArgs.getApkFileName();
-      final InputParam.SignatureType signatureType = readArgs.getSignatureType();
-      loadConfigFromXml(configFile, signatureFile, mappingFile, keypass, storealias, storepass);
-
-      //对于repackage模式，不管之前的东东，直接return
-      if (signedFile != null) {
-        ResourceRepackage repackage = new ResourceRepackage(config.mZipalignPath,
-            config.m7zipPath,
-            new File(signedFile)
-        );
-        try {
-          if (outputFile != null) {
-            repackage.setOutDir(outputFile);
-          }
-          repackage.repackageApk();
-        } catch (IOException | InterruptedException e) {
-          e.printStackTrace();
+  void run(String[] args) {
+    mBeginTime = System.currentTimeMillis();
+    if (args.length < 1) {
+      goToError();
+    }
+    final ReadArgs readArgs = new ReadArgs(args).invoke();
+    final File configFile = readArgs.getConfigFile();
+    final File signatureFile = readArgs.getSignatureFile();
+    final File mappingFile = readArgs.getMappingFile();
+    final String keypass = readArgs.getKeypass();
+    final String storealias = readArgs.getStorealias();
+    final String storepass = readArgs.getStorepass();
+    final String signedFile = readArgs.getSignedFile();
+    final File outputFile = readArgs.getOutputFile();
+    final File finalApkFile = readArgs.getFinalApkFile();
+    final String apkFileName = readArgs.getApkFileName();
+    final InputParam.SignatureType signatureType = readArgs.getSignatureType();
+    // it only converts the file, no config is needed
+    if (readArgs.getBinaryMappingFile() != null) {
+      writeTextMapping(readArgs.getBinaryMappingFile());
+      return;
+    }
+    loadConfigFromXml(configFile, signatureFile, mappingFile, keypass, storealias, storepass,
+        readArgs.getCompressionLevel(), readArgs.getCompressionCacheDir(), readArgs.getChannelsFile(),
+        readArgs.getLogLevel()
+    );
+
+    //对于repackage模式，不管之前的东东，直接return
+    if (signedFile != null) {
+      ResourceRepackage repackage = new ResourceRepackage(config.mZipalignPath,
+          config.m7zipPath,
+          new File(signedFile)
+      );
+      try {
+        if (outputFile != null) {
+          repackage.setOutDir(outputFile);
         }
-        return;
+        repackage.setCompressionLevel(config.mCompressionLevel);
+        if (config.mCompressionCacheDir != null) {
+          repackage.setCompressionCache(new CompressionCache(config.mCompressionCacheDir,
+              config.mCompressionCacheSizeMb * 1024L * 1024L
+          ));
+        }
+        repackage.repackageApk();
+      } catch (IOException | InterruptedException e) {
+        Log.e(e);
+      }
+      return;
+    }
+    if (readArgs.getBatchSource() != null) {
+      File summaryDir = outputFile != null ? outputFile : new File(mRunningLocation);
+      CliBatch batch = new CliBatch(config, outputFile, finalApkFile, signatureType, readArgs.getParallelism());
+      boolean success = false;
+      try {
+        success = batch.run(CliBatch.collectApks(readArgs.getBatchSource()), summaryDir);
+      } catch (IOException e) {
+        Log.e(e);
       }
-      System.out.printf("[AndResGuard] begin: %s, %s, %s\n", outputFile, finalApkFile, apkFileName);
+      Log.i("[AndResGuard] batch done, total time cost: %fs", diffTimeFromBegin());
+      clean();
+      if (!success) {
+        exit(ERRNO_ERRORS);
+      }
+      return;
+    }
+    Log.i("[AndResGuard] begin: %s, %s, %s", outputFile, finalApkFile, apkFileName);
+    try {
       resourceProguard(outputFile, finalApkFile, apkFileName, signatureType);
-      System.out.printf("[AndResGuard] done, total time cost: %fs\n", diffTimeFromBegin());
-      System.out.printf("[AndResGuard] done, you can go to file to find the output %s\n", mOutDir.getAbsolutePath());
+    } catch (AndrolibException e) {
+      Log.e(e);
+      exit(ERRNO_ERRORS);
+    }
+    Log.i("[AndResGuard] done, total time cost: %fs", diffTimeFromBegin());
+    Log.i("[AndResGuard] done, you can go to file to find the output %s", mOutDir.getAbsolutePath());
+    clean();
+  }
+
+  private void writeTextMapping(File binaryMapping) {
+    String name = binaryMapping.getName();
+    if (name.endsWith(TypedValue.BIN_FILE)) {
+      name = name.substring(0, name.length() - TypedValue.BIN_FILE.length());
+    }
+    File text = new File(binaryMapping.getAbsoluteFile().getParentFile(), name + TypedValue.TXT_FILE);
+    try {
+      BinaryMapping.writeText(binaryMapping, text);
+    } catch (IOException e) {
+      Log.e(e);
+      exit(ERRNO_ERRORS);
+      return;
+    }
+    Log.i("[AndResGuard] text mapping %s done", text.getAbsolutePath());
+  }
+
+  /**
+   * resguard one apk of a batch with the shared config
+   *
+   * @return the output directory
+   */
+  File resguardWithConfig(
+      Configuration config, File outputFile, File finalApkFile, String apkFileName,
+      InputParam.SignatureType signatureType) throws AndrolibException {
+    this.config = config;
+    try {
+      resourceProguard(outputFile, finalApkFile, apkFileName, signatureType);
+      return mOutDir;
+    } finally {
       clean();
     }
   }
 
   private void loadConfigFromXml(
-      File configFile, File signatureFile, File mappingFile, String keypass, String storealias, String storepass) {
+      File configFile, File signatureFile, File mappingFile, String keypass, String storealias, String storepass,
+      InputParam.CompressionLevel compressionLevel, File compressionCacheDir, File channelsFile,
+      Log.Level logLevel) {
     if (configFile == null) {
       configFile = new File(mRunningLocation + File.separator + TypedValue.CONFIG_FILE);
       if (!configFile.exists()) {
         System.err.printf("the config file %s does not exit", configFile.getAbsolutePath());
-        printUsage(System.err);
-        System.exit(ERRNO_USAGE);
+        goToError();
       }
     }
+    //不需要检查命令行的设置
+    if (!mSetSignThroughCmd) {
+      signatureFile = null;
+    }
+    if (!mSetMappingThroughCmd) {
+      mappingFile = null;
+    }
+    // the files are part of the key, so an edited config or mapping is parsed again
+    String cacheKey = String.format("%s|%s|%s|%s|%s|%s|%s|%s|%s|%s|%s|%s",
+        fileKey(configFile),
+        fileKey(mappingFile),
+        fileKey(signatureFile),
+        fileKey(channelsFile),
+        keypass,
+        storealias,
+        storepass,
+        m7zipPath,
+        mZipalignPath,
+        compressionLevel,
+        compressionCacheDir,
+        logLevel
+    );
+    config = sConfigurations.get(cacheKey);
+    if (config != null) {
+      return;
+    }
     try {
-      //不需要检查命令行的设置
-      if (!mSetSignThroughCmd) {
-        signatureFile = null;
-      }
-      if (!mSetMappingThroughCmd) {
-        mappingFile = null;
-      }
       config = new Configuration(configFile,
           m7zipPath,
           mZipalignPath,
@@ -275,9 +447,51 @@ public class CliMain extends Main {
           storepass
       );
     } catch (IOException | ParserConfigurationException | SAXException e) {
-      e.printStackTrace();
+      Log.e(e);
       goToError();
     }
+    if (compressionLevel != null) {
+      config.mCompressionLevel = compressionLevel;
+    }
+    if (compressionCacheDir != null) {
+      config.mCompressionCacheDir = compressionCacheDir;
+    }
+    if (logLevel != null) {
+      config.mLogLevel = logLevel;
+    }
+    if (channelsFile != null) {
+      try {
+        config.mChannels = new ArrayList<>();
+        for (String channel : readLines(channelsFile)) {
+          config.mChannels.add(Configuration.checkChannel(channel));
+        }
+      } catch (IOException e) {
+        Log.e(e);
+        goToError();
+      }
+    }
+    sConfigurations.put(cacheKey, config);
+  }
+
+  /**
+   * @return the lines which are not empty and not starting with #
+   */
+  private static List<String> readLines(File file) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private static String fileKey(File file) {
+    if (file == null) {
+      return "";
+    }
+    return file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length();
   }
 
   public double diffTimeFromBegin() {
@@ -287,7 +501,22 @@ public class CliMain extends Main {
 
   protected void goToError() {
     printUsage(System.err);
-    System.exit(ERRNO_USAGE);
+    exit(ERRNO_USAGE);
+  }
+
+  /**
+   * stop the process, the daemon stops the job instead
+   */
+  protected void exit(int errno) {
+    System.exit(errno);
+  }
+
+  private File resolveFile(String path) {
+    File file = new File(path);
+    if (mWorkingDir == null || file.isAbsolute()) {
+      return file;
+    }
+    return new File(mWorkingDir, path);
   }
 
   private class ReadArgs {
@@ -302,7 +531,14 @@ public class CliMain extends Main {
     private String storealias;
     private String storepass;
     private InputParam.SignatureType signatureType = InputParam.SignatureType.SchemaV1;
+    private InputParam.CompressionLevel compressionLevel;
+    private File compressionCacheDir;
     private String signedFile;
+    private File batchSource;
+    private File channelsFile;
+    private int parallelism;
+    private Log.Level logLevel;
+    private File binaryMappingFile;
 
     public ReadArgs(String[] args) {
       this.args = args;
@@ -348,10 +584,38 @@ public class CliMain extends Main {
       return signatureType;
     }
 
+    public InputParam.CompressionLevel getCompressionLevel() {
+      return compressionLevel;
+    }
+
+    public File getCompressionCacheDir() {
+      return compressionCacheDir;
+    }
+
     public String getSignedFile() {
       return signedFile;
     }
 
+    public File getBatchSource() {
+      return batchSource;
+    }
+
+    public File getChannelsFile() {
+      return channelsFile;
+    }
+
+    public int getParallelism() {
+      return parallelism;
+    }
+
+    public Log.Level getLogLevel() {
+      return logLevel;
+    }
+
+    public File getBinaryMappingFile() {
+      return binaryMappingFile;
+    }
+
     public ReadArgs invoke() {
       for (int index = 0; index < args.length; index++) {
         String arg = args[index];
@@ -362,34 +626,34 @@ public class CliMain extends Main {
             System.err.println("Missing XML configuration file argument");
             goToError();
           }
-          configFile = new File(args[++index]);
+          configFile = resolveFile(args[++index]);
           if (!configFile.exists()) {
             System.err.println(configFile.getAbsolutePath() + " does not exist");
             goToError();
           }
-          System.out.printf("special configFile file path: %s\n", configFile.getAbsolutePath());
+          Log.i("special configFile file path: %s", configFile.getAbsolutePath());
         } else if (arg.equals(ARG_OUT)) {
           if (index == args.length - 1) {
             System.err.println("Missing output file argument");
             goToError();
           }
-          outputFile = new File(args[++index]);
+          outputFile = resolveFile(args[++index]);
           File parent = outputFile.getParentFile();
           if (parent != null && (!parent.exists())) {
             parent.mkdirs();
           }
-          System.out.printf("special output directory path: %s\n", outputFile.getAbsolutePath());
+          Log.i("special output directory path: %s", outputFile.getAbsolutePath());
         } else if (arg.equals(ARG_FINAL_APK_PATH)) {
           if (index == args.length - 1) {
             System.err.println("Missing output file argument");
             goToError();
           }
-          finalApkFile = new File(args[++index]);
+          finalApkFile = resolveFile(args[++index]);
           File parent = finalApkFile.getParentFile();
           if (parent != null && (!parent.exists())) {
             parent.mkdirs();
           }
-          System.out.printf("special final apk file path: %s\n", finalApkFile.getAbsolutePath());
+          Log.i("special final apk file path: %s", finalApkFile.getAbsolutePath());
         } else if (arg.equals(ARG_SIGNATURE)) {
           //需要检查是否有四个参数
           if (index == args.length - 1) {
@@ -400,7 +664,7 @@ public class CliMain extends Main {
           }
 
           //在后面设置的时候会检查文件是否存在
-          signatureFile = new File(args[++index]);
+          signatureFile = resolveFile(args[++index]);
 
           if (index == args.length - 1) {
             System.err.println("Missing signature data argument, should be "
@@ -439,14 +703,52 @@ public class CliMain extends Main {
           } else {
             signatureType = InputParam.SignatureType.SchemaV1;
           }
+        } else if (arg.equals(ARG_COMPRESSION_LEVEL)) {
+          if (index == args.length - 1) {
+            System.err.println("Missing compression level argument");
+            goToError();
+          }
+          try {
+            compressionLevel = Configuration.parseCompressionLevel(args[++index]);
+          } catch (IOException e) {
+            System.err.println(e.getMessage());
+            goToError();
+          }
+        } else if (arg.equals(ARG_LOG_LEVEL)) {
+          if (index == args.length - 1) {
+            System.err.println("Missing log level argument");
+            goToError();
+          }
+          try {
+            logLevel = Configuration.parseLogLevel(args[++index]);
+          } catch (IOException e) {
+            System.err.println(e.getMessage());
+            goToError();
+          }
+        } else if (arg.equals(ARG_COMPRESSION_CACHE)) {
+          if (index == args.length - 1) {
+            System.err.println("Missing compression cache directory argument");
+            goToError();
+          }
+          compressionCacheDir = resolveFile(args[++index]);
         } else if (arg.equals(ARG_KEEPMAPPING)) {
           if (index == args.length - 1) {
             System.err.println("Missing mapping file argument");
             goToError();
           }
           //在后面设置的时候会检查文件是否存在
-          mappingFile = new File(args[++index]);
+          mappingFile = resolveFile(args[++index]);
           mSetMappingThroughCmd = true;
+        } else if (arg.equals(ARG_MAPPING_TEXT)) {
+          if (index == args.length - 1) {
+            System.err.println("Missing binary mapping file argument");
+            goToError();
+          }
+          binaryMappingFile = resolveFile(args[++index]);
+          if (!binaryMappingFile.isFile()) {
+            System.err.println(binaryMappingFile.getAbsolutePath() + " does not exist");
+            goToError();
+          }
         } else if (arg.equals(ARG_7ZIP)) {
           if (index == args.length - 1) {
             System.err.println("Missing 7zip path argument");
@@ -460,15 +762,46 @@ public class CliMain extends Main {
           }
 
           mZipalignPath = args[++index];
+        } else if (arg.equals(ARG_BATCH)) {
+          if (index == args.length - 1) {
+            System.err.println("Missing the apk directory or list file argument");
+            goToError();
+          }
+          batchSource = resolveFile(args[++index]);
+          if (!batchSource.exists()) {
+            System.err.println(batchSource.getAbsolutePath() + " does not exist");
+            goToError();
+          }
+        } else if (arg.equals(ARG_CHANNELS)) {
+          if (index == args.length - 1) {
+            System.err.println("Missing channel list file argument");
+            goToError();
+          }
+          channelsFile = resolveFile(args[++index]);
+          if (!channelsFile.isFile()) {
+            System.err.println(channelsFile.getAbsolutePath() + " does not exist");
+            goToError();
+          }
+        } else if (arg.equals(ARG_PARALLELISM)) {
+          if (index == args.length - 1) {
+            System.err.println("Missing parallelism argument");
+            goToError();
+          }
+          try {
+            parallelism = Integer.parseInt(args[++index]);
+          } catch (NumberFormatException e) {
+            System.err.println("bad parallelism " + args[index]);
+            goToError();
+          }
         } else if (arg.equals(ARG_REPACKAGE)) {
           //这个模式的话就直接干活了，不会再理其他命令！
           if (index == args.length - 1) {
             System.err.println("Missing the signed apk file argument");
             goToError();
           }
-          signedFile = args[++index];
+          signedFile = resolveFile(args[++index]).getPath();
         } else {
-          apkFileName = arg;
+          apkFileName = resolveFile(arg).getPath();
         }
       }
       return this;
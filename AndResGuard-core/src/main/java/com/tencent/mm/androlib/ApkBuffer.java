@@ -0,0 +1,149 @@
+package com.tencent.mm.androlib;
+
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An apk built in memory, it is signed straight from the buffer without copying it.
+ * Past the threshold the apk is spilled to a temp file and signed from that file, so a big apk neither doubles
+ * the heap nor hits the 2 GB limit of an array. {@link #close()} deletes the temp file.
+ */
+class ApkBuffer extends OutputStream {
+  static final int DEFAULT_SPILL_THRESHOLD = 64 * 1024 * 1024;
+  private static final int BUFFER = 64 * 1024;
+
+  private final File mSpillDir;
+  private final int mSpillThreshold;
+  private Memory mMemory;
+  private File mSpillFile;
+  private OutputStream mSpillOut;
+  private RandomAccessFile mSpillIn;
+
+  /**
+   * @param spillDir where the temp file is created once the apk gets bigger than the threshold
+   */
+  ApkBuffer(File spillDir) {
+    this(spillDir, 1024 * 1024);
+  }
+
+  ApkBuffer(File spillDir, int size) {
+    this(spillDir, size, DEFAULT_SPILL_THRESHOLD);
+  }
+
+  ApkBuffer(File spillDir, int size, int spillThreshold) {
+    mSpillDir = spillDir;
+    mSpillThreshold = spillThreshold;
+    mMemory = new Memory(Math.max(0, Math.min(size, spillThreshold)));
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (mMemory != null && mMemory.size() + 1 > mSpillThreshold) {
+      spill();
+    }
+    if (mMemory != null) {
+      mMemory.write(b);
+    } else {
+      mSpillOut.write(b);
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (mMemory != null && (long) mMemory.size() + len > mSpillThreshold) {
+      spill();
+    }
+    if (mMemory != null) {
+      mMemory.write(b, off, len);
+    } else {
+      mSpillOut.write(b, off, len);
+    }
+  }
+
+  boolean isSpilled() {
+    return mMemory == null;
+  }
+
+  /**
+   * @return the apk written so far, nothing must be written after it
+   */
+  DataSource asDataSource() throws IOException {
+    if (mMemory != null) {
+      return DataSources.asDataSource(mMemory.asByteBuffer());
+    }
+    finishSpill();
+    if (mSpillIn == null) {
+      mSpillIn = new RandomAccessFile(mSpillFile, "r");
+    }
+    return DataSources.asDataSource(mSpillIn);
+  }
+
+  void writeTo(File file) throws IOException {
+    if (mMemory != null) {
+      FileOutputStream out = new FileOutputStream(file, false);
+      try {
+        mMemory.writeTo(out);
+      } finally {
+        out.close();
+      }
+      return;
+    }
+    finishSpill();
+    Files.copy(mSpillFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (mSpillOut != null) {
+        mSpillOut.close();
+      }
+      if (mSpillIn != null) {
+        mSpillIn.close();
+      }
+    } finally {
+      mSpillOut = null;
+      mSpillIn = null;
+      if (mSpillFile != null && mSpillFile.exists() && !mSpillFile.delete()) {
+        mSpillFile.deleteOnExit();
+      }
+    }
+  }
+
+  private void spill() throws IOException {
+    if (!mSpillDir.exists() && !mSpillDir.mkdirs() && !mSpillDir.exists()) {
+      throw new IOException("can not create the directory " + mSpillDir.getAbsolutePath());
+    }
+    mSpillFile = File.createTempFile("apk-", ".tmp", mSpillDir);
+    mSpillOut = new BufferedOutputStream(new FileOutputStream(mSpillFile), BUFFER);
+    mMemory.writeTo(mSpillOut);
+    mMemory = null;
+  }
+
+  private void finishSpill() throws IOException {
+    if (mSpillOut != null) {
+      mSpillOut.close();
+      mSpillOut = null;
+    }
+  }
+
+  private static class Memory extends ByteArrayOutputStream {
+    Memory(int size) {
+      super(size);
+    }
+
+    ByteBuffer asByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
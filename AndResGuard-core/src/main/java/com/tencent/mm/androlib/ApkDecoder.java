@@ -2,11 +2,17 @@ package com.tencent.mm.androlib;
 
 import com.tencent.mm.androlib.res.data.ResPackage;
 import com.tencent.mm.androlib.res.decoder.ARSCDecoder;
+import com.tencent.mm.androlib.res.decoder.ConfigPruner;
 import com.tencent.mm.androlib.res.decoder.RawARSCDecoder;
 import com.tencent.mm.androlib.res.util.ExtFile;
 import com.tencent.mm.directory.DirectoryException;
+import com.tencent.mm.jfr.ArscEvent;
 import com.tencent.mm.resourceproguard.Configuration;
+import com.tencent.mm.util.CompressionCache;
 import com.tencent.mm.util.FileOperation;
+import com.tencent.mm.util.Log;
+import com.tencent.mm.util.Metrics;
+import com.tencent.mm.util.PngOptimizer;
 import com.tencent.mm.util.TypedValue;
 import com.tencent.mm.util.Utils;
 import java.io.File;
@@ -16,10 +22,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -37,8 +48,24 @@ public class ApkDecoder {
   private File mRawResFile;
   private File mOutTempDir;
   private File mResMappingFile;
+  private File mResMappingBinaryFile;
   private File mMergeDuplicatedResMappingFile;
   private HashMap<String, Integer> mCompressData;
+  /**
+   * state shared by the passes over resources.arsc, it belongs to this apk only
+   */
+  private final Map<Integer, String> mTableStringsResguard = new LinkedHashMap<>();
+  private HashMap<Integer, Set<String>> mExistTypeNames = new HashMap<>();
+  /**
+   * only read for the frequency naming
+   */
+  private HashMap<Integer, RawARSCDecoder.TypeEntries> mTypeEntries;
+  /**
+   * null unless some densities, locales or versions are pruned or the duplicated values merged
+   */
+  private ConfigPruner mConfigPruner;
+  private int mMergeDuplicatedResCount;
+  private Metrics mMetrics = new Metrics();
 
   public ApkDecoder(Configuration config, File apkFile) {
     this.config = config;
@@ -56,8 +83,12 @@ public class ApkDecoder {
       Path relativePath = resPath.relativize(path);
       Path dest = destPath.resolve(relativePath);
 
-      System.out.printf("copy res file not in resources.arsc file:%s\n", relativePath.toString());
+      Log.sample(Log.Level.INFO, "copy res file not in resources.arsc", "copy res file not in resources.arsc file:%s",
+          relativePath
+      );
       FileOperation.copyFileUsingStream(path.toFile(), dest.toFile());
+      mMetrics.count(Metrics.FILES_COPIED, 1);
+      mMetrics.count(Metrics.BYTES_COPIED, Files.size(path));
     }
   }
 
@@ -81,8 +112,11 @@ public class ApkDecoder {
     Utils.cleanDir(mOutDir);
 
     String unZipDest = new File(mOutDir, TypedValue.UNZIP_FILE_PATH).getAbsolutePath();
-    System.out.printf("unziping apk to %s\n", unZipDest);
+    Log.i("unziping apk to %s", unZipDest);
+    long start = mMetrics.start();
     mCompressData = FileOperation.unZipAPk(apkFile.getAbsoluteFile().getAbsolutePath(), unZipDest);
+    mMetrics.end(Metrics.UNZIP, start);
+    mMetrics.count(Metrics.APK_BYTES_READ, apkFile.length());
     dealWithCompressConfig();
     //将res混淆成r
     if (!config.mKeepRoot) {
@@ -98,6 +132,7 @@ public class ApkDecoder {
                            + File.separator
                            + "res");
     mOutTempDir = new File(mOutDir.getAbsoluteFile().getAbsolutePath() + File.separator + TypedValue.UNZIP_FILE_PATH);
+    pruneAbis();
 
     //这里纪录原始res目录的文件
     Files.walkFileTree(mRawResFile.toPath(), new ResourceFilesVisitor());
@@ -115,6 +150,11 @@ public class ApkDecoder {
                                + TypedValue.RES_MAPPING_FILE
                                + basename
                                + TypedValue.TXT_FILE);
+    mResMappingBinaryFile = new File(mOutDir.getAbsoluteFile().getAbsolutePath()
+                               + File.separator
+                               + TypedValue.RES_MAPPING_FILE
+                               + basename
+                               + TypedValue.BIN_FILE);
     mMergeDuplicatedResMappingFile = new File(mOutDir.getAbsoluteFile().getAbsolutePath()
                              + File.separator
                              + TypedValue.MERGE_DUPLICATED_RES_MAPPING_FILE
@@ -122,6 +162,76 @@ public class ApkDecoder {
                              + TypedValue.TXT_FILE);
   }
 
+  /**
+   * remove the native libs of the abis which are not kept, all of them stay if the apk has none of the kept ones
+   */
+  private void pruneAbis() {
+    if (config.mKeepAbis.isEmpty()) {
+      return;
+    }
+    File[] abiDirs = new File(mOutTempDir, "lib").listFiles();
+    if (abiDirs == null) {
+      return;
+    }
+    boolean hasKeptAbi = false;
+    for (File abiDir : abiDirs) {
+      if (config.mKeepAbis.contains(abiDir.getName())) {
+        hasKeptAbi = true;
+        break;
+      }
+    }
+    if (!hasKeptAbi) {
+      Log.w("the apk has none of the abis %s, its native libs are all kept", config.mKeepAbis);
+      return;
+    }
+    for (File abiDir : abiDirs) {
+      if (abiDir.isDirectory() && !config.mKeepAbis.contains(abiDir.getName())) {
+        Log.i("prune the native libs of %s", abiDir.getName());
+        mMetrics.count(Metrics.PRUNED_FILES, FileOperation.getlist(abiDir));
+        mMetrics.count(Metrics.PRUNED_BYTES, FileOperation.getFileSizes(abiDir));
+        FileOperation.deleteDir(abiDir);
+      }
+    }
+  }
+
+  /**
+   * delete the res files only the pruned configs have, they are neither resguarded nor copied
+   */
+  private void pruneResFiles() {
+    mMetrics.count(Metrics.PRUNED_CONFIGS, mConfigPruner.getPrunedChunkCount());
+    mMetrics.count(Metrics.PRUNED_ENTRIES, mConfigPruner.getPrunedEntryCount());
+    if (config.mMergeDuplicatedValues) {
+      mMetrics.count(Metrics.DUPLICATED_VALUES, mConfigPruner.getDuplicatedValueCount());
+      mMetrics.count(Metrics.DUPLICATED_VALUE_BYTES, mConfigPruner.getDuplicatedValueBytes());
+      Log.i("merged %d values the default config already has, %d bytes",
+          mConfigPruner.getDuplicatedValueCount(),
+          mConfigPruner.getDuplicatedValueBytes()
+      );
+    }
+    for (String path : mConfigPruner.getPrunedFiles()) {
+      File file = new File(mOutTempDir.getAbsolutePath() + File.separator + path);
+      if (!file.isFile()) {
+        continue;
+      }
+      mMetrics.count(Metrics.PRUNED_FILES, 1);
+      mMetrics.count(Metrics.PRUNED_BYTES, file.length());
+      removeCopiedResFile(file.toPath());
+      file.delete();
+    }
+    Log.i("pruned %d configs, %d entries and %d files",
+        mConfigPruner.getPrunedChunkCount(),
+        mConfigPruner.getPrunedEntryCount(),
+        mMetrics.getCount(Metrics.PRUNED_FILES)
+    );
+  }
+
+  /**
+   * @return the pruner the passes over resources.arsc share, null unless something is pruned
+   */
+  public ConfigPruner getConfigPruner() {
+    return mConfigPruner;
+  }
+
   /**
    * 根据config来修改压缩的值
    */
@@ -133,6 +243,7 @@ public class ApkDecoder {
           String name = entry.getKey();
           for (Iterator<Pattern> it = patterns.iterator(); it.hasNext(); ) {
             Pattern p = it.next();
+            mMetrics.count(Metrics.REGEX_EVALUATIONS, 1);
             if (p.matcher(name).matches()) {
               mCompressData.put(name, TypedValue.ZIP_DEFLATED);
             }
@@ -178,23 +289,150 @@ public class ApkDecoder {
     return mResMappingFile;
   }
 
+  public File getResMappingBinaryFile() {
+    return mResMappingBinaryFile;
+  }
+
   public File getMergeDuplicatedResMappingFile() {
     return mMergeDuplicatedResMappingFile;
   }
 
+  /**
+   * @return the proguard file paths of the table strings, key is the index in the table string pool
+   */
+  public Map<Integer, String> getTableStringsResguard() {
+    return mTableStringsResguard;
+  }
+
+  public Set<String> getExistTypeSpecNameStrings(int type) {
+    return mExistTypeNames.get(type);
+  }
+
+  /**
+   * @param key {@link RawARSCDecoder.TypeEntries#key(int)} of a res id of the type
+   * @return null unless the frequency naming is on
+   */
+  public RawARSCDecoder.TypeEntries getTypeEntries(int key) {
+    return mTypeEntries == null ? null : mTypeEntries.get(key);
+  }
+
+  public int getMergeDuplicatedResCount() {
+    return mMergeDuplicatedResCount;
+  }
+
+  public void setMergeDuplicatedResCount(int count) {
+    mMergeDuplicatedResCount = count;
+  }
+
+  public Metrics getMetrics() {
+    return mMetrics;
+  }
+
+  /**
+   * @param metrics the phases of the decoding are added to it
+   */
+  public void setMetrics(Metrics metrics) {
+    mMetrics = metrics;
+  }
+
   public void decode() throws AndrolibException, IOException, DirectoryException {
     if (hasResources()) {
       ensureFilePath();
       // read the resources.arsc checking for STORED vs DEFLATE compression
       // this will determine whether we compress on rebuild or not.
-      System.out.printf("decoding resources.arsc\n");
-      RawARSCDecoder.decode(apkFile.getDirectory().getFileInput("resources.arsc"));
+      Log.i("decoding resources.arsc");
+      File arscFile = new File(mOutTempDir, "resources.arsc");
+      ArscEvent event = new ArscEvent();
+      event.begin();
+      long start = mMetrics.start();
+      mTypeEntries = config.mUseFrequencyNaming ? new HashMap<Integer, RawARSCDecoder.TypeEntries>() : null;
+      int pruneMinSdk = config.mPruneBelowMinSdk ? config.mMinSdkVersion : 0;
+      if (!config.mKeepDensities.isEmpty() || !config.mKeepLocales.isEmpty() || pruneMinSdk > 0
+          || config.mMergeDuplicatedValues) {
+        mConfigPruner = new ConfigPruner(config.mKeepDensities,
+            config.mKeepLocales,
+            pruneMinSdk,
+            config.mMergeDuplicatedValues
+        );
+      }
+      mExistTypeNames = RawARSCDecoder.decode(apkFile.getDirectory().getFileInput("resources.arsc"),
+          mTypeEntries,
+          mConfigPruner
+      );
+      mMetrics.end(Metrics.RAW_DECODE, start);
+      if (mConfigPruner != null) {
+        pruneResFiles();
+      }
+      commit(event, ArscEvent.RAW_DECODE, 0, arscFile);
+
+      // the res files are copied while decoding, that time belongs to the copy phase
+      long copyNanos = mMetrics.getPhaseNanos(Metrics.COPY);
+      event = new ArscEvent();
+      event.begin();
+      start = mMetrics.start();
       ResPackage[] pkgs = ARSCDecoder.decode(apkFile.getDirectory().getFileInput("resources.arsc"), this);
+      mMetrics.addPhase(Metrics.OBFUSCATE,
+          System.nanoTime() - start - (mMetrics.getPhaseNanos(Metrics.COPY) - copyNanos)
+      );
+      commit(event, ArscEvent.DECODE, pkgs.length, arscFile);
 
       //把没有纪录在resources.arsc的资源文件也拷进dest目录
+      start = mMetrics.start();
       copyOtherResFiles();
+      mMetrics.end(Metrics.COPY, start);
 
+      event = new ArscEvent();
+      event.begin();
+      start = mMetrics.start();
       ARSCDecoder.write(apkFile.getDirectory().getFileInput("resources.arsc"), this, pkgs);
+      mMetrics.end(Metrics.WRITE_ARSC, start);
+      commit(event, ArscEvent.WRITE, pkgs.length, mOutARSCFile);
+      mMetrics.count(Metrics.ARSC_BYTES_READ, arscFile.length());
+      mMetrics.count(Metrics.ARSC_BYTES_WRITTEN, mOutARSCFile.length());
+
+      if (config.mOptimizePng) {
+        start = mMetrics.start();
+        optimizePngFiles();
+        mMetrics.end(Metrics.PNG, start);
+      }
+    }
+  }
+
+  /**
+   * recompress the png files of the output res dir before they are zipped
+   */
+  private void optimizePngFiles() throws IOException {
+    final List<File> pngFiles = new ArrayList<>();
+    Files.walkFileTree(mOutResFile.toPath(), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (file.getFileName().toString().endsWith(".png")) {
+          pngFiles.add(file.toFile());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    PngOptimizer optimizer = new PngOptimizer(config.mCompressionLevel);
+    if (config.mCompressionCacheDir != null) {
+      long maxSize = config.mCompressionCacheSizeMb * 1024L * 1024L;
+      optimizer.setCache(new CompressionCache(config.mCompressionCacheDir, maxSize));
+    }
+    optimizer.optimize(pngFiles, mMetrics);
+    Log.i("optimized %d of %d png files, %d bytes saved",
+        mMetrics.getCount(Metrics.PNG_OPTIMIZED),
+        pngFiles.size(),
+        mMetrics.getCount(Metrics.PNG_BYTES_SAVED)
+    );
+  }
+
+  private void commit(ArscEvent event, String stage, int packages, File arscFile) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.stage = stage;
+      event.packages = packages;
+      event.entries = mMetrics.getCount(Metrics.ENTRIES);
+      event.arscSize = arscFile.length();
+      event.commit();
     }
   }
 
@@ -0,0 +1,138 @@
+package com.tencent.mm.androlib;
+
+import com.android.apksig.ApkSigner;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.Md5Util;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Signs apks with the apksig api directly. The keystore is loaded once per JVM, the gradle plugin signs every
+ * variant with the same key, and the signed apk is written straight to its final path.
+ */
+public class ApkSignService {
+  /**
+   * by the path of the keystore, only its last version is kept
+   */
+  private static final ConcurrentHashMap<String, CachedKeystore> sKeystores = new ConcurrentHashMap<>();
+
+  private ApkSignService() {
+  }
+
+  /**
+   * load the key of the alias, the result is cached until the keystore file changes
+   *
+   * @param keystore  keystore file
+   * @param storePass keystore password
+   * @param alias     key alias, also the basename of the v1 signature files
+   * @param keyPass   key password
+   * @return the signer config
+   * @throws Exception keystore or key can not be loaded
+   */
+  public static ApkSigner.SignerConfig getSignerConfig(File keystore, String storePass, String alias, String keyPass)
+      throws Exception {
+    String path = keystore.getAbsolutePath();
+    long lastModified = keystore.lastModified();
+    long length = keystore.length();
+    CachedKeystore cached = sKeystores.get(path);
+    if (cached == null || cached.lastModified != lastModified || cached.length != length) {
+      // the keys of the older version are dropped with it
+      cached = new CachedKeystore(lastModified, length);
+      sKeystores.put(path, cached);
+    }
+    // the passwords are only kept as their digest, the daemon and the gradle workers live long
+    String cacheKey = alias + "|" + Md5Util.getMD5Str(storePass + "|" + keyPass);
+    ApkSigner.SignerConfig signerConfig = cached.signerConfigs.get(cacheKey);
+    if (signerConfig == null) {
+      signerConfig = loadSignerConfig(keystore, storePass, alias, keyPass);
+      cached.signerConfigs.put(cacheKey, signerConfig);
+    }
+    return signerConfig;
+  }
+
+  private static ApkSigner.SignerConfig loadSignerConfig(
+      File keystore, String storePass, String alias, String keyPass) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+    FileInputStream fileIn = new FileInputStream(keystore);
+    try {
+      keyStore.load(fileIn, storePass.toCharArray());
+    } finally {
+      fileIn.close();
+    }
+    Key key = keyStore.getKey(alias, keyPass.toCharArray());
+    if (!(key instanceof PrivateKey)) {
+      throw new RuntimeException("Can't get private key, please check if storepass storealias and keypass are correct");
+    }
+    Certificate[] chain = keyStore.getCertificateChain(alias);
+    if (chain == null || chain.length == 0) {
+      throw new RuntimeException(String.format("Can't get the certificate chain of %s in %s", alias, keystore));
+    }
+    List<X509Certificate> certs = new ArrayList<>(chain.length);
+    for (Certificate cert : chain) {
+      certs.add((X509Certificate) cert);
+    }
+    return new ApkSigner.SignerConfig.Builder(alias, (PrivateKey) key, certs).build();
+  }
+
+  /**
+   * @param unSignedApk   the unsigned apk, in memory or backed by a file
+   * @param signedApk     output file, it must not be the input one
+   * @param signerConfig  see {@link #getSignerConfig(File, String, String, String)}
+   * @param minSDKVersion min sdk version of the apk
+   * @param signatureType which schemes to sign with, v1 is always enabled
+   * @throws Exception sign failed
+   */
+  public static void sign(
+      DataSource unSignedApk, File signedApk, ApkSigner.SignerConfig signerConfig, int minSDKVersion,
+      InputParam.SignatureType signatureType) throws Exception {
+    // apksig keeps the alignment of the STORED entries when it copies them into the output
+    new ApkSigner.Builder(Collections.singletonList(signerConfig))
+        .setInputApk(unSignedApk)
+        .setOutputApk(signedApk)
+        .setOtherSignersSignaturesPreserved(false)
+        .setMinSdkVersion(minSDKVersion)
+        .setV1SigningEnabled(true)
+        .setV2SigningEnabled(signatureType != InputParam.SignatureType.SchemaV1)
+        .setV3SigningEnabled(signatureType == InputParam.SignatureType.SchemaV3)
+        .build()
+        .sign();
+  }
+
+  public static void sign(
+      File unSignedApk, File signedApk, ApkSigner.SignerConfig signerConfig, int minSDKVersion,
+      InputParam.SignatureType signatureType) throws Exception {
+    if (unSignedApk.getCanonicalPath().equals(signedApk.getCanonicalPath())) {
+      throw new IOException(String.format("can not sign the apk in place, path=%s", unSignedApk.getAbsolutePath()));
+    }
+    RandomAccessFile in = new RandomAccessFile(unSignedApk, "r");
+    try {
+      sign(DataSources.asDataSource(in), signedApk, signerConfig, minSDKVersion, signatureType);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static class CachedKeystore {
+    final long lastModified;
+    final long length;
+    final ConcurrentHashMap<String, ApkSigner.SignerConfig> signerConfigs = new ConcurrentHashMap<>();
+
+    CachedKeystore(long lastModified, long length) {
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.tencent.mm.androlib;
+
+import com.android.apksig.ApkSigner;
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.ZipReader;
+import com.tencent.mm.util.ZipWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stamps the channel apks from one built apk. Its entries are read once with their compressed payloads, each
+ * channel apk copies them as they are, adds the channel entry and is signed again. A channel costs the zip
+ * writing and the signing only, the decoding, resguarding and compressing are done once for all of them.
+ */
+public class ChannelPackager {
+  private static final int ZIP_ALIGNMENT = 4;
+  private static final String META_INF = "META-INF";
+
+  private final String mChannelEntry;
+  private final String mMetaName;
+  private final List<ZipReader.RawEntry> mEntries = new ArrayList<>();
+  private final int mApkSize;
+
+  /**
+   * @param apk          the built apk, signed or not
+   * @param channelEntry name of the entry holding the channel, such as META-INF/channel
+   * @param metaName     the meta directory of the config, its signature files are dropped as well
+   */
+  public ChannelPackager(File apk, String channelEntry, String metaName) throws IOException {
+    mChannelEntry = channelEntry;
+    mMetaName = metaName;
+    for (ZipReader.RawEntry entry : ZipReader.readEntries(apk)) {
+      if (entry.name.equals(channelEntry) || isSignatureFile(entry.name)) {
+        continue;
+      }
+      mEntries.add(entry);
+    }
+    mApkSize = (int) Math.min(Integer.MAX_VALUE - 8192, apk.length());
+  }
+
+  private boolean isSignatureFile(String name) {
+    int slash = name.lastIndexOf('/');
+    if (slash < 0) {
+      return false;
+    }
+    String dir = name.substring(0, slash);
+    if (!dir.equals(META_INF) && !dir.equals(mMetaName)) {
+      return false;
+    }
+    return name.endsWith(".MF") || name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA")
+           || name.endsWith(".EC");
+  }
+
+  /**
+   * @param channel       the channel, stored as utf-8 in the channel entry
+   * @param channelApk    output apk
+   * @param signerConfig  the signer, null to write the apk unsigned
+   * @param minSDKVersion min sdk version of the apk
+   * @param signatureType which schemes to sign with
+   * @throws Exception write or sign failed
+   */
+  public void stamp(
+      String channel, File channelApk, ApkSigner.SignerConfig signerConfig, int minSDKVersion,
+      InputParam.SignatureType signatureType) throws Exception {
+    File parent = channelApk.getAbsoluteFile().getParentFile();
+    if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+      throw new IOException("can not create the channel directory " + parent.getAbsolutePath());
+    }
+    ApkBuffer apk = new ApkBuffer(parent, mApkSize + 8192);
+    try {
+      ZipWriter writer = new ZipWriter(apk, ZIP_ALIGNMENT);
+      for (ZipReader.RawEntry entry : mEntries) {
+        writer.putRaw(entry.name, entry.method, entry.payload, entry.crc, entry.size);
+      }
+      writer.putStored(mChannelEntry, channel.getBytes(StandardCharsets.UTF_8));
+      writer.finish();
+
+      if (signerConfig == null) {
+        apk.writeTo(channelApk);
+        return;
+      }
+      ApkSignService.sign(apk.asDataSource(), channelApk, signerConfig, minSDKVersion, signatureType);
+    } finally {
+      apk.close();
+    }
+  }
+}
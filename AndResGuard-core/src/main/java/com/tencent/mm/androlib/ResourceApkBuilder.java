@@ -1,24 +1,26 @@
 package com.tencent.mm.androlib;
 
-import com.tencent.mm.androlib.res.decoder.ARSCDecoder;
+import com.tencent.mm.jfr.SignEvent;
 import com.tencent.mm.resourceproguard.Configuration;
 import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.CompressionCache;
 import com.tencent.mm.util.FileOperation;
+import com.tencent.mm.util.Log;
+import com.tencent.mm.util.Metrics;
 import com.tencent.mm.util.TypedValue;
 import com.tencent.mm.util.Utils;
+import com.tencent.mm.util.ZipCompressor;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.security.Key;
-import java.security.KeyStore;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
-import apksigner.ApkSignerTool;
-
-import static com.tencent.mm.resourceproguard.InputParam.SignatureType.SchemaV3;
+import com.android.apksig.ApkSigner;
 
 /**
  * @author shwenzhang
@@ -29,6 +31,7 @@ import static com.tencent.mm.resourceproguard.InputParam.SignatureType.SchemaV3;
  *     现有逻辑：1 zipalign 2.sign 。具体请参考buildApkV2sign
  */
 public class ResourceApkBuilder {
+  private static final int ZIP_ALIGNMENT = 4;
 
   private final Configuration config;
   private File mOutDir;
@@ -45,6 +48,12 @@ public class ResourceApkBuilder {
 
   private String mApkName;
   private File finalApkFile;
+  private int mMergeDuplicatedResCount;
+  /**
+   * the best compressed apk of the build, the channel apks are stamped from it
+   */
+  private File mOutputApk;
+  private Metrics mMetrics = new Metrics();
 
   public ResourceApkBuilder(Configuration config) {
     this.config = config;
@@ -56,29 +65,47 @@ public class ResourceApkBuilder {
     this.finalApkFile = finalApkFile;
   }
 
+  /**
+   * @param count the res files merged by the decoder, they are missing in the output res directory
+   */
+  public void setMergeDuplicatedResCount(int count) {
+    mMergeDuplicatedResCount = count;
+  }
+
+  /**
+   * @param metrics the phases of the build are added to it
+   */
+  public void setMetrics(Metrics metrics) {
+    mMetrics = metrics;
+  }
+
   public void buildApkWithV1sign(HashMap<String, Integer> compressData) throws IOException, InterruptedException {
     insureFileNameV1();
-    generalUnsignApk(compressData);
+    // jarsigner deflates every entry once more, so the compression level is applied after signing
+    generalUnsignApk(compressData, config.mUseSignAPK ? InputParam.CompressionLevel.DEFAULT : config.mCompressionLevel);
     signApkV1(mUnSignedApk, mSignedApk);
     use7zApk(compressData, mSignedApk, mSignedWith7ZipApk);
     alignApks();
+    long start = mMetrics.start();
     copyFinalApkV1();
+    mMetrics.end(Metrics.COPY, start);
+    mOutputApk = firstExists(mSignedWith7ZipApk, mSignedApk, mUnSignedApk);
   }
 
   private void copyFinalApkV1() throws IOException {
     if (finalApkFile != null) {
-      System.out.println(String.format("Backup Final APk(V1) to %s", finalApkFile));
+      Log.i("Backup Final APk(V1) to %s", finalApkFile);
       if (mSignedWith7ZipApk.exists()) {
-        FileOperation.copyFileUsingStream(mAlignedWith7ZipApk, finalApkFile);
+        copyFinalApk(mAlignedWith7ZipApk);
       } else if (mSignedApk.exists()) {
-        FileOperation.copyFileUsingStream(mAlignedApk, finalApkFile);
+        copyFinalApk(mAlignedApk);
       }
     }
   }
 
   public void buildApkWithV2V3Sign(HashMap<String, Integer> compressData, int minSDKVersion, InputParam.SignatureType signatureType) throws Exception {
     insureFileNameV2();
-    generalUnsignApk(compressData);
+    generalUnsignApk(compressData, config.mCompressionLevel);
     if (use7zApk(compressData, mUnSignedApk, m7ZipApk)) {
       alignApk(m7ZipApk, mAlignedApk);
     } else {
@@ -91,16 +118,132 @@ public class ResourceApkBuilder {
      * For this reason, use tools such as zipalign before signing your app using APK Signature Scheme v2, not after.
      **/
     signApkV2V3(mAlignedApk, mSignedApk, minSDKVersion, signatureType);
+    long start = mMetrics.start();
     copyFinalApkV2();
+    mMetrics.end(Metrics.COPY, start);
+    mOutputApk = firstExists(mSignedApk, m7ZipApk, mUnSignedApk);
+  }
+
+  private static File firstExists(File... files) {
+    for (File file : files) {
+      if (file != null && file.exists()) {
+        return file;
+      }
+    }
+    return null;
   }
 
   private void copyFinalApkV2() throws IOException {
     if (mSignedApk.exists() && finalApkFile != null) {
-      System.out.println(String.format("Backup Final APk(V2) to %s", finalApkFile));
-      FileOperation.copyFileUsingStream(mSignedApk, finalApkFile);
+      Log.i("Backup Final APk(V2) to %s", finalApkFile);
+      copyFinalApk(mSignedApk);
     }
   }
 
+  private void copyFinalApk(File apk) throws IOException {
+    FileOperation.copyFileUsingStream(apk, finalApkFile);
+    mMetrics.count(Metrics.FILES_COPIED, 1);
+    mMetrics.count(Metrics.BYTES_COPIED, apk.length());
+  }
+
+  private void countWritten(File apk) {
+    mMetrics.count(Metrics.APK_BYTES_WRITTEN, apk.length());
+  }
+
+  /**
+   * @return the apk the build ends with, null before any build
+   */
+  public File getOutputApk() {
+    return mOutputApk;
+  }
+
+  /**
+   * The pipeline mode zips the entries only once: they are compressed and aligned while zipping in memory,
+   * or in a temp file once the apk is big, see {@link ApkBuffer},
+   * then the v1/v2/v3 signing digests are computed over that data source and the signed apk is written
+   * straight to the final file. Compared with buildApkWithV2V3Sign there is no _unsigned, _aligned and backup
+   * copy any more, the unsigned apk is only written when keepIntermediateApk is set for debugging.
+   */
+  public void buildApkWithPipeline(
+      HashMap<String, Integer> compressData, int minSDKVersion, InputParam.SignatureType signatureType)
+      throws Exception {
+    insureFileNameV2();
+    Log.i("General apk in pipeline mode: %s", mSignedApk.getName());
+    File tempOutDir = new File(mOutDir.getAbsolutePath(), TypedValue.UNZIP_FILE_PATH);
+    List<File> collectFiles = collectUnsignFiles();
+    long start = mMetrics.start();
+    ApkBuffer unsignedApk = new ApkBuffer(mOutDir);
+    try {
+      FileOperation.zipFiles(collectFiles,
+          tempOutDir,
+          unsignedApk,
+          compressData,
+          createCompressor(config.mCompressionLevel),
+          ZIP_ALIGNMENT
+      );
+      if (unsignedApk.isSpilled()) {
+        Log.d("the unsigned apk is spilled to a temp file in %s", mOutDir.getAbsolutePath());
+      }
+
+      if (config.mKeepIntermediateApk) {
+        Log.i("keep intermediate apk: %s", mUnSignedApk.getName());
+        unsignedApk.writeTo(mUnSignedApk);
+        countWritten(mUnSignedApk);
+      }
+      mMetrics.end(Metrics.ZIP, start);
+      File outputApk = finalApkFile != null ? finalApkFile : mSignedApk;
+      File parent = outputApk.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.exists()) {
+        parent.mkdirs();
+      }
+      mOutputApk = outputApk;
+      if (!config.mUseSignAPK) {
+        start = mMetrics.start();
+        unsignedApk.writeTo(outputApk);
+        mMetrics.end(Metrics.ZIP, start);
+        countWritten(outputApk);
+        return;
+      }
+      Log.i("signing apk: %s", outputApk.getAbsolutePath());
+      SignEvent event = new SignEvent();
+      event.begin();
+      start = mMetrics.start();
+      ApkSignService.sign(unsignedApk.asDataSource(), outputApk, getSignerConfig(), minSDKVersion, signatureType);
+      mMetrics.end(Metrics.SIGN, start);
+      commit(event, outputApk, signatureType.name());
+    } finally {
+      unsignedApk.close();
+    }
+    if (!mOutputApk.exists()) {
+      throw new IOException("Can't Generate signed APK. Plz check your sign info is correct.");
+    }
+    countWritten(mOutputApk);
+  }
+
+  /**
+   * write an apk for every channel of the config into the channels directory, they are stamped from the built apk
+   * and only differ in the channel entry, see {@link ChannelPackager}
+   */
+  public void buildChannelApks(int minSDKVersion, InputParam.SignatureType signatureType) throws Exception {
+    if (config.mChannels.isEmpty()) {
+      return;
+    }
+    if (mOutputApk == null) {
+      throw new IOException("build the apk before stamping the channels");
+    }
+    Log.i("stamp %d channel apks from %s", config.mChannels.size(), mOutputApk.getName());
+    ChannelPackager packager = new ChannelPackager(mOutputApk, config.mChannelEntry, config.mMetaName);
+    ApkSigner.SignerConfig signerConfig = config.mUseSignAPK ? getSignerConfig() : null;
+    File channelDir = new File(mOutDir, TypedValue.CHANNEL_FILE_PATH);
+    long start = mMetrics.start();
+    for (String channel : config.mChannels) {
+      File channelApk = new File(channelDir, mApkName + "_" + channel + TypedValue.APK_FILE);
+      packager.stamp(channel, channelApk, signerConfig, minSDKVersion, signatureType);
+      Log.i("channel %s: %s", channel, channelApk.getAbsolutePath());
+    }
+    mMetrics.end(Metrics.CHANNEL, start);
+  }
+
   private void insureFileNameV1() {
     mUnSignedApk = new File(mOutDir.getAbsolutePath(), mApkName + "_unsigned.apk");
     mSignedWith7ZipApk = new File(mOutDir.getAbsolutePath(), mApkName + "_signed_7zip.apk");
@@ -125,6 +268,20 @@ public class ResourceApkBuilder {
 
   private boolean use7zApk(HashMap<String, Integer> compressData, File originalAPK, File outputAPK)
       throws IOException, InterruptedException {
+    long start = mMetrics.start();
+    boolean repackaged = repackageApk(compressData, originalAPK, outputAPK);
+    if (repackaged) {
+      mMetrics.end(Metrics.SEVEN_ZIP, start);
+      countWritten(outputAPK);
+    }
+    return repackaged;
+  }
+
+  private boolean repackageApk(HashMap<String, Integer> compressData, File originalAPK, File outputAPK)
+      throws IOException, InterruptedException {
+    if (config.mCompressionLevel == InputParam.CompressionLevel.EXTREME) {
+      return recompressApk(compressData, originalAPK, outputAPK);
+    }
     if (!config.mUse7zip) {
       return false;
     }
@@ -137,7 +294,7 @@ public class ResourceApkBuilder {
           originalAPK.getAbsolutePath()
       ));
     }
-    System.out.printf("use 7zip to repackage: %s, will cost much more time\n", outputAPK.getName());
+    Log.i("use 7zip to repackage: %s, will cost much more time", outputAPK.getName());
     FileOperation.unZipAPk(originalAPK.getAbsolutePath(), m7zipOutPutDir.getAbsolutePath());
     //首先一次性生成一个全部都是压缩的安装包
     generalRaw7zip(outputAPK);
@@ -165,16 +322,37 @@ public class ResourceApkBuilder {
     return true;
   }
 
+  /**
+   * the in-process replacement of 7z. The unsigned apk was already zipped with the extreme level,
+   * only the entries inflated and deflated again by jarsigner need it once more
+   */
+  private boolean recompressApk(HashMap<String, Integer> compressData, File originalAPK, File outputAPK)
+      throws IOException {
+    if (originalAPK.equals(mUnSignedApk) || !originalAPK.exists()) {
+      return false;
+    }
+    Log.i("recompress with the extreme level: %s, will cost much more time", outputAPK.getName());
+    FileOperation.recompressApk(originalAPK,
+        outputAPK,
+        compressData,
+        createCompressor(InputParam.CompressionLevel.EXTREME),
+        ZIP_ALIGNMENT
+    );
+    return true;
+  }
+
+  private ZipCompressor createCompressor(InputParam.CompressionLevel level) {
+    ZipCompressor compressor = new ZipCompressor(level);
+    if (config.mCompressionCacheDir != null) {
+      long maxSize = config.mCompressionCacheSizeMb * 1024L * 1024L;
+      compressor.setCache(new CompressionCache(config.mCompressionCacheDir, maxSize));
+    }
+    return compressor;
+  }
+
   private String getSignatureAlgorithm(String hash) throws Exception {
     String signatureAlgorithm;
-    KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-    FileInputStream fileIn = new FileInputStream(config.mSignatureFile);
-    keyStore.load(fileIn, config.mStorePass.toCharArray());
-    Key key = keyStore.getKey(config.mStoreAlias, config.mKeyPass.toCharArray());
-    if (key == null) {
-      throw new RuntimeException("Can't get private key, please check if storepass storealias and keypass are correct");
-    }
-    String keyAlgorithm = key.getAlgorithm();
+    String keyAlgorithm = getSignerConfig().getPrivateKey().getAlgorithm();
     hash = formatHashAlgorithName(hash);
     if (keyAlgorithm.equalsIgnoreCase("DSA")) {
       keyAlgorithm = "DSA";
@@ -195,47 +373,55 @@ public class ResourceApkBuilder {
 
   private void signApkV1(File unSignedApk, File signedApk) throws IOException, InterruptedException {
     if (config.mUseSignAPK) {
-      System.out.printf("signing apk: %s\n", signedApk.getName());
+      Log.i("signing apk: %s", signedApk.getName());
       if (signedApk.exists()) {
         signedApk.delete();
       }
+      SignEvent event = new SignEvent();
+      event.begin();
+      long start = mMetrics.start();
       signWithV1sign(unSignedApk, signedApk);
+      mMetrics.end(Metrics.SIGN, start);
+      commit(event, signedApk, InputParam.SignatureType.SchemaV1.name());
       if (!signedApk.exists()) {
         throw new IOException("Can't Generate signed APK. Plz check your v1sign info is correct.");
       }
+      countWritten(signedApk);
     }
   }
 
   private void signApkV2V3(File unSignedApk, File signedApk, int minSDKVersion, InputParam.SignatureType signatureType) throws Exception {
     if (config.mUseSignAPK) {
-      System.out.printf("signing apk: %s\n", signedApk.getName());
+      Log.i("signing apk: %s", signedApk.getName());
+      SignEvent event = new SignEvent();
+      event.begin();
+      long start = mMetrics.start();
       signWithV2V3Sign(unSignedApk, signedApk, minSDKVersion, signatureType);
+      mMetrics.end(Metrics.SIGN, start);
+      commit(event, signedApk, signatureType.name());
       if (!signedApk.exists()) {
         throw new IOException("Can't Generate signed APK v2. Plz check your v2sign info is correct.");
       }
+      countWritten(signedApk);
+    }
+  }
+
+  private static void commit(SignEvent event, File signedApk, String scheme) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.apk = signedApk.getName();
+      event.scheme = scheme;
+      event.size = signedApk.length();
+      event.commit();
     }
   }
 
   private void signWithV2V3Sign(File unSignedApk, File signedApk, int minSDKVersion, InputParam.SignatureType signatureType) throws Exception {
-    String[] params = new String[] {
-        "sign",
-        "--ks",
-        config.mSignatureFile.getAbsolutePath(),
-        "--ks-pass",
-        "pass:" + config.mStorePass,
-        "--min-sdk-version",
-        String.valueOf(minSDKVersion),
-        "--ks-key-alias",
-        config.mStoreAlias,
-        "--key-pass",
-        "pass:" + config.mKeyPass,
-        "--v3-signing-enabled",
-        String.valueOf(signatureType == SchemaV3),
-        "--out",
-        signedApk.getAbsolutePath(),
-        unSignedApk.getAbsolutePath()
-    };
-    ApkSignerTool.main(params);
+    ApkSignService.sign(unSignedApk, signedApk, getSignerConfig(), minSDKVersion, signatureType);
+  }
+
+  private ApkSigner.SignerConfig getSignerConfig() throws Exception {
+    return ApkSignService.getSignerConfig(config.mSignatureFile, config.mStorePass, config.mStoreAlias, config.mKeyPass);
   }
 
   private void signWithV1sign(File unSignedApk, File signedApk) throws IOException, InterruptedException {
@@ -243,7 +429,7 @@ public class ResourceApkBuilder {
     try {
       signatureAlgorithm = getSignatureAlgorithm(config.digestAlg);
     } catch (Exception e) {
-      e.printStackTrace();
+      Log.e(e);
     }
     String[] argv = {
         "jarsigner",
@@ -282,27 +468,52 @@ public class ResourceApkBuilder {
   }
 
   private void alignApk(File before, File after) throws IOException, InterruptedException {
-    System.out.printf("zipaligning apk: %s, exists:%b\n", before.getAbsolutePath(), before.exists());
+    Log.i("zipaligning apk: %s, exists:%b", before.getAbsolutePath(), before.exists());
     if (!before.exists()) {
       throw new IOException(String.format("can not found the raw apk file to zipalign, path=%s",
           before.getAbsolutePath()
       ));
     }
     String cmd = Utils.isPresent(config.mZipalignPath) ? config.mZipalignPath : TypedValue.COMMAND_ZIPALIGIN;
+    long start = mMetrics.start();
     Utils.runCmd(cmd, "4", before.getAbsolutePath(), after.getAbsolutePath());
+    mMetrics.end(Metrics.ALIGN, start);
     if (!after.exists()) {
       throw new IOException(String.format("can not found the aligned apk file, the ZipAlign path is correct? path=%s",
           mAlignedApk.getAbsolutePath()
       ));
     }
+    countWritten(after);
   }
 
-  private void generalUnsignApk(HashMap<String, Integer> compressData) throws IOException, InterruptedException {
-    System.out.printf("General unsigned apk: %s\n", mUnSignedApk.getName());
+  private void generalUnsignApk(HashMap<String, Integer> compressData, InputParam.CompressionLevel level)
+      throws IOException, InterruptedException {
+    Log.i("General unsigned apk: %s", mUnSignedApk.getName());
+    File tempOutDir = new File(mOutDir.getAbsolutePath(), TypedValue.UNZIP_FILE_PATH);
+    List<File> collectFiles = collectUnsignFiles();
+    long start = mMetrics.start();
+    if (level == InputParam.CompressionLevel.DEFAULT) {
+      FileOperation.zipFiles(collectFiles, tempOutDir, mUnSignedApk, compressData);
+    } else {
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(mUnSignedApk, false));
+      try {
+        FileOperation.zipFiles(collectFiles, tempOutDir, out, compressData, createCompressor(level), ZIP_ALIGNMENT);
+      } finally {
+        out.close();
+      }
+    }
+    mMetrics.end(Metrics.ZIP, start);
+
+    if (!mUnSignedApk.exists()) {
+      throw new IOException(String.format("can not found the unsign apk file path=%s", mUnSignedApk.getAbsolutePath()));
+    }
+    countWritten(mUnSignedApk);
+  }
+
+  private List<File> collectUnsignFiles() throws IOException {
     File tempOutDir = new File(mOutDir.getAbsolutePath(), TypedValue.UNZIP_FILE_PATH);
     if (!tempOutDir.exists()) {
-      System.err.printf("Missing apk unzip files, path=%s\n", tempOutDir.getAbsolutePath());
-      System.exit(-1);
+      throw new IOException(String.format("Missing apk unzip files, path=%s", tempOutDir.getAbsolutePath()));
     }
 
     File[] unzipFiles = tempOutDir.listFiles();
@@ -329,11 +540,11 @@ public class ResourceApkBuilder {
      * NOTE:文件数量应该是一样的，如果不一样肯定有问题
      */
     File rawResDir = new File(tempOutDir.getAbsolutePath() + File.separator + "res");
-    System.out.printf("DestResDir %d rawResDir %d\n",
+    Log.i("DestResDir %d rawResDir %d",
         FileOperation.getlist(destResDir),
         FileOperation.getlist(rawResDir)
     );
-    if (FileOperation.getlist(destResDir) != (FileOperation.getlist(rawResDir) - ARSCDecoder.mMergeDuplicatedResCount)) {
+    if (FileOperation.getlist(destResDir) != (FileOperation.getlist(rawResDir) - mMergeDuplicatedResCount)) {
       throw new IOException(String.format(
           "the file count of %s, and the file count of %s is not equal, there must be some problem\n",
           rawResDir.getAbsolutePath(),
@@ -341,22 +552,16 @@ public class ResourceApkBuilder {
       ));
     }
     if (!destResDir.exists()) {
-      System.err.printf("Missing res files, path=%s\n", destResDir.getAbsolutePath());
-      System.exit(-1);
+      throw new IOException(String.format("Missing res files, path=%s", destResDir.getAbsolutePath()));
     }
     //这个需要检查混淆前混淆后，两个res的文件数量是否相等
     collectFiles.add(destResDir);
     File rawARSCFile = new File(mOutDir.getAbsolutePath() + File.separator + "resources.arsc");
     if (!rawARSCFile.exists()) {
-      System.err.printf("Missing resources.arsc files, path=%s\n", rawARSCFile.getAbsolutePath());
-      System.exit(-1);
+      throw new IOException(String.format("Missing resources.arsc files, path=%s", rawARSCFile.getAbsolutePath()));
     }
     collectFiles.add(rawARSCFile);
-    FileOperation.zipFiles(collectFiles, tempOutDir, mUnSignedApk, compressData);
-
-    if (!mUnSignedApk.exists()) {
-      throw new IOException(String.format("can not found the unsign apk file path=%s", mUnSignedApk.getAbsolutePath()));
-    }
+    return collectFiles;
   }
 
   private void addNonSignatureFiles(List<File> collectFiles, File metaFolder) {
@@ -366,7 +571,7 @@ public class ResourceApkBuilder {
         String metaFileName = metaFile.getName();
         // Ignore signature files
         if (!metaFileName.endsWith(".MF") && !metaFileName.endsWith(".RSA") && !metaFileName.endsWith(".SF")) {
-          System.out.println(String.format("add meta file %s", metaFile.getAbsolutePath()));
+          Log.sample(Log.Level.INFO, "add meta file", "add meta file %s", metaFile.getAbsolutePath());
           collectFiles.add(metaFile);
         }
       }
@@ -375,7 +580,7 @@ public class ResourceApkBuilder {
 
   private void addStoredFileIn7Zip(ArrayList<String> storedFiles, File outSevenZipAPK)
       throws IOException, InterruptedException {
-    System.out.printf("[addStoredFileIn7Zip]rewrite the stored file into the 7zip, file count: %d\n",
+    Log.i("[addStoredFileIn7Zip]rewrite the stored file into the 7zip, file count: %d",
         storedFiles.size()
     );
     if (storedFiles.size() == 0) return;
@@ -1,8 +1,12 @@
 package com.tencent.mm.androlib;
 
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.CompressionCache;
 import com.tencent.mm.util.FileOperation;
+import com.tencent.mm.util.Log;
 import com.tencent.mm.util.TypedValue;
 import com.tencent.mm.util.Utils;
+import com.tencent.mm.util.ZipCompressor;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -11,6 +15,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 public class ResourceRepackage {
+  private static final int ZIP_ALIGNMENT = 4;
 
   private final String zipalignPath;
   private final String sevenZipPath;
@@ -21,6 +26,8 @@ public class ResourceRepackage {
   private File mStoredOutPutDir;
   private String mApkName;
   private File mOutDir;
+  private InputParam.CompressionLevel mCompressionLevel = InputParam.CompressionLevel.DEFAULT;
+  private CompressionCache mCompressionCache;
 
   public ResourceRepackage(String zipalignPath, String zipPath, File signedFile) {
     this.zipalignPath = zipalignPath;
@@ -32,9 +39,32 @@ public class ResourceRepackage {
     mOutDir = outDir;
   }
 
+  /**
+   * the extreme level repackages in process, without 7z and zipalign
+   */
+  public void setCompressionLevel(InputParam.CompressionLevel level) {
+    mCompressionLevel = level;
+  }
+
+  public void setCompressionCache(CompressionCache cache) {
+    mCompressionCache = cache;
+  }
+
   public void repackageApk() throws IOException, InterruptedException {
     insureFileName();
 
+    if (mCompressionLevel == InputParam.CompressionLevel.EXTREME) {
+      Log.i("recompress with the extreme level: %s, will cost much more time",
+          mAlignedWith7ZipApk.getName()
+      );
+      if (!mOutDir.exists()) {
+        mOutDir.mkdirs();
+      }
+      ZipCompressor compressor = new ZipCompressor(mCompressionLevel);
+      compressor.setCache(mCompressionCache);
+      FileOperation.recompressApk(mSignedApk, mAlignedWith7ZipApk, null, compressor, ZIP_ALIGNMENT);
+      return;
+    }
     repackageWith7z();
     alignApk();
     deleteUnusedFiles();
@@ -81,7 +111,7 @@ public class ResourceRepackage {
   }
 
   private void repackageWith7z() throws IOException, InterruptedException {
-    System.out.printf("use 7zip to repackage: %s, will cost much more time\n", mSignedWith7ZipApk.getName());
+    Log.i("use 7zip to repackage: %s, will cost much more time", mSignedWith7ZipApk.getName());
     HashMap<String, Integer> compressData = FileOperation.unZipAPk(mSignedApk.getAbsolutePath(),
         m7zipOutPutDir.getAbsolutePath()
     );
@@ -110,7 +140,7 @@ public class ResourceRepackage {
   }
 
   private void generalRaw7zip() throws IOException, InterruptedException {
-    System.out.printf("general the raw 7zip file\n");
+    Log.i("general the raw 7zip file");
     String outPath = m7zipOutPutDir.getAbsoluteFile().getAbsolutePath();
     String path = outPath + File.separator + "*";
 
@@ -129,7 +159,7 @@ public class ResourceRepackage {
   }
 
   private void addStoredFileIn7Zip(ArrayList<String> storedFiles) throws IOException, InterruptedException {
-    System.out.printf("[addStoredFileIn7Zip]rewrite the stored file into the 7zip, file count:%d\n",
+    Log.i("[addStoredFileIn7Zip]rewrite the stored file into the 7zip, file count:%d",
         storedFiles.size()
     );
     String storedParentName = mStoredOutPutDir.getAbsolutePath() + File.separator;
@@ -166,7 +196,7 @@ public class ResourceRepackage {
   }
 
   private void alignApk(File before, File after) throws IOException, InterruptedException {
-    System.out.printf("zipaligning apk: %s\n", before.getName());
+    Log.i("zipaligning apk: %s", before.getName());
     if (!before.exists()) {
       throw new IOException(String.format("can not found the raw apk file to zipalign, path=%s",
           before.getAbsolutePath()
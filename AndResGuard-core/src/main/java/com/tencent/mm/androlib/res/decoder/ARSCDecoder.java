@@ -24,11 +24,16 @@ import com.tencent.mm.androlib.ApkDecoder;
 import com.tencent.mm.androlib.res.data.ResPackage;
 import com.tencent.mm.androlib.res.data.ResType;
 import com.tencent.mm.androlib.res.util.StringUtil;
+import com.tencent.mm.jfr.DuplicateHashEvent;
+import com.tencent.mm.jfr.ResTypeEvent;
 import com.tencent.mm.resourceproguard.Configuration;
+import com.tencent.mm.util.BinaryMapping;
 import com.tencent.mm.util.ExtDataInput;
 import com.tencent.mm.util.ExtDataOutput;
 import com.tencent.mm.util.FileOperation;
+import com.tencent.mm.util.Log;
 import com.tencent.mm.util.Md5Util;
+import com.tencent.mm.util.Metrics;
 import com.tencent.mm.util.TypedValue;
 import com.tencent.mm.util.Utils;
 
@@ -45,27 +50,48 @@ import java.io.Writer;
 import java.math.BigInteger;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 public class ARSCDecoder {
 
-  private final static boolean DEBUG = false;
 
-  private final static short ENTRY_FLAG_COMPLEX = 0x0001;
-  private static final Logger LOGGER = Logger.getLogger(ARSCDecoder.class.getName());
+  public final static short ENTRY_FLAG_COMPLEX = 0x0001;
+  /**
+   * the offsets of a type chunk with this flag are (uint16 index, uint16 offset / 4) pairs of the present entries
+   */
+  public final static int TYPE_FLAG_SPARSE = 0x01;
+  public final static int NO_ENTRY = 0xFFFFFFFF;
+  /**
+   * typeId, flags, reserved, entryCount and entriesStart after the chunk header
+   */
+  private static final int TYPE_HEADER_BYTES = 20;
+  /**
+   * android 8.0 is the first to read the sparse type chunks
+   */
+  private static final int SPARSE_MIN_SDK = 26;
+  /**
+   * a chunk with fewer entries present is written sparse, as aapt2 does, the lookup of a sparse one is a binary search
+   */
+  private static final int SPARSE_MAX_DENSITY_PERCENT = 60;
+  private static final int SPARSE_MAX_OFFSET = 0xffff * 4;
   private static final int KNOWN_CONFIG_BYTES = 56;
+  /**
+   * a res file path is in the global string pool, the local header and the central directory
+   */
+  private static final int PATH_COPIES = 3;
+  private static final int ONE_CHAR_NAMES = 26;
+  private static final int TWO_CHAR_NAMES = ONE_CHAR_NAMES + 26 * 37;
 
-  public static Map<Integer, String> mTableStringsResguard = new LinkedHashMap<>();
-  public static int mMergeDuplicatedResCount = 0;
   private final Map<String, String> mOldFileName;
   private final Map<String, Integer> mCurSpecNameToPos;
   private final HashSet<String> mShouldResguardTypeSet;
@@ -76,6 +102,27 @@ public class ARSCDecoder {
   private StringBlock mTableStrings;
   private StringBlock mTypeNames;
   private StringBlock mSpecNames;
+  /**
+   * the spec names of the package decoded so far, by their index in mSpecNames
+   */
+  private String[] mSpecNameStrings;
+  /**
+   * the keepmapping names of the current type by the index of the spec name, null if the old mapping has nothing
+   * for the package
+   */
+  private String[] mOldSpecReplaces;
+  /**
+   * which slots of mOldSpecReplaces are set, they are cleared when the type changes
+   */
+  private int[] mOldSpecReplaceIds;
+  private int mOldSpecReplaceCount;
+  private HashMap<String, HashMap<String, String>> mOldTypeMaps;
+  private HashMap<String, Integer> mSpecNameIds;
+  /**
+   * the names of the current type given out by the frequency naming, by entry index
+   */
+  private String[] mFrequencyNames;
+  private long mNameBytesSaved = 0L;
   private ResPackage mPkg;
   private ResType mType;
   private ResPackage[] mPkgs;
@@ -85,10 +132,31 @@ public class ARSCDecoder {
   private int mCurrTypeID = -1;
   private int mCurEntryID = -1;
   private int mCurPackageID = -1;
+  /**
+   * entries of the current type spec, the sparse chunks of the type do not have it
+   */
+  private int mTypeEntryCount;
+  private boolean mSparseEncoding;
+  private int mSparseConfigCount = 0;
+  /**
+   * null unless the configs are pruned
+   */
+  private final ConfigPruner mConfigPruner;
+  /**
+   * the type chunks visited so far, in the order the pruner is given them
+   */
+  private int mConfigIndex = 0;
+  private int mMergeDuplicatedResCount = 0;
   private long mMergeDuplicatedResTotalSize = 0L;
+  private long mEntryCount = 0L;
+  private long mRegexEvaluations = 0L;
   private ResguardStringBuilder mResguardBuilder;
   private boolean mShouldResguardForType = false;
   private Writer mMappingWriter;
+  /**
+   * null unless the binary mapping is written too
+   */
+  private BinaryMapping mBinaryMapping;
   private Writer mMergeDuplicatedResMappingWriter;
   private Map<Long,List<MergeDuplicatedResInfo>> mMergeDuplicatedResInfoData = new HashMap<>();
 
@@ -98,6 +166,7 @@ public class ARSCDecoder {
     mShouldResguardTypeSet = new HashSet<>();
     mIn = new ExtDataInput(new LEDataInputStream(arscStream));
     mApkDecoder = decoder;
+    mConfigPruner = decoder.getConfigPruner();
     proguardFileName();
   }
 
@@ -106,6 +175,7 @@ public class ARSCDecoder {
     mCurSpecNameToPos = new LinkedHashMap<>();
     mShouldResguardTypeSet = new HashSet<>();
     mApkDecoder = decoder;
+    mConfigPruner = decoder.getConfigPruner();
     mIn = new ExtDataInput(new LEDataInputStream(arscStream));
     mOut = new ExtDataOutput(new LEDataOutputStream(new FileOutputStream(mApkDecoder.getOutTempARSCFile(), false)));
     mPkgs = pkgs;
@@ -133,6 +203,9 @@ public class ARSCDecoder {
 
   private void proguardFileName() throws IOException, AndrolibException {
     mMappingWriter = new BufferedWriter(new FileWriter(mApkDecoder.getResMappingFile(), false));
+    if (mApkDecoder.getConfig().mUseBinaryMapping) {
+      mBinaryMapping = new BinaryMapping();
+    }
     mMergeDuplicatedResMappingWriter = new BufferedWriter(new FileWriter(mApkDecoder.getMergeDuplicatedResMappingFile(), false));
     mMergeDuplicatedResMappingWriter.write("res filter path mapping:\n");
     mMergeDuplicatedResMappingWriter.flush();
@@ -145,6 +218,9 @@ public class ARSCDecoder {
     File rawResFile = mApkDecoder.getRawResFile();
 
     File[] resFiles = rawResFile.listFiles();
+    if (config.mUseFrequencyNaming) {
+      resFiles = sortByFileCount(resFiles);
+    }
 
     // 需要看看哪些类型是要混淆文件路径的
     for (File resFile : resFiles) {
@@ -195,6 +271,47 @@ public class ARSCDecoder {
     Utils.cleanDir(mApkDecoder.getOutResFile());
   }
 
+  /**
+   * every res file path has the name of its dir, so the dirs with the most files come first and get the shortest names
+   */
+  private File[] sortByFileCount(File[] resFiles) {
+    final Map<File, Integer> fileCounts = new HashMap<>();
+    for (File resFile : resFiles) {
+      String[] files = resFile.list();
+      fileCounts.put(resFile, files == null ? 0 : files.length);
+    }
+    File[] sorted = resFiles.clone();
+    Arrays.sort(sorted, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return fileCounts.get(b) - fileCounts.get(a);
+      }
+    });
+    // the same estimate as the entries, the dirs named in the order of the listing
+    for (int i = 0; i < resFiles.length; i++) {
+      mNameBytesSaved += fileCounts.get(resFiles[i]) * PATH_COPIES * (nameLength(i) - nameLength(indexOf(sorted,
+          resFiles[i]
+      )));
+    }
+    return sorted;
+  }
+
+  private static int indexOf(File[] files, File file) {
+    for (int i = 0; i < files.length; i++) {
+      if (files[i] == file) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the length of the nth generated name, if no name is skipped
+   */
+  private static int nameLength(int index) {
+    return index < ONE_CHAR_NAMES ? 1 : index < TWO_CHAR_NAMES ? 2 : 3;
+  }
+
   private ResPackage[] readTable() throws IOException, AndrolibException {
     nextChunkCheckType(Header.TYPE_TABLE);
     int packageCount = mIn.readInt();
@@ -205,21 +322,42 @@ public class ARSCDecoder {
       packages[i] = readPackage();
     }
     mMappingWriter.close();
-    System.out.printf("resources mapping file %s done\n", mApkDecoder.getResMappingFile().getAbsolutePath());
+    Log.i("resources mapping file %s done", mApkDecoder.getResMappingFile().getAbsolutePath());
+    if (mBinaryMapping != null) {
+      mBinaryMapping.write(mApkDecoder.getResMappingBinaryFile());
+      Log.i("resources binary mapping file %s done", mApkDecoder.getResMappingBinaryFile().getAbsolutePath());
+    }
     generalFilterEnd(mMergeDuplicatedResCount, mMergeDuplicatedResTotalSize);
+    mApkDecoder.setMergeDuplicatedResCount(mMergeDuplicatedResCount);
     mMergeDuplicatedResMappingWriter.close();
-    System.out.printf("resources filter mapping file %s done\n", mApkDecoder.getMergeDuplicatedResMappingFile().getAbsolutePath());
+    Log.i("resources filter mapping file %s done", mApkDecoder.getMergeDuplicatedResMappingFile().getAbsolutePath());
+    Metrics metrics = mApkDecoder.getMetrics();
+    metrics.count(Metrics.ENTRIES, mEntryCount);
+    metrics.count(Metrics.REGEX_EVALUATIONS, mRegexEvaluations + mResguardBuilder.getRegexEvaluations());
+    if (mApkDecoder.getConfig().mUseFrequencyNaming) {
+      metrics.count(Metrics.NAME_BYTES_SAVED, mNameBytesSaved);
+    }
+    metrics.count(Metrics.DUPLICATES_MERGED, mMergeDuplicatedResCount);
+    metrics.count(Metrics.BYTES_SAVED, mMergeDuplicatedResTotalSize);
     return packages;
   }
 
   private void writeTable() throws IOException, AndrolibException {
-    System.out.printf("writing new resources.arsc \n");
+    Log.i("writing new resources.arsc");
     mTableLenghtChange = 0;
+    Configuration config = mApkDecoder.getConfig();
+    mSparseEncoding = config.mUseSparseEncoding && config.mMinSdkVersion >= SPARSE_MIN_SDK;
+    if (config.mUseSparseEncoding && !mSparseEncoding) {
+      Log.w("sparseEncoding is skipped, it needs minSdkVersion %d or higher, yours %d",
+          SPARSE_MIN_SDK,
+          config.mMinSdkVersion
+      );
+    }
     writeNextChunkCheck(Header.TYPE_TABLE, 0);
     int packageCount = mIn.readInt();
     mOut.writeInt(packageCount);
 
-    mTableLenghtChange += StringBlock.writeTableNameStringBlock(mIn, mOut, mTableStringsResguard);
+    mTableLenghtChange += StringBlock.writeTableNameStringBlock(mIn, mOut, mApkDecoder.getTableStringsResguard());
     writeNextChunk(0);
     if (packageCount != mPkgs.length) {
       throw new AndrolibException(String.format("writeTable package count is different before %d, now %d",
@@ -233,6 +371,9 @@ public class ARSCDecoder {
     }
     // 最后需要把整个的size重写回去
     reWriteTable();
+    if (mSparseEncoding) {
+      mApkDecoder.getMetrics().count(Metrics.SPARSE_CONFIGS, mSparseConfigCount);
+    }
   }
 
   private void generalFileResMapping() throws IOException {
@@ -240,6 +381,9 @@ public class ARSCDecoder {
     for (String raw : mOldFileName.keySet()) {
       mMappingWriter.write("    " + raw + " -> " + mOldFileName.get(raw));
       mMappingWriter.write("\n");
+      if (mBinaryMapping != null) {
+        mBinaryMapping.addFile(raw, mOldFileName.get(raw));
+      }
     }
     mMappingWriter.write("\n\n");
     mMappingWriter.write("res id mapping:\n");
@@ -261,7 +405,9 @@ public class ARSCDecoder {
        + "."
        + replace);
     mMappingWriter.write("\n");
-    mMappingWriter.flush();
+    if (mBinaryMapping != null) {
+      mBinaryMapping.addRes(packageName, typename, specName, replace);
+    }
   }
 
   private void generalFilterResIDMapping(
@@ -331,7 +477,7 @@ public class ARSCDecoder {
     checkChunkType(Header.TYPE_PACKAGE);
     int id = (byte) mIn.readInt();
     String name = mIn.readNullEndedString(128, true);
-    System.out.printf("reading packagename %s\n", name);
+    Log.i("reading packagename %s", name);
 
     /* typeNameStrings */
     mIn.skipInt();
@@ -344,6 +490,7 @@ public class ARSCDecoder {
     mCurrTypeID = -1;
     mTypeNames = StringBlock.read(mIn);
     mSpecNames = StringBlock.read(mIn);
+    mSpecNameStrings = new String[mSpecNames.getCount()];
     mResId = id << 24;
 
     mPkg = new ResPackage(id, name);
@@ -353,6 +500,7 @@ public class ARSCDecoder {
     } else {
       mPkg.setCanResguard(true);
     }
+    resolveOldMapping();
     nextChunk();
     while (mHeader.type == Header.TYPE_LIBRARY) {
       readLibraryType();
@@ -400,29 +548,68 @@ public class ARSCDecoder {
     }
   }
 
+  /**
+   * the old mapping of the package is looked up once, the entries then read the table of their type
+   */
+  private void resolveOldMapping() {
+    mOldTypeMaps = null;
+    mOldSpecReplaces = null;
+    mOldSpecReplaceIds = null;
+    mOldSpecReplaceCount = 0;
+    mSpecNameIds = null;
+    Configuration config = mApkDecoder.getConfig();
+    if (!mPkg.isCanResguard() || !config.mUseKeepMapping) {
+      return;
+    }
+    mOldTypeMaps = config.mOldResMapping.get(mPkg.getName());
+    if (mOldTypeMaps == null) {
+      return;
+    }
+    int count = mSpecNames.getCount();
+    mOldSpecReplaces = new String[count];
+    mOldSpecReplaceIds = new int[count];
+    mSpecNameIds = new HashMap<>(count * 4 / 3 + 1);
+    for (int i = 0; i < count; i++) {
+      mSpecNameIds.put(getSpecName(i), i);
+    }
+  }
+
   /**
    * 如果是保持mapping的话，需要去掉某部分已经用过的mapping
    */
   private void reduceFromOldMappingFile() {
-    if (mPkg.isCanResguard()) {
-      if (mApkDecoder.getConfig().mUseKeepMapping) {
-        // 判断是否走keepmapping
-        HashMap<String, HashMap<String, HashMap<String, String>>> resMapping = mApkDecoder.getConfig().mOldResMapping;
-        String packName = mPkg.getName();
-        if (resMapping.containsKey(packName)) {
-          HashMap<String, HashMap<String, String>> typeMaps = resMapping.get(packName);
-          String typeName = mType.getName();
-
-          if (typeMaps.containsKey(typeName)) {
-            HashMap<String, String> proguard = typeMaps.get(typeName);
-            // 去掉所有之前保留的命名，为了简单操作，mapping里面有的都去掉
-            mResguardBuilder.removeStrings(proguard.values());
-          }
-        }
+    if (mOldSpecReplaces == null) {
+      return;
+    }
+    for (int i = 0; i < mOldSpecReplaceCount; i++) {
+      mOldSpecReplaces[mOldSpecReplaceIds[i]] = null;
+    }
+    mOldSpecReplaceCount = 0;
+    HashMap<String, String> proguard = mOldTypeMaps.get(mType.getName());
+    if (proguard == null) {
+      return;
+    }
+    // 去掉所有之前保留的命名，为了简单操作，mapping里面有的都去掉
+    mResguardBuilder.removeStrings(proguard.values());
+    for (Map.Entry<String, String> entry : proguard.entrySet()) {
+      Integer specNamesId = mSpecNameIds.get(entry.getKey());
+      // the res may be removed since the old mapping
+      if (specNamesId != null) {
+        mOldSpecReplaces[specNamesId] = entry.getValue();
+        mOldSpecReplaceIds[mOldSpecReplaceCount++] = specNamesId;
       }
     }
   }
 
+  private String getSpecName(int specNamesId) {
+    String specName = mSpecNameStrings[specNamesId];
+    if (specName == null) {
+      specName = mSpecNames.getString(specNamesId);
+      mSpecNameStrings[specNamesId] = specName;
+    }
+    return specName;
+  }
+
   private HashSet<Pattern> getWhiteList(String resType) {
     final String packName = mPkg.getName();
     if (mApkDecoder.getConfig().mWhiteList.containsKey(packName)) {
@@ -444,7 +631,7 @@ public class ARSCDecoder {
     for (int i = 0; i < libraryCount; i++) {
       packageId = mIn.readInt();
       packageName = mIn.readNullEndedString(128, true);
-      System.out.printf("Decoding Shared Library (%s), pkgId: %d\n", packageName, packageId);
+      Log.i("Decoding Shared Library (%s), pkgId: %d", packageName, packageId);
     }
 
     while (nextChunk().type == Header.TYPE_TYPE) {
@@ -454,12 +641,15 @@ public class ARSCDecoder {
 
   private void readTableTypeSpec() throws AndrolibException, IOException {
     checkChunkType(Header.TYPE_SPEC_TYPE);
-    byte id = mIn.readByte();
+    ResTypeEvent event = new ResTypeEvent();
+    event.begin();
+    int id = mIn.readUnsignedByte();
     mIn.skipBytes(3);
     int entryCount = mIn.readInt();
+    mTypeEntryCount = entryCount;
     mType = new ResType(mTypeNames.getString(id - 1), mPkg);
-    if (DEBUG) {
-      System.out.printf("[ReadTableType] type (%s) id: (%d) curr (%d)\n", mType, id, mCurrTypeID);
+    if (Log.isLoggable(Log.Level.DEBUG)) {
+      Log.d("[ReadTableType] type (%s) id: (%d) curr (%d)", mType, id, mCurrTypeID);
     }
     // first meet a type of resource
     if (mCurrTypeID != id) {
@@ -473,19 +663,96 @@ public class ARSCDecoder {
     mIn.skipBytes(entryCount * 4);
     mResId = (0xff000000 & mResId) | id << 16;
 
+    int configCount = 0;
     while (nextChunk().type == Header.TYPE_TYPE) {
       readConfig();
+      configCount++;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.packageName = mPkg.getName();
+      event.type = mType.getName();
+      event.entries = entryCount;
+      event.configs = configCount;
+      event.resguardFiles = mShouldResguardForType;
+      event.commit();
     }
   }
 
-  private void initResGuardBuild(int resTypeId) {
+  private void initResGuardBuild(int resTypeId) throws AndrolibException {
     // we need remove string from resguard candidate list if it exists in white list
     HashSet<Pattern> whiteListPatterns = getWhiteList(mType.getName());
     // init resguard builder
     mResguardBuilder.reset(whiteListPatterns);
-    mResguardBuilder.removeStrings(RawARSCDecoder.getExistTypeSpecNameStrings(resTypeId));
+    mResguardBuilder.removeStrings(mApkDecoder.getExistTypeSpecNameStrings(resTypeId));
     // 如果是保持mapping的话，需要去掉某部分已经用过的mapping
     reduceFromOldMappingFile();
+    assignByFrequency(resTypeId, whiteListPatterns);
+  }
+
+  /**
+   * the entries of the type which are not kept by the old mapping or the whitelist are named at once, the ones with
+   * the most res files first. A file path is in the global string pool, and in the local header and the central
+   * directory of the zip.
+   */
+  private void assignByFrequency(int resTypeId, HashSet<Pattern> whiteListPatterns) throws AndrolibException {
+    mFrequencyNames = null;
+    if (!mPkg.isCanResguard() || !mApkDecoder.getConfig().mUseFrequencyNaming) {
+      return;
+    }
+    final RawARSCDecoder.TypeEntries entries =
+        mApkDecoder.getTypeEntries(RawARSCDecoder.TypeEntries.key(mResId & 0xff000000 | resTypeId << 16));
+    if (entries == null) {
+      return;
+    }
+    List<Integer> named = new ArrayList<>();
+    for (int i = 0; i < entries.specNameIds.length; i++) {
+      int specNamesId = entries.specNameIds[i];
+      if (specNamesId < 0 || specNamesId >= mSpecNameStrings.length) {
+        continue;
+      }
+      if (mOldSpecReplaceCount > 0 && mOldSpecReplaces[specNamesId] != null) {
+        continue;
+      }
+      if (matchWhiteList(getSpecName(specNamesId), whiteListPatterns)) {
+        continue;
+      }
+      named.add(i);
+    }
+    List<Integer> sorted = new ArrayList<>(named);
+    // stable, the entries with as many files keep the order of the arsc
+    Collections.sort(sorted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return entries.fileCounts[b] - entries.fileCounts[a];
+      }
+    });
+    mFrequencyNames = new String[entries.specNameIds.length];
+    List<String> names = new ArrayList<>(sorted.size());
+    for (int entry : sorted) {
+      String name = mResguardBuilder.getReplaceString();
+      names.add(name);
+      mFrequencyNames[entry] = name;
+    }
+    // the order of the arsc would have named them one by one
+    for (int i = 0; i < named.size(); i++) {
+      int entry = named.get(i);
+      mNameBytesSaved += (long) entries.fileCounts[entry] * PATH_COPIES * (names.get(i).length()
+                                                                           - mFrequencyNames[entry].length());
+    }
+  }
+
+  private boolean matchWhiteList(String specName, HashSet<Pattern> patterns) {
+    if (patterns == null) {
+      return false;
+    }
+    for (Pattern p : patterns) {
+      mRegexEvaluations++;
+      if (p.matcher(specName).matches()) {
+        return true;
+      }
+    }
+    return false;
   }
 
   private void writeLibraryType() throws AndrolibException, IOException {
@@ -504,33 +771,48 @@ public class ARSCDecoder {
 
   private void writeTableTypeSpec() throws AndrolibException, IOException {
     checkChunkType(Header.TYPE_SPEC_TYPE);
-    byte id = mIn.readByte();
+    int id = mIn.readUnsignedByte();
     mOut.writeByte(id);
     mResId = (0xff000000 & mResId) | id << 16;
     mOut.writeBytes(mIn, 3);
     int entryCount = mIn.readInt();
     mOut.writeInt(entryCount);
+    mTypeEntryCount = entryCount;
     // 对，这里是用来描述差异性的！！！
     ///* flags */mIn.skipBytes(entryCount * 4);
     int[] entryOffsets = mIn.readIntArray(entryCount);
     mOut.writeIntArray(entryOffsets);
 
-    while (writeNextChunk(0).type == Header.TYPE_TYPE) {
+    // the size of a config chunk may change, its header is written by writeConfig
+    while (nextChunk().type == Header.TYPE_TYPE) {
       writeConfig();
     }
+    if (mHeader.type != Header.TYPE_NONE) {
+      writeChunkHeader(mHeader.type, mHeader.headerSize, mHeader.chunkSize);
+    }
   }
 
   private void readConfig() throws IOException, AndrolibException {
     checkChunkType(Header.TYPE_TYPE);
     /* typeId */
-    mIn.skipInt();
+    mIn.skipBytes(1);
+    int typeFlags = mIn.readUnsignedByte();
+    /* reserved */
+    mIn.skipBytes(2);
     int entryCount = mIn.readInt();
     int entriesStart = mIn.readInt();
     readConfigFlags();
-    int[] entryOffsets = mIn.readIntArray(entryCount);
+    int[] entryOffsets = readEntryOffsets(mIn, typeFlags, entryCount, mTypeEntryCount);
+    BitSet pruned = mConfigPruner == null ? null : mConfigPruner.getPrunedEntries(mConfigIndex++);
+    int[] entrySizes = pruned == null ? null : entrySizes(entryOffsets, mHeader.chunkSize - entriesStart);
     for (int i = 0; i < entryOffsets.length; i++) {
       mCurEntryID = i;
       if (entryOffsets[i] != -1) {
+        if (pruned != null && pruned.get(i)) {
+          // neither named nor its file copied, a kept config has the entry as well
+          mIn.skipBytes(entrySizes[i]);
+          continue;
+        }
         mResId = (mResId & 0xffff0000) | i;
         readEntry();
       }
@@ -539,30 +821,176 @@ public class ARSCDecoder {
 
   private void writeConfig() throws IOException, AndrolibException {
     checkChunkType(Header.TYPE_TYPE);
-    /* typeId */
-    mOut.writeInt(mIn.readInt());
-    /* entryCount */
+    int configIndex = mConfigIndex++;
+    if (mConfigPruner != null && mConfigPruner.isChunkPruned(configIndex)) {
+      // the whole chunk is left out
+      mIn.skipBytes(mHeader.chunkSize - 8);
+      mPkgsLenghtChange[mCurPackageID] += mHeader.chunkSize;
+      mTableLenghtChange += mHeader.chunkSize;
+      return;
+    }
+    int typeId = mIn.readUnsignedByte();
+    int typeFlags = mIn.readUnsignedByte();
+    short reserved = mIn.readShort();
     int entryCount = mIn.readInt();
-    mOut.writeInt(entryCount);
-    /* entriesStart */
-    mOut.writeInt(mIn.readInt());
-
-    writeConfigFlags();
-    int[] entryOffsets = mIn.readIntArray(entryCount);
-    mOut.writeIntArray(entryOffsets);
+    int entriesStart = mIn.readInt();
+    // the config and whatever the header has after it are kept as they are
+    byte[] config = new byte[mHeader.headerSize - TYPE_HEADER_BYTES];
+    if (config.length < 28) {
+      throw new AndrolibException("Config size < 28");
+    }
+    mIn.readFully(config);
+    int[] entryOffsets = readEntryOffsets(mIn, typeFlags, entryCount, mTypeEntryCount);
+    int gapSize = entriesStart - mHeader.headerSize - entryCount * 4;
+    if (gapSize < 0) {
+      throw new AndrolibException(String.format("writeConfig bad entriesStart %d", entriesStart));
+    }
+    byte[] gap = new byte[gapSize];
+    mIn.readFully(gap);
+
+    int dataSize = mHeader.chunkSize - entriesStart;
+    BitSet pruned = mConfigPruner == null ? null : mConfigPruner.getPrunedEntries(configIndex);
+    int[] entrySizes = null;
+    int[] denseOffsets = entryOffsets;
+    if (pruned != null) {
+      // the kept entries move up to fill the space of the pruned ones
+      entrySizes = entrySizes(entryOffsets, dataSize);
+      denseOffsets = new int[entryOffsets.length];
+      int offset = 0;
+      for (int i = 0; i < entryOffsets.length; i++) {
+        if (entryOffsets[i] == NO_ENTRY || pruned.get(i)) {
+          denseOffsets[i] = NO_ENTRY;
+        } else {
+          denseOffsets[i] = offset;
+          offset += entrySizes[i];
+        }
+      }
+      dataSize = offset;
+    }
+    int[] offsets = denseOffsets;
+    if ((typeFlags & TYPE_FLAG_SPARSE) != 0) {
+      offsets = toSparse(denseOffsets);
+    } else if (mSparseEncoding && shouldBeSparse(denseOffsets)) {
+      offsets = toSparse(denseOffsets);
+      typeFlags |= TYPE_FLAG_SPARSE;
+      mSparseConfigCount++;
+    }
+    // the entries are written as they are, only the offsets before them change
+    int newEntriesStart = mHeader.headerSize + offsets.length * 4 + gapSize;
+    int newChunkSize = newEntriesStart + dataSize;
+    int sizeChange = mHeader.chunkSize - newChunkSize;
+    mPkgsLenghtChange[mCurPackageID] += sizeChange;
+    mTableLenghtChange += sizeChange;
+
+    writeChunkHeader(Header.TYPE_TYPE, mHeader.headerSize, newChunkSize);
+    mOut.writeByte(typeId);
+    mOut.writeByte(typeFlags);
+    mOut.writeShort(reserved);
+    mOut.writeInt(offsets.length);
+    mOut.writeInt(newEntriesStart);
+    mOut.write(config);
+    mOut.writeIntArray(offsets);
+    mOut.write(gap);
 
     for (int i = 0; i < entryOffsets.length; i++) {
       if (entryOffsets[i] != -1) {
+        if (pruned != null && pruned.get(i)) {
+          mIn.skipBytes(entrySizes[i]);
+          continue;
+        }
         mResId = (mResId & 0xffff0000) | i;
         writeEntry();
       }
     }
   }
 
+  /**
+   * the entries follow each other in the order of their index, as the chunk is read
+   *
+   * @param dataSize bytes of the entries of the chunk
+   * @return the size of every entry, the padding after it included
+   */
+  private static int[] entrySizes(int[] entryOffsets, int dataSize) throws AndrolibException {
+    int[] sizes = new int[entryOffsets.length];
+    int last = -1;
+    for (int i = 0; i < entryOffsets.length; i++) {
+      if (entryOffsets[i] == NO_ENTRY) {
+        continue;
+      }
+      if (last != -1) {
+        sizes[last] = entryOffsets[i] - entryOffsets[last];
+        if (sizes[last] <= 0) {
+          throw new AndrolibException(String.format("the entries of the config are out of order at %d", i));
+        }
+      }
+      last = i;
+    }
+    if (last != -1) {
+      sizes[last] = dataSize - entryOffsets[last];
+    }
+    return sizes;
+  }
+
+  /**
+   * @param typeFlags      flags of the type chunk
+   * @param entryCount     offsets in the chunk
+   * @param typeEntryCount entries of the type spec
+   * @return the offset of every entry, {@link #NO_ENTRY} for the ones the config does not have
+   */
+  public static int[] readEntryOffsets(ExtDataInput in, int typeFlags, int entryCount, int typeEntryCount)
+      throws IOException {
+    if ((typeFlags & TYPE_FLAG_SPARSE) == 0) {
+      return in.readIntArray(entryCount);
+    }
+    int[] offsets = new int[typeEntryCount];
+    Arrays.fill(offsets, NO_ENTRY);
+    for (int i = 0; i < entryCount; i++) {
+      int entry = in.readInt();
+      int index = entry & 0xffff;
+      if (index >= typeEntryCount) {
+        throw new IOException(String.format("sparse entry %d is out of the type of %d entries", index, typeEntryCount));
+      }
+      offsets[index] = (entry >>> 16) * 4;
+    }
+    return offsets;
+  }
+
+  private static boolean shouldBeSparse(int[] entryOffsets) {
+    int present = 0;
+    for (int offset : entryOffsets) {
+      if (offset == NO_ENTRY) {
+        continue;
+      }
+      if (offset % 4 != 0 || offset > SPARSE_MAX_OFFSET) {
+        return false;
+      }
+      present++;
+    }
+    return entryOffsets.length <= 0x10000 && present * 100 < entryOffsets.length * SPARSE_MAX_DENSITY_PERCENT;
+  }
+
+  private static int[] toSparse(int[] entryOffsets) {
+    int present = 0;
+    for (int offset : entryOffsets) {
+      if (offset != NO_ENTRY) {
+        present++;
+      }
+    }
+    int[] sparse = new int[present];
+    int count = 0;
+    for (int i = 0; i < entryOffsets.length; i++) {
+      if (entryOffsets[i] != NO_ENTRY) {
+        sparse[count++] = i | (entryOffsets[i] / 4) << 16;
+      }
+    }
+    return sparse;
+  }
+
   private void readEntry() throws IOException, AndrolibException {
     mIn.skipBytes(2);
     short flags = mIn.readShort();
     int specNamesId = mIn.readInt();
+    mEntryCount++;
 
     if (mPkg.isCanResguard()) {
       // 混淆过或者已经添加到白名单的都不需要再处理了
@@ -599,13 +1027,14 @@ public class ARSCDecoder {
       HashMap<String, HashSet<Pattern>> typeMaps = config.mWhiteList.get(packName);
       String typeName = mType.getName();
       if (typeMaps.containsKey(typeName)) {
-        String specName = mSpecNames.get(specNamesId).toString();
+        String specName = getSpecName(specNamesId);
         HashSet<Pattern> patterns = typeMaps.get(typeName);
         for (Iterator<Pattern> it = patterns.iterator(); it.hasNext(); ) {
           Pattern p = it.next();
+          mRegexEvaluations++;
           if (p.matcher(specName).matches()) {
-            if (DEBUG) {
-              System.out.printf("[match] matcher %s ,typeName %s, specName :%s\n", p.pattern(), typeName, specName);
+            if (Log.isLoggable(Log.Level.DEBUG)) {
+              Log.d("[match] matcher %s ,typeName %s, specName :%s", p.pattern(), typeName, specName);
             }
             mPkg.putSpecNamesReplace(mResId, specName);
             mPkg.putSpecNamesblock(specName, specName);
@@ -622,24 +1051,14 @@ public class ARSCDecoder {
 
   private void dealWithNonWhiteList(int specNamesId, Configuration config) throws AndrolibException, IOException {
     String replaceString = null;
-    boolean keepMapping = false;
-    if (config.mUseKeepMapping) {
-      String packName = mPkg.getName();
-      if (config.mOldResMapping.containsKey(packName)) {
-        HashMap<String, HashMap<String, String>> typeMaps = config.mOldResMapping.get(packName);
-        String typeName = mType.getName();
-        if (typeMaps.containsKey(typeName)) {
-          HashMap<String, String> nameMap = typeMaps.get(typeName);
-          String specName = mSpecNames.get(specNamesId).toString();
-          if (nameMap.containsKey(specName)) {
-            keepMapping = true;
-            replaceString = nameMap.get(specName);
-          }
-        }
-      }
+    if (mOldSpecReplaceCount > 0) {
+      replaceString = mOldSpecReplaces[specNamesId];
     }
 
-    if (!keepMapping) {
+    if (replaceString == null && mFrequencyNames != null && mCurEntryID < mFrequencyNames.length) {
+      replaceString = mFrequencyNames[mCurEntryID];
+    }
+    if (replaceString == null) {
       replaceString = mResguardBuilder.getReplaceString();
     }
 
@@ -647,7 +1066,7 @@ public class ARSCDecoder {
     if (replaceString == null) {
       throw new AndrolibException("readEntry replaceString == null");
     }
-    generalResIDMapping(mPkg.getName(), mType.getName(), mSpecNames.get(specNamesId).toString(), replaceString);
+    generalResIDMapping(mPkg.getName(), mType.getName(), getSpecName(specNamesId), replaceString);
     mPkg.putSpecNamesReplace(mResId, replaceString);
     // arsc name列混淆成固定名字, 减少string pool大小
     boolean useFixedName = config.mFixedResName != null && config.mFixedResName.length() > 0;
@@ -717,7 +1136,7 @@ public class ARSCDecoder {
        && type == TypedValue.TYPE_STRING
        && mShouldResguardForType
        && mShouldResguardTypeSet.contains(mType.getName())) {
-      if (mTableStringsResguard.get(data) == null) {
+      if (mApkDecoder.getTableStringsResguard().get(data) == null) {
         String raw = mTableStrings.get(data).toString();
         if (StringUtil.isBlank(raw) || raw.equalsIgnoreCase("null")) return;
 
@@ -734,7 +1153,7 @@ public class ARSCDecoder {
           newFilePath = mOldFileName.get(raw.substring(0, secondSlash));
         }
         if (newFilePath == null) {
-          System.err.printf("can not found new res path, raw=%s\n", raw);
+          Log.w("can not found new res path, raw=%s", raw);
           return;
         }
         //同理这里不能用File.separator，因为resources.arsc里面就是用这个
@@ -755,6 +1174,7 @@ public class ARSCDecoder {
         File resRawFile = new File(mApkDecoder.getOutTempDir().getAbsolutePath() + File.separator + compatibaleraw);
         File resDestFile = new File(mApkDecoder.getOutDir().getAbsolutePath() + File.separator + compatibaleresult);
 
+        long copyStart = System.nanoTime();
         MergeDuplicatedResInfo filterInfo = null;
         boolean mergeDuplicatedRes = mApkDecoder.getConfig().mMergeDuplicatedRes;
         if (mergeDuplicatedRes) {
@@ -770,11 +1190,15 @@ public class ARSCDecoder {
         if (compressData.containsKey(raw)) {
           compressData.put(result, compressData.get(raw));
         } else {
-          System.err.printf("can not find the compress dataresFile=%s\n", raw);
+          Log.sample(Log.Level.WARN, "can not find the compress data", "can not find the compress dataresFile=%s", raw);
         }
 
         if (!resRawFile.exists()) {
-          System.err.printf("can not find res file, you delete it? path: resFile=%s\n", resRawFile.getAbsolutePath());
+          Log.sample(Log.Level.WARN,
+              "can not find res file",
+              "can not find res file, you delete it? path: resFile=%s",
+              resRawFile.getAbsolutePath()
+          );
         } else {
           if (!mergeDuplicatedRes && resDestFile.exists()) {
             throw new AndrolibException(String.format("res dest file is already  found: destFile=%s",
@@ -783,11 +1207,14 @@ public class ARSCDecoder {
           }
           if (filterInfo == null) {
             FileOperation.copyFileUsingStream(resRawFile, resDestFile);
+            mApkDecoder.getMetrics().count(Metrics.FILES_COPIED, 1);
+            mApkDecoder.getMetrics().count(Metrics.BYTES_COPIED, resRawFile.length());
           }
           //already copied
           mApkDecoder.removeCopiedResFile(resRawFile.toPath());
-          mTableStringsResguard.put(data, result);
+          mApkDecoder.getTableStringsResguard().put(data, result);
         }
+        mApkDecoder.getMetrics().end(Metrics.COPY, copyStart);
       }
     }
   }
@@ -798,6 +1225,8 @@ public class ARSCDecoder {
   private MergeDuplicatedResInfo mergeDuplicated(File resRawFile, File resDestFile, String compatibaleraw, String result) throws IOException {
     MergeDuplicatedResInfo filterInfo = null;
     List<MergeDuplicatedResInfo> mergeDuplicatedResInfoList = mMergeDuplicatedResInfoData.get(resRawFile.length());
+    DuplicateHashEvent event = new DuplicateHashEvent();
+    event.begin();
     if (mergeDuplicatedResInfoList != null) {
       for (MergeDuplicatedResInfo mergeDuplicatedResInfo : mergeDuplicatedResInfoList) {
         if (mergeDuplicatedResInfo.md5 == null) {
@@ -811,6 +1240,14 @@ public class ARSCDecoder {
         }
       }
     }
+    event.end();
+    if (event.shouldCommit()) {
+      event.path = compatibaleraw;
+      event.size = resRawFile.length();
+      event.candidates = mergeDuplicatedResInfoList == null ? 0 : mergeDuplicatedResInfoList.size();
+      event.merged = filterInfo != null;
+      event.commit();
+    }
     if (filterInfo != null) {
       generalFilterResIDMapping(compatibaleraw, result, filterInfo.originalName, filterInfo.fileName, resRawFile.length());
       mMergeDuplicatedResCount++;
@@ -925,14 +1362,14 @@ public class ARSCDecoder {
       BigInteger exceedingBI = new BigInteger(1, buf);
 
       if (exceedingBI.equals(BigInteger.ZERO)) {
-        LOGGER.fine(String.format("Config flags size > %d, but exceeding bytes are all zero, so it should be ok.",
+        Log.d("Config flags size > %d, but exceeding bytes are all zero, so it should be ok.",
            KNOWN_CONFIG_BYTES
-        ));
+        );
       } else {
-        LOGGER.warning(String.format("Config flags size > %d. Exceeding bytes: 0x%X.",
+        Log.w("Config flags size > %d. Exceeding bytes: 0x%X.",
            KNOWN_CONFIG_BYTES,
            exceedingBI
-        ));
+        );
         isInvalid = true;
       }
     }
@@ -953,17 +1390,6 @@ public class ARSCDecoder {
     return string.toString();
   }
 
-  private void writeConfigFlags() throws IOException, AndrolibException {
-    //总的有多大
-    int size = mIn.readInt();
-    if (size < 28) {
-      throw new AndrolibException("Config size < 28");
-    }
-    mOut.writeInt(size);
-
-    mOut.writeBytes(mIn, size - 4);
-  }
-
   private Header nextChunk() throws IOException {
     return mHeader = Header.read(mIn);
   }
@@ -982,6 +1408,12 @@ public class ARSCDecoder {
     checkChunkType(expectedType);
   }
 
+  private void writeChunkHeader(short type, short headerSize, int chunkSize) throws IOException {
+    mOut.writeShort(type);
+    mOut.writeShort(headerSize);
+    mOut.writeInt(chunkSize);
+  }
+
   private Header writeNextChunk(int diffSize) throws IOException, AndrolibException {
     mHeader = Header.readAndWriteHeader(mIn, mOut, diffSize);
     return mHeader;
@@ -1007,10 +1439,16 @@ public class ARSCDecoder {
        TYPE_SPEC_TYPE = 0x0202, TYPE_LIBRARY = 0x0203;
 
     public final short type;
+    public final short headerSize;
     public final int chunkSize;
 
     public Header(short type, int size) {
+      this(type, (short) 0, size);
+    }
+
+    public Header(short type, short headerSize, int size) {
       this.type = type;
+      this.headerSize = headerSize;
       this.chunkSize = size;
     }
 
@@ -1018,9 +1456,9 @@ public class ARSCDecoder {
       short type;
       try {
         type = in.readShort();
-        short count = in.readShort();
+        short headerSize = in.readShort();
         int size = in.readInt();
-        return new Header(type, size);
+        return new Header(type, headerSize, size);
       } catch (EOFException ex) {
         return new Header(TYPE_NONE, 0);
       }
@@ -1029,12 +1467,13 @@ public class ARSCDecoder {
     public static Header readAndWriteHeader(ExtDataInput in, ExtDataOutput out, int diffSize)
        throws IOException, AndrolibException {
       short type;
+      short headerSize;
       int size;
       try {
         type = in.readShort();
         out.writeShort(type);
-        short count = in.readShort();
-        out.writeShort(count);
+        headerSize = in.readShort();
+        out.writeShort(headerSize);
         size = in.readInt();
         size -= diffSize;
         if (size <= 0) {
@@ -1044,7 +1483,7 @@ public class ARSCDecoder {
       } catch (EOFException ex) {
         return new Header(TYPE_NONE, 0);
       }
-      return new Header(type, size);
+      return new Header(type, headerSize, size);
     }
   }
 
@@ -1102,102 +1541,4 @@ public class ARSCDecoder {
       }
     }
   }
-
-  private class ResguardStringBuilder {
-    private final List<String> mReplaceStringBuffer;
-    private final Set<Integer> mIsReplaced;
-    private final Set<Integer> mIsWhiteList;
-    private String[] mAToZ = {
-       "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v",
-       "w", "x", "y", "z"
-    };
-    private String[] mAToAll = {
-       "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "_", "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k",
-       "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z"
-    };
-    /**
-     * 在window上面有些关键字是不能作为文件名的
-     * CON, PRN, AUX, CLOCK$, NUL
-     * COM1, COM2, COM3, COM4, COM5, COM6, COM7, COM8, COM9
-     * LPT1, LPT2, LPT3, LPT4, LPT5, LPT6, LPT7, LPT8, and LPT9.
-     */
-    private HashSet<String> mFileNameBlackList;
-
-    public ResguardStringBuilder() {
-      mFileNameBlackList = new HashSet<>();
-      mFileNameBlackList.add("con");
-      mFileNameBlackList.add("prn");
-      mFileNameBlackList.add("aux");
-      mFileNameBlackList.add("nul");
-      mReplaceStringBuffer = new ArrayList<>();
-      mIsReplaced = new HashSet<>();
-      mIsWhiteList = new HashSet<>();
-    }
-
-    public void reset(HashSet<Pattern> blacklistPatterns) {
-      mReplaceStringBuffer.clear();
-      mIsReplaced.clear();
-      mIsWhiteList.clear();
-
-      for (int i = 0; i < mAToZ.length; i++) {
-        String str = mAToZ[i];
-        if (!Utils.match(str, blacklistPatterns)) {
-          mReplaceStringBuffer.add(str);
-        }
-      }
-
-      for (int i = 0; i < mAToZ.length; i++) {
-        String first = mAToZ[i];
-        for (int j = 0; j < mAToAll.length; j++) {
-          String str = first + mAToAll[j];
-          if (!Utils.match(str, blacklistPatterns)) {
-            mReplaceStringBuffer.add(str);
-          }
-        }
-      }
-
-      for (int i = 0; i < mAToZ.length; i++) {
-        String first = mAToZ[i];
-        for (int j = 0; j < mAToAll.length; j++) {
-          String second = mAToAll[j];
-          for (int k = 0; k < mAToAll.length; k++) {
-            String third = mAToAll[k];
-            String str = first + second + third;
-            if (!mFileNameBlackList.contains(str) && !Utils.match(str, blacklistPatterns)) {
-              mReplaceStringBuffer.add(str);
-            }
-          }
-        }
-      }
-    }
-
-    // 对于某种类型用过的mapping，全部不能再用了
-    public void removeStrings(Collection<String> collection) {
-      if (collection == null) return;
-      mReplaceStringBuffer.removeAll(collection);
-    }
-
-    public boolean isReplaced(int id) {
-      return mIsReplaced.contains(id);
-    }
-
-    public boolean isInWhiteList(int id) {
-      return mIsWhiteList.contains(id);
-    }
-
-    public void setInWhiteList(int id) {
-      mIsWhiteList.add(id);
-    }
-
-    public void setInReplaceList(int id) {
-      mIsReplaced.add(id);
-    }
-
-    public String getReplaceString() throws AndrolibException {
-      if (mReplaceStringBuffer.isEmpty()) {
-        throw new AndrolibException(String.format("now can only proguard less than 35594 in a single type\n"));
-      }
-      return mReplaceStringBuffer.remove(0);
-    }
-  }
-}
\ No newline at end of file
+}
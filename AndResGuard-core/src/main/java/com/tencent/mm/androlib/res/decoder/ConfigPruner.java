@@ -0,0 +1,544 @@
+package com.tencent.mm.androlib.res.decoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which values of the resources.arsc the devices an apk is built for never use: the configs of the locales
+ * which are not kept, the densities no kept density picks, and the versions shadowed by a higher one the min sdk
+ * already has. It may also merge the values which are the same as the one of the default config, when no other
+ * value could be picked in between. The raw decoder adds the type chunks one type at a time, the later passes then
+ * read the pruned entries of every chunk in the same order. The last value of an entry is never pruned.
+ * <p>
+ * The size of an entry is the gap to the next one, so a chunk whose entries share or reorder their offsets, as
+ * aapt2 --deduplicate-entry-values writes them, is neither pruned nor merged, its values are still picked from.
+ */
+public class ConfigPruner {
+  public static final int DENSITY_DEFAULT = 0;
+  public static final int DENSITY_MEDIUM = 160;
+  public static final int DENSITY_ANY = 0xfffe;
+  public static final int DENSITY_NONE = 0xffff;
+
+  /**
+   * offsets in the ResTable_config, its size included
+   */
+  private static final int LANGUAGE_OFFSET = 8;
+  private static final int COUNTRY_OFFSET = 10;
+  private static final int DENSITY_OFFSET = 14;
+  private static final int SDK_VERSION_OFFSET = 24;
+  private static final int MIN_CONFIG_SIZE = 28;
+
+  private final int[] mKeepDensities;
+  /**
+   * language and region of the kept locales, the region is empty when any region is kept
+   */
+  private final List<String[]> mKeepLocales = new ArrayList<>();
+  private final int mMinSdkVersion;
+  private final boolean mMergeDuplicatedValues;
+
+  private final List<Chunk> mTypeChunks = new ArrayList<>();
+  private final List<BitSet> mPrunedEntries = new ArrayList<>();
+  private final BitSet mPrunedChunks = new BitSet();
+  private final Set<String> mPrunedFiles = new HashSet<>();
+  private final Set<String> mKeptFiles = new HashSet<>();
+  private long mPrunedEntryCount;
+  private long mDuplicatedValueCount;
+  private long mDuplicatedValueBytes;
+
+  /**
+   * @param keepDensities the densities like 480, empty keeps all of them
+   * @param keepLocales   the locales like en or zh-rCN, empty keeps all of them
+   * @param minSdkVersion the versions up to it are collapsed, 0 keeps all of them
+   * @param mergeDuplicatedValues whether the values the default config already has are merged, the entries of
+   *                              every chunk are needed for it
+   */
+  public ConfigPruner(
+      List<Integer> keepDensities, List<String> keepLocales, int minSdkVersion, boolean mergeDuplicatedValues) {
+    mKeepDensities = new int[keepDensities.size()];
+    for (int i = 0; i < mKeepDensities.length; i++) {
+      mKeepDensities[i] = keepDensities.get(i);
+    }
+    for (String locale : keepLocales) {
+      mKeepLocales.add(parseLocale(locale));
+    }
+    mMinSdkVersion = minSdkVersion;
+    mMergeDuplicatedValues = mergeDuplicatedValues;
+  }
+
+  public boolean isMergeDuplicatedValues() {
+    return mMergeDuplicatedValues;
+  }
+
+  /**
+   * @param locale like en, zh-rCN, zh_CN or zh-CN
+   * @return the language and the region, lower and upper case
+   */
+  static String[] parseLocale(String locale) {
+    String value = locale.trim();
+    int separator = value.indexOf('-');
+    if (separator == -1) {
+      separator = value.indexOf('_');
+    }
+    if (separator == -1) {
+      return new String[] {value.toLowerCase(), ""};
+    }
+    String region = value.substring(separator + 1);
+    if (region.length() == 3 && (region.charAt(0) == 'r' || region.charAt(0) == 'R')) {
+      region = region.substring(1);
+    }
+    return new String[] {value.substring(0, separator).toLowerCase(), region.toUpperCase()};
+  }
+
+  /**
+   * add a type chunk of the current type
+   *
+   * @param config       the ResTable_config, its size first
+   * @param entryOffsets of every entry, {@link ARSCDecoder#NO_ENTRY} for the ones the config does not have
+   * @param files        the res file of every entry, null for the ones which are not a file
+   * @param entries      the entries of the chunk, only needed to merge the duplicated values
+   */
+  public void addConfig(byte[] config, int[] entryOffsets, String[] files, byte[] entries) {
+    if (config.length < MIN_CONFIG_SIZE) {
+      // it is kept as it is
+      config = new byte[0];
+    }
+    BitSet present = new BitSet(entryOffsets.length);
+    boolean ordered = true;
+    int last = -1;
+    for (int i = 0; i < entryOffsets.length; i++) {
+      if (entryOffsets[i] != ARSCDecoder.NO_ENTRY) {
+        present.set(i);
+        ordered &= entryOffsets[i] > last;
+        last = entryOffsets[i];
+      }
+    }
+    if (entries != null && last >= entries.length) {
+      ordered = false;
+    }
+    mTypeChunks.add(new Chunk(config, present, files, entryOffsets, entries, ordered));
+  }
+
+  /**
+   * the chunks of the type are all added, decide which entries of them are pruned
+   */
+  public void endType() {
+    for (Chunk chunk : mTypeChunks) {
+      if (chunk.config.length > 0 && !isKeptLocale(chunk.config)) {
+        chunk.pruned.or(chunk.present);
+      }
+    }
+    if (mMinSdkVersion > 0) {
+      for (List<Chunk> group : group(SDK_VERSION_OFFSET, false).values()) {
+        collapseVersions(group);
+      }
+    }
+    if (mKeepDensities.length > 0) {
+      for (List<Chunk> group : group(DENSITY_OFFSET, mMinSdkVersion > 0).values()) {
+        pruneDensities(group);
+      }
+    }
+    // a value which is never picked may stay, so what the devices pick does not change
+    for (Chunk chunk : mTypeChunks) {
+      if (!chunk.ordered) {
+        chunk.pruned.clear();
+      }
+    }
+    keepLastValues();
+    if (mMergeDuplicatedValues) {
+      mergeDuplicatedValues();
+    }
+
+    for (Chunk chunk : mTypeChunks) {
+      mPrunedEntryCount += chunk.pruned.cardinality();
+      mDuplicatedValueCount += chunk.duplicated.cardinality();
+      chunk.pruned.or(chunk.duplicated);
+      int chunkIndex = mPrunedEntries.size();
+      mPrunedEntries.add(chunk.pruned.isEmpty() ? null : chunk.pruned);
+      if (!chunk.present.isEmpty() && chunk.pruned.equals(chunk.present)) {
+        mPrunedChunks.set(chunkIndex);
+      }
+      if (chunk.files == null) {
+        continue;
+      }
+      for (int i = 0; i < chunk.files.length; i++) {
+        if (chunk.files[i] != null) {
+          (chunk.pruned.get(i) ? mPrunedFiles : mKeptFiles).add(chunk.files[i]);
+        }
+      }
+    }
+    mTypeChunks.clear();
+  }
+
+  /**
+   * @return the pruned entries of the chunk, null if there are none
+   */
+  public BitSet getPrunedEntries(int chunk) {
+    return chunk < mPrunedEntries.size() ? mPrunedEntries.get(chunk) : null;
+  }
+
+  /**
+   * @return whether all the entries of the chunk are pruned, it is left out
+   */
+  public boolean isChunkPruned(int chunk) {
+    return mPrunedChunks.get(chunk);
+  }
+
+  public int getPrunedChunkCount() {
+    return mPrunedChunks.cardinality();
+  }
+
+  /**
+   * @return the entries pruned for the densities, locales and versions, the merged values are not counted
+   */
+  public long getPrunedEntryCount() {
+    return mPrunedEntryCount;
+  }
+
+  public long getDuplicatedValueCount() {
+    return mDuplicatedValueCount;
+  }
+
+  public long getDuplicatedValueBytes() {
+    return mDuplicatedValueBytes;
+  }
+
+  /**
+   * @return the res files only the pruned entries have
+   */
+  public Set<String> getPrunedFiles() {
+    Set<String> files = new HashSet<>(mPrunedFiles);
+    files.removeAll(mKeptFiles);
+    return files;
+  }
+
+  private boolean isKeptLocale(byte[] config) {
+    if (mKeepLocales.isEmpty() || (config[LANGUAGE_OFFSET] == 0 && config[LANGUAGE_OFFSET + 1] == 0)) {
+      return true;
+    }
+    String language = unpackLocale(config, LANGUAGE_OFFSET, 'a');
+    String region = unpackLocale(config, COUNTRY_OFFSET, '0');
+    for (String[] locale : mKeepLocales) {
+      if (locale[0].equals(language) && (locale[1].isEmpty() || region.isEmpty() || locale[1].equals(region))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * two chars, or three letters packed in 15 bits when the high bit is set
+   */
+  private static String unpackLocale(byte[] config, int offset, char base) {
+    int in0 = config[offset] & 0xff;
+    int in1 = config[offset + 1] & 0xff;
+    if (in0 == 0 && in1 == 0) {
+      return "";
+    }
+    if ((in0 & 0x80) == 0) {
+      return new String(new char[] {(char) in0, (char) in1});
+    }
+    char first = (char) (base + (in1 & 0x1f));
+    char second = (char) (base + ((in1 & 0xe0) >> 5) + ((in0 & 0x03) << 3));
+    char third = (char) (base + ((in0 & 0x7c) >> 2));
+    return new String(new char[] {first, second, third});
+  }
+
+  /**
+   * @param varying   the offset of the short the chunks of a group may differ in
+   * @param collapsed whether the versions up to the min sdk are the same, they are already collapsed
+   */
+  private Map<ByteBuffer, List<Chunk>> group(int varying, boolean collapsed) {
+    Map<ByteBuffer, List<Chunk>> groups = new HashMap<>();
+    for (Chunk chunk : mTypeChunks) {
+      if (chunk.config.length == 0) {
+        continue;
+      }
+      byte[] key = chunk.config.clone();
+      key[varying] = 0;
+      key[varying + 1] = 0;
+      if (collapsed && sdkVersion(chunk.config) <= mMinSdkVersion) {
+        key[SDK_VERSION_OFFSET] = 0;
+        key[SDK_VERSION_OFFSET + 1] = 0;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(key);
+      List<Chunk> group = groups.get(buffer);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.put(buffer, group);
+      }
+      group.add(chunk);
+    }
+    return groups;
+  }
+
+  /**
+   * every device has the versions up to the min sdk, only the highest of them is ever picked
+   */
+  private void collapseVersions(List<Chunk> group) {
+    if (group.size() < 2) {
+      return;
+    }
+    BitSet entries = entries(group);
+    for (int entry = entries.nextSetBit(0); entry >= 0; entry = entries.nextSetBit(entry + 1)) {
+      Chunk highest = null;
+      for (Chunk chunk : group) {
+        int version = sdkVersion(chunk.config);
+        if (has(chunk, entry) && version <= mMinSdkVersion
+            && (highest == null || version > sdkVersion(highest.config))) {
+          highest = chunk;
+        }
+      }
+      for (Chunk chunk : group) {
+        if (chunk != highest && has(chunk, entry) && sdkVersion(chunk.config) <= mMinSdkVersion) {
+          chunk.pruned.set(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * only the densities a kept density picks stay, a kept density without a value of its own falls back to the
+   * nearest one as the device would
+   */
+  private void pruneDensities(List<Chunk> group) {
+    if (group.size() < 2) {
+      return;
+    }
+    List<Chunk> candidates = new ArrayList<>();
+    BitSet entries = entries(group);
+    for (int entry = entries.nextSetBit(0); entry >= 0; entry = entries.nextSetBit(entry + 1)) {
+      candidates.clear();
+      boolean special = false;
+      for (Chunk chunk : group) {
+        if (has(chunk, entry)) {
+          candidates.add(chunk);
+          int density = density(chunk.config);
+          special |= density == DENSITY_ANY || density == DENSITY_NONE;
+        }
+      }
+      if (candidates.size() < 2 || special) {
+        continue;
+      }
+      Set<Integer> picked = new HashSet<>();
+      for (int requested : mKeepDensities) {
+        int best = -1;
+        for (Chunk chunk : candidates) {
+          int density = effectiveDensity(density(chunk.config));
+          if (best == -1 || isBetterDensity(density, best, requested)) {
+            best = density;
+          }
+        }
+        picked.add(best);
+      }
+      for (Chunk chunk : candidates) {
+        if (!picked.contains(effectiveDensity(density(chunk.config)))) {
+          chunk.pruned.set(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * an entry whose every value is pruned, such as a string only in a locale which is not kept, keeps them all
+   */
+  private void keepLastValues() {
+    BitSet entries = entries(mTypeChunks);
+    for (int entry = entries.nextSetBit(0); entry >= 0; entry = entries.nextSetBit(entry + 1)) {
+      boolean kept = false;
+      for (Chunk chunk : mTypeChunks) {
+        if (has(chunk, entry)) {
+          kept = true;
+          break;
+        }
+      }
+      if (!kept) {
+        for (Chunk chunk : mTypeChunks) {
+          chunk.pruned.clear(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * a value the same as the one of the default config is dropped, the device of its config then picks the default
+   * one, unless a config with another value could be picked before it. Only the configs of another language
+   * never can.
+   */
+  private void mergeDuplicatedValues() {
+    Chunk defaults = null;
+    for (Chunk chunk : mTypeChunks) {
+      if (isDefault(chunk.config)) {
+        defaults = chunk;
+        break;
+      }
+    }
+    if (defaults == null || !defaults.ordered) {
+      return;
+    }
+    List<Chunk> same = new ArrayList<>();
+    List<Chunk> differing = new ArrayList<>();
+    for (int entry = defaults.present.nextSetBit(0); entry >= 0; entry = defaults.present.nextSetBit(entry + 1)) {
+      if (defaults.pruned.get(entry)) {
+        continue;
+      }
+      same.clear();
+      differing.clear();
+      for (Chunk chunk : mTypeChunks) {
+        if (chunk == defaults || !has(chunk, entry)) {
+          continue;
+        }
+        if (chunk.config.length > 0 && chunk.ordered && sameValue(chunk, defaults, entry)) {
+          same.add(chunk);
+        } else {
+          differing.add(chunk);
+        }
+      }
+      for (Chunk chunk : same) {
+        boolean shadowed = false;
+        for (Chunk other : differing) {
+          if (!isOtherLanguage(chunk.config, other.config)) {
+            shadowed = true;
+            break;
+          }
+        }
+        if (!shadowed) {
+          chunk.duplicated.set(entry);
+          mDuplicatedValueBytes += chunk.entrySize(entry);
+        }
+      }
+    }
+  }
+
+  private static boolean isDefault(byte[] config) {
+    if (config.length == 0) {
+      return false;
+    }
+    // the size comes first
+    for (int i = 4; i < config.length; i++) {
+      if (config[i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isOtherLanguage(byte[] config, byte[] other) {
+    if (config.length == 0 || other.length == 0) {
+      return false;
+    }
+    int language = readShort(config, LANGUAGE_OFFSET);
+    int otherLanguage = readShort(other, LANGUAGE_OFFSET);
+    return language != 0 && otherLanguage != 0 && language != otherLanguage;
+  }
+
+  private static boolean sameValue(Chunk chunk, Chunk other, int entry) {
+    int size = chunk.entrySize(entry);
+    if (size != other.entrySize(entry)) {
+      return false;
+    }
+    int offset = chunk.entryOffsets[entry];
+    int otherOffset = other.entryOffsets[entry];
+    for (int i = 0; i < size; i++) {
+      if (chunk.entries[offset + i] != other.entries[otherOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * ResTable_config::isBetterThan of the density
+   */
+  static boolean isBetterDensity(int density, int other, int requested) {
+    if (density == other) {
+      return false;
+    }
+    int h = density;
+    int l = other;
+    boolean bigger = true;
+    if (l > h) {
+      h = other;
+      l = density;
+      bigger = false;
+    }
+    if (requested >= h) {
+      return bigger;
+    }
+    if (l >= requested) {
+      return !bigger;
+    }
+    // one is higher than the requested density and one is lower
+    if (((2 * l) - requested) * h > requested * requested) {
+      return !bigger;
+    }
+    return bigger;
+  }
+
+  private static int effectiveDensity(int density) {
+    return density == DENSITY_DEFAULT ? DENSITY_MEDIUM : density;
+  }
+
+  private static BitSet entries(List<Chunk> chunks) {
+    BitSet entries = new BitSet();
+    for (Chunk chunk : chunks) {
+      entries.or(chunk.present);
+    }
+    return entries;
+  }
+
+  private static boolean has(Chunk chunk, int entry) {
+    return chunk.present.get(entry) && !chunk.pruned.get(entry);
+  }
+
+  private static int density(byte[] config) {
+    return readShort(config, DENSITY_OFFSET);
+  }
+
+  private static int sdkVersion(byte[] config) {
+    return readShort(config, SDK_VERSION_OFFSET);
+  }
+
+  private static int readShort(byte[] config, int offset) {
+    return (config[offset] & 0xff) | (config[offset + 1] & 0xff) << 8;
+  }
+
+  private static class Chunk {
+    final byte[] config;
+    final BitSet present;
+    final BitSet pruned = new BitSet();
+    /**
+     * the values merged into the default config, they are pruned as well in the end
+     */
+    final BitSet duplicated = new BitSet();
+    final String[] files;
+    final int[] entryOffsets;
+    final byte[] entries;
+    /**
+     * whether the offsets of the entries increase with their index, only then {@link #entrySize} is known
+     */
+    final boolean ordered;
+
+    Chunk(byte[] config, BitSet present, String[] files, int[] entryOffsets, byte[] entries, boolean ordered) {
+      this.config = config;
+      this.present = present;
+      this.files = files;
+      this.entryOffsets = entryOffsets;
+      this.entries = entries;
+      this.ordered = ordered;
+    }
+
+    /**
+     * the entries follow each other in the order of their index, the padding after one is counted
+     */
+    int entrySize(int entry) {
+      int next = present.nextSetBit(entry + 1);
+      return (next == -1 ? entries.length : entryOffsets[next]) - entryOffsets[entry];
+    }
+  }
+}
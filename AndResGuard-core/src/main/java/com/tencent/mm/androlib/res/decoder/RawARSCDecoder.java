@@ -22,14 +22,19 @@ import com.tencent.mm.androlib.AndrolibException;
 import com.tencent.mm.androlib.res.data.ResPackage;
 import com.tencent.mm.androlib.res.data.ResType;
 import com.tencent.mm.util.ExtDataInput;
+import com.tencent.mm.util.Log;
+import com.tencent.mm.util.TypedValue;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.logging.Logger;
 import org.apache.commons.io.input.CountingInputStream;
 
 /**
@@ -42,48 +47,82 @@ public class RawARSCDecoder {
   private final static short ENTRY_FLAG_PUBLIC = 0x0002;
   private final static short ENTRY_FLAG_WEAK = 0x0004;
 
-  private static final Logger LOGGER = Logger.getLogger(ARSCDecoder.class.getName());
   private static final int KNOWN_CONFIG_BYTES = 64;
 
-  private static HashMap<Integer, Set<String>> mExistTypeNames;
+  private final HashMap<Integer, Set<String>> mExistTypeNames;
+  /**
+   * null unless the caller wants the entries of every type
+   */
+  private final HashMap<Integer, TypeEntries> mTypeEntries;
+  /**
+   * null unless the configs are pruned
+   */
+  private final ConfigPruner mConfigPruner;
 
   private final CountingInputStream mCountIn;
 
   private ExtDataInput mIn;
   private Header mHeader;
+  private StringBlock mTableStrings;
+  /**
+   * whether a string of the global pool is a res file path, 0 until it is looked at
+   */
+  private byte[] mFilePathStrings;
+  private TypeEntries mCurTypeEntries;
+  /**
+   * the res file of every entry of the current config, only for the pruner
+   */
+  private String[] mConfigFiles;
   private StringBlock mTypeNames;
   private StringBlock mSpecNames;
   private ResPackage mPkg;
   private ResType mType;
   private int mTypeIdOffset = 0;
   private int mCurTypeID = -1;
+  private int mCurTypeEntryCount;
   private ResPackage[] mPkgs;
   private int mResId;
 
-  private RawARSCDecoder(InputStream arscStream) throws AndrolibException, IOException {
+  private RawARSCDecoder(
+      InputStream arscStream, HashMap<Integer, TypeEntries> typeEntries, ConfigPruner configPruner)
+      throws AndrolibException, IOException {
     arscStream = mCountIn = new CountingInputStream(arscStream);
     mIn = new ExtDataInput(new LEDataInputStream(arscStream));
     mExistTypeNames = new HashMap<>();
+    mTypeEntries = typeEntries;
+    mConfigPruner = configPruner;
+  }
+
+  /**
+   * @return the exist spec names of each type id
+   */
+  public static HashMap<Integer, Set<String>> decode(InputStream arscStream) throws AndrolibException {
+    return decode(arscStream, null, null);
   }
 
-  public static ResPackage[] decode(InputStream arscStream) throws AndrolibException {
+  /**
+   * @param typeEntries  filled with the entries of every type, by {@link TypeEntries#key(int)}, null skips them
+   * @param configPruner given every config to decide what is pruned, null skips them
+   * @return the exist spec names of each type id
+   */
+  public static HashMap<Integer, Set<String>> decode(
+      InputStream arscStream, HashMap<Integer, TypeEntries> typeEntries, ConfigPruner configPruner)
+      throws AndrolibException {
     try {
-      RawARSCDecoder decoder = new RawARSCDecoder(arscStream);
-      System.out.printf("parse to get the exist names in the resouces.arsc first\n");
-      return decoder.readTable();
+      RawARSCDecoder decoder = new RawARSCDecoder(arscStream, typeEntries, configPruner);
+      Log.i("parse to get the exist names in the resouces.arsc first");
+      decoder.readTable();
+      return decoder.mExistTypeNames;
     } catch (IOException ex) {
       throw new AndrolibException("Could not decode arsc file", ex);
     }
   }
 
-  public static Set<String> getExistTypeSpecNameStrings(int type) {
-    return mExistTypeNames.get(type);
-  }
-
   private ResPackage[] readTable() throws IOException, AndrolibException {
     nextChunkCheckType(Header.TYPE_TABLE);
     int packageCount = mIn.readInt();
-    StringBlock.read(mIn);
+    mTableStrings = StringBlock.read(mIn);
+    mFilePathStrings = new byte[mTableStrings.getCount()];
     ResPackage[] packages = new ResPackage[packageCount];
     nextChunk();
     for (int i = 0; i < packageCount; i++) {
@@ -137,7 +176,7 @@ public class RawARSCDecoder {
     for (int i = 0; i < libraryCount; i++) {
       packageId = mIn.readInt();
       packageName = mIn.readNullEndedString(128, true);
-      System.out.printf("Decoding Shared Library (%s), pkgId: %d\n", packageName, packageId);
+      Log.i("Decoding Shared Library (%s), pkgId: %d", packageName, packageId);
     }
 
     nextChunk();
@@ -158,6 +197,9 @@ public class RawARSCDecoder {
       readConfig();
       nextChunk();
     }
+    if (mConfigPruner != null) {
+      mConfigPruner.endType();
+    }
   }
 
   private void readSingleTableTypeSpec() throws AndrolibException, IOException {
@@ -170,8 +212,17 @@ public class RawARSCDecoder {
     mIn.skipBytes(entryCount * 4);
 
     mCurTypeID = id;
+    mCurTypeEntryCount = entryCount;
     mResId = (0xff000000 & mResId) | id << 16;
     mType = new ResType(mTypeNames.getString(id - 1), mPkg);
+    if (mTypeEntries != null) {
+      int key = TypeEntries.key(mResId);
+      mCurTypeEntries = mTypeEntries.get(key);
+      if (mCurTypeEntries == null || mCurTypeEntries.specNameIds.length < entryCount) {
+        mCurTypeEntries = new TypeEntries(entryCount);
+        mTypeEntries.put(key, mCurTypeEntries);
+      }
+    }
   }
 
   private void readConfig() throws IOException, AndrolibException {
@@ -184,13 +235,29 @@ public class RawARSCDecoder {
 
     int entryCount = mIn.readInt();
     int entriesStart = mIn.readInt();
-    readConfigFlags();
-    int[] entryOffsets = mIn.readIntArray(entryCount);
-    for (int i = 0; i < entryOffsets.length; i++) {
-      if (entryOffsets[i] != -1) {
-        mResId = (mResId & 0xffff0000) | i;
-        readEntry();
+    byte[] config = readConfigFlags();
+    int[] entryOffsets = ARSCDecoder.readEntryOffsets(mIn, typeFlags, entryCount, mCurTypeEntryCount);
+    mConfigFiles = mConfigPruner == null ? null : new String[entryOffsets.length];
+    byte[] entries = null;
+    ExtDataInput in = mIn;
+    if (mConfigPruner != null && mConfigPruner.isMergeDuplicatedValues()) {
+      // the pruner compares the values by their bytes, the entries are read from a copy of them
+      entries = new byte[mHeader.chunkSize - entriesStart];
+      mIn.readFully(entries);
+      mIn = new ExtDataInput(new LEDataInputStream(new ByteArrayInputStream(entries)));
+    }
+    try {
+      for (int i = 0; i < entryOffsets.length; i++) {
+        if (entryOffsets[i] != -1) {
+          mResId = (mResId & 0xffff0000) | i;
+          readEntry();
+        }
       }
+    } finally {
+      mIn = in;
+    }
+    if (mConfigPruner != null) {
+      mConfigPruner.addConfig(config, entryOffsets, mConfigFiles, entries);
     }
   }
 
@@ -206,6 +273,9 @@ public class RawARSCDecoder {
     short flags = mIn.readShort();
     int specNamesId = mIn.readInt();
     putTypeSpecNameStrings(mCurTypeID, mSpecNames.getString(specNamesId));
+    if (mCurTypeEntries != null && (mResId & 0xffff) < mCurTypeEntries.specNameIds.length) {
+      mCurTypeEntries.specNameIds[mResId & 0xffff] = specNamesId;
+    }
     boolean readDirect = false;
     if ((flags & ENTRY_FLAG_COMPLEX) == 0) {
       readDirect = true;
@@ -232,115 +302,141 @@ public class RawARSCDecoder {
     mIn.skipCheckByte((byte) 0);
     byte type = mIn.readByte();
     int data = mIn.readInt();
+    if (mCurTypeEntries != null && flags && type == TypedValue.TYPE_STRING && isFilePath(data)
+        && (mResId & 0xffff) < mCurTypeEntries.fileCounts.length) {
+      mCurTypeEntries.fileCounts[mResId & 0xffff]++;
+    }
+    if (mConfigFiles != null && flags && type == TypedValue.TYPE_STRING && isFilePath(data)) {
+      mConfigFiles[mResId & 0xffff] = mTableStrings.getString(data);
+    }
   }
 
-  private void readConfigFlags() throws IOException, AndrolibException {
+  private boolean isFilePath(int index) {
+    if (index < 0 || index >= mFilePathStrings.length) {
+      return false;
+    }
+    if (mFilePathStrings[index] == 0) {
+      String raw = mTableStrings.getString(index);
+      mFilePathStrings[index] = (byte) (raw != null && raw.startsWith("res/") ? 1 : 2);
+    }
+    return mFilePathStrings[index] == 1;
+  }
+
+  /**
+   * @return the whole config, its size first
+   */
+  private byte[] readConfigFlags() throws IOException, AndrolibException {
     int read = 28;
     int size = mIn.readInt();
     if (size < 28) {
       throw new AndrolibException("Config size < 28");
     }
+    byte[] config = new byte[size];
+    ByteBuffer.wrap(config).order(ByteOrder.LITTLE_ENDIAN).putInt(size);
+    mIn.readFully(config, 4, size - 4);
+    ExtDataInput in = new ExtDataInput(new LEDataInputStream(new ByteArrayInputStream(config, 4, size - 4)));
 
     boolean isInvalid = false;
-    short mcc = mIn.readShort();
-    short mnc = mIn.readShort();
-    char[] language = new char[] { (char) mIn.readByte(), (char) mIn.readByte() };
-    char[] country = new char[] { (char) mIn.readByte(), (char) mIn.readByte() };
-    byte orientation = mIn.readByte();
-    byte touchscreen = mIn.readByte();
-    int density = mIn.readUnsignedShort();
-    byte keyboard = mIn.readByte();
-    byte navigation = mIn.readByte();
-    byte inputFlags = mIn.readByte();
+    short mcc = in.readShort();
+    short mnc = in.readShort();
+    char[] language = new char[] { (char) in.readByte(), (char) in.readByte() };
+    char[] country = new char[] { (char) in.readByte(), (char) in.readByte() };
+    byte orientation = in.readByte();
+    byte touchscreen = in.readByte();
+    int density = in.readUnsignedShort();
+    byte keyboard = in.readByte();
+    byte navigation = in.readByte();
+    byte inputFlags = in.readByte();
     /* inputPad0 */
-    mIn.skipBytes(1);
+    in.skipBytes(1);
 
-    short screenWidth = mIn.readShort();
-    short screenHeight = mIn.readShort();
+    short screenWidth = in.readShort();
+    short screenHeight = in.readShort();
 
-    short sdkVersion = mIn.readShort();
+    short sdkVersion = in.readShort();
     /* minorVersion, now must always be 0 */
-    mIn.skipBytes(2);
+    in.skipBytes(2);
 
     byte screenLayout = 0;
     byte uiMode = 0;
     short smallestScreenWidthDp = 0;
 
     if (size >= 32) {
-      screenLayout = mIn.readByte();
-      uiMode = mIn.readByte();
-      smallestScreenWidthDp = mIn.readShort();
+      screenLayout = in.readByte();
+      uiMode = in.readByte();
+      smallestScreenWidthDp = in.readShort();
       read = 32;
     }
 
     short screenWidthDp = 0;
     short screenHeightDp = 0;
     if (size >= 36) {
-      screenWidthDp = mIn.readShort();
-      screenHeightDp = mIn.readShort();
+      screenWidthDp = in.readShort();
+      screenHeightDp = in.readShort();
       read = 36;
     }
 
     char[] localeScript = null;
     char[] localeVariant = null;
     if (size >= 48) {
-      localeScript = readScriptOrVariantChar(4).toCharArray();
-      localeVariant = readScriptOrVariantChar(8).toCharArray();
+      localeScript = readScriptOrVariantChar(in, 4).toCharArray();
+      localeVariant = readScriptOrVariantChar(in, 8).toCharArray();
       read = 48;
     }
 
     byte screenLayout2 = 0;
     if (size >= 52) {
-      screenLayout2 = mIn.readByte();
-      mIn.skipBytes(3); // reserved padding
+      screenLayout2 = in.readByte();
+      in.skipBytes(3); // reserved padding
       read = 52;
     }
 
     if (size >= 56) {
-      mIn.skipBytes(4);
+      in.skipBytes(4);
       read = 56;
     }
 
     if (size >= 64) {
-      mIn.skipBytes(8);
+      in.skipBytes(8);
       read = 64;
     }
 
     int exceedingSize = size - KNOWN_CONFIG_BYTES;
     if (exceedingSize > 0) {
       byte[] buf = new byte[exceedingSize];
-      mIn.readFully(buf);
+      in.readFully(buf);
       BigInteger exceedingBI = new BigInteger(1, buf);
 
       if (exceedingBI.equals(BigInteger.ZERO)) {
-        LOGGER.fine(String.format("Config flags size > %d, but exceeding bytes are all zero, so it should be ok.",
+        Log.d("Config flags size > %d, but exceeding bytes are all zero, so it should be ok.",
             KNOWN_CONFIG_BYTES
-        ));
+        );
       } else {
-        LOGGER.warning(String.format("Config flags size > %d. Exceeding bytes: 0x%X.",
+        Log.w("Config flags size > %d. Exceeding bytes: 0x%X.",
             KNOWN_CONFIG_BYTES,
             exceedingBI
-        ));
+        );
       }
     } else {
       int remainingSize = size - read;
       if (remainingSize > 0) {
-        mIn.skipBytes(remainingSize);
+        in.skipBytes(remainingSize);
       }
     }
+    return config;
   }
 
-  private String readScriptOrVariantChar(int length) throws AndrolibException, IOException {
+  private String readScriptOrVariantChar(ExtDataInput in, int length) throws AndrolibException, IOException {
     StringBuilder string = new StringBuilder(16);
 
     while (length-- != 0) {
-      short ch = mIn.readByte();
+      short ch = in.readByte();
       if (ch == 0) {
         break;
       }
       string.append((char) ch);
     }
-    mIn.skipBytes(length);
+    in.skipBytes(length);
 
     return string.toString();
   }
@@ -405,6 +501,27 @@ public class RawARSCDecoder {
     }
   }
 
+  /**
+   * the entries of one type by their index, the spec name and how many of its configs are a res file
+   */
+  public static class TypeEntries {
+    public final int[] specNameIds;
+    public final int[] fileCounts;
+
+    public TypeEntries(int entryCount) {
+      specNameIds = new int[entryCount];
+      Arrays.fill(specNameIds, -1);
+      fileCounts = new int[entryCount];
+    }
+
+    /**
+     * @return the package and type id of the res id
+     */
+    public static int key(int resId) {
+      return resId >>> 16;
+    }
+  }
+
   public static class FlagsOffset {
     public final int offset;
     public final int count;
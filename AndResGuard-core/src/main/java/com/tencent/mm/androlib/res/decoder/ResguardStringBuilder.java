@@ -0,0 +1,132 @@
+package com.tencent.mm.androlib.res.decoder;
+
+import com.tencent.mm.androlib.AndrolibException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Hands out the short resguard names of one type, in the order a, b, ..., z, a0, ..., zzz.
+ * The names are generated once, a type only moves a cursor over them and skips the excluded names and the names
+ * matching its whitelist.
+ */
+public class ResguardStringBuilder {
+  private static final String[] A_TO_Z = {
+     "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v",
+     "w", "x", "y", "z"
+  };
+  private static final String[] A_TO_ALL = {
+     "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "_", "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k",
+     "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z"
+  };
+  /**
+   * 在window上面有些关键字是不能作为文件名的
+   * CON, PRN, AUX, CLOCK$, NUL
+   * COM1, COM2, COM3, COM4, COM5, COM6, COM7, COM8, COM9
+   * LPT1, LPT2, LPT3, LPT4, LPT5, LPT6, LPT7, LPT8, and LPT9.
+   */
+  private static final Set<String> FILE_NAME_BLACK_LIST = new HashSet<>(Arrays.asList("con", "prn", "aux", "nul"));
+  private static final String[] NAMES = generateNames();
+
+  private final Set<Integer> mIsReplaced;
+  private final Set<Integer> mIsWhiteList;
+  /**
+   * the names used by the old mapping or by the original names, they are skipped
+   */
+  private final Set<String> mExcluded;
+  private HashSet<Pattern> mBlacklistPatterns;
+  private int mNextName;
+  private long mRegexEvaluations;
+
+  public ResguardStringBuilder() {
+    mIsReplaced = new HashSet<>();
+    mIsWhiteList = new HashSet<>();
+    mExcluded = new HashSet<>();
+  }
+
+  private static String[] generateNames() {
+    List<String> names = new ArrayList<>();
+    Collections.addAll(names, A_TO_Z);
+    for (String first : A_TO_Z) {
+      for (String second : A_TO_ALL) {
+        names.add(first + second);
+      }
+    }
+    for (String first : A_TO_Z) {
+      for (String second : A_TO_ALL) {
+        for (String third : A_TO_ALL) {
+          String str = first + second + third;
+          if (!FILE_NAME_BLACK_LIST.contains(str)) {
+            names.add(str);
+          }
+        }
+      }
+    }
+    return names.toArray(new String[names.size()]);
+  }
+
+  public void reset(HashSet<Pattern> blacklistPatterns) {
+    mIsReplaced.clear();
+    mIsWhiteList.clear();
+    mExcluded.clear();
+    mBlacklistPatterns = blacklistPatterns;
+    mNextName = 0;
+  }
+
+  private boolean match(String str, HashSet<Pattern> patterns) {
+    if (patterns == null) {
+      return false;
+    }
+    for (Pattern p : patterns) {
+      mRegexEvaluations++;
+      if (p.matcher(str).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the blacklist patterns evaluated so far
+   */
+  public long getRegexEvaluations() {
+    return mRegexEvaluations;
+  }
+
+  // 对于某种类型用过的mapping，全部不能再用了
+  public void removeStrings(Collection<String> collection) {
+    if (collection == null) return;
+    mExcluded.addAll(collection);
+  }
+
+  public boolean isReplaced(int id) {
+    return mIsReplaced.contains(id);
+  }
+
+  public boolean isInWhiteList(int id) {
+    return mIsWhiteList.contains(id);
+  }
+
+  public void setInWhiteList(int id) {
+    mIsWhiteList.add(id);
+  }
+
+  public void setInReplaceList(int id) {
+    mIsReplaced.add(id);
+  }
+
+  public String getReplaceString() throws AndrolibException {
+    while (mNextName < NAMES.length) {
+      String name = NAMES[mNextName++];
+      if (!mExcluded.contains(name) && !match(name, mBlacklistPatterns)) {
+        return name;
+      }
+    }
+    throw new AndrolibException(String.format("now can only proguard less than 35594 in a single type\n"));
+  }
+}
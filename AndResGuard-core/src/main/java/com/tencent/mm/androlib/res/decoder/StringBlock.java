@@ -20,6 +20,7 @@ package com.tencent.mm.androlib.res.decoder;
 import com.tencent.mm.androlib.AndrolibException;
 import com.tencent.mm.util.ExtDataInput;
 import com.tencent.mm.util.ExtDataOutput;
+import com.tencent.mm.util.Log;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
@@ -29,21 +30,18 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * @author shwenzhang
  */
 public class StringBlock {
 
-  private static final CharsetDecoder UTF16LE_DECODER = Charset.forName("UTF-16LE").newDecoder();
-  private static final CharsetDecoder UTF8_DECODER = Charset.forName("UTF-8").newDecoder();
-  private static final Logger LOGGER = Logger.getLogger(StringBlock.class.getName());
+  private static final Charset UTF16LE = Charset.forName("UTF-16LE");
+  private static final Charset UTF8 = Charset.forName("UTF-8");
 
   // ResChunk_header = header.type (0x0001) + header.headerSize (0x001C)
-  private static final int CHUNK_STRINGPOOL_TYPE = 0x001C0001;
-  private static final int UTF8_FLAG = 0x00000100;
+  public static final int CHUNK_STRINGPOOL_TYPE = 0x001C0001;
+  public static final int UTF8_FLAG = 0x00000100;
   private static final int CHUNK_NULL_TYPE = 0x00000000;
   private static final byte NULL = 0;
 
@@ -53,6 +51,8 @@ public class StringBlock {
   private int[] m_styles;
   private boolean m_isUTF8;
   private int[] m_stringOwns;
+  // a CharsetDecoder is not thread safe, every block owns one so that several apks can be decoded at the same time
+  private CharsetDecoder m_decoder;
 
   private StringBlock() {
   }
@@ -133,7 +133,7 @@ public class StringBlock {
     out.writeCheckInt(type, CHUNK_STRINGPOOL_TYPE);
     totalSize += 4;
     stringCount = specNames.keySet().size();
-    System.out.println("String pool size: " + stringCount);
+    Log.d("String pool size: %d", stringCount);
 
     totalSize += 6 * 4 + 4 * stringCount;
     stringsOffset = totalSize;
@@ -225,9 +225,9 @@ public class StringBlock {
     StringBlock block = new StringBlock();
     block.m_isUTF8 = (flags & UTF8_FLAG) != 0;
     if (block.m_isUTF8) {
-      System.out.printf("resources.arsc Character Encoding: utf-8\n");
+      Log.i("resources.arsc Character Encoding: utf-8");
     } else {
-      System.out.printf("resources.arsc Character Encoding: utf-16\n");
+      Log.i("resources.arsc Character Encoding: utf-16");
     }
 
     block.m_stringOffsets = reader.readIntArray(stringCount);
@@ -492,9 +492,12 @@ public class StringBlock {
 
   private String decodeString(int offset, int length) {
     try {
-      return (m_isUTF8 ? UTF8_DECODER : UTF16LE_DECODER).decode(ByteBuffer.wrap(m_strings, offset, length)).toString();
+      if (m_decoder == null) {
+        m_decoder = (m_isUTF8 ? UTF8 : UTF16LE).newDecoder();
+      }
+      return m_decoder.decode(ByteBuffer.wrap(m_strings, offset, length)).toString();
     } catch (CharacterCodingException ex) {
-      LOGGER.log(Level.WARNING, null, ex);
+      Log.e(ex);
       return null;
     }
   }
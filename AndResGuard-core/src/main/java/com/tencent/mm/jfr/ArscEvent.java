@@ -0,0 +1,33 @@
+package com.tencent.mm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One pass over resources.arsc: the raw decode, the obfuscating decode or the write.
+ */
+@Name("com.tencent.mm.andresguard.Arsc")
+@Label("Arsc Pass")
+@Category("AndResGuard")
+@Description("One pass over resources.arsc")
+public class ArscEvent extends jdk.jfr.Event {
+  public static final String RAW_DECODE = "raw_decode";
+  public static final String DECODE = "decode";
+  public static final String WRITE = "write";
+
+  @Label("Stage")
+  public String stage;
+
+  @Label("Packages")
+  public int packages;
+
+  @Label("Entries")
+  public long entries;
+
+  @Label("Arsc Size")
+  @DataAmount
+  public long arscSize;
+}
@@ -0,0 +1,30 @@
+package com.tencent.mm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Hashing a res file against the files of the same size, to merge it if it is a duplicate.
+ */
+@Name("com.tencent.mm.andresguard.DuplicateHash")
+@Label("Duplicate Hash")
+@Category("AndResGuard")
+@Description("Comparing the md5 of a res file with the files of the same size")
+public class DuplicateHashEvent extends jdk.jfr.Event {
+  @Label("Path")
+  public String path;
+
+  @Label("Size")
+  @DataAmount
+  public long size;
+
+  @Label("Candidates")
+  @Description("Files of the same size seen before")
+  public int candidates;
+
+  @Label("Merged")
+  public boolean merged;
+}
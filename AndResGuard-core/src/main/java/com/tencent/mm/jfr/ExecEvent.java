@@ -0,0 +1,21 @@
+package com.tencent.mm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An external process, such as jarsigner, zipalign or 7za.
+ */
+@Name("com.tencent.mm.andresguard.Exec")
+@Label("External Process")
+@Category("AndResGuard")
+@Description("Running an external command and waiting for it")
+public class ExecEvent extends jdk.jfr.Event {
+  @Label("Command")
+  public String command;
+
+  @Label("Exit Code")
+  public int exitCode;
+}
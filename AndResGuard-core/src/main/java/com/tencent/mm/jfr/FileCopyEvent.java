@@ -0,0 +1,18 @@
+package com.tencent.mm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.tencent.mm.andresguard.FileCopy")
+@Label("File Copy")
+@Category("AndResGuard")
+public class FileCopyEvent extends jdk.jfr.Event {
+  @Label("Source")
+  public String source;
+
+  @Label("Size")
+  @DataAmount
+  public long size;
+}
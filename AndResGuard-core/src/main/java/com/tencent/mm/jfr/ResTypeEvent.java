@@ -0,0 +1,31 @@
+package com.tencent.mm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The obfuscation of one type spec and its configs, the file copies of the type happen inside it.
+ */
+@Name("com.tencent.mm.andresguard.ResType")
+@Label("Resource Type")
+@Category("AndResGuard")
+@Description("Obfuscating the entries of one resource type")
+public class ResTypeEvent extends jdk.jfr.Event {
+  @Label("Package")
+  public String packageName;
+
+  @Label("Type")
+  public String type;
+
+  @Label("Entries")
+  public int entries;
+
+  @Label("Configs")
+  public int configs;
+
+  @Label("Resguard Files")
+  @Description("Whether the file paths of the type are obfuscated")
+  public boolean resguardFiles;
+}
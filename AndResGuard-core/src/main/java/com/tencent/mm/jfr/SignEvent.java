@@ -0,0 +1,21 @@
+package com.tencent.mm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.tencent.mm.andresguard.Sign")
+@Label("Sign Apk")
+@Category("AndResGuard")
+public class SignEvent extends jdk.jfr.Event {
+  @Label("Apk")
+  public String apk;
+
+  @Label("Scheme")
+  public String scheme;
+
+  @Label("Apk Size")
+  @DataAmount
+  public long size;
+}
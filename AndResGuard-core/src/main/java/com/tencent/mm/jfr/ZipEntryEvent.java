@@ -0,0 +1,37 @@
+package com.tencent.mm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Reading and compressing one zip entry, it may run on a compressor thread before the entry is written in order.
+ */
+@Name("com.tencent.mm.andresguard.ZipEntry")
+@Label("Zip Entry")
+@Category("AndResGuard")
+@Description("Reading and compressing one zip entry")
+public class ZipEntryEvent extends jdk.jfr.Event {
+  public static final String STORED = "stored";
+  public static final String DEFLATED = "deflated";
+
+  @Label("Name")
+  public String name;
+
+  @Label("Method")
+  public String method;
+
+  @Label("Size")
+  @DataAmount
+  public long size;
+
+  @Label("Compressed Size")
+  @DataAmount
+  public long compressedSize;
+
+  public static String method(int method) {
+    return method == java.util.zip.ZipEntry.DEFLATED ? DEFLATED : STORED;
+  }
+}
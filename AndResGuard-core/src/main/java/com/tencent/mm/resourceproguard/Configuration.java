@@ -1,16 +1,18 @@
 package com.tencent.mm.resourceproguard;
 
+import com.tencent.mm.androlib.res.decoder.ConfigPruner;
+import com.tencent.mm.util.BinaryMapping;
+import com.tencent.mm.util.Log;
+import com.tencent.mm.util.TextMappingParser;
 import com.tencent.mm.util.Utils;
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.regex.Matcher;
+import java.util.List;
 import java.util.regex.Pattern;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -29,6 +31,8 @@ public class Configuration {
 
   public static final String DEFAULT_DIGEST_ALG = "SHA1";
   public static final String ASRC_FILE = "resources.arsc";
+  public static final int DEFAULT_COMPRESSION_CACHE_SIZE_MB = 512;
+  public static final String DEFAULT_CHANNEL_ENTRY = "META-INF/channel";
   private static final String TAG_ISSUE = "issue";
   private static final String ATTR_VALUE = "value";
   private static final String ATTR_ID = "id";
@@ -38,10 +42,30 @@ public class Configuration {
   private static final String COMPRESS_ISSUE = "compress";
   private static final String MAPPING_ISSUE = "keepmapping";
   private static final String SIGN_ISSUE = "sign";
+  private static final String CHANNEL_ISSUE = "channel";
+  private static final String PRUNE_ISSUE = "prune";
+  private static final String ATTR_PRUNE_DENSITY = "density";
+  private static final String ATTR_PRUNE_LOCALE = "locale";
+  private static final String ATTR_PRUNE_ABI = "abi";
+  private static final String ATTR_PRUNE_MIN_SDK = "minsdk";
+  private static final String ATTR_CHANNEL_ENTRY = "entry";
   private static final String ATTR_7ZIP = "seventzip";
   private static final String ATTR_KEEPROOT = "keeproot";
   private static final String ATTR_SIGNFILE = "metaname";
   private static final String MERGE_DUPLICATED_RES = "mergeDuplicatedRes";
+  private static final String ATTR_PIPELINE = "pipeline";
+  private static final String ATTR_KEEP_INTERMEDIATE_APK = "keepIntermediateApk";
+  private static final String ATTR_BINARY_MAPPING = "binaryMapping";
+  private static final String ATTR_FREQUENCY_NAMING = "frequencyNaming";
+  private static final String ATTR_SPARSE_ENCODING = "sparseEncoding";
+  private static final String ATTR_MIN_SDK_VERSION = "minSdkVersion";
+  private static final String ATTR_MERGE_DUPLICATED_VALUES = "mergeDuplicatedValues";
+  private static final String ATTR_OPTIMIZE_PNG = "optimizePng";
+  private static final String ATTR_COMPRESSION_LEVEL = "compressionLevel";
+  private static final String ATTR_COMPRESSION_CACHE = "compressionCache";
+  private static final String ATTR_COMPRESSION_CACHE_SIZE = "compressionCacheSize";
+  private static final String ATTR_LOG_LEVEL = "logLevel";
+  private static final String ATTR_LOG_EXAMPLES = "logExamples";
   private static final String ATTR_SIGNFILE_PATH = "path";
   private static final String ATTR_SIGNFILE_KEYPASS = "keypass";
   private static final String ATTR_SIGNFILE_STOREPASS = "storepass";
@@ -51,10 +75,78 @@ public class Configuration {
   public final HashMap<String, String> mOldFileMapping;
   public final HashSet<Pattern> mCompressPatterns;
   public final String digestAlg;
-  private final Pattern MAP_PATTERN = Pattern.compile("\\s+(.*)->(.*)");
   public boolean mUse7zip = true;
   public boolean mKeepRoot = false;
   public boolean mMergeDuplicatedRes = false;
+  /**
+   * write, compress, align and sign the apk in one pass instead of writing every intermediate apk
+   */
+  public boolean mUsePipeline = false;
+  /**
+   * debug mode of the pipeline, still write the unsigned apk to the output directory
+   */
+  public boolean mKeepIntermediateApk = false;
+  /**
+   * also write the mapping in the binary format, the keepmapping mode loads it much faster than the text
+   */
+  public boolean mUseBinaryMapping = false;
+  /**
+   * the shortest names go to the res with the most files and the dirs with the most files, instead of the order in
+   * the arsc
+   */
+  public boolean mUseFrequencyNaming = false;
+  /**
+   * write the configs with few entries as sparse type chunks, only when mMinSdkVersion is 26 or higher
+   */
+  public boolean mUseSparseEncoding = false;
+  /**
+   * min sdk version of the apk, 0 if it is unknown
+   */
+  public int mMinSdkVersion = 0;
+  /**
+   * drop the values of the qualified configs the default config would give as well
+   */
+  public boolean mMergeDuplicatedValues = false;
+  /**
+   * recompress the idat of the png files losslessly, a file is only replaced when it gets smaller
+   */
+  public boolean mOptimizePng = false;
+  /**
+   * how hard the DEFLATED entries are compressed, EXTREME also takes the place of 7z
+   */
+  public InputParam.CompressionLevel mCompressionLevel = InputParam.CompressionLevel.DEFAULT;
+  /**
+   * where the compressed entries of the best and extreme levels are cached between builds, null disables it
+   */
+  public File mCompressionCacheDir;
+  public int mCompressionCacheSizeMb = DEFAULT_COMPRESSION_CACHE_SIZE_MB;
+  public Log.Level mLogLevel = Log.Level.INFO;
+  /**
+   * how many of the messages repeated for every file are printed, the rest are only counted
+   */
+  public int mLogExamples = Log.DEFAULT_EXAMPLES;
+  /**
+   * an apk is stamped from the built one for every channel, they only differ in the channel entry
+   */
+  public List<String> mChannels = new ArrayList<>();
+  public String mChannelEntry = DEFAULT_CHANNEL_ENTRY;
+  /**
+   * the configs of the other densities are pruned, the default one included, only the ones the kept densities
+   * would pick stay
+   */
+  public List<Integer> mKeepDensities = new ArrayList<>();
+  /**
+   * the configs of the other locales are pruned, the ones without a locale always stay
+   */
+  public List<String> mKeepLocales = new ArrayList<>();
+  /**
+   * the native libs of the other abis are pruned
+   */
+  public List<String> mKeepAbis = new ArrayList<>();
+  /**
+   * the configs mMinSdkVersion already shadows with a higher version are pruned, the unversioned one included
+   */
+  public boolean mPruneBelowMinSdk = false;
   public String mMetaName = "META-INF";
   public String mFixedResName = null;
   public boolean mUseSignAPK = false;
@@ -136,6 +228,29 @@ public class Configuration {
     mUse7zip = param.use7zip;
     mKeepRoot = param.keepRoot;
     mMergeDuplicatedRes = param.mergeDuplicatedRes;
+    mUsePipeline = param.usePipeline;
+    mKeepIntermediateApk = param.keepIntermediateApk;
+    mUseBinaryMapping = param.useBinaryMapping;
+    mUseFrequencyNaming = param.useFrequencyNaming;
+    mUseSparseEncoding = param.useSparseEncoding;
+    mMinSdkVersion = param.minSDKVersion;
+    mMergeDuplicatedValues = param.mergeDuplicatedValues;
+    mOptimizePng = param.optimizePng;
+    mCompressionLevel = param.compressionLevel;
+    mCompressionCacheDir = param.compressionCacheDir;
+    mCompressionCacheSizeMb = param.compressionCacheSizeMb;
+    mLogLevel = param.logLevel;
+    mLogExamples = param.logExamples;
+    for (String channel : param.channels) {
+      mChannels.add(checkChannel(channel));
+    }
+    mChannelEntry = param.channelEntry;
+    for (String density : param.keepDensities) {
+      mKeepDensities.add(parseDensity(density));
+    }
+    mKeepLocales = param.keepLocales;
+    mKeepAbis = param.keepAbis;
+    mPruneBelowMinSdk = param.pruneBelowMinSdk;
     mMetaName = param.metaName;
     mFixedResName = param.fixedResName;
     for (String item : param.compressFilePattern) {
@@ -178,7 +293,7 @@ public class Configuration {
       return;
     }
 
-    System.out.printf("reading config file, %s\n", xmlConfigFile.getAbsolutePath());
+    Log.i("reading config file, %s", xmlConfigFile.getAbsolutePath());
     BufferedInputStream input = null;
     try {
       DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -196,14 +311,14 @@ public class Configuration {
         String id = element.getAttribute(ATTR_ID);
         String isActive = element.getAttribute(ATTR_ACTIVE);
         if (id.length() == 0) {
-          System.err.println("Invalid config file: Missing required issue id attribute");
+          Log.w("Invalid config file: Missing required issue id attribute");
           continue;
         }
         boolean active = isActive != null && isActive.equals("true");
 
         switch (id) {
           case PROPERTY_ISSUE:
-            readPropertyFromXml(node);
+            readPropertyFromXml(node, xmlConfigFile.getParentFile());
             break;
           case WHITELIST_ISSUE:
             mUseWhiteList = active;
@@ -223,6 +338,16 @@ public class Configuration {
               readSignFromXml(node, xmlConfigFile.getParentFile());
             }
             break;
+          case CHANNEL_ISSUE:
+            if (active) {
+              readChannelFromXml(node);
+            }
+            break;
+          case PRUNE_ISSUE:
+            if (active) {
+              readPruneFromXml(node);
+            }
+            break;
           case MAPPING_ISSUE:
             mUseKeepMapping = active;
             if (mUseKeepMapping) {
@@ -230,7 +355,7 @@ public class Configuration {
             }
             break;
           default:
-            System.err.println("unknown issue " + id);
+            Log.w("unknown issue %s", id);
             break;
         }
       }
@@ -239,7 +364,7 @@ public class Configuration {
         try {
           input.close();
         } catch (IOException e) {
-          System.exit(-1);
+          Log.e(e);
         }
       }
     }
@@ -297,13 +422,13 @@ public class Configuration {
     Pattern pattern = Pattern.compile(name);
     patterns.add(pattern);
     typeMap.put(typeName, patterns);
-    System.out.println(String.format("convertToPatternString typeName %s format %s", typeName, name));
+    Log.d("convertToPatternString typeName %s format %s", typeName, name);
     mWhiteList.put(packageName, typeMap);
   }
 
   private void readSignFromXml(Node node, File xmlConfigFileParentFile) throws IOException {
     if (mSignatureFile != null) {
-      System.err.println("already set the sign info from command line, ignore this");
+      Log.w("already set the sign info from command line, ignore this");
       return;
     }
 
@@ -355,7 +480,7 @@ public class Configuration {
               mStoreAlias = mStoreAlias.trim();
               break;
             default:
-              System.err.println("unknown tag " + tagName);
+              Log.w("unknown tag %s", tagName);
               break;
           }
         }
@@ -363,6 +488,56 @@ public class Configuration {
     }
   }
 
+  private void readChannelFromXml(Node node) throws IOException {
+    NodeList childNodes = node.getChildNodes();
+    for (int j = 0, n = childNodes.getLength(); j < n; j++) {
+      Node child = childNodes.item(j);
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        Element check = (Element) child;
+        String value = check.getAttribute(ATTR_VALUE).trim();
+        if (value.length() == 0) {
+          throw new IOException(String.format("Invalid config file: Missing required attribute %s\n", ATTR_VALUE));
+        }
+        if (check.getTagName().equals(ATTR_CHANNEL_ENTRY)) {
+          mChannelEntry = value;
+        } else {
+          mChannels.add(checkChannel(value));
+        }
+      }
+    }
+  }
+
+  private void readPruneFromXml(Node node) throws IOException {
+    NodeList childNodes = node.getChildNodes();
+    for (int j = 0, n = childNodes.getLength(); j < n; j++) {
+      Node child = childNodes.item(j);
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        Element check = (Element) child;
+        String value = check.getAttribute(ATTR_VALUE).trim();
+        if (value.length() == 0) {
+          throw new IOException(String.format("Invalid config file: Missing required attribute %s\n", ATTR_VALUE));
+        }
+        switch (check.getTagName()) {
+          case ATTR_PRUNE_DENSITY:
+            mKeepDensities.add(parseDensity(value));
+            break;
+          case ATTR_PRUNE_LOCALE:
+            mKeepLocales.add(value);
+            break;
+          case ATTR_PRUNE_ABI:
+            mKeepAbis.add(value);
+            break;
+          case ATTR_PRUNE_MIN_SDK:
+            mPruneBelowMinSdk = value.equals("true");
+            break;
+          default:
+            Log.w("unknown tag %s", check.getTagName());
+            break;
+        }
+      }
+    }
+  }
+
   private void readCompressFromXml(Node node) throws IOException {
     NodeList childNodes = node.getChildNodes();
     if (childNodes.getLength() > 0) {
@@ -388,7 +563,7 @@ public class Configuration {
 
   private void loadMappingFilesFromXml(Node node) throws IOException {
     if (mOldMappingFile != null) {
-      System.err.println("Mapping file already load from command line, ignore this config");
+      Log.w("Mapping file already load from command line, ignore this config");
       return;
     }
     NodeList childNodes = node.getChildNodes();
@@ -407,7 +582,7 @@ public class Configuration {
     }
   }
 
-  private void readPropertyFromXml(Node node) throws IOException {
+  private void readPropertyFromXml(Node node, File xmlConfigFileParentFile) throws IOException {
     NodeList childNodes = node.getChildNodes();
     if (childNodes.getLength() > 0) {
       for (int j = 0, n = childNodes.getLength(); j < n; j++) {
@@ -426,17 +601,83 @@ public class Configuration {
               break;
             case ATTR_KEEPROOT:
               mKeepRoot = vaule.equals("true");
-              System.out.println("mKeepRoot " + mKeepRoot);
+              Log.i("mKeepRoot %s", mKeepRoot);
               break;
             case MERGE_DUPLICATED_RES:
               mMergeDuplicatedRes = vaule.equals("true");
-              System.out.println("mMergeDuplicatedRes " + mMergeDuplicatedRes);
+              Log.i("mMergeDuplicatedRes %s", mMergeDuplicatedRes);
+              break;
+            case ATTR_PIPELINE:
+              mUsePipeline = vaule.equals("true");
+              Log.i("mUsePipeline %s", mUsePipeline);
+              break;
+            case ATTR_KEEP_INTERMEDIATE_APK:
+              mKeepIntermediateApk = vaule.equals("true");
+              break;
+            case ATTR_BINARY_MAPPING:
+              mUseBinaryMapping = vaule.equals("true");
+              break;
+            case ATTR_FREQUENCY_NAMING:
+              mUseFrequencyNaming = vaule.equals("true");
+              break;
+            case ATTR_SPARSE_ENCODING:
+              mUseSparseEncoding = vaule.equals("true");
+              break;
+            case ATTR_MERGE_DUPLICATED_VALUES:
+              mMergeDuplicatedValues = vaule.equals("true");
+              break;
+            case ATTR_OPTIMIZE_PNG:
+              mOptimizePng = vaule.equals("true");
+              break;
+            case ATTR_MIN_SDK_VERSION:
+              try {
+                mMinSdkVersion = Integer.parseInt(vaule.trim());
+              } catch (NumberFormatException e) {
+                throw new IOException(String.format("Invalid config file: %s should be a number, yours %s\n",
+                    ATTR_MIN_SDK_VERSION,
+                    vaule
+                ));
+              }
+              break;
+            case ATTR_COMPRESSION_LEVEL:
+              mCompressionLevel = parseCompressionLevel(vaule);
+              Log.i("mCompressionLevel %s", mCompressionLevel);
+              break;
+            case ATTR_COMPRESSION_CACHE:
+              mCompressionCacheDir = new File(vaule.trim());
+              // relative to the directory of the xml config file
+              if (!mCompressionCacheDir.isAbsolute()) {
+                mCompressionCacheDir = new File(xmlConfigFileParentFile, vaule.trim());
+              }
+              break;
+            case ATTR_COMPRESSION_CACHE_SIZE:
+              try {
+                mCompressionCacheSizeMb = Integer.parseInt(vaule.trim());
+              } catch (NumberFormatException e) {
+                throw new IOException(String.format("Invalid config file: %s should be a number of MB, yours %s\n",
+                    ATTR_COMPRESSION_CACHE_SIZE,
+                    vaule
+                ));
+              }
+              break;
+            case ATTR_LOG_LEVEL:
+              mLogLevel = parseLogLevel(vaule);
+              break;
+            case ATTR_LOG_EXAMPLES:
+              try {
+                mLogExamples = Integer.parseInt(vaule.trim());
+              } catch (NumberFormatException e) {
+                throw new IOException(String.format("Invalid config file: %s should be a number, yours %s\n",
+                    ATTR_LOG_EXAMPLES,
+                    vaule
+                ));
+              }
               break;
             case ATTR_SIGNFILE:
               mMetaName = vaule.trim();
               break;
             default:
-              System.err.println("unknown tag " + tagName);
+              Log.w("unknown tag %s", tagName);
               break;
           }
         }
@@ -444,6 +685,95 @@ public class Configuration {
     }
   }
 
+  /**
+   * @param value default, best or extreme, case insensitive
+   * @return the compression level
+   * @throws IOException unknown level
+   */
+  public static InputParam.CompressionLevel parseCompressionLevel(String value) throws IOException {
+    for (InputParam.CompressionLevel level : InputParam.CompressionLevel.values()) {
+      if (level.name().equalsIgnoreCase(value.trim())) {
+        return level;
+      }
+    }
+    throw new IOException(String.format("unknown compression level %s, it should be default, best or extreme",
+        value
+    ));
+  }
+
+  /**
+   * the channel is a part of the file name of its apk, so it must not lead out of the channels directory
+   *
+   * @return the channel
+   * @throws IOException the channel has a path separator, .. or a control char
+   */
+  public static String checkChannel(String channel) throws IOException {
+    boolean valid = !channel.isEmpty() && !channel.contains("/") && !channel.contains("\\") && !channel.contains("..");
+    for (int i = 0; valid && i < channel.length(); i++) {
+      valid = channel.charAt(i) >= 0x20;
+    }
+    if (!valid) {
+      throw new IOException(String.format(
+          "invalid channel \"%s\", it can not be empty or have /, \\, .. or a control char",
+          channel
+      ));
+    }
+    return channel;
+  }
+
+  /**
+   * @param value ldpi, mdpi, tvdpi, hdpi, xhdpi, xxhdpi, xxxhdpi, or the dpi like 480 or 480dpi
+   * @return the dpi
+   * @throws IOException unknown density
+   */
+  public static int parseDensity(String value) throws IOException {
+    String density = value.trim().toLowerCase();
+    switch (density) {
+      case "ldpi":
+        return 120;
+      case "mdpi":
+        return 160;
+      case "tvdpi":
+        return 213;
+      case "hdpi":
+        return 240;
+      case "xhdpi":
+        return 320;
+      case "xxhdpi":
+        return 480;
+      case "xxxhdpi":
+        return 640;
+      default:
+        break;
+    }
+    if (density.endsWith("dpi")) {
+      density = density.substring(0, density.length() - 3);
+    }
+    try {
+      int dpi = Integer.parseInt(density);
+      if (dpi > 0 && dpi < ConfigPruner.DENSITY_ANY) {
+        return dpi;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IOException(String.format("unknown density %s, it should be like xxhdpi or 480", value));
+  }
+
+  /**
+   * @param value debug, info, warn or error, case insensitive
+   * @return the log level
+   * @throws IOException unknown level
+   */
+  public static Log.Level parseLogLevel(String value) throws IOException {
+    for (Log.Level level : Log.Level.values()) {
+      if (level.name().equalsIgnoreCase(value.trim())) {
+        return level;
+      }
+    }
+    throw new IOException(String.format("unknown log level %s, it should be debug, info, warn or error", value));
+  }
+
   private void readOldMapping(String filePath) throws IOException {
     mOldMappingFile = new File(filePath);
     if (!mOldMappingFile.exists()) {
@@ -452,7 +782,7 @@ public class Configuration {
       ));
     }
     processOldMappingFile();
-    System.out.printf("you are using the keepmapping mode to proguard resouces: old mapping path:%s\n",
+    Log.i("you are using the keepmapping mode to proguard resouces: old mapping path:%s",
         mOldMappingFile.getAbsolutePath()
     );
   }
@@ -460,78 +790,10 @@ public class Configuration {
   private void processOldMappingFile() throws IOException {
     mOldResMapping.clear();
     mOldFileMapping.clear();
-
-    FileReader fr;
-    try {
-      fr = new FileReader(mOldMappingFile);
-    } catch (FileNotFoundException ex) {
-      throw new IOException(String.format("Could not find old mapping file %s", mOldMappingFile.getAbsolutePath()));
-    }
-    BufferedReader br = new BufferedReader(fr);
-    try {
-      String line = br.readLine();
-
-      while (line != null) {
-        if (line.length() > 0) {
-          Matcher mat = MAP_PATTERN.matcher(line);
-
-          if (mat.find()) {
-            String nameAfter = mat.group(2);
-            String nameBefore = mat.group(1);
-            nameAfter = nameAfter.trim();
-            nameBefore = nameBefore.trim();
-
-            //如果有这个的话，那就是mOldFileMapping
-            if (line.contains("/")) {
-              mOldFileMapping.put(nameBefore, nameAfter);
-            } else {
-              //这里是resid的mapping
-              int packagePos = nameBefore.indexOf(".R.");
-              if (packagePos == -1) {
-                throw new IOException(String.format("the old mapping file packagename is malformed, "
-                                                    + "it should be like com.tencent.mm.R.attr.test, yours %s\n",
-                    nameBefore
-                ));
-              }
-              String packageName = nameBefore.substring(0, packagePos);
-              int nextDot = nameBefore.indexOf(".", packagePos + 3);
-              String typeName = nameBefore.substring(packagePos + 3, nextDot);
-
-              String beforename = nameBefore.substring(nextDot + 1);
-              String aftername = nameAfter.substring(nameAfter.indexOf(".", packagePos + 3) + 1);
-
-              HashMap<String, HashMap<String, String>> typeMap;
-
-              if (mOldResMapping.containsKey(packageName)) {
-                typeMap = mOldResMapping.get(packageName);
-              } else {
-                typeMap = new HashMap<>();
-              }
-
-              HashMap<String, String> namesMap;
-              if (typeMap.containsKey(typeName)) {
-                namesMap = typeMap.get(typeName);
-              } else {
-                namesMap = new HashMap<>();
-              }
-              namesMap.put(beforename, aftername);
-
-              typeMap.put(typeName, namesMap);
-              mOldResMapping.put(packageName, typeMap);
-            }
-          }
-        }
-        line = br.readLine();
-      }
-    } catch (IOException ex) {
-      throw new RuntimeException("Error while mapping file");
-    } finally {
-      try {
-        br.close();
-        fr.close();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+    if (BinaryMapping.isBinary(mOldMappingFile)) {
+      BinaryMapping.load(mOldMappingFile, mOldFileMapping, mOldResMapping);
+    } else {
+      TextMappingParser.parse(mOldMappingFile, mOldFileMapping, mOldResMapping);
     }
   }
 }
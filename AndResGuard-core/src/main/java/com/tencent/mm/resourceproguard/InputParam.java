@@ -1,15 +1,28 @@
 package com.tencent.mm.resourceproguard;
 
 import com.tencent.mm.androlib.res.util.StringUtil;
+import com.tencent.mm.util.Log;
 import java.io.File;
+import java.io.Serializable;
 import java.util.ArrayList;
 
-public class InputParam {
+/**
+ * Serializable, so that the gradle workers can receive it in another process
+ */
+public class InputParam implements Serializable {
+  private static final long serialVersionUID = 1L;
 
   public final File mappingFile;
   public final boolean use7zip;
   public final boolean keepRoot;
   public final boolean mergeDuplicatedRes;
+  public final boolean usePipeline;
+  public final boolean keepIntermediateApk;
+  public final boolean useBinaryMapping;
+  public final boolean useFrequencyNaming;
+  public final boolean useSparseEncoding;
+  public final boolean mergeDuplicatedValues;
+  public final boolean optimizePng;
   public final boolean useSign;
   public final String metaName;
   public final String fixedResName;
@@ -24,10 +37,21 @@ public class InputParam {
   public final String zipAlignPath;
   public final String sevenZipPath;
   public final SignatureType signatureType;
+  public final CompressionLevel compressionLevel;
+  public final File compressionCacheDir;
+  public final int compressionCacheSizeMb;
+  public final ArrayList<String> channels;
+  public final String channelEntry;
+  public final ArrayList<String> keepDensities;
+  public final ArrayList<String> keepLocales;
+  public final ArrayList<String> keepAbis;
+  public final boolean pruneBelowMinSdk;
   public final String finalApkBackupPath;
   public final String digestAlg;
   public final int minSDKVersion;
   public final int targetSDKVersion;
+  public final Log.Level logLevel;
+  public final int logExamples;
 
   private InputParam(
       File mappingFile,
@@ -35,6 +59,13 @@ public class InputParam {
       boolean useSign,
       boolean keepRoot,
       boolean mergeDuplicatedRes,
+      boolean usePipeline,
+      boolean keepIntermediateApk,
+      boolean useBinaryMapping,
+      boolean useFrequencyNaming,
+      boolean useSparseEncoding,
+      boolean mergeDuplicatedValues,
+      boolean optimizePng,
       ArrayList<String> whiteList,
       ArrayList<String> compressFilePattern,
       String apkPath,
@@ -48,16 +79,34 @@ public class InputParam {
       String zipAlignPath,
       String sevenZipPath,
       SignatureType signatureType,
+      CompressionLevel compressionLevel,
+      File compressionCacheDir,
+      int compressionCacheSizeMb,
+      ArrayList<String> channels,
+      String channelEntry,
+      ArrayList<String> keepDensities,
+      ArrayList<String> keepLocales,
+      ArrayList<String> keepAbis,
+      boolean pruneBelowMinSdk,
       String finalApkBackupPath,
       String digestAlg,
       int minSDKVersion,
-      int targetSDKVersion) {
+      int targetSDKVersion,
+      Log.Level logLevel,
+      int logExamples) {
 
     this.mappingFile = mappingFile;
     this.use7zip = use7zip;
     this.useSign = useSign;
     this.keepRoot = keepRoot;
     this.mergeDuplicatedRes = mergeDuplicatedRes;
+    this.usePipeline = usePipeline;
+    this.keepIntermediateApk = keepIntermediateApk;
+    this.useBinaryMapping = useBinaryMapping;
+    this.useFrequencyNaming = useFrequencyNaming;
+    this.useSparseEncoding = useSparseEncoding;
+    this.mergeDuplicatedValues = mergeDuplicatedValues;
+    this.optimizePng = optimizePng;
     this.whiteList = whiteList;
     this.compressFilePattern = compressFilePattern;
     this.apkPath = apkPath;
@@ -71,16 +120,34 @@ public class InputParam {
     this.zipAlignPath = zipAlignPath;
     this.sevenZipPath = sevenZipPath;
     this.signatureType = signatureType;
+    this.compressionLevel = compressionLevel;
+    this.compressionCacheDir = compressionCacheDir;
+    this.compressionCacheSizeMb = compressionCacheSizeMb;
+    this.channels = channels;
+    this.channelEntry = channelEntry;
+    this.keepDensities = keepDensities;
+    this.keepLocales = keepLocales;
+    this.keepAbis = keepAbis;
+    this.pruneBelowMinSdk = pruneBelowMinSdk;
     this.finalApkBackupPath = finalApkBackupPath;
     this.digestAlg = digestAlg;
     this.minSDKVersion = minSDKVersion;
     this.targetSDKVersion = targetSDKVersion;
+    this.logLevel = logLevel;
+    this.logExamples = logExamples;
   }
 
   public enum SignatureType {
     SchemaV1, SchemaV2, SchemaV3
   }
 
+  /**
+   * DEFAULT and BEST are the zlib levels, EXTREME compresses with the in-process zopfli engine
+   */
+  public enum CompressionLevel {
+    DEFAULT, BEST, EXTREME
+  }
+
   public static class Builder {
 
     private File mappingFile;
@@ -88,6 +155,13 @@ public class InputParam {
     private boolean useSign;
     private boolean keepRoot;
     private boolean mergeDuplicatedRes;
+    private boolean usePipeline;
+    private boolean keepIntermediateApk;
+    private boolean useBinaryMapping;
+    private boolean useFrequencyNaming;
+    private boolean useSparseEncoding;
+    private boolean mergeDuplicatedValues;
+    private boolean optimizePng;
     private ArrayList<String> whiteList;
     private ArrayList<String> compressFilePattern;
     private String apkPath;
@@ -101,15 +175,35 @@ public class InputParam {
     private String zipAlignPath;
     private String sevenZipPath;
     private SignatureType signatureType;
+    private CompressionLevel compressionLevel;
+    private File compressionCacheDir;
+    private int compressionCacheSizeMb;
+    private ArrayList<String> channels;
+    private String channelEntry;
+    private ArrayList<String> keepDensities;
+    private ArrayList<String> keepLocales;
+    private ArrayList<String> keepAbis;
+    private boolean pruneBelowMinSdk;
     private String finalApkBackupPath;
     private String digestAlg;
     private int minSDKVersion;
     private int targetSDKVersion;
+    private Log.Level logLevel;
+    private int logExamples;
 
     public Builder() {
       use7zip = false;
       keepRoot = false;
       signatureType = SignatureType.SchemaV1;
+      compressionLevel = CompressionLevel.DEFAULT;
+      compressionCacheSizeMb = Configuration.DEFAULT_COMPRESSION_CACHE_SIZE_MB;
+      channels = new ArrayList<>();
+      channelEntry = Configuration.DEFAULT_CHANNEL_ENTRY;
+      keepDensities = new ArrayList<>();
+      keepLocales = new ArrayList<>();
+      keepAbis = new ArrayList<>();
+      logLevel = Log.Level.INFO;
+      logExamples = Log.DEFAULT_EXAMPLES;
     }
 
     public Builder setMappingFile(File mappingFile) {
@@ -137,6 +231,41 @@ public class InputParam {
       return this;
     }
 
+    public Builder setUsePipeline(boolean usePipeline) {
+      this.usePipeline = usePipeline;
+      return this;
+    }
+
+    public Builder setKeepIntermediateApk(boolean keepIntermediateApk) {
+      this.keepIntermediateApk = keepIntermediateApk;
+      return this;
+    }
+
+    public Builder setUseBinaryMapping(boolean useBinaryMapping) {
+      this.useBinaryMapping = useBinaryMapping;
+      return this;
+    }
+
+    public Builder setUseFrequencyNaming(boolean useFrequencyNaming) {
+      this.useFrequencyNaming = useFrequencyNaming;
+      return this;
+    }
+
+    public Builder setUseSparseEncoding(boolean useSparseEncoding) {
+      this.useSparseEncoding = useSparseEncoding;
+      return this;
+    }
+
+    public Builder setMergeDuplicatedValues(boolean mergeDuplicatedValues) {
+      this.mergeDuplicatedValues = mergeDuplicatedValues;
+      return this;
+    }
+
+    public Builder setOptimizePng(boolean optimizePng) {
+      this.optimizePng = optimizePng;
+      return this;
+    }
+
     public Builder setWhiteList(ArrayList<String> whiteList) {
       this.whiteList = whiteList;
       return this;
@@ -144,7 +273,7 @@ public class InputParam {
 
     public Builder setCompressFilePattern(ArrayList<String> compressFilePattern) {
       if (compressFilePattern.contains(Configuration.ASRC_FILE)) {
-        System.out.printf("[Warning] compress %s will prevent optimization at runtime",
+        Log.w("compress %s will prevent optimization at runtime",
             Configuration.ASRC_FILE);
       }
       this.compressFilePattern = compressFilePattern;
@@ -206,6 +335,74 @@ public class InputParam {
       return this;
     }
 
+    public Builder setCompressionLevel(CompressionLevel compressionLevel) {
+      this.compressionLevel = compressionLevel;
+      return this;
+    }
+
+    public Builder setCompressionCacheDir(File compressionCacheDir) {
+      this.compressionCacheDir = compressionCacheDir;
+      return this;
+    }
+
+    public Builder setCompressionCacheSizeMb(int compressionCacheSizeMb) {
+      this.compressionCacheSizeMb = compressionCacheSizeMb;
+      return this;
+    }
+
+    public Builder setChannels(Iterable<String> channels) {
+      this.channels = new ArrayList<>();
+      for (String channel : channels) {
+        this.channels.add(channel);
+      }
+      return this;
+    }
+
+    public Builder setChannelEntry(String channelEntry) {
+      if (StringUtil.isPresent(channelEntry)) {
+        this.channelEntry = channelEntry;
+      }
+      return this;
+    }
+
+    /**
+     * @param keepDensities like xxhdpi or 480, the other densities are pruned
+     */
+    public Builder setKeepDensities(Iterable<String> keepDensities) {
+      this.keepDensities = new ArrayList<>();
+      for (String density : keepDensities) {
+        this.keepDensities.add(density);
+      }
+      return this;
+    }
+
+    /**
+     * @param keepLocales like en or zh-rCN, the other locales are pruned
+     */
+    public Builder setKeepLocales(Iterable<String> keepLocales) {
+      this.keepLocales = new ArrayList<>();
+      for (String locale : keepLocales) {
+        this.keepLocales.add(locale);
+      }
+      return this;
+    }
+
+    /**
+     * @param keepAbis like arm64-v8a, the native libs of the other abis are pruned
+     */
+    public Builder setKeepAbis(Iterable<String> keepAbis) {
+      this.keepAbis = new ArrayList<>();
+      for (String abi : keepAbis) {
+        this.keepAbis.add(abi);
+      }
+      return this;
+    }
+
+    public Builder setPruneBelowMinSdk(boolean pruneBelowMinSdk) {
+      this.pruneBelowMinSdk = pruneBelowMinSdk;
+      return this;
+    }
+
     public Builder setFinalApkBackupPath(String finalApkBackupPath) {
       this.finalApkBackupPath = finalApkBackupPath;
       return this;
@@ -231,12 +428,25 @@ public class InputParam {
       return this;
     }
 
+    public Builder setLogLevel(Log.Level logLevel) {
+      this.logLevel = logLevel;
+      return this;
+    }
+
+    /**
+     * @param logExamples how many of the messages repeated for every file are printed
+     */
+    public Builder setLogExamples(int logExamples) {
+      this.logExamples = logExamples;
+      return this;
+    }
+
     public InputParam create() {
       if (targetSDKVersion >= 30) {
         // Targeting R+ (version 30 and above) requires the resources.arsc of installed APKs
         // to be stored uncompressed and aligned on a 4-byte boundary
         this.compressFilePattern.remove(Configuration.ASRC_FILE);
-        System.out.printf("[Warning] Remove resources.arsc from the compressPattern. (%s)\n",
+        Log.w("Remove resources.arsc from the compressPattern. (%s)",
             this.compressFilePattern);
       }
 
@@ -245,6 +455,13 @@ public class InputParam {
           useSign,
           keepRoot,
           mergeDuplicatedRes,
+          usePipeline,
+          keepIntermediateApk,
+          useBinaryMapping,
+          useFrequencyNaming,
+          useSparseEncoding,
+          mergeDuplicatedValues,
+          optimizePng,
           whiteList,
           compressFilePattern,
           apkPath,
@@ -258,10 +475,21 @@ public class InputParam {
           zipAlignPath,
           sevenZipPath,
           signatureType,
+          compressionLevel,
+          compressionCacheDir,
+          compressionCacheSizeMb,
+          channels,
+          channelEntry,
+          keepDensities,
+          keepLocales,
+          keepAbis,
+          pruneBelowMinSdk,
           finalApkBackupPath,
           digestAlg,
           minSDKVersion,
-          targetSDKVersion
+          targetSDKVersion,
+          logLevel,
+          logExamples
       );
     }
   }
@@ -3,12 +3,21 @@ package com.tencent.mm.resourceproguard;
 import com.tencent.mm.androlib.AndrolibException;
 import com.tencent.mm.androlib.ApkDecoder;
 import com.tencent.mm.androlib.ResourceApkBuilder;
-import com.tencent.mm.androlib.res.decoder.ARSCDecoder;
 import com.tencent.mm.androlib.res.util.StringUtil;
 import com.tencent.mm.directory.DirectoryException;
 import com.tencent.mm.util.FileOperation;
+import com.tencent.mm.util.Log;
+import com.tencent.mm.util.Metrics;
+import com.tencent.mm.util.TypedValue;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author shwenzhang
@@ -18,9 +27,7 @@ public class Main {
 
   public static final int ERRNO_ERRORS = 1;
   public static final int ERRNO_USAGE = 2;
-  protected static long mRawApkSize;
   protected static String mRunningLocation;
-  protected static long mBeginTime;
 
   /**
    * 是否通过命令行方式设置
@@ -33,73 +40,150 @@ public class Main {
 
   protected Configuration config;
   protected File mOutDir;
+  protected long mRawApkSize;
+  protected Metrics mMetrics = new Metrics();
 
-  public static void gradleRun(InputParam inputParam) {
+  /**
+   * every run owns its state, so it is safe to call from several threads with different output folders
+   *
+   * @throws AndrolibException the apk can not be resguarded
+   */
+  public static void gradleRun(InputParam inputParam) throws AndrolibException {
     Main m = new Main();
     m.run(inputParam);
   }
 
-  private void run(InputParam inputParam) {
-    synchronized (Main.class) {
-      loadConfigFromGradle(inputParam);
-      this.mFinalApkBackPath = inputParam.finalApkBackupPath;
-      Thread currentThread = Thread.currentThread();
-      System.out.printf(
-          "\n-->AndResGuard starting! Current thread# id: %d, name: %s\n",
-          currentThread.getId(),
-          currentThread.getName()
-      );
-      File finalApkFile = StringUtil.isPresent(inputParam.finalApkBackupPath) ?
-          new File(inputParam.finalApkBackupPath)
-          : null;
-
-      resourceProguard(
-          new File(inputParam.outFolder),
-          finalApkFile,
-          inputParam.apkPath,
-          inputParam.signatureType,
-          inputParam.minSDKVersion
-      );
-      System.out.printf("<--AndResGuard Done! You can find the output in %s\n", mOutDir.getAbsolutePath());
-      clean();
+  /**
+   * resguard several apks at the same time, such as the variants of one build
+   *
+   * @param inputParams the apks, their output folders must be different
+   * @param parallelism max apks in progress, the processor count if it is not positive
+   * @throws AndrolibException the first failure, the others are added as suppressed
+   */
+  public static void gradleRun(List<InputParam> inputParams, int parallelism) throws AndrolibException {
+    if (parallelism <= 0) {
+      parallelism = Runtime.getRuntime().availableProcessors();
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, inputParams.size())));
+    List<Future<Void>> futures = new ArrayList<>(inputParams.size());
+    try {
+      for (final InputParam inputParam : inputParams) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            gradleRun(inputParam);
+            return null;
+          }
+        }));
+      }
+      AndrolibException failure = null;
+      for (int i = 0; i < futures.size(); i++) {
+        Throwable cause;
+        try {
+          futures.get(i).get();
+          continue;
+        } catch (ExecutionException e) {
+          cause = e.getCause();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new AndrolibException("interrupted while waiting for the apks", e);
+        }
+        AndrolibException error = cause instanceof AndrolibException
+            ? (AndrolibException) cause
+            : new AndrolibException(String.format("resguard %s failed", inputParams.get(i).apkPath), cause);
+        if (failure == null) {
+          failure = error;
+        } else {
+          failure.addSuppressed(error);
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      executor.shutdownNow();
     }
   }
 
+  private void run(InputParam inputParam) throws AndrolibException {
+    loadConfigFromGradle(inputParam);
+    this.mFinalApkBackPath = inputParam.finalApkBackupPath;
+    Thread currentThread = Thread.currentThread();
+    Log.i(
+        "\n-->AndResGuard starting! Current thread# id: %d, name: %s",
+        currentThread.getId(),
+        currentThread.getName()
+    );
+    File finalApkFile = StringUtil.isPresent(inputParam.finalApkBackupPath) ?
+        new File(inputParam.finalApkBackupPath)
+        : null;
+
+    resourceProguard(
+        new File(inputParam.outFolder),
+        finalApkFile,
+        inputParam.apkPath,
+        inputParam.signatureType,
+        inputParam.minSDKVersion
+    );
+    Log.i("<--AndResGuard Done! You can find the output in %s", mOutDir.getAbsolutePath());
+    clean();
+  }
+
+  /**
+   * @return the phases of the last resguard run
+   */
+  public Metrics getMetrics() {
+    return mMetrics;
+  }
+
   protected void clean() {
     config = null;
-    ARSCDecoder.mTableStringsResguard.clear();
-    ARSCDecoder.mMergeDuplicatedResCount = 0;
   }
 
-  private void loadConfigFromGradle(InputParam inputParam) {
+  private void loadConfigFromGradle(InputParam inputParam) throws AndrolibException {
     try {
       config = new Configuration(inputParam);
     } catch (IOException e) {
-      e.printStackTrace();
+      throw new AndrolibException("load the config failed", e);
     }
   }
 
   protected void resourceProguard(
-      File outputDir, File outputFile, String apkFilePath, InputParam.SignatureType signatureType) {
-    resourceProguard(outputDir, outputFile, apkFilePath, signatureType, 14 /*default min sdk*/);
+      File outputDir, File outputFile, String apkFilePath, InputParam.SignatureType signatureType)
+      throws AndrolibException {
+    resourceProguard(outputDir,
+        outputFile,
+        apkFilePath,
+        signatureType,
+        config.mMinSdkVersion > 0 ? config.mMinSdkVersion : 14 /*default min sdk*/
+    );
   }
 
   protected void resourceProguard(
-      File outputDir, File outputFile, String apkFilePath, InputParam.SignatureType signatureType, int minSDKVersoin) {
+      File outputDir, File outputFile, String apkFilePath, InputParam.SignatureType signatureType, int minSDKVersoin)
+      throws AndrolibException {
     File apkFile = new File(apkFilePath);
     if (!apkFile.exists()) {
-      System.err.printf("The input apk %s does not exist", apkFile.getAbsolutePath());
-      goToError();
+      throw new AndrolibException(String.format("The input apk %s does not exist", apkFile.getAbsolutePath()));
     }
+    // the runs of the process may have different configs, so the level and the sample counts are per run
+    Log.beginRun(config.mLogLevel, config.mLogExamples);
     mRawApkSize = FileOperation.getFileSizes(apkFile);
+    mMetrics = new Metrics();
+    long start = mMetrics.start();
     try {
       ApkDecoder decoder = new ApkDecoder(config, apkFile);
+      decoder.setMetrics(mMetrics);
       /* 默认使用V1签名 */
       decodeResource(outputDir, decoder, apkFile);
       buildApk(decoder, apkFile, outputFile, signatureType, minSDKVersoin);
+      writeReport(apkFile, System.nanoTime() - start);
+    } catch (AndrolibException e) {
+      throw e;
     } catch (Exception e) {
-      e.printStackTrace();
-      goToError();
+      throw new AndrolibException(String.format("resguard %s failed", apkFile.getAbsolutePath()), e);
+    } finally {
+      Log.endRun();
     }
   }
 
@@ -118,22 +202,46 @@ public class Main {
       ApkDecoder decoder, File apkFile, File outputFile, InputParam.SignatureType signatureType, int minSDKVersion)
       throws Exception {
     ResourceApkBuilder builder = new ResourceApkBuilder(config);
+    builder.setMetrics(mMetrics);
     String apkBasename = apkFile.getName();
     apkBasename = apkBasename.substring(0, apkBasename.indexOf(".apk"));
     builder.setOutDir(mOutDir, apkBasename, outputFile);
-    System.out.printf("[AndResGuard] buildApk signatureType: %s\n", signatureType);
-    switch (signatureType) {
-      case SchemaV1:
-        builder.buildApkWithV1sign(decoder.getCompressData());
-        break;
-      case SchemaV2:
-      case SchemaV3:
-        builder.buildApkWithV2V3Sign(decoder.getCompressData(), minSDKVersion, signatureType);
-        break;
+    builder.setMergeDuplicatedResCount(decoder.getMergeDuplicatedResCount());
+    Log.i("[AndResGuard] buildApk signatureType: %s", signatureType);
+    boolean pipeline = false;
+    if (config.mUsePipeline) {
+      // the extreme level compresses in process, it takes the place of 7z
+      pipeline = !config.mUse7zip || config.mCompressionLevel == InputParam.CompressionLevel.EXTREME;
+      if (!pipeline) {
+        Log.i("[AndResGuard] 7zip repackage needs the unsigned apk on disk, ignore the pipeline mode");
+      }
     }
+    if (pipeline) {
+      builder.buildApkWithPipeline(decoder.getCompressData(), minSDKVersion, signatureType);
+    } else {
+      switch (signatureType) {
+        case SchemaV1:
+          builder.buildApkWithV1sign(decoder.getCompressData());
+          break;
+        case SchemaV2:
+        case SchemaV3:
+          builder.buildApkWithV2V3Sign(decoder.getCompressData(), minSDKVersion, signatureType);
+          break;
+      }
+    }
+    if (builder.getOutputApk() != null) {
+      mMetrics.count(Metrics.OUTPUT_APK_BYTES, builder.getOutputApk().length());
+    }
+    builder.buildChannelApks(minSDKVersion, signatureType);
   }
 
-  protected void goToError() {
-    System.exit(ERRNO_USAGE);
+  /**
+   * the phase times and counters of this run, next to the mapping files
+   */
+  private void writeReport(File apkFile, long totalNanos) throws IOException {
+    String apkBasename = apkFile.getName().substring(0, apkFile.getName().indexOf(".apk"));
+    File report = new File(mOutDir, TypedValue.REPORT_FILE + apkBasename + TypedValue.JSON_FILE);
+    mMetrics.writeReport(report, apkFile, totalNanos);
+    Log.i("[AndResGuard] report file %s done", report.getAbsolutePath());
   }
 }
\ No newline at end of file
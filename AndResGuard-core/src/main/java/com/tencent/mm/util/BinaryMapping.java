@@ -0,0 +1,267 @@
+package com.tencent.mm.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary form of resource_mapping_xxx.txt, loaded without parsing any text.
+ * <pre>
+ * int magic, int version
+ * int stringCount, int[stringCount + 1] offsets, utf-8 bytes padded to 4
+ * int fileCount, fileCount * (int raw, int replace)
+ * int resCount, resCount * (int package, int type, int name, int replace)
+ * </pre>
+ * The records are fixed width and point into the string table, the files are sorted by the raw path and the res
+ * by package, type and name, so the file can be mapped and searched as it is. The ints are big endian.
+ */
+public class BinaryMapping {
+  private static final int MAGIC = 0x4152474d; // ARGM
+  private static final int VERSION = 1;
+  private static final int FILE_RECORD_INTS = 2;
+  private static final int RES_RECORD_INTS = 4;
+
+  private static final Comparator<String[]> RECORD_ORDER = new Comparator<String[]>() {
+    @Override
+    public int compare(String[] a, String[] b) {
+      for (int i = 0; i < a.length - 1; i++) {
+        int result = a[i].compareTo(b[i]);
+        if (result != 0) {
+          return result;
+        }
+      }
+      return 0;
+    }
+  };
+
+  private final List<String[]> mFiles = new ArrayList<>();
+  private final List<String[]> mRes = new ArrayList<>();
+
+  public void addFile(String raw, String replace) {
+    mFiles.add(new String[] {raw, replace});
+  }
+
+  public void addRes(String packageName, String type, String name, String replace) {
+    mRes.add(new String[] {packageName, type, name, replace});
+  }
+
+  public void write(File file) throws IOException {
+    String[][] files = mFiles.toArray(new String[mFiles.size()][]);
+    String[][] res = mRes.toArray(new String[mRes.size()][]);
+    Arrays.sort(files, RECORD_ORDER);
+    Arrays.sort(res, RECORD_ORDER);
+
+    // the package and type names repeat in every record, they are stored once
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    int[] fileRecords = index(files, strings);
+    int[] resRecords = index(res, strings);
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, false)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(strings.size());
+      List<byte[]> bytes = new ArrayList<>(strings.size());
+      int offset = 0;
+      out.writeInt(offset);
+      for (String string : strings.keySet()) {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        bytes.add(utf8);
+        offset += utf8.length;
+        out.writeInt(offset);
+      }
+      for (byte[] utf8 : bytes) {
+        out.write(utf8);
+      }
+      // the records stay aligned when the file is mapped
+      for (int i = offset; i % 4 != 0; i++) {
+        out.write(0);
+      }
+      writeRecords(out, fileRecords, FILE_RECORD_INTS);
+      writeRecords(out, resRecords, RES_RECORD_INTS);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return whether the file starts with the magic of the binary mapping, the text mapping does not
+   */
+  public static boolean isBinary(File file) throws IOException {
+    if (file.length() < 8) {
+      return false;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      return in.readInt() == MAGIC;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * fill the maps of the keepmapping mode, in the same shape as the text mapping is parsed into
+   */
+  public static void load(
+      File file, HashMap<String, String> fileMapping,
+      HashMap<String, HashMap<String, HashMap<String, String>>> resMapping) throws IOException {
+    Table table = Table.read(file);
+    String[] strings = table.mStrings;
+    int[] files = table.mFiles;
+    for (int i = 0; i < files.length; i += FILE_RECORD_INTS) {
+      fileMapping.put(strings[files[i]], strings[files[i + 1]]);
+    }
+    // the records are sorted, so the maps only change when the package or the type does
+    int[] res = table.mRes;
+    int lastPackage = -1;
+    int lastType = -1;
+    HashMap<String, HashMap<String, String>> typeMap = null;
+    HashMap<String, String> nameMap = null;
+    for (int i = 0; i < res.length; i += RES_RECORD_INTS) {
+      if (res[i] != lastPackage) {
+        lastPackage = res[i];
+        lastType = -1;
+        typeMap = resMapping.get(strings[lastPackage]);
+        if (typeMap == null) {
+          typeMap = new HashMap<>();
+          resMapping.put(strings[lastPackage], typeMap);
+        }
+      }
+      if (res[i + 1] != lastType) {
+        lastType = res[i + 1];
+        nameMap = typeMap.get(strings[lastType]);
+        if (nameMap == null) {
+          nameMap = new HashMap<>();
+          typeMap.put(strings[lastType], nameMap);
+        }
+      }
+      nameMap.put(strings[res[i + 2]], strings[res[i + 3]]);
+    }
+  }
+
+  /**
+   * write the text mapping of a binary mapping, it can be read back by the keepmapping mode as well
+   */
+  public static void writeText(File file, File text) throws IOException {
+    Table table = Table.read(file);
+    String[] strings = table.mStrings;
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(text, false),
+        StandardCharsets.UTF_8
+    ));
+    try {
+      writer.write("res path mapping:\n");
+      int[] files = table.mFiles;
+      for (int i = 0; i < files.length; i += FILE_RECORD_INTS) {
+        writer.write("    " + strings[files[i]] + " -> " + strings[files[i + 1]] + "\n");
+      }
+      writer.write("\n\n");
+      writer.write("res id mapping:\n");
+      int[] res = table.mRes;
+      for (int i = 0; i < res.length; i += RES_RECORD_INTS) {
+        String prefix = strings[res[i]] + ".R." + strings[res[i + 1]] + ".";
+        writer.write("    " + prefix + strings[res[i + 2]] + " -> " + prefix + strings[res[i + 3]] + "\n");
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static int[] index(String[][] records, Map<String, Integer> strings) {
+    int width = records.length == 0 ? 0 : records[0].length;
+    int[] indexes = new int[records.length * width];
+    for (int i = 0; i < records.length; i++) {
+      for (int j = 0; j < width; j++) {
+        Integer index = strings.get(records[i][j]);
+        if (index == null) {
+          index = strings.size();
+          strings.put(records[i][j], index);
+        }
+        indexes[i * width + j] = index;
+      }
+    }
+    return indexes;
+  }
+
+  private static void writeRecords(DataOutputStream out, int[] records, int width) throws IOException {
+    out.writeInt(records.length / width);
+    for (int index : records) {
+      out.writeInt(index);
+    }
+  }
+
+  /**
+   * the string table and the records of a mapped binary mapping
+   */
+  private static class Table {
+    String[] mStrings;
+    int[] mFiles;
+    int[] mRes;
+
+    static Table read(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        Table table = new Table();
+        if (buffer.getInt() != MAGIC) {
+          throw new IOException(String.format("%s is not a binary mapping file", file.getAbsolutePath()));
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+          throw new IOException(String.format("unsupported binary mapping version %d of %s",
+              version,
+              file.getAbsolutePath()
+          ));
+        }
+        int[] offsets = new int[buffer.getInt() + 1];
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(buffer.position() + offsets.length * 4);
+        int size = offsets[offsets.length - 1];
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        buffer.position(buffer.position() + (4 - size % 4) % 4);
+        table.mStrings = new String[offsets.length - 1];
+        for (int i = 0; i < table.mStrings.length; i++) {
+          table.mStrings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+        table.mFiles = readRecords(buffer, FILE_RECORD_INTS, table.mStrings.length);
+        table.mRes = readRecords(buffer, RES_RECORD_INTS, table.mStrings.length);
+        return table;
+      } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+        throw new IOException(String.format("the binary mapping file %s is truncated", file.getAbsolutePath()), e);
+      } finally {
+        raf.close();
+      }
+    }
+
+    private static int[] readRecords(ByteBuffer buffer, int width, int stringCount) throws IOException {
+      int[] records = new int[buffer.getInt() * width];
+      buffer.asIntBuffer().get(records);
+      buffer.position(buffer.position() + records.length * 4);
+      for (int index : records) {
+        if (index < 0 || index >= stringCount) {
+          throw new IOException(String.format("bad string index %d in the binary mapping file", index));
+        }
+      }
+      return records;
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package com.tencent.mm.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A persistent cache of compressed zip entries, the key is the sha-256 of the uncompressed data and the
+ * compression level, the value is the crc32 and the compressed payload. Most of the entries are identical
+ * between two builds, a hit costs a file read instead of compressing the entry again.
+ * The last modified time of a file is its last use, the least recently used files are removed when the
+ * cache grows beyond its max size.
+ */
+public class CompressionCache {
+  private static final int MAGIC = 0x41524743;
+  private static final String SUFFIX = ".bin";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final File mDir;
+  private final long mMaxSize;
+
+  /**
+   * @param dir     cache directory, created if missing
+   * @param maxSize max bytes kept on disk
+   */
+  public CompressionCache(File dir, long maxSize) {
+    mDir = dir;
+    mMaxSize = maxSize;
+  }
+
+  public File getDir() {
+    return mDir;
+  }
+
+  /**
+   * @param data  the uncompressed data
+   * @param level name of the compression level
+   * @return the key of the entry
+   */
+  public static String key(byte[] data, String level) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] hash = digest.digest(data);
+    StringBuilder sb = new StringBuilder(hash.length * 2 + level.length() + 1);
+    for (byte b : hash) {
+      sb.append(HEX[(b >>> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+    return sb.append('-').append(level.toLowerCase()).toString();
+  }
+
+  /**
+   * @param key  see {@link #key(byte[], String)}
+   * @param size size of the uncompressed data, checked against the cached one
+   * @return the cached entry, or null if it is missing or broken
+   */
+  public Entry get(String key, long size) {
+    File file = file(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try {
+        if (in.readInt() != MAGIC) {
+          throw new IOException("bad magic");
+        }
+        long crc = in.readLong();
+        long cachedSize = in.readLong();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        if (cachedSize != size) {
+          throw new IOException("size mismatch");
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return new Entry(payload, crc);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      Log.w("drop the broken compression cache %s: %s", file.getName(), e.getMessage());
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * store an entry, it is written to a temp file first so readers never see a partial one
+   */
+  public void put(String key, long size, Entry entry) throws IOException {
+    File file = file(key);
+    File parent = file.getParentFile();
+    if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+      throw new IOException("can not create the compression cache directory " + parent.getAbsolutePath());
+    }
+    File temp = File.createTempFile(key, ".tmp", parent);
+    try {
+      DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+      try {
+        out.writeInt(MAGIC);
+        out.writeLong(entry.crc);
+        out.writeLong(size);
+        out.writeInt(entry.payload.length);
+        out.write(entry.payload);
+      } finally {
+        out.close();
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * remove the least recently used entries until the cache fits in its max size
+   */
+  public void trim() {
+    List<File> files = new ArrayList<>();
+    File[] buckets = mDir.listFiles();
+    if (buckets == null) {
+      return;
+    }
+    long total = 0;
+    for (File bucket : buckets) {
+      File[] entries = bucket.listFiles();
+      if (entries == null) {
+        continue;
+      }
+      for (File file : entries) {
+        if (file.getName().endsWith(SUFFIX)) {
+          files.add(file);
+          total += file.length();
+        }
+      }
+    }
+    if (total <= mMaxSize) {
+      return;
+    }
+    Collections.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    for (File file : files) {
+      if (total <= mMaxSize) {
+        break;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  private File file(String key) {
+    // 256 buckets keep the directories small
+    return new File(new File(mDir, key.substring(0, 2)), key + SUFFIX);
+  }
+
+  public static class Entry {
+    public final byte[] payload;
+    public final long crc;
+
+    public Entry(byte[] payload, long crc) {
+      this.payload = payload;
+      this.crc = crc;
+    }
+  }
+}
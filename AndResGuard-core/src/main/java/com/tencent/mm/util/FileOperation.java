@@ -1,5 +1,7 @@
 package com.tencent.mm.util;
 
+import com.tencent.mm.jfr.FileCopyEvent;
+import com.tencent.mm.jfr.ZipEntryEvent;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
@@ -7,9 +9,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -67,14 +74,14 @@ public class FileOperation {
         fis = new FileInputStream(f);
         size = fis.available();
       } catch (IOException e) {
-        e.printStackTrace();
+        Log.e(e);
       } finally {
         try {
           if (fis != null) {
             fis.close();
           }
         } catch (IOException e) {
-          e.printStackTrace();
+          Log.e(e);
         }
       }
     }
@@ -104,6 +111,9 @@ public class FileOperation {
     if (parent != null && (!parent.exists())) {
       parent.mkdirs();
     }
+    FileCopyEvent event = new FileCopyEvent();
+    event.begin();
+    long size = 0;
     try {
       is = new FileInputStream(source);
       os = new FileOutputStream(dest, false);
@@ -112,6 +122,7 @@ public class FileOperation {
       int length;
       while ((length = is.read(buffer)) > 0) {
         os.write(buffer, 0, length);
+        size += length;
       }
     } finally {
       if (is != null) {
@@ -121,6 +132,12 @@ public class FileOperation {
         os.close();
       }
     }
+    event.end();
+    if (event.shouldCommit()) {
+      event.source = source.getPath();
+      event.size = size;
+      event.commit();
+    }
   }
 
   public static boolean checkDirectory(String dir) {
@@ -140,7 +157,7 @@ public class FileOperation {
       file.createNewFile();
     } catch (IOException e) {
       // TODO Auto-generated catch block
-      e.printStackTrace();
+      Log.e(e);
     }
     return file;
   }
@@ -222,6 +239,118 @@ public class FileOperation {
     zipOut.close();
   }
 
+  /**
+   * zip list of file into a stream with {@link ZipWriter}, the STORED entries would be aligned while zipping,
+   * so there is no need to zipalign the output again
+   *
+   * @param resFileList file(dir) list
+   * @param baseFolder file(dir) base folder, we should calc relative path of resFile with base
+   * @param out output stream, it would not be closed
+   * @param compressData compress data
+   * @param compressor compresses the DEFLATED entries
+   * @param alignment alignment of the STORED entries
+   * @throws IOException io exception
+   */
+  public static void zipFiles(
+      Collection<File> resFileList, File baseFolder, OutputStream out, HashMap<String, Integer> compressData,
+      ZipCompressor compressor, int alignment) throws IOException {
+    List<ZipCompressor.Entry> entries = new ArrayList<>();
+    for (File resFile : resFileList) {
+      if (resFile.exists()) {
+        collectEntries(resFile, getRelativeRootPath(resFile, baseFolder), compressData, entries);
+      }
+    }
+    ZipWriter writer = new ZipWriter(out, alignment);
+    compressor.writeEntries(writer, entries);
+    writer.finish();
+  }
+
+  /**
+   * compress every entry of the apk again with the compressor, instead of repackaging it with 7z
+   *
+   * @param apkFile the input apk
+   * @param outFile the output apk, the STORED entries are aligned
+   * @param compressData the compress method of the entries, the method in the apk is used if it is null or
+   *     the entry is missing
+   * @param compressor compresses the DEFLATED entries
+   * @param alignment alignment of the STORED entries
+   * @throws IOException io exception
+   */
+  public static void recompressApk(
+      File apkFile, File outFile, HashMap<String, Integer> compressData, ZipCompressor compressor, int alignment)
+      throws IOException {
+    final ZipFile zipFile = new ZipFile(apkFile);
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile, false), BUFFER);
+    try {
+      List<ZipCompressor.Entry> entries = new ArrayList<>();
+      Enumeration<? extends ZipEntry> emu = zipFile.entries();
+      while (emu.hasMoreElements()) {
+        final ZipEntry entry = emu.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        int method = entry.getMethod();
+        if (compressData != null && compressData.containsKey(entry.getName())) {
+          method = compressData.get(entry.getName());
+        }
+        entries.add(new ZipCompressor.Entry(entry.getName(), method, new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            return readContents(zipFile.getInputStream(entry));
+          }
+        }));
+      }
+      ZipWriter writer = new ZipWriter(out, alignment);
+      compressor.writeEntries(writer, entries);
+      writer.finish();
+    } finally {
+      out.close();
+      zipFile.close();
+    }
+  }
+
+  private static String getRelativeRootPath(File resFile, File baseFolder) {
+    if (!resFile.getAbsolutePath().contains(baseFolder.getAbsolutePath())) {
+      return "";
+    }
+    String relativePath = baseFolder.toURI().relativize(resFile.getParentFile().toURI()).getPath();
+    // remove slash at end of relativePath
+    if (relativePath.length() > 1) {
+      return relativePath.substring(0, relativePath.length() - 1);
+    }
+    return "";
+  }
+
+  private static void collectEntries(
+      File resFile, String rootpath, HashMap<String, Integer> compressData, List<ZipCompressor.Entry> entries) {
+    rootpath = rootpath + (rootpath.trim().length() == 0 ? "" : File.separator) + resFile.getName();
+    if (resFile.isDirectory()) {
+      File[] fileList = resFile.listFiles();
+      for (File file : fileList) {
+        collectEntries(file, rootpath, compressData, entries);
+      }
+    } else {
+      if (rootpath.contains("\\")) {
+        rootpath = rootpath.replace("\\", "/");
+      }
+      if (!compressData.containsKey(rootpath)) {
+        Log.sample(Log.Level.WARN,
+            "do not have the compress data in resource.asrc",
+            "do not have the compress data path =%s in resource.asrc",
+            rootpath
+        );
+        return;
+      }
+      final File file = resFile;
+      entries.add(new ZipCompressor.Entry(rootpath, compressData.get(rootpath), new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          return readContents(file);
+        }
+      }));
+    }
+  }
+
   private static void zipFile(
       File resFile, ZipOutputStream zipout, String rootpath, HashMap<String, Integer> compressData) throws IOException {
     rootpath = rootpath + (rootpath.trim().length() == 0 ? "" : File.separator) + resFile.getName();
@@ -231,13 +360,19 @@ public class FileOperation {
         zipFile(file, zipout, rootpath, compressData);
       }
     } else {
+      ZipEntryEvent event = new ZipEntryEvent();
+      event.begin();
       final byte[] fileContents = readContents(resFile);
       //这里需要强转成linux格式，果然坑！！
       if (rootpath.contains("\\")) {
         rootpath = rootpath.replace("\\", "/");
       }
       if (!compressData.containsKey(rootpath)) {
-        System.err.printf(String.format("do not have the compress data path =%s in resource.asrc\n", rootpath));
+        Log.sample(Log.Level.WARN,
+            "do not have the compress data in resource.asrc",
+            "do not have the compress data path =%s in resource.asrc",
+            rootpath
+        );
         //throw new IOException(String.format("do not have the compress data path=%s", rootpath));
         return;
       }
@@ -257,25 +392,34 @@ public class FileOperation {
       zipout.write(fileContents);
       zipout.flush();
       zipout.closeEntry();
+      event.end();
+      if (event.shouldCommit()) {
+        event.name = rootpath;
+        event.method = ZipEntryEvent.method(compressMethod);
+        event.size = fileContents.length;
+        event.compressedSize = entry.getCompressedSize();
+        event.commit();
+      }
     }
   }
 
   private static byte[] readContents(final File file) throws IOException {
+    return readContents(new FileInputStream(file));
+  }
+
+  private static byte[] readContents(final InputStream in) throws IOException {
     final ByteArrayOutputStream output = new ByteArrayOutputStream();
     final int bufferSize = 4096;
     try {
-      final FileInputStream in = new FileInputStream(file);
       final BufferedInputStream bIn = new BufferedInputStream(in);
       int length;
       byte[] buffer = new byte[bufferSize];
-      byte[] bufferCopy;
       while ((length = bIn.read(buffer, 0, bufferSize)) != -1) {
-        bufferCopy = new byte[length];
-        System.arraycopy(buffer, 0, bufferCopy, 0, length);
-        output.write(bufferCopy);
+        output.write(buffer, 0, length);
       }
       bIn.close();
     } finally {
+      in.close();
       output.close();
     }
     return output.toByteArray();
@@ -0,0 +1,153 @@
+package com.tencent.mm.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Writes indented json, just enough for the reports of the tool. The caller keeps the nesting right.
+ */
+public class JsonWriter {
+  private final Writer mOut;
+  /**
+   * whether the object or array at each level is still empty
+   */
+  private final Deque<Boolean> mEmpty = new ArrayDeque<>();
+  private boolean mAfterName;
+
+  public JsonWriter(Writer out) {
+    mOut = out;
+  }
+
+  public JsonWriter beginObject() throws IOException {
+    beforeValue();
+    mOut.write('{');
+    mEmpty.push(true);
+    return this;
+  }
+
+  public JsonWriter endObject() throws IOException {
+    return end('}');
+  }
+
+  public JsonWriter beginArray() throws IOException {
+    beforeValue();
+    mOut.write('[');
+    mEmpty.push(true);
+    return this;
+  }
+
+  public JsonWriter endArray() throws IOException {
+    return end(']');
+  }
+
+  public JsonWriter name(String name) throws IOException {
+    beforeValue();
+    writeString(name);
+    mOut.write(": ");
+    mAfterName = true;
+    return this;
+  }
+
+  public JsonWriter value(String value) throws IOException {
+    beforeValue();
+    if (value == null) {
+      mOut.write("null");
+    } else {
+      writeString(value);
+    }
+    return this;
+  }
+
+  public JsonWriter value(long value) throws IOException {
+    beforeValue();
+    mOut.write(Long.toString(value));
+    return this;
+  }
+
+  public JsonWriter value(double value) throws IOException {
+    beforeValue();
+    mOut.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format(Locale.US, "%.3f", value));
+    return this;
+  }
+
+  public JsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    mOut.write(value ? "true" : "false");
+    return this;
+  }
+
+  public void flush() throws IOException {
+    mOut.flush();
+  }
+
+  public void close() throws IOException {
+    mOut.write('\n');
+    mOut.close();
+  }
+
+  private JsonWriter end(char bracket) throws IOException {
+    boolean empty = mEmpty.pop();
+    if (!empty) {
+      newLine();
+    }
+    mOut.write(bracket);
+    return this;
+  }
+
+  private void beforeValue() throws IOException {
+    if (mAfterName) {
+      mAfterName = false;
+      return;
+    }
+    if (mEmpty.isEmpty()) {
+      return;
+    }
+    if (!mEmpty.peek()) {
+      mOut.write(',');
+    }
+    mEmpty.pop();
+    mEmpty.push(false);
+    newLine();
+  }
+
+  private void newLine() throws IOException {
+    mOut.write('\n');
+    for (int i = 0; i < mEmpty.size(); i++) {
+      mOut.write("  ");
+    }
+  }
+
+  private void writeString(String value) throws IOException {
+    mOut.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          mOut.write("\\\"");
+          break;
+        case '\\':
+          mOut.write("\\\\");
+          break;
+        case '\n':
+          mOut.write("\\n");
+          break;
+        case '\r':
+          mOut.write("\\r");
+          break;
+        case '\t':
+          mOut.write("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            mOut.write(String.format("\\u%04x", (int) c));
+          } else {
+            mOut.write(c);
+          }
+      }
+    }
+    mOut.write('"');
+  }
+}
@@ -0,0 +1,285 @@
+package com.tencent.mm.util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The log of the tool, the debug and info messages go to stdout, the warnings and errors to stderr.
+ * The messages are formatted and printed by a daemon thread behind a bounded queue, so the hot loops do not wait
+ * for the console. When the queue is full the debug and info messages are dropped and counted, the warnings and
+ * errors wait. The messages of {@link #sample} are aggregated by their key: only the first examples are printed,
+ * {@link #flush()} prints how many more there were.
+ * <p>
+ * Many runs can share the process, so the level, the examples and the sample counts belong to the run started by
+ * {@link #beginRun} on the thread, the threads it creates inherit them. Outside of a run the process defaults
+ * are used.
+ */
+public final class Log {
+  public static final int DEFAULT_EXAMPLES = 5;
+  private static final int QUEUE_CAPACITY = 4096;
+  private static final long FLUSH_TIMEOUT_SECONDS = 10;
+
+  private static final BlockingQueue<Record> sQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private static final AtomicLong sDropped = new AtomicLong();
+  private static final Run sDefault = new Run(Level.INFO, DEFAULT_EXAMPLES);
+  private static final InheritableThreadLocal<Run> sRun = new InheritableThreadLocal<>();
+  private static Thread sWriter;
+
+  private Log() {
+  }
+
+  /**
+   * set the level of the process, a run started by {@link #beginRun} has its own
+   */
+  public static void setLevel(Level level) {
+    sDefault.level = level;
+  }
+
+  public static Level getLevel() {
+    return currentRun().level;
+  }
+
+  /**
+   * @param examples how many messages of a {@link #sample} key are printed, outside of a run
+   */
+  public static void setExamples(int examples) {
+    sDefault.examples = Math.max(0, examples);
+  }
+
+  /**
+   * start a run on the current thread, the logs of the thread and of the threads it creates use the level and the
+   * examples until {@link #endRun()}
+   */
+  public static void beginRun(Level level, int examples) {
+    sRun.set(new Run(level, Math.max(0, examples)));
+  }
+
+  /**
+   * flush the run of the current thread and go back to the process defaults
+   */
+  public static void endRun() {
+    try {
+      flush();
+    } finally {
+      sRun.remove();
+    }
+  }
+
+  public static boolean isLoggable(Level level) {
+    return isLoggable(currentRun(), level);
+  }
+
+  private static boolean isLoggable(Run run, Level level) {
+    return level.ordinal() >= run.level.ordinal();
+  }
+
+  private static Run currentRun() {
+    Run run = sRun.get();
+    return run == null ? sDefault : run;
+  }
+
+  public static void d(String format, Object... args) {
+    log(Level.DEBUG, format, args);
+  }
+
+  public static void i(String format, Object... args) {
+    log(Level.INFO, format, args);
+  }
+
+  public static void w(String format, Object... args) {
+    log(Level.WARN, format, args);
+  }
+
+  public static void e(String format, Object... args) {
+    log(Level.ERROR, format, args);
+  }
+
+  public static void e(Throwable throwable) {
+    if (!isLoggable(Level.ERROR)) {
+      return;
+    }
+    // the stack trace is taken now, the throwable may be changed later
+    StringWriter writer = new StringWriter();
+    throwable.printStackTrace(new PrintWriter(writer));
+    String trace = writer.toString();
+    enqueue(new Record(Level.ERROR, trace.endsWith("\n") ? trace.substring(0, trace.length() - 1) : trace, null));
+  }
+
+  /**
+   * log a message which may repeat for every file, only the first examples of the key are printed
+   *
+   * @param key what the messages have in common, {@link #flush()} prints the count of the rest with it
+   */
+  public static void sample(Level level, String key, String format, Object... args) {
+    Run run = currentRun();
+    if (!isLoggable(run, level)) {
+      return;
+    }
+    Sample sample = run.samples.get(key);
+    if (sample == null) {
+      sample = new Sample(level);
+      Sample old = run.samples.putIfAbsent(key, sample);
+      if (old != null) {
+        sample = old;
+      }
+    }
+    if (sample.count.incrementAndGet() <= run.examples) {
+      enqueue(new Record(level, format, args));
+    }
+  }
+
+  /**
+   * print the counts of the aggregated messages of the current run and wait until the messages logged so far are
+   * printed
+   */
+  public static void flush() {
+    Run run = currentRun();
+    for (String key : run.samples.keySet()) {
+      Sample sample = run.samples.remove(key);
+      long more = sample == null ? 0 : sample.count.get() - run.examples;
+      if (more > 0) {
+        log(sample.level, "%s: %d more not shown", new Object[] {key, more});
+      }
+    }
+    long dropped = sDropped.getAndSet(0);
+    if (dropped > 0) {
+      log(Level.WARN, "%d log messages were dropped, the console could not keep up", new Object[] {dropped});
+    }
+    synchronized (Log.class) {
+      if (sWriter == null || sWriter == Thread.currentThread()) {
+        return;
+      }
+    }
+    CountDownLatch latch = new CountDownLatch(1);
+    try {
+      if (sQueue.offer(new Record(latch), FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        latch.await(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void log(Level level, String format, Object[] args) {
+    if (isLoggable(level)) {
+      enqueue(new Record(level, format, args));
+    }
+  }
+
+  private static void enqueue(Record record) {
+    ensureWriter();
+    if (sQueue.offer(record)) {
+      return;
+    }
+    if (record.level.ordinal() < Level.WARN.ordinal()) {
+      sDropped.incrementAndGet();
+      return;
+    }
+    try {
+      sQueue.put(record);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      print(record);
+    }
+  }
+
+  private static synchronized void ensureWriter() {
+    if (sWriter != null) {
+      return;
+    }
+    sWriter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          Record record;
+          try {
+            record = sQueue.take();
+          } catch (InterruptedException e) {
+            return;
+          }
+          if (record.latch != null) {
+            record.latch.countDown();
+          } else {
+            print(record);
+          }
+        }
+      }
+    }, "AndResGuard-log");
+    sWriter.setDaemon(true);
+    sWriter.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, "AndResGuard-log-flush"));
+  }
+
+  private static void print(Record record) {
+    String message;
+    try {
+      message = record.args == null || record.args.length == 0
+          ? record.format
+          : String.format(record.format, record.args);
+    } catch (RuntimeException e) {
+      message = record.format;
+    }
+    PrintStream out = record.level.ordinal() >= Level.WARN.ordinal() ? System.err : System.out;
+    out.println(message);
+  }
+
+  public enum Level {
+    DEBUG, INFO, WARN, ERROR
+  }
+
+  private static class Run {
+    final ConcurrentHashMap<String, Sample> samples = new ConcurrentHashMap<>();
+    volatile Level level;
+    volatile int examples;
+
+    Run(Level level, int examples) {
+      this.level = level;
+      this.examples = examples;
+    }
+  }
+
+  private static class Sample {
+    final Level level;
+    final AtomicLong count = new AtomicLong();
+
+    Sample(Level level) {
+      this.level = level;
+    }
+  }
+
+  private static class Record {
+    final Level level;
+    final String format;
+    final Object[] args;
+    /**
+     * counted down by the writer instead of printing, the flush waits for it
+     */
+    final CountDownLatch latch;
+
+    Record(Level level, String format, Object[] args) {
+      this.level = level;
+      this.format = format;
+      this.args = args;
+      this.latch = null;
+    }
+
+    Record(CountDownLatch latch) {
+      this.level = Level.INFO;
+      this.format = null;
+      this.args = null;
+      this.latch = latch;
+    }
+  }
+}
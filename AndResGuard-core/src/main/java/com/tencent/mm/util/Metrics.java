@@ -0,0 +1,147 @@
+package com.tencent.mm.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The wall time of the phases of one resguard run and its counters. A phase may be recorded many times, such as
+ * the copy of every res file, the times are summed up. The phases do not overlap, so their sum is close to the
+ * total time.
+ */
+public class Metrics {
+  public static final String UNZIP = "unzip";
+  public static final String RAW_DECODE = "raw_decode";
+  public static final String OBFUSCATE = "obfuscate";
+  public static final String COPY = "copy";
+  public static final String WRITE_ARSC = "write_arsc";
+  public static final String PNG = "png";
+  public static final String ZIP = "zip";
+  public static final String SEVEN_ZIP = "7z";
+  public static final String ALIGN = "zipalign";
+  public static final String SIGN = "sign";
+  public static final String CHANNEL = "channel";
+
+  public static final String ENTRIES = "entries";
+  public static final String FILES_COPIED = "files_copied";
+  public static final String BYTES_COPIED = "bytes_copied";
+  public static final String DUPLICATES_MERGED = "duplicates_merged";
+  public static final String BYTES_SAVED = "bytes_saved";
+  public static final String REGEX_EVALUATIONS = "regex_evaluations";
+  /**
+   * estimated bytes of the res file paths the frequency naming saves over the order of the arsc
+   */
+  public static final String NAME_BYTES_SAVED = "name_bytes_saved";
+  /**
+   * configs written as sparse type chunks
+   */
+  public static final String SPARSE_CONFIGS = "sparse_configs";
+  /**
+   * type chunks left out of the arsc, every entry of them is pruned
+   */
+  public static final String PRUNED_CONFIGS = "pruned_configs";
+  public static final String PRUNED_ENTRIES = "pruned_entries";
+  /**
+   * res files and native libs removed from the apk
+   */
+  public static final String PRUNED_FILES = "pruned_files";
+  public static final String PRUNED_BYTES = "pruned_bytes";
+  /**
+   * entries of the qualified configs dropped for the same value as the default config, and their bytes
+   */
+  public static final String DUPLICATED_VALUES = "duplicated_values";
+  public static final String DUPLICATED_VALUE_BYTES = "duplicated_value_bytes";
+  /**
+   * png files read by the optimizer, the ones replaced by a smaller file and the bytes they save
+   */
+  public static final String PNG_FILES = "png_files";
+  public static final String PNG_OPTIMIZED = "png_optimized";
+  public static final String PNG_BYTES_SAVED = "png_bytes_saved";
+  public static final String PNG_CACHE_HITS = "png_cache_hits";
+  public static final String APK_BYTES_READ = "apk_bytes_read";
+  public static final String ARSC_BYTES_READ = "arsc_bytes_read";
+  public static final String ARSC_BYTES_WRITTEN = "arsc_bytes_written";
+  /**
+   * every apk written, the intermediate ones included
+   */
+  public static final String APK_BYTES_WRITTEN = "apk_bytes_written";
+  public static final String OUTPUT_APK_BYTES = "output_apk_bytes";
+
+  private final Map<String, Long> mPhaseNanos = new LinkedHashMap<>();
+  private final Map<String, Long> mCounters = new LinkedHashMap<>();
+
+  /**
+   * @return the start of a phase, pass it to {@link #end(String, long)}
+   */
+  public long start() {
+    return System.nanoTime();
+  }
+
+  public void end(String phase, long start) {
+    addPhase(phase, System.nanoTime() - start);
+  }
+
+  public synchronized void addPhase(String phase, long nanos) {
+    Long total = mPhaseNanos.get(phase);
+    mPhaseNanos.put(phase, total == null ? nanos : total + nanos);
+  }
+
+  public synchronized long getPhaseNanos(String phase) {
+    Long total = mPhaseNanos.get(phase);
+    return total == null ? 0 : total;
+  }
+
+  /**
+   * @return the phases in the order they are first recorded
+   */
+  public synchronized Map<String, Long> getPhaseNanos() {
+    return new LinkedHashMap<>(mPhaseNanos);
+  }
+
+  public synchronized void count(String counter, long delta) {
+    Long total = mCounters.get(counter);
+    mCounters.put(counter, total == null ? delta : total + delta);
+  }
+
+  public synchronized long getCount(String counter) {
+    Long total = mCounters.get(counter);
+    return total == null ? 0 : total;
+  }
+
+  public synchronized Map<String, Long> getCounters() {
+    return new LinkedHashMap<>(mCounters);
+  }
+
+  /**
+   * @param report     the json report, the times are in nanoseconds
+   * @param apk        the input apk
+   * @param totalNanos wall time of the whole run
+   */
+  public void writeReport(File report, File apk, long totalNanos) throws IOException {
+    JsonWriter json = new JsonWriter(new OutputStreamWriter(new FileOutputStream(report, false),
+        StandardCharsets.UTF_8
+    ));
+    try {
+      json.beginObject();
+      json.name("apk").value(apk.getAbsolutePath());
+      json.name("totalNanos").value(totalNanos);
+      json.name("phases").beginObject();
+      for (Map.Entry<String, Long> phase : getPhaseNanos().entrySet()) {
+        json.name(phase.getKey()).value(phase.getValue());
+      }
+      json.endObject();
+      json.name("counters").beginObject();
+      for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+        json.name(counter.getKey()).value(counter.getValue());
+      }
+      json.endObject();
+      json.endObject();
+    } finally {
+      json.close();
+    }
+  }
+}
@@ -0,0 +1,453 @@
+package com.tencent.mm.util;
+
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.deflate.ZopfliDeflater;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Recompresses the IDAT stream of the png files losslessly: the pixels are unfiltered, filtered again with every
+ * filter type and with the per row heuristic of libpng, and the smallest deflate stream wins. The other chunks are
+ * kept as they are in their order, so the 9-patch chunks of aapt2 stay intact. Interlaced pngs are skipped.
+ * A file is only replaced when it gets smaller. The files are optimized on several threads, the results may be
+ * cached by the sha-256 of the file.
+ */
+public class PngOptimizer {
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+  private static final int IHDR = 0x49484452;
+  private static final int IDAT = 0x49444154;
+  private static final int FILTER_TYPES = 5;
+  /**
+   * the larger images are skipped, all the candidates of one are held in memory
+   */
+  private static final int MAX_RAW_SIZE = 64 * 1024 * 1024;
+  private static final String CACHE_LEVEL = "png";
+
+  private final InputParam.CompressionLevel mLevel;
+  private final int mThreads;
+  private CompressionCache mCache;
+
+  public PngOptimizer(InputParam.CompressionLevel level) {
+    this(level, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param level the extreme level also tries the zopfli engine
+   */
+  public PngOptimizer(InputParam.CompressionLevel level, int threads) {
+    mLevel = level;
+    mThreads = Math.max(1, threads);
+  }
+
+  /**
+   * @param cache the cache, null to disable it
+   */
+  public void setCache(CompressionCache cache) {
+    mCache = cache;
+  }
+
+  /**
+   * optimize the files in parallel and replace the ones which get smaller
+   *
+   * @param metrics the optimized files and the saved bytes are counted in it
+   * @throws IOException io exception, or the failure of any file
+   */
+  public void optimize(List<File> files, final Metrics metrics) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+    List<Future<Void>> futures = new ArrayList<>(files.size());
+    try {
+      for (final File file : files) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            optimizeFile(file, metrics);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted while optimizing the png files", e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException(e.getCause());
+        }
+      }
+      if (mCache != null) {
+        mCache.trim();
+      }
+    } finally {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+      executor.shutdownNow();
+    }
+  }
+
+  private void optimizeFile(File file, Metrics metrics) throws IOException {
+    byte[] png = Files.readAllBytes(file.toPath());
+    metrics.count(Metrics.PNG_FILES, 1);
+    byte[] optimized;
+    if (mCache == null) {
+      optimized = optimize(png);
+    } else {
+      // an empty payload is cached for the files which do not get smaller
+      String key = CompressionCache.key(png, CACHE_LEVEL + "-" + mLevel.name());
+      CompressionCache.Entry cached = mCache.get(key, png.length);
+      if (cached == null || cached.crc != crc(cached.payload)) {
+        optimized = optimize(png);
+        byte[] payload = optimized == null ? new byte[0] : optimized;
+        mCache.put(key, png.length, new CompressionCache.Entry(payload, crc(payload)));
+      } else {
+        metrics.count(Metrics.PNG_CACHE_HITS, 1);
+        optimized = cached.payload.length == 0 ? null : cached.payload;
+      }
+    }
+    if (optimized == null || optimized.length >= png.length) {
+      return;
+    }
+    Files.write(file.toPath(), optimized);
+    metrics.count(Metrics.PNG_OPTIMIZED, 1);
+    metrics.count(Metrics.PNG_BYTES_SAVED, png.length - optimized.length);
+  }
+
+  /**
+   * @param png the png file
+   * @return the smaller png, or null if it is not smaller or can not be optimized
+   */
+  public byte[] optimize(byte[] png) {
+    ByteBuffer buffer = ByteBuffer.wrap(png);
+    if (png.length < SIGNATURE.length || !startsWithSignature(png)) {
+      return null;
+    }
+    buffer.position(SIGNATURE.length);
+    int width = 0;
+    int height = 0;
+    int bitDepth = 0;
+    int colorType = 0;
+    int idatStart = -1;
+    int idatEnd = -1;
+    ByteArrayOutputStream idat = new ByteArrayOutputStream();
+    while (buffer.remaining() >= 12) {
+      int chunkStart = buffer.position();
+      long length = buffer.getInt() & 0xffffffffL;
+      int type = buffer.getInt();
+      if (length > buffer.remaining() - 4) {
+        return null;
+      }
+      int dataStart = buffer.position();
+      if (type == IHDR) {
+        if (length < 13) {
+          return null;
+        }
+        width = buffer.getInt(dataStart);
+        height = buffer.getInt(dataStart + 4);
+        bitDepth = png[dataStart + 8] & 0xff;
+        colorType = png[dataStart + 9] & 0xff;
+        int filterMethod = png[dataStart + 11];
+        int interlace = png[dataStart + 12];
+        if (filterMethod != 0 || interlace != 0) {
+          return null;
+        }
+      } else if (type == IDAT) {
+        if (idatEnd != -1 && idatEnd != chunkStart) {
+          // the idat chunks must follow each other
+          return null;
+        }
+        if (idatStart == -1) {
+          idatStart = chunkStart;
+        }
+        idat.write(png, dataStart, (int) length);
+        idatEnd = dataStart + (int) length + 4;
+      }
+      buffer.position(dataStart + (int) length + 4);
+    }
+    int channels = channels(colorType);
+    if (idatStart == -1 || width <= 0 || height <= 0 || channels == 0 || bitDepth == 0) {
+      return null;
+    }
+    long rowBytes = ((long) width * channels * bitDepth + 7) / 8;
+    long rawSize = (rowBytes + 1) * height;
+    if (rawSize > MAX_RAW_SIZE) {
+      return null;
+    }
+    byte[] filtered = inflate(idat.toByteArray(), (int) rawSize);
+    if (filtered == null) {
+      return null;
+    }
+    int bpp = Math.max(1, channels * bitDepth / 8);
+    byte[] pixels = unfilter(filtered, (int) rowBytes, height, bpp);
+    if (pixels == null) {
+      return null;
+    }
+
+    byte[] best = null;
+    byte[] bestFiltered = null;
+    for (int filterType = -1; filterType < FILTER_TYPES; filterType++) {
+      // -1 picks the filter of every row by the heuristic of libpng
+      byte[] candidate = filter(pixels, (int) rowBytes, height, bpp, filterType);
+      byte[] compressed = zlib(candidate, Deflater.DEFAULT_STRATEGY);
+      if (best == null || compressed.length < best.length) {
+        best = compressed;
+        bestFiltered = candidate;
+      }
+    }
+    byte[] strategy = zlib(bestFiltered, Deflater.FILTERED);
+    if (strategy.length < best.length) {
+      best = strategy;
+    }
+    if (mLevel == InputParam.CompressionLevel.EXTREME) {
+      byte[] zopfli = zopfli(bestFiltered);
+      if (zopfli.length < best.length) {
+        best = zopfli;
+      }
+    }
+    if (best.length >= idat.size()) {
+      return null;
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(png.length);
+    out.write(png, 0, idatStart);
+    writeChunk(out, IDAT, best);
+    out.write(png, idatEnd, png.length - idatEnd);
+    byte[] optimized = out.toByteArray();
+    return optimized.length < png.length ? optimized : null;
+  }
+
+  private static boolean startsWithSignature(byte[] png) {
+    for (int i = 0; i < SIGNATURE.length; i++) {
+      if (png[i] != SIGNATURE[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the samples of a pixel of the color type, 0 if it is unknown
+   */
+  private static int channels(int colorType) {
+    switch (colorType) {
+      case 0:
+      case 3:
+        return 1;
+      case 2:
+        return 3;
+      case 4:
+        return 2;
+      case 6:
+        return 4;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * @return the inflated data, or null if it is broken or not of the size
+   */
+  private static byte[] inflate(byte[] data, int size) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      byte[] out = new byte[size];
+      int length = 0;
+      while (length < size && !inflater.finished()) {
+        int read = inflater.inflate(out, length, size - length);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          return null;
+        }
+        length += read;
+      }
+      return length == size ? out : null;
+    } catch (DataFormatException e) {
+      return null;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * @return the pixels of the rows without the filter bytes, or null if a filter type is unknown
+   */
+  private static byte[] unfilter(byte[] filtered, int rowBytes, int height, int bpp) {
+    byte[] pixels = new byte[rowBytes * height];
+    for (int y = 0; y < height; y++) {
+      int in = y * (rowBytes + 1);
+      int filterType = filtered[in++];
+      int row = y * rowBytes;
+      int prev = row - rowBytes;
+      for (int i = 0; i < rowBytes; i++) {
+        int a = i >= bpp ? pixels[row + i - bpp] & 0xff : 0;
+        int b = y > 0 ? pixels[prev + i] & 0xff : 0;
+        int c = i >= bpp && y > 0 ? pixels[prev + i - bpp] & 0xff : 0;
+        int x = filtered[in + i] & 0xff;
+        switch (filterType) {
+          case 0:
+            break;
+          case 1:
+            x += a;
+            break;
+          case 2:
+            x += b;
+            break;
+          case 3:
+            x += (a + b) >> 1;
+            break;
+          case 4:
+            x += paeth(a, b, c);
+            break;
+          default:
+            return null;
+        }
+        pixels[row + i] = (byte) x;
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * @param filterType the filter of all the rows, -1 for the one with the least sum of absolute differences
+   */
+  private static byte[] filter(byte[] pixels, int rowBytes, int height, int bpp, int filterType) {
+    byte[] filtered = new byte[(rowBytes + 1) * height];
+    byte[] row = new byte[rowBytes];
+    for (int y = 0; y < height; y++) {
+      int type = filterType;
+      if (type == -1) {
+        long bestSum = Long.MAX_VALUE;
+        for (int candidate = 0; candidate < FILTER_TYPES; candidate++) {
+          filterRow(pixels, rowBytes, bpp, y, candidate, row);
+          long sum = 0;
+          for (byte value : row) {
+            sum += Math.abs(value);
+          }
+          if (sum < bestSum) {
+            bestSum = sum;
+            type = candidate;
+          }
+        }
+      }
+      filterRow(pixels, rowBytes, bpp, y, type, row);
+      int out = y * (rowBytes + 1);
+      filtered[out] = (byte) type;
+      System.arraycopy(row, 0, filtered, out + 1, rowBytes);
+    }
+    return filtered;
+  }
+
+  private static void filterRow(byte[] pixels, int rowBytes, int bpp, int y, int filterType, byte[] out) {
+    int row = y * rowBytes;
+    int prev = row - rowBytes;
+    for (int i = 0; i < rowBytes; i++) {
+      int a = i >= bpp ? pixels[row + i - bpp] & 0xff : 0;
+      int b = y > 0 ? pixels[prev + i] & 0xff : 0;
+      int c = i >= bpp && y > 0 ? pixels[prev + i - bpp] & 0xff : 0;
+      int x = pixels[row + i] & 0xff;
+      switch (filterType) {
+        case 1:
+          x -= a;
+          break;
+        case 2:
+          x -= b;
+          break;
+        case 3:
+          x -= (a + b) >> 1;
+          break;
+        case 4:
+          x -= paeth(a, b, c);
+          break;
+        default:
+          break;
+      }
+      out[i] = (byte) x;
+    }
+  }
+
+  private static int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    return pb <= pc ? b : c;
+  }
+
+  private static byte[] zlib(byte[] data, int strategy) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setStrategy(strategy);
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int len = deflater.deflate(buffer);
+        out.write(buffer, 0, len);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * the raw zopfli stream in the zlib header and the adler-32 the png needs
+   */
+  private static byte[] zopfli(byte[] data) {
+    byte[] deflated = new ZopfliDeflater().deflate(data);
+    Adler32 adler = new Adler32();
+    adler.update(data);
+    long checksum = adler.getValue();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(deflated.length + 6);
+    out.write(0x78);
+    out.write(0xda);
+    out.write(deflated, 0, deflated.length);
+    out.write((int) (checksum >>> 24));
+    out.write((int) (checksum >>> 16));
+    out.write((int) (checksum >>> 8));
+    out.write((int) checksum);
+    return out.toByteArray();
+  }
+
+  private static void writeChunk(ByteArrayOutputStream out, int type, byte[] data) {
+    ByteBuffer header = ByteBuffer.allocate(8);
+    header.putInt(data.length).putInt(type);
+    out.write(header.array(), 0, 8);
+    out.write(data, 0, data.length);
+    CRC32 crc = new CRC32();
+    crc.update(header.array(), 4, 4);
+    crc.update(data);
+    out.write((int) (crc.getValue() >>> 24));
+    out.write((int) (crc.getValue() >>> 16));
+    out.write((int) (crc.getValue() >>> 8));
+    out.write((int) crc.getValue());
+  }
+
+  private static long crc(byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return crc.getValue();
+  }
+}
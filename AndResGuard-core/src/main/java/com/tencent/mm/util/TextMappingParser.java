@@ -0,0 +1,304 @@
+package com.tencent.mm.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses resource_mapping_xxx.txt, the lines like "    res/drawable -> r/a" and
+ * "    com.tencent.mm.R.attr.test -> com.tencent.mm.R.attr.a", the other lines are skipped.
+ * The utf-8 file is mapped and tokenized as bytes, only the names are decoded, the package and type names of the
+ * following lines are reused. A large file is split into line aligned chunks which are parsed in parallel.
+ */
+public class TextMappingParser {
+  private static final int PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+  private static final int MIN_CHUNK_SIZE = 2 * 1024 * 1024;
+  private static final String RES_SEPARATOR = ".R.";
+
+  private final ByteBuffer mBuffer;
+  private final int mStart;
+  private final int mEnd;
+  private final HashMap<String, String> mFileMapping;
+  private final HashMap<String, HashMap<String, HashMap<String, String>>> mResMapping;
+  /**
+   * the names of the last res line, the lines of a type follow each other
+   */
+  private int mLastPackageStart = -1;
+  private int mLastPackageLength;
+  private String mLastPackage;
+  private HashMap<String, HashMap<String, String>> mLastTypeMap;
+  private int mLastTypeStart = -1;
+  private int mLastTypeLength;
+  private HashMap<String, String> mLastNameMap;
+
+  private TextMappingParser(
+      ByteBuffer buffer, int start, int end, HashMap<String, String> fileMapping,
+      HashMap<String, HashMap<String, HashMap<String, String>>> resMapping) {
+    mBuffer = buffer;
+    mStart = start;
+    mEnd = end;
+    mFileMapping = fileMapping;
+    mResMapping = resMapping;
+  }
+
+  /**
+   * fill the maps of the keepmapping mode, a later line wins over an earlier one of the same name
+   */
+  public static void parse(
+      File file, HashMap<String, String> fileMapping,
+      HashMap<String, HashMap<String, HashMap<String, String>>> resMapping) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long length = raf.length();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException(String.format("the mapping file %s is too large", file.getAbsolutePath()));
+      }
+      ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      int size = (int) length;
+      int chunks = Math.min(Runtime.getRuntime().availableProcessors(), size / MIN_CHUNK_SIZE);
+      if (size < PARALLEL_THRESHOLD || chunks < 2) {
+        new TextMappingParser(buffer, 0, size, fileMapping, resMapping).parseLines();
+      } else {
+        parseChunks(buffer, size, chunks, fileMapping, resMapping);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void parseChunks(
+      ByteBuffer buffer, int size, int chunks, HashMap<String, String> fileMapping,
+      HashMap<String, HashMap<String, HashMap<String, String>>> resMapping) throws IOException {
+    List<TextMappingParser> parsers = new ArrayList<>(chunks);
+    int start = 0;
+    for (int i = 1; i <= chunks && start < size; i++) {
+      int end = i == chunks ? size : lineEnd(buffer, (int) ((long) size * i / chunks), size);
+      // every parser reads its own view, the positions of a buffer are not shared
+      parsers.add(new TextMappingParser(buffer.duplicate(), start, end, new HashMap<String, String>(),
+          new HashMap<String, HashMap<String, HashMap<String, String>>>()
+      ));
+      start = end;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(parsers.size());
+    try {
+      List<Future<Void>> futures = new ArrayList<>(parsers.size());
+      for (final TextMappingParser parser : parsers) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            parser.parseLines();
+            return null;
+          }
+        }));
+      }
+      // merged in the order of the file, so the later lines still win
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("parse the mapping file failed", e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted while parsing the mapping file", e);
+        }
+        TextMappingParser parser = parsers.get(i);
+        fileMapping.putAll(parser.mFileMapping);
+        merge(parser.mResMapping, resMapping);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void merge(
+      HashMap<String, HashMap<String, HashMap<String, String>>> from,
+      HashMap<String, HashMap<String, HashMap<String, String>>> to) {
+    for (Map.Entry<String, HashMap<String, HashMap<String, String>>> packageEntry : from.entrySet()) {
+      HashMap<String, HashMap<String, String>> typeMap = to.get(packageEntry.getKey());
+      if (typeMap == null) {
+        to.put(packageEntry.getKey(), packageEntry.getValue());
+        continue;
+      }
+      for (Map.Entry<String, HashMap<String, String>> typeEntry : packageEntry.getValue().entrySet()) {
+        HashMap<String, String> nameMap = typeMap.get(typeEntry.getKey());
+        if (nameMap == null) {
+          typeMap.put(typeEntry.getKey(), typeEntry.getValue());
+        } else {
+          nameMap.putAll(typeEntry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the position after the line break at or after from
+   */
+  private static int lineEnd(ByteBuffer buffer, int from, int size) {
+    for (int i = from; i < size; i++) {
+      if (buffer.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return size;
+  }
+
+  private void parseLines() throws IOException {
+    int lineStart = mStart;
+    while (lineStart < mEnd) {
+      int lineEnd = lineStart;
+      while (lineEnd < mEnd && mBuffer.get(lineEnd) != '\n' && mBuffer.get(lineEnd) != '\r') {
+        lineEnd++;
+      }
+      if (lineEnd > lineStart) {
+        parseLine(lineStart, lineEnd);
+      }
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  private void parseLine(int start, int end) throws IOException {
+    int arrow = -1;
+    boolean isFile = false;
+    for (int i = start; i < end; i++) {
+      byte b = mBuffer.get(i);
+      if (b == '-' && i + 1 < end && mBuffer.get(i + 1) == '>') {
+        arrow = i;
+      } else if (b == '/') {
+        isFile = true;
+      }
+    }
+    if (arrow == -1) {
+      return;
+    }
+    // the name before the arrow follows a space, like the indent of the lines
+    int space = start;
+    while (space < arrow && !isSpace(mBuffer.get(space))) {
+      space++;
+    }
+    if (space == arrow) {
+      return;
+    }
+    int beforeStart = trimStart(space, arrow);
+    int beforeEnd = trimEnd(beforeStart, arrow);
+    int afterStart = trimStart(arrow + 2, end);
+    int afterEnd = trimEnd(afterStart, end);
+    if (isFile) {
+      mFileMapping.put(decode(beforeStart, beforeEnd), decode(afterStart, afterEnd));
+      return;
+    }
+
+    int packageEnd = indexOf(RES_SEPARATOR, beforeStart, beforeEnd);
+    int typeStart = packageEnd + RES_SEPARATOR.length();
+    int typeEnd = packageEnd == -1 ? -1 : indexOf(".", typeStart, beforeEnd);
+    if (typeEnd == -1) {
+      throw new IOException(String.format("the old mapping file packagename is malformed, "
+                                          + "it should be like com.tencent.mm.R.attr.test, yours %s\n",
+          decode(beforeStart, beforeEnd)
+      ));
+    }
+    // the name after the arrow has the same package and type
+    int replaceStart = indexOf(".", afterStart + (typeStart - beforeStart), afterEnd) + 1;
+    if (replaceStart == 0) {
+      throw new IOException(String.format("the old mapping file replace name is malformed, yours %s\n",
+          decode(afterStart, afterEnd)
+      ));
+    }
+    nameMap(beforeStart, packageEnd, typeStart, typeEnd).put(decode(typeEnd + 1, beforeEnd),
+        decode(replaceStart, afterEnd)
+    );
+  }
+
+  private HashMap<String, String> nameMap(int packageStart, int packageEnd, int typeStart, int typeEnd) {
+    if (mLastPackage == null || !sameBytes(mLastPackageStart, mLastPackageLength, packageStart, packageEnd)) {
+      mLastPackage = decode(packageStart, packageEnd);
+      mLastPackageStart = packageStart;
+      mLastPackageLength = packageEnd - packageStart;
+      mLastTypeMap = mResMapping.get(mLastPackage);
+      if (mLastTypeMap == null) {
+        mLastTypeMap = new HashMap<>();
+        mResMapping.put(mLastPackage, mLastTypeMap);
+      }
+      mLastNameMap = null;
+    }
+    if (mLastNameMap == null || !sameBytes(mLastTypeStart, mLastTypeLength, typeStart, typeEnd)) {
+      String type = decode(typeStart, typeEnd);
+      mLastTypeStart = typeStart;
+      mLastTypeLength = typeEnd - typeStart;
+      mLastNameMap = mLastTypeMap.get(type);
+      if (mLastNameMap == null) {
+        mLastNameMap = new HashMap<>();
+        mLastTypeMap.put(type, mLastNameMap);
+      }
+    }
+    return mLastNameMap;
+  }
+
+  private boolean sameBytes(int lastStart, int lastLength, int start, int end) {
+    if (lastLength != end - start) {
+      return false;
+    }
+    for (int i = 0; i < lastLength; i++) {
+      if (mBuffer.get(lastStart + i) != mBuffer.get(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(String ascii, int start, int end) {
+    int last = end - ascii.length();
+    outer:
+    for (int i = start; i <= last; i++) {
+      for (int j = 0; j < ascii.length(); j++) {
+        if (mBuffer.get(i + j) != ascii.charAt(j)) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * the bytes up to the space are trimmed like {@link String#trim()}, the bytes of a multi-byte char are not
+   */
+  private int trimStart(int start, int end) {
+    while (start < end && (mBuffer.get(start) & 0xff) <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  private int trimEnd(int start, int end) {
+    while (end > start && (mBuffer.get(end - 1) & 0xff) <= ' ') {
+      end--;
+    }
+    return end;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\f' || b == 0x0b;
+  }
+
+  private String decode(int start, int end) {
+    byte[] bytes = new byte[end - start];
+    mBuffer.position(start);
+    mBuffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -36,10 +36,17 @@ public class TypedValue {
 
   public static final String RES_FILE_PATH = "r";
 
+  /**
+   * the channel apks are stamped into it
+   */
+  public static final String CHANNEL_FILE_PATH = "channels";
+
   public static final String RES_MAPPING_FILE = "resource_mapping_";
 
   public static final String MERGE_DUPLICATED_RES_MAPPING_FILE = "merge_duplicated_res_mapping_";
 
+  public static final String REPORT_FILE = "resguard_report_";
+
   public static final int ZIP_STORED = ZipEntry.STORED;
 
   public static final int ZIP_DEFLATED = ZipEntry.DEFLATED;
@@ -48,8 +55,14 @@ public class TypedValue {
 
   public static final String TXT_FILE = ".txt";
 
+  public static final String BIN_FILE = ".bin";
+
   public static final String XML_FILE = ".xml";
 
+  public static final String JSON_FILE = ".json";
+
+  public static final String APK_FILE = ".apk";
+
   public static final String CONFIG_FILE = "config.xml";
 
   /**
@@ -58,4 +71,12 @@ public class TypedValue {
   public static final int TYPE_NULL = 0x00;
 
   public static final int TYPE_STRING = 0x03;
+
+  public static final int TYPE_DIMENSION = 0x05;
+
+  public static final int TYPE_INT_DEC = 0x10;
+
+  public static final int TYPE_INT_BOOLEAN = 0x12;
+
+  public static final int TYPE_INT_COLOR_ARGB8 = 0x1c;
 };
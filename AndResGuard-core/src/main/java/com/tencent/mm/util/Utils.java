@@ -1,6 +1,7 @@
 package com.tencent.mm.util;
 
 import com.tencent.mm.androlib.res.util.StringUtil;
+import com.tencent.mm.jfr.ExecEvent;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -60,18 +61,23 @@ public class Utils {
   public static String runCmd(String... cmd) throws IOException, InterruptedException {
     String output;
     Process process = null;
+    ExecEvent event = new ExecEvent();
+    event.begin();
+    event.exitCode = -1;
     try {
       process = new ProcessBuilder(cmd).start();
       output = StringUtil.readInputStream(process.getInputStream());
       process.waitFor();
+      event.exitCode = process.exitValue();
       if (process.exitValue() != 0) {
-        System.err.println(String.format("%s Failed! Please check your signature file.\n", cmd[0]));
+        Log.e("%s Failed! Please check your signature file.", cmd[0]);
         throw new RuntimeException(StringUtil.readInputStream(process.getErrorStream()));
       }
     } finally {
       if (process != null) {
         process.destroy();
       }
+      commit(event, cmd[0]);
     }
     return output;
   }
@@ -79,22 +85,36 @@ public class Utils {
   public static String runExec(String[] argv) throws IOException, InterruptedException {
     Process process = null;
     String output;
+    ExecEvent event = new ExecEvent();
+    event.begin();
+    event.exitCode = -1;
     try {
       process = Runtime.getRuntime().exec(argv);
       output = StringUtil.readInputStream(process.getInputStream());
       process.waitFor();
+      event.exitCode = process.exitValue();
       if (process.exitValue() != 0) {
-        System.err.println(String.format("%s Failed! Please check your signature file.\n", argv[0]));
+        Log.e("%s Failed! Please check your signature file.", argv[0]);
         throw new RuntimeException(StringUtil.readInputStream(process.getErrorStream()));
       }
     } finally {
       if (process != null) {
         process.destroy();
       }
+      commit(event, argv[0]);
     }
     return output;
   }
 
+  private static void commit(ExecEvent event, String command) {
+    event.end();
+    if (event.shouldCommit()) {
+      // only the command, the arguments carry the keystore passwords
+      event.command = command;
+      event.commit();
+    }
+  }
+
   private static void processOutputStreamInThread(Process process) throws IOException {
     InputStreamReader ir = new InputStreamReader(process.getInputStream());
     LineNumberReader input = new LineNumberReader(ir);
@@ -0,0 +1,217 @@
+package com.tencent.mm.util;
+
+import com.tencent.mm.jfr.ZipEntryEvent;
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.util.deflate.ZopfliDeflater;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compresses the zip entries on several threads and hands them to a {@link ZipWriter} in their original order.
+ * The {@link InputParam.CompressionLevel#EXTREME} level uses {@link ZopfliDeflater} in process, which replaces
+ * the external 7z executable.
+ */
+public class ZipCompressor {
+  /**
+   * entries compressed ahead of the writer, it bounds how many payloads are held in memory
+   */
+  private static final int ENTRIES_IN_FLIGHT_PER_THREAD = 4;
+
+  private final InputParam.CompressionLevel mLevel;
+  private final int mThreads;
+  private CompressionCache mCache;
+
+  public ZipCompressor(InputParam.CompressionLevel level) {
+    this(level, Runtime.getRuntime().availableProcessors());
+  }
+
+  public ZipCompressor(InputParam.CompressionLevel level, int threads) {
+    mLevel = level;
+    mThreads = Math.max(1, threads);
+  }
+
+  public InputParam.CompressionLevel getLevel() {
+    return mLevel;
+  }
+
+  /**
+   * reuse the compressed entries of the previous builds, the default level is fast enough to skip it
+   *
+   * @param cache the cache, null to disable it
+   */
+  public void setCache(CompressionCache cache) {
+    mCache = cache;
+  }
+
+  /**
+   * compress the entries in parallel and write them in order, the STORED entries are kept as they are
+   *
+   * @param writer  zip writer, would not be finished
+   * @param entries the entries to write
+   * @throws IOException io exception, or the failure of any entry
+   */
+  public void writeEntries(ZipWriter writer, List<Entry> entries) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+    Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+    try {
+      for (final Entry entry : entries) {
+        pending.add(executor.submit(new Callable<CompressedEntry>() {
+          @Override
+          public CompressedEntry call() throws Exception {
+            return compress(entry);
+          }
+        }));
+        if (pending.size() >= mThreads * ENTRIES_IN_FLIGHT_PER_THREAD) {
+          write(writer, pending.poll());
+        }
+      }
+      while (!pending.isEmpty()) {
+        write(writer, pending.poll());
+      }
+      if (useCache()) {
+        mCache.trim();
+      }
+    } finally {
+      for (Future<CompressedEntry> future : pending) {
+        future.cancel(true);
+      }
+      executor.shutdownNow();
+    }
+  }
+
+  private static void write(ZipWriter writer, Future<CompressedEntry> future) throws IOException {
+    CompressedEntry entry;
+    try {
+      entry = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while compressing the zip entries", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+    writer.putRaw(entry.name, entry.method, entry.payload, entry.crc, entry.size);
+  }
+
+  private CompressedEntry compress(Entry entry) throws Exception {
+    ZipEntryEvent event = new ZipEntryEvent();
+    event.begin();
+    CompressedEntry compressed = compressEntry(entry);
+    event.end();
+    if (event.shouldCommit()) {
+      event.name = compressed.name;
+      event.method = ZipEntryEvent.method(compressed.method);
+      event.size = compressed.size;
+      event.compressedSize = compressed.payload.length;
+      event.commit();
+    }
+    return compressed;
+  }
+
+  private CompressedEntry compressEntry(Entry entry) throws Exception {
+    byte[] data = entry.contents.call();
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    if (entry.method != ZipEntry.DEFLATED) {
+      return new CompressedEntry(entry.name, entry.method, data, crc.getValue(), data.length);
+    }
+    if (!useCache()) {
+      return new CompressedEntry(entry.name, entry.method, deflate(data), crc.getValue(), data.length);
+    }
+    String key = CompressionCache.key(data, mLevel.name());
+    CompressionCache.Entry cached = mCache.get(key, data.length);
+    if (cached == null || cached.crc != crc.getValue()) {
+      cached = new CompressionCache.Entry(deflate(data), crc.getValue());
+      mCache.put(key, data.length, cached);
+    }
+    return new CompressedEntry(entry.name, entry.method, cached.payload, cached.crc, data.length);
+  }
+
+  private boolean useCache() {
+    return mCache != null && mLevel != InputParam.CompressionLevel.DEFAULT;
+  }
+
+  /**
+   * @param data uncompressed data
+   * @return raw deflate data of the level
+   */
+  public byte[] deflate(byte[] data) {
+    switch (mLevel) {
+      case BEST:
+        return deflate(data, Deflater.BEST_COMPRESSION);
+      case EXTREME:
+        byte[] zopfli = new ZopfliDeflater().deflate(data);
+        // zopfli wins almost always, keep the zlib result for the rare inputs it does not
+        byte[] best = deflate(data, Deflater.BEST_COMPRESSION);
+        return best.length < zopfli.length ? best : zopfli;
+      default:
+        return deflate(data, Deflater.DEFAULT_COMPRESSION);
+    }
+  }
+
+  private static byte[] deflate(byte[] data, int level) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int len = deflater.deflate(buffer);
+        out.write(buffer, 0, len);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * an entry to write, the contents are only read by the compressing thread
+   */
+  public static class Entry {
+    final String name;
+    final int method;
+    final Callable<byte[]> contents;
+
+    /**
+     * @param name     entry name, use / separation
+     * @param method   {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param contents reads the uncompressed data
+     */
+    public Entry(String name, int method, Callable<byte[]> contents) {
+      this.name = name;
+      this.method = method;
+      this.contents = contents;
+    }
+  }
+
+  private static class CompressedEntry {
+    final String name;
+    final int method;
+    final byte[] payload;
+    final long crc;
+    final long size;
+
+    CompressedEntry(String name, int method, byte[] payload, long crc, long size) {
+      this.name = name;
+      this.method = method;
+      this.payload = payload;
+      this.crc = crc;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.tencent.mm.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the entries of a zip without inflating them, the raw payloads can be written again with
+ * {@link ZipWriter#putRaw(String, int, byte[], long, long)}. Zip64 is not supported, neither does an apk.
+ */
+public class ZipReader {
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_HEADER_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_HEADER_SIZE = 22;
+
+  private ZipReader() {
+  }
+
+  /**
+   * @param zip the zip file
+   * @return the file entries in the order of the central directory, the directory entries are skipped
+   * @throws IOException io exception or a broken zip
+   */
+  public static List<RawEntry> readEntries(File zip) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(zip, "r");
+    try {
+      ByteBuffer end = findEndHeader(file);
+      int count = end.getShort(10) & 0xffff;
+      long centralSize = end.getInt(12) & 0xffffffffL;
+      long centralOffset = end.getInt(16) & 0xffffffffL;
+      ByteBuffer central = read(file, centralOffset, (int) centralSize);
+      List<RawEntry> entries = new ArrayList<>(count);
+      int pos = 0;
+      for (int i = 0; i < count; i++) {
+        if (central.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+          throw new IOException(String.format("bad central directory of %s at entry %d", zip.getName(), i));
+        }
+        int method = central.getShort(pos + 10) & 0xffff;
+        long crc = central.getInt(pos + 16) & 0xffffffffL;
+        int compressedSize = central.getInt(pos + 20);
+        long size = central.getInt(pos + 24) & 0xffffffffL;
+        int nameLength = central.getShort(pos + 28) & 0xffff;
+        int extraLength = central.getShort(pos + 30) & 0xffff;
+        int commentLength = central.getShort(pos + 32) & 0xffff;
+        long localOffset = central.getInt(pos + 42) & 0xffffffffL;
+        byte[] nameBytes = new byte[nameLength];
+        central.position(pos + CENTRAL_HEADER_SIZE);
+        central.get(nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+        pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        if (name.endsWith("/")) {
+          continue;
+        }
+        ByteBuffer local = read(file, localOffset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+          throw new IOException(String.format("bad local header of %s in %s", name, zip.getName()));
+        }
+        long dataOffset = localOffset + LOCAL_HEADER_SIZE + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+        byte[] payload = new byte[compressedSize];
+        file.seek(dataOffset);
+        file.readFully(payload);
+        entries.add(new RawEntry(name, method, payload, crc, size));
+      }
+      return entries;
+    } finally {
+      file.close();
+    }
+  }
+
+  private static ByteBuffer findEndHeader(RandomAccessFile file) throws IOException {
+    long length = file.length();
+    // the end header is followed by a comment of at most 0xffff bytes
+    int searchSize = (int) Math.min(length, END_HEADER_SIZE + 0xffff);
+    ByteBuffer tail = read(file, length - searchSize, searchSize);
+    for (int pos = searchSize - END_HEADER_SIZE; pos >= 0; pos--) {
+      if (tail.getInt(pos) == END_HEADER_SIGNATURE && (tail.getShort(pos + 20) & 0xffff) == searchSize - pos - END_HEADER_SIZE) {
+        tail.position(pos);
+        return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+    throw new IOException("can not find the end of central directory, it is not a zip");
+  }
+
+  private static ByteBuffer read(RandomAccessFile file, long offset, int size) throws IOException {
+    byte[] data = new byte[size];
+    file.seek(offset);
+    file.readFully(data);
+    return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public static class RawEntry {
+    public final String name;
+    public final int method;
+    /**
+     * the data as it is in the zip, compressed with the method
+     */
+    public final byte[] payload;
+    public final long crc;
+    public final long size;
+
+    public RawEntry(String name, int method, byte[] payload, long crc, long size) {
+      this.name = name;
+      this.method = method;
+      this.payload = payload;
+      this.crc = crc;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package com.tencent.mm.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A minimal zip writer which writes the local headers, the (already compressed) entry data and the central
+ * directory by itself, so we can align the STORED entries while zipping and copy precompressed payloads
+ * without inflating them again. It never seeks, so it can write straight into any output stream.
+ */
+public class ZipWriter {
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_HEADER_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int VERSION_STORED = 10;
+  private static final int VERSION_DEFLATED = 20;
+  private static final int FLAG_UTF8 = 0x0800;
+  /**
+   * the sizes and offsets are 32 bits, zip64 is not written
+   */
+  private static final long MAX_ZIP32_VALUE = 0xffffffffL;
+  /**
+   * 1981-01-01 00:00:00, the same fixed timestamp aapt2 uses, makes the output reproducible
+   */
+  private static final int DOS_TIME = 0;
+  private static final int DOS_DATE = (1 << 5) | 1 | ((1981 - 1980) << 9);
+
+  private final OutputStream mOut;
+  private final int mAlignment;
+  private final List<Entry> mEntries = new ArrayList<>();
+  private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private long mOffset;
+
+  /**
+   * @param out       output stream, would not be closed by the writer
+   * @param alignment the STORED entries data will be aligned to it, such as zipalign 4. 1 means no alignment
+   */
+  public ZipWriter(OutputStream out, int alignment) {
+    mOut = out;
+    mAlignment = alignment;
+  }
+
+  public void putStored(String name, byte[] data) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    putRaw(name, ZipEntry.STORED, data, crc.getValue(), data.length);
+  }
+
+  public void putDeflated(String name, byte[] data) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    putRaw(name, ZipEntry.DEFLATED, deflate(data), crc.getValue(), data.length);
+  }
+
+  /**
+   * write an entry whose payload was already compressed with the method
+   *
+   * @param name    entry name, use / separation
+   * @param method  {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   * @param payload the raw data written into the zip
+   * @param crc     crc32 of the uncompressed data
+   * @param size    size of the uncompressed data
+   * @throws IOException io exception
+   */
+  public void putRaw(String name, int method, byte[] payload, long crc, long size) throws IOException {
+    if (mEntries.size() >= 0xffff) {
+      throw new IOException(String.format("too many entries for a zip without zip64, entry=%s", name));
+    }
+    checkZip32(size, "size", name);
+    checkZip32(payload.length, "compressed size", name);
+    checkZip32(mOffset, "offset", name);
+    if (crc < 0 || crc > MAX_ZIP32_VALUE) {
+      throw new IOException(String.format("bad crc %d, entry=%s", crc, name));
+    }
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int padding = 0;
+    if (method == ZipEntry.STORED && mAlignment > 1) {
+      long dataOffset = mOffset + LOCAL_HEADER_SIZE + nameBytes.length;
+      padding = (int) ((mAlignment - (dataOffset % mAlignment)) % mAlignment);
+    }
+    Entry entry = new Entry(nameBytes, method, crc, payload.length, size, mOffset, isAscii(name) ? 0 : FLAG_UTF8);
+    writeInt(LOCAL_HEADER_SIGNATURE);
+    writeShort(entry.version());
+    writeShort(entry.flags);
+    writeShort(method);
+    writeShort(DOS_TIME);
+    writeShort(DOS_DATE);
+    writeInt((int) crc);
+    writeInt(payload.length);
+    writeInt((int) size);
+    writeShort(nameBytes.length);
+    writeShort(padding);
+    write(nameBytes, 0, nameBytes.length);
+    // zeroed extra field is what zipalign does as well
+    write(new byte[padding], 0, padding);
+    write(payload, 0, payload.length);
+    mEntries.add(entry);
+  }
+
+  /**
+   * write the central directory, the output stream is flushed but not closed
+   *
+   * @throws IOException io exception
+   */
+  public void finish() throws IOException {
+    long centralOffset = mOffset;
+    for (Entry entry : mEntries) {
+      writeInt(CENTRAL_HEADER_SIGNATURE);
+      writeShort(VERSION_DEFLATED);
+      writeShort(entry.version());
+      writeShort(entry.flags);
+      writeShort(entry.method);
+      writeShort(DOS_TIME);
+      writeShort(DOS_DATE);
+      writeInt((int) entry.crc);
+      writeInt((int) entry.compressedSize);
+      writeInt((int) entry.size);
+      writeShort(entry.name.length);
+      /* extra length, comment length, disk number, internal attributes, external attributes */
+      writeShort(0);
+      writeShort(0);
+      writeShort(0);
+      writeShort(0);
+      writeInt(0);
+      writeInt((int) entry.offset);
+      write(entry.name, 0, entry.name.length);
+    }
+    long centralSize = mOffset - centralOffset;
+    checkZip32(centralOffset, "central directory offset", "");
+    checkZip32(centralSize, "central directory size", "");
+    writeInt(END_HEADER_SIGNATURE);
+    writeShort(0);
+    writeShort(0);
+    writeShort(mEntries.size());
+    writeShort(mEntries.size());
+    writeInt((int) centralSize);
+    writeInt((int) centralOffset);
+    writeShort(0);
+    mOut.flush();
+    mDeflater.end();
+  }
+
+  /**
+   * @return bytes written so far
+   */
+  public long getOffset() {
+    return mOffset;
+  }
+
+  private byte[] deflate(byte[] data) {
+    mDeflater.reset();
+    mDeflater.setInput(data);
+    mDeflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+    byte[] buffer = new byte[8192];
+    while (!mDeflater.finished()) {
+      int len = mDeflater.deflate(buffer);
+      out.write(buffer, 0, len);
+    }
+    return out.toByteArray();
+  }
+
+  private static void checkZip32(long value, String what, String name) throws IOException {
+    if (value > MAX_ZIP32_VALUE) {
+      throw new IOException(String.format("the %s %d is too big for a zip without zip64, entry=%s", what, value, name));
+    }
+  }
+
+  private static boolean isAscii(String name) {
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void writeShort(int value) throws IOException {
+    mOut.write(value & 0xff);
+    mOut.write((value >>> 8) & 0xff);
+    mOffset += 2;
+  }
+
+  private void writeInt(int value) throws IOException {
+    mOut.write(value & 0xff);
+    mOut.write((value >>> 8) & 0xff);
+    mOut.write((value >>> 16) & 0xff);
+    mOut.write((value >>> 24) & 0xff);
+    mOffset += 4;
+  }
+
+  private void write(byte[] data, int off, int len) throws IOException {
+    mOut.write(data, off, len);
+    mOffset += len;
+  }
+
+  private static class Entry {
+    final byte[] name;
+    final int method;
+    final long crc;
+    final long compressedSize;
+    final long size;
+    final long offset;
+    final int flags;
+
+    Entry(byte[] name, int method, long crc, long compressedSize, long size, long offset, int flags) {
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.offset = offset;
+      this.flags = flags;
+    }
+
+    int version() {
+      return method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+    }
+  }
+}
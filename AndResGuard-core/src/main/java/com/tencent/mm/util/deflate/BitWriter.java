@@ -0,0 +1,80 @@
+package com.tencent.mm.util.deflate;
+
+import java.util.Arrays;
+
+/**
+ * LSB first bit stream, as the deflate format requires
+ */
+final class BitWriter {
+  private byte[] mData;
+  private int mSize;
+  private int mBitBuffer;
+  private int mBitCount;
+
+  BitWriter(int capacity) {
+    mData = new byte[Math.max(64, capacity)];
+  }
+
+  void writeBits(int value, int count) {
+    mBitBuffer |= (value & ((1 << count) - 1)) << mBitCount;
+    mBitCount += count;
+    while (mBitCount >= 8) {
+      writeByte(mBitBuffer & 0xff);
+      mBitBuffer >>>= 8;
+      mBitCount -= 8;
+    }
+  }
+
+  /**
+   * huffman codes are packed starting with the most significant bit of the code
+   */
+  void writeHuffmanCode(int code, int length) {
+    writeBits(reverse(code, length), length);
+  }
+
+  void alignToByte() {
+    if (mBitCount > 0) {
+      writeByte(mBitBuffer & 0xff);
+      mBitBuffer = 0;
+      mBitCount = 0;
+    }
+  }
+
+  void writeBytes(byte[] data, int offset, int length) {
+    ensureCapacity(mSize + length);
+    System.arraycopy(data, offset, mData, mSize, length);
+    mSize += length;
+  }
+
+  /**
+   * @return size in bits of everything written so far
+   */
+  long bitLength() {
+    return (long) mSize * 8 + mBitCount;
+  }
+
+  byte[] toByteArray() {
+    alignToByte();
+    return Arrays.copyOf(mData, mSize);
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(mSize + 1);
+    mData[mSize++] = (byte) value;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > mData.length) {
+      mData = Arrays.copyOf(mData, Math.max(capacity, mData.length * 2));
+    }
+  }
+
+  private static int reverse(int code, int length) {
+    int result = 0;
+    for (int i = 0; i < length; i++) {
+      result = (result << 1) | (code & 1);
+      code >>>= 1;
+    }
+    return result;
+  }
+}
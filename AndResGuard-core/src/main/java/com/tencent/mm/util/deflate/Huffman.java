@@ -0,0 +1,148 @@
+package com.tencent.mm.util.deflate;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * length limited huffman code lengths and the canonical codes of deflate
+ */
+final class Huffman {
+
+  private Huffman() {
+  }
+
+  /**
+   * the result is always a complete code: zlib rejects incomplete codes, so symbols are added when there are
+   * less than two of them.
+   *
+   * @param frequencies symbol frequencies, modified when there are less than two used symbols
+   * @param maxBits     the max code length
+   * @return code length of each symbol, 0 means the symbol is unused
+   */
+  static int[] lengthsFromFrequencies(long[] frequencies, int maxBits) {
+    int n = frequencies.length;
+    int used = 0;
+    for (long frequency : frequencies) {
+      if (frequency > 0) {
+        used++;
+      }
+    }
+    for (int i = 0; used < 2 && i < n; i++) {
+      if (frequencies[i] == 0) {
+        frequencies[i] = 1;
+        used++;
+      }
+    }
+
+    int[] lengths = new int[n];
+    // nodes [0, n) are the leaves, the internal ones are appended after them
+    int[] parent = new int[n * 2];
+    long[] weight = new long[n * 2];
+    PriorityQueue<long[]> queue = new PriorityQueue<>(n, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+        : Long.compare(a[1], b[1]));
+    for (int i = 0; i < n; i++) {
+      if (frequencies[i] > 0) {
+        weight[i] = frequencies[i];
+        queue.add(new long[] {frequencies[i], i});
+      }
+    }
+    int next = n;
+    while (queue.size() > 1) {
+      long[] a = queue.poll();
+      long[] b = queue.poll();
+      weight[next] = a[0] + b[0];
+      parent[(int) a[1]] = next;
+      parent[(int) b[1]] = next;
+      queue.add(new long[] {weight[next], next});
+      next++;
+    }
+    int root = next - 1;
+    int[] depth = new int[n * 2];
+    for (int node = root - 1; node >= n; node--) {
+      depth[node] = depth[parent[node]] + 1;
+    }
+    int[] count = new int[Math.max(maxBits, n) + 2];
+    for (int i = 0; i < n; i++) {
+      if (frequencies[i] > 0) {
+        lengths[i] = Math.min(depth[parent[i]] + 1, maxBits);
+        count[lengths[i]]++;
+      }
+    }
+    fixLengthCounts(count, maxBits);
+
+    // longer codes go to the less frequent symbols
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> frequencies[a] != frequencies[b] ? Long.compare(frequencies[a], frequencies[b])
+        : Integer.compare(b, a));
+    int bits = maxBits;
+    for (int i = 0; i < n; i++) {
+      int symbol = order[i];
+      if (frequencies[symbol] == 0) {
+        continue;
+      }
+      while (count[bits] == 0) {
+        bits--;
+      }
+      lengths[symbol] = bits;
+      count[bits]--;
+    }
+    return lengths;
+  }
+
+  /**
+   * the clamped lengths may be over subscribed, push the deepest leaves down until the kraft sum fits, then
+   * pull leaves up until the code is complete again
+   */
+  private static void fixLengthCounts(int[] count, int maxBits) {
+    long full = 1L << maxBits;
+    long kraft = 0;
+    for (int bits = 1; bits <= maxBits; bits++) {
+      kraft += (long) count[bits] << (maxBits - bits);
+    }
+    while (kraft > full) {
+      int bits = maxBits - 1;
+      while (count[bits] == 0) {
+        bits--;
+      }
+      count[bits]--;
+      count[bits + 1]++;
+      kraft -= 1L << (maxBits - bits - 1);
+    }
+    while (kraft < full) {
+      int bits = maxBits;
+      while (count[bits] == 0) {
+        bits--;
+      }
+      count[bits]--;
+      count[bits - 1]++;
+      kraft += 1L << (maxBits - bits);
+    }
+  }
+
+  /**
+   * canonical codes, see RFC 1951 3.2.2
+   */
+  static int[] codesFromLengths(int[] lengths, int maxBits) {
+    int[] count = new int[maxBits + 1];
+    for (int length : lengths) {
+      count[length]++;
+    }
+    count[0] = 0;
+    int[] nextCode = new int[maxBits + 1];
+    int code = 0;
+    for (int bits = 1; bits <= maxBits; bits++) {
+      code = (code + count[bits - 1]) << 1;
+      nextCode[bits] = code;
+    }
+    int[] codes = new int[lengths.length];
+    for (int i = 0; i < lengths.length; i++) {
+      if (lengths[i] != 0) {
+        codes[i] = nextCode[lengths[i]]++;
+      }
+    }
+    return codes;
+  }
+}
@@ -0,0 +1,97 @@
+package com.tencent.mm.util.deflate;
+
+import java.util.Arrays;
+
+/**
+ * hash chain match finder over the whole input. For every position it reports each length at which a
+ * longer match was found, together with the nearest distance reaching it, which is all the optimal parser needs.
+ */
+final class MatchFinder {
+  static final int WINDOW_SIZE = 32768;
+  static final int MIN_MATCH = 3;
+  static final int MAX_MATCH = 258;
+
+  private static final int HASH_BITS = 16;
+
+  private final byte[] mData;
+  private final int mMaxChainLength;
+  private final int[] mHead = new int[1 << HASH_BITS];
+  private final int[] mPrev;
+  private int mInserted;
+
+  MatchFinder(byte[] data, int maxChainLength) {
+    mData = data;
+    mMaxChainLength = maxChainLength;
+    mPrev = new int[data.length];
+    Arrays.fill(mHead, -1);
+  }
+
+  /**
+   * find the matches at pos which end before limit, every position before pos must have been visited.
+   * The results are appended as (length << 16 | distance), sorted by increasing length.
+   */
+  void findMatches(int pos, int limit, IntArray out) {
+    insertUntil(pos);
+    int maxLength = Math.min(MAX_MATCH, limit - pos);
+    if (maxLength >= MIN_MATCH && pos + MIN_MATCH <= mData.length) {
+      byte[] data = mData;
+      int best = MIN_MATCH - 1;
+      int candidate = mHead[hash(pos)];
+      int chain = 0;
+      while (candidate >= 0 && pos - candidate <= WINDOW_SIZE && chain++ < mMaxChainLength) {
+        if (data[candidate + best] == data[pos + best]) {
+          int length = 0;
+          while (length < maxLength && data[candidate + length] == data[pos + length]) {
+            length++;
+          }
+          if (length > best) {
+            best = length;
+            out.add((length << 16) | (pos - candidate));
+            if (length == maxLength) {
+              break;
+            }
+          }
+        }
+        candidate = mPrev[candidate];
+      }
+    }
+    insertUntil(pos + 1);
+  }
+
+  private void insertUntil(int end) {
+    int last = mData.length - MIN_MATCH;
+    for (; mInserted < end; mInserted++) {
+      if (mInserted <= last) {
+        int hash = hash(mInserted);
+        mPrev[mInserted] = mHead[hash];
+        mHead[hash] = mInserted;
+      } else {
+        mPrev[mInserted] = -1;
+      }
+    }
+  }
+
+  private int hash(int pos) {
+    int value = (mData[pos] & 0xff) | ((mData[pos + 1] & 0xff) << 8) | ((mData[pos + 2] & 0xff) << 16);
+    return (value * 0x9e3779b1) >>> (32 - HASH_BITS);
+  }
+
+  /**
+   * growable int list, avoids boxing the matches of every position
+   */
+  static final class IntArray {
+    int[] values = new int[1024];
+    int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+}
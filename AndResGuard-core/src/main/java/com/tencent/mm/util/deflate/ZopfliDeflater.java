@@ -0,0 +1,560 @@
+package com.tencent.mm.util.deflate;
+
+import java.util.Arrays;
+
+/**
+ * A pure java deflate encoder aiming at the smallest output instead of speed, the same idea as zopfli:
+ * the matches of every position are found once, then the LZ77 parse is chosen by a shortest path search under
+ * a bit cost model, which is re-estimated from the statistics of the previous parse for several iterations.
+ * The output is a raw deflate stream (no zlib header), readable by any inflater.
+ * It is much slower than {@link java.util.zip.Deflater}, the instance holds no state so it can be shared by
+ * several threads.
+ */
+public final class ZopfliDeflater {
+  public static final int DEFAULT_ITERATIONS = 15;
+  public static final int DEFAULT_MAX_CHAIN_LENGTH = 1024;
+
+  /**
+   * input size covered by one deflate block, the huffman codes are built per block
+   */
+  private static final int BLOCK_SIZE = 1 << 17;
+  private static final int MAX_STORED_SIZE = 65535;
+  private static final int END_OF_BLOCK = 256;
+  private static final int NUM_LIT_LEN = 286;
+  private static final int NUM_DIST = 30;
+  private static final int MAX_BITS = 15;
+  private static final int MAX_CODE_LENGTH_BITS = 7;
+
+  private static final int[] LENGTH_BASE = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+  };
+  private static final int[] LENGTH_EXTRA = {
+    0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+  };
+  private static final int[] DIST_BASE = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097,
+    6145, 8193, 12289, 16385, 24577
+  };
+  private static final int[] DIST_EXTRA = {
+    0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+  };
+  private static final int[] CODE_LENGTH_ORDER = {
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+  };
+  /**
+   * length 3..258 to the index of its length code (symbol - 257)
+   */
+  private static final int[] LENGTH_CODE = new int[MatchFinder.MAX_MATCH + 1];
+  private static final int[] FIXED_LIT_LENGTHS = new int[288];
+  private static final int[] FIXED_DIST_LENGTHS = new int[NUM_DIST];
+
+  static {
+    for (int code = 0; code < LENGTH_BASE.length; code++) {
+      int end = code + 1 < LENGTH_BASE.length ? LENGTH_BASE[code + 1] : MatchFinder.MAX_MATCH + 1;
+      for (int length = LENGTH_BASE[code]; length < end; length++) {
+        LENGTH_CODE[length] = code;
+      }
+    }
+    for (int i = 0; i < FIXED_LIT_LENGTHS.length; i++) {
+      FIXED_LIT_LENGTHS[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+    }
+    Arrays.fill(FIXED_DIST_LENGTHS, 5);
+  }
+
+  private final int mIterations;
+  private final int mMaxChainLength;
+
+  public ZopfliDeflater() {
+    this(DEFAULT_ITERATIONS, DEFAULT_MAX_CHAIN_LENGTH);
+  }
+
+  /**
+   * @param iterations     how many times the parse is re-estimated, more is smaller and slower
+   * @param maxChainLength how many earlier positions are tried for every match
+   */
+  public ZopfliDeflater(int iterations, int maxChainLength) {
+    if (iterations < 1 || maxChainLength < 1) {
+      throw new IllegalArgumentException(
+          String.format("iterations %d and maxChainLength %d must be positive", iterations, maxChainLength));
+    }
+    mIterations = iterations;
+    mMaxChainLength = maxChainLength;
+  }
+
+  /**
+   * @param data the uncompressed data
+   * @return raw deflate stream
+   */
+  public byte[] deflate(byte[] data) {
+    BitWriter writer = new BitWriter(data.length / 2);
+    if (data.length == 0) {
+      writer.writeBits(1, 1);
+      writer.writeBits(1, 2);
+      writer.writeHuffmanCode(0, FIXED_LIT_LENGTHS[END_OF_BLOCK]);
+      return writer.toByteArray();
+    }
+    MatchFinder finder = new MatchFinder(data, mMaxChainLength);
+    Block current = null;
+    long currentBits = 0;
+    for (int start = 0; start < data.length; start += BLOCK_SIZE) {
+      Block block = new Block(data, start, Math.min(data.length, start + BLOCK_SIZE));
+      block.findMatches(finder);
+      block.squeeze(mIterations);
+      long bits = block.plan();
+      if (current == null) {
+        current = block;
+        currentBits = bits;
+        continue;
+      }
+      // neighbour blocks with similar statistics are cheaper as one block, they share a single header
+      Block merged = current.merge(block);
+      long mergedBits = merged.plan();
+      if (mergedBits < currentBits + bits) {
+        current = merged;
+        currentBits = mergedBits;
+      } else {
+        current.write(writer, false);
+        current = block;
+        currentBits = bits;
+      }
+    }
+    current.write(writer, true);
+    return writer.toByteArray();
+  }
+
+  static int distanceCode(int distance) {
+    if (distance <= 2) {
+      return distance - 1;
+    }
+    int value = distance - 1;
+    int bits = 31 - Integer.numberOfLeadingZeros(value);
+    return bits * 2 + ((value >>> (bits - 1)) & 1);
+  }
+
+  /**
+   * one deflate block, its matches, the chosen LZ77 parse and the statistics of it
+   */
+  private static final class Block {
+    final byte[] data;
+    final int start;
+    final int end;
+    /**
+     * matches of position start + i are matches[matchIndex[i], matchIndex[i + 1])
+     */
+    int[] matchIndex;
+    int[] matches;
+
+    /**
+     * the parse, a literal has distance 0
+     */
+    int[] litLens;
+    int[] dists;
+    int symbolCount;
+
+    /**
+     * the encoding chosen by {@link #plan()}, the BTYPE of the block header
+     */
+    int blockType;
+    int[] dynamicLitLengths;
+    int[] dynamicDistLengths;
+    DynamicHeader dynamicHeader;
+
+    Block(byte[] data, int start, int end) {
+      this.data = data;
+      this.start = start;
+      this.end = end;
+    }
+
+    void findMatches(MatchFinder finder) {
+      int length = end - start;
+      MatchFinder.IntArray all = new MatchFinder.IntArray();
+      matchIndex = new int[length + 1];
+      for (int i = 0; i < length; i++) {
+        matchIndex[i] = all.size;
+        finder.findMatches(start + i, end, all);
+      }
+      matchIndex[length] = all.size;
+      matches = all.values;
+    }
+
+    void squeeze(int iterations) {
+      int length = end - start;
+      float[] litLenCost = new float[NUM_LIT_LEN];
+      float[] distCost = new float[NUM_DIST];
+      for (int i = 0; i < NUM_LIT_LEN; i++) {
+        litLenCost[i] = FIXED_LIT_LENGTHS[i];
+      }
+      for (int i = 0; i < NUM_DIST; i++) {
+        distCost[i] = FIXED_DIST_LENGTHS[i];
+      }
+
+      int[] bestLitLens = null;
+      int[] bestDists = null;
+      int bestCount = 0;
+      long bestBits = Long.MAX_VALUE;
+      long[] lastLitFreq = null;
+      long[] lastDistFreq = null;
+      long lastBits = Long.MAX_VALUE;
+      double[] costs = new double[length + 1];
+      int[] chosenLength = new int[length + 1];
+      int[] chosenDist = new int[length + 1];
+      for (int iteration = 0; iteration < iterations; iteration++) {
+        shortestPath(litLenCost, distCost, costs, chosenLength, chosenDist);
+        long[] litFreq = new long[NUM_LIT_LEN];
+        long[] distFreq = new long[NUM_DIST];
+        countSymbols(litFreq, distFreq);
+        long bits = dynamicBlockBits(litFreq.clone(), distFreq.clone());
+        if (bits < bestBits) {
+          bestBits = bits;
+          bestLitLens = Arrays.copyOf(litLens, symbolCount);
+          bestDists = Arrays.copyOf(dists, symbolCount);
+          bestCount = symbolCount;
+        }
+        // when the parse stops improving, blend in the previous statistics to get out of the local minimum
+        if (lastLitFreq != null && bits >= lastBits) {
+          for (int i = 0; i < NUM_LIT_LEN; i++) {
+            litFreq[i] = litFreq[i] * 2 + lastLitFreq[i];
+          }
+          for (int i = 0; i < NUM_DIST; i++) {
+            distFreq[i] = distFreq[i] * 2 + lastDistFreq[i];
+          }
+        }
+        lastLitFreq = litFreq;
+        lastDistFreq = distFreq;
+        lastBits = bits;
+        entropyCosts(litFreq, litLenCost);
+        entropyCosts(distFreq, distCost);
+      }
+      litLens = bestLitLens;
+      dists = bestDists;
+      symbolCount = bestCount;
+      matchIndex = null;
+      matches = null;
+    }
+
+    /**
+     * the cheapest way to reach every position of the block, then trace the parse back from the end
+     */
+    private void shortestPath(float[] litLenCost, float[] distCost, double[] costs, int[] chosenLength,
+                              int[] chosenDist) {
+      int length = end - start;
+      float[] lengthCost = new float[MatchFinder.MAX_MATCH + 1];
+      for (int i = MatchFinder.MIN_MATCH; i <= MatchFinder.MAX_MATCH; i++) {
+        int code = LENGTH_CODE[i];
+        lengthCost[i] = litLenCost[257 + code] + LENGTH_EXTRA[code];
+      }
+      float[] distanceCost = new float[NUM_DIST];
+      for (int i = 0; i < NUM_DIST; i++) {
+        distanceCost[i] = distCost[i] + DIST_EXTRA[i];
+      }
+      Arrays.fill(costs, Double.MAX_VALUE);
+      costs[0] = 0;
+      for (int i = 0; i < length; i++) {
+        double base = costs[i];
+        double literal = base + litLenCost[data[start + i] & 0xff];
+        if (literal < costs[i + 1]) {
+          costs[i + 1] = literal;
+          chosenLength[i + 1] = 1;
+          chosenDist[i + 1] = 0;
+        }
+        int from = matchIndex[i];
+        int to = matchIndex[i + 1];
+        if (from == to) {
+          continue;
+        }
+        int longest = matches[to - 1] >>> 16;
+        int previousLength = MatchFinder.MIN_MATCH - 1;
+        // inside long repetitions only the longest match is worth trying, it keeps runs linear
+        if (longest == MatchFinder.MAX_MATCH) {
+          from = to - 1;
+          previousLength = longest - 1;
+        }
+        for (int m = from; m < to; m++) {
+          int matchLength = matches[m] >>> 16;
+          int distance = matches[m] & 0xffff;
+          double cost = base + distanceCost[distanceCode(distance)];
+          for (int l = previousLength + 1; l <= matchLength; l++) {
+            double total = cost + lengthCost[l];
+            if (total < costs[i + l]) {
+              costs[i + l] = total;
+              chosenLength[i + l] = l;
+              chosenDist[i + l] = distance;
+            }
+          }
+          previousLength = matchLength;
+        }
+      }
+
+      int count = 0;
+      for (int pos = length; pos > 0; pos -= chosenLength[pos]) {
+        count++;
+      }
+      if (litLens == null || litLens.length < count) {
+        litLens = new int[Math.max(count, 16)];
+        dists = new int[litLens.length];
+      }
+      symbolCount = count;
+      for (int pos = length; pos > 0; pos -= chosenLength[pos]) {
+        count--;
+        if (chosenDist[pos] == 0) {
+          litLens[count] = data[start + pos - 1] & 0xff;
+          dists[count] = 0;
+        } else {
+          litLens[count] = chosenLength[pos];
+          dists[count] = chosenDist[pos];
+        }
+      }
+    }
+
+    private void countSymbols(long[] litFreq, long[] distFreq) {
+      for (int i = 0; i < symbolCount; i++) {
+        if (dists[i] == 0) {
+          litFreq[litLens[i]]++;
+        } else {
+          litFreq[257 + LENGTH_CODE[litLens[i]]]++;
+          distFreq[distanceCode(dists[i])]++;
+        }
+      }
+      litFreq[END_OF_BLOCK] = 1;
+    }
+
+    private long extraBits() {
+      long bits = 0;
+      for (int i = 0; i < symbolCount; i++) {
+        if (dists[i] != 0) {
+          bits += LENGTH_EXTRA[LENGTH_CODE[litLens[i]]] + DIST_EXTRA[distanceCode(dists[i])];
+        }
+      }
+      return bits;
+    }
+
+    private long dynamicBlockBits(long[] litFreq, long[] distFreq) {
+      int[] litLengths = Huffman.lengthsFromFrequencies(litFreq, MAX_BITS);
+      int[] distLengths = Huffman.lengthsFromFrequencies(distFreq, MAX_BITS);
+      return 3 + new DynamicHeader(litLengths, distLengths).bits + symbolBits(litFreq, litLengths)
+          + symbolBits(distFreq, distLengths) + extraBits();
+    }
+
+    /**
+     * choose the cheapest of the stored, fixed and dynamic encodings
+     *
+     * @return size of the block in bits
+     */
+    long plan() {
+      long[] litFreq = new long[NUM_LIT_LEN];
+      long[] distFreq = new long[NUM_DIST];
+      countSymbols(litFreq, distFreq);
+      long extra = extraBits();
+      long fixedBits = 3 + symbolBits(litFreq, FIXED_LIT_LENGTHS) + symbolBits(distFreq, FIXED_DIST_LENGTHS) + extra;
+      int[] litLengths = Huffman.lengthsFromFrequencies(litFreq.clone(), MAX_BITS);
+      int[] distLengths = Huffman.lengthsFromFrequencies(distFreq.clone(), MAX_BITS);
+      DynamicHeader header = new DynamicHeader(litLengths, distLengths);
+      long dynamicBits = 3 + header.bits + symbolBits(litFreq, litLengths) + symbolBits(distFreq, distLengths) + extra;
+      int length = end - start;
+      int storedBlocks = (length + MAX_STORED_SIZE - 1) / MAX_STORED_SIZE;
+      long storedBits = ((long) length + storedBlocks * 5L) * 8 + 7;
+
+      if (storedBits < fixedBits && storedBits < dynamicBits) {
+        blockType = 0;
+        return storedBits;
+      } else if (fixedBits <= dynamicBits) {
+        blockType = 1;
+        return fixedBits;
+      }
+      blockType = 2;
+      dynamicLitLengths = litLengths;
+      dynamicDistLengths = distLengths;
+      dynamicHeader = header;
+      return dynamicBits;
+    }
+
+    void write(BitWriter writer, boolean last) {
+      if (blockType == 0) {
+        writeStored(writer, last);
+        return;
+      }
+      writer.writeBits(last ? 1 : 0, 1);
+      writer.writeBits(blockType, 2);
+      if (blockType == 1) {
+        writeSymbols(writer, FIXED_LIT_LENGTHS, FIXED_DIST_LENGTHS);
+      } else {
+        dynamicHeader.write(writer);
+        writeSymbols(writer, dynamicLitLengths, dynamicDistLengths);
+      }
+    }
+
+    /**
+     * a block covering this one and the next, with both parses concatenated
+     */
+    Block merge(Block next) {
+      Block merged = new Block(data, start, next.end);
+      merged.symbolCount = symbolCount + next.symbolCount;
+      merged.litLens = Arrays.copyOf(litLens, merged.symbolCount);
+      merged.dists = Arrays.copyOf(dists, merged.symbolCount);
+      System.arraycopy(next.litLens, 0, merged.litLens, symbolCount, next.symbolCount);
+      System.arraycopy(next.dists, 0, merged.dists, symbolCount, next.symbolCount);
+      return merged;
+    }
+
+    private void writeStored(BitWriter writer, boolean last) {
+      for (int pos = start; pos < end; pos += MAX_STORED_SIZE) {
+        int size = Math.min(MAX_STORED_SIZE, end - pos);
+        writer.writeBits(last && pos + size == end ? 1 : 0, 1);
+        writer.writeBits(0, 2);
+        writer.alignToByte();
+        writer.writeBits(size, 16);
+        writer.writeBits(~size, 16);
+        writer.writeBytes(data, pos, size);
+      }
+    }
+
+    private void writeSymbols(BitWriter writer, int[] litLengths, int[] distLengths) {
+      int[] litCodes = Huffman.codesFromLengths(litLengths, MAX_BITS);
+      int[] distCodes = Huffman.codesFromLengths(distLengths, MAX_BITS);
+      for (int i = 0; i < symbolCount; i++) {
+        if (dists[i] == 0) {
+          writer.writeHuffmanCode(litCodes[litLens[i]], litLengths[litLens[i]]);
+        } else {
+          int lengthCode = LENGTH_CODE[litLens[i]];
+          writer.writeHuffmanCode(litCodes[257 + lengthCode], litLengths[257 + lengthCode]);
+          writer.writeBits(litLens[i] - LENGTH_BASE[lengthCode], LENGTH_EXTRA[lengthCode]);
+          int distCode = distanceCode(dists[i]);
+          writer.writeHuffmanCode(distCodes[distCode], distLengths[distCode]);
+          writer.writeBits(dists[i] - DIST_BASE[distCode], DIST_EXTRA[distCode]);
+        }
+      }
+      writer.writeHuffmanCode(litCodes[END_OF_BLOCK], litLengths[END_OF_BLOCK]);
+    }
+  }
+
+  private static long symbolBits(long[] frequencies, int[] lengths) {
+    long bits = 0;
+    for (int i = 0; i < frequencies.length; i++) {
+      bits += frequencies[i] * lengths[i];
+    }
+    return bits;
+  }
+
+  /**
+   * -log2(p) of every symbol, the unused symbols cost as much as a symbol seen once
+   */
+  private static void entropyCosts(long[] frequencies, float[] costs) {
+    long sum = 0;
+    for (long frequency : frequencies) {
+      sum += frequency;
+    }
+    double log2Sum = sum == 0 ? 0 : Math.log(sum) / Math.log(2);
+    for (int i = 0; i < frequencies.length; i++) {
+      costs[i] = frequencies[i] == 0 ? (float) log2Sum
+          : (float) (log2Sum - Math.log(frequencies[i]) / Math.log(2));
+    }
+  }
+
+  /**
+   * the code lengths of a dynamic block, run length encoded with the code length alphabet
+   */
+  private static final class DynamicHeader {
+    final int hlit;
+    final int hdist;
+    final int hclen;
+    final int[] rleSymbols;
+    final int[] rleExtra;
+    final int rleCount;
+    final int[] codeLengthLengths;
+    final long bits;
+
+    DynamicHeader(int[] litLengths, int[] distLengths) {
+      int lit = NUM_LIT_LEN;
+      while (lit > 257 && litLengths[lit - 1] == 0) {
+        lit--;
+      }
+      int dist = NUM_DIST;
+      while (dist > 1 && distLengths[dist - 1] == 0) {
+        dist--;
+      }
+      hlit = lit;
+      hdist = dist;
+      int[] all = new int[lit + dist];
+      System.arraycopy(litLengths, 0, all, 0, lit);
+      System.arraycopy(distLengths, 0, all, lit, dist);
+
+      int[] symbols = new int[all.length];
+      int[] extra = new int[all.length];
+      int count = 0;
+      int i = 0;
+      while (i < all.length) {
+        int value = all[i];
+        int run = 1;
+        while (i + run < all.length && all[i + run] == value) {
+          run++;
+        }
+        i += run;
+        if (value == 0) {
+          while (run >= 11) {
+            int repeat = Math.min(run, 138);
+            symbols[count] = 18;
+            extra[count++] = repeat - 11;
+            run -= repeat;
+          }
+          if (run >= 3) {
+            symbols[count] = 17;
+            extra[count++] = run - 3;
+            run = 0;
+          }
+        } else if (run >= 4) {
+          symbols[count++] = value;
+          run--;
+          while (run >= 3) {
+            int repeat = Math.min(run, 6);
+            symbols[count] = 16;
+            extra[count++] = repeat - 3;
+            run -= repeat;
+          }
+        }
+        while (run > 0) {
+          symbols[count++] = value;
+          run--;
+        }
+      }
+      rleSymbols = symbols;
+      rleExtra = extra;
+      rleCount = count;
+
+      long[] frequencies = new long[19];
+      for (int j = 0; j < count; j++) {
+        frequencies[symbols[j]]++;
+      }
+      long[] used = frequencies.clone();
+      codeLengthLengths = Huffman.lengthsFromFrequencies(frequencies, MAX_CODE_LENGTH_BITS);
+      int cl = 19;
+      while (cl > 4 && codeLengthLengths[CODE_LENGTH_ORDER[cl - 1]] == 0) {
+        cl--;
+      }
+      hclen = cl;
+      long total = 5 + 5 + 4 + 3L * cl + symbolBits(used, codeLengthLengths);
+      total += used[16] * 2 + used[17] * 3 + used[18] * 7;
+      bits = total;
+    }
+
+    void write(BitWriter writer) {
+      writer.writeBits(hlit - 257, 5);
+      writer.writeBits(hdist - 1, 5);
+      writer.writeBits(hclen - 4, 4);
+      for (int i = 0; i < hclen; i++) {
+        writer.writeBits(codeLengthLengths[CODE_LENGTH_ORDER[i]], 3);
+      }
+      int[] codes = Huffman.codesFromLengths(codeLengthLengths, MAX_CODE_LENGTH_BITS);
+      for (int i = 0; i < rleCount; i++) {
+        int symbol = rleSymbols[i];
+        writer.writeHuffmanCode(codes[symbol], codeLengthLengths[symbol]);
+        if (symbol == 16) {
+          writer.writeBits(rleExtra[i], 2);
+        } else if (symbol == 17) {
+          writer.writeBits(rleExtra[i], 3);
+        } else if (symbol == 18) {
+          writer.writeBits(rleExtra[i], 7);
+        }
+      }
+    }
+  }
+}
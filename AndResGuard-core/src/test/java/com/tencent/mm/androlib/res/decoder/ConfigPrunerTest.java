@@ -0,0 +1,361 @@
+package com.tencent.mm.androlib.res.decoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every device of the kept locales and densities must pick the same value of every entry before and after the
+ * pruning, the table is a small synthetic one of a single type.
+ */
+public class ConfigPrunerTest {
+  private static final int CONFIG_SIZE = 48;
+  private static final int ENTRY_SIZE = 16;
+  private static final int[] SDK_VERSIONS = {14, 19, 21, 26, 30};
+  private static final int[] DENSITIES = {120, 160, 240, 320, 480, 640};
+  private static final String[] LANGUAGES = {"en", "fr", "de", "zh"};
+
+  @Test
+  public void devicesPickTheSameValues() {
+    List<List<Integer>> densities = Arrays.asList(Collections.<Integer>emptyList(),
+        Collections.singletonList(320),
+        Arrays.asList(240, 480)
+    );
+    List<List<String>> locales = Arrays.asList(Collections.<String>emptyList(),
+        Collections.singletonList("en"),
+        Arrays.asList("fr", "zh-rCN")
+    );
+    for (List<Integer> keepDensities : densities) {
+      for (List<String> keepLocales : locales) {
+        for (int minSdkVersion : new int[] {0, 21}) {
+          for (boolean merge : new boolean[] {false, true}) {
+            String name = String.format("densities %s, locales %s, min sdk %d, merge %b",
+                keepDensities,
+                keepLocales,
+                minSdkVersion,
+                merge
+            );
+            ConfigPruner pruner = new ConfigPruner(keepDensities, keepLocales, minSdkVersion, merge);
+            Table table = sampleTable();
+            table.prune(pruner);
+            assertSamePicks(name, table, pruner, keepDensities, keepLocales, minSdkVersion);
+            assertTrue(name, pruner.getDuplicatedValueBytes() >= 0);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void prunesTheOtherLocalesDensitiesAndVersions() {
+    ConfigPruner pruner = new ConfigPruner(Collections.singletonList(320), Collections.singletonList("en"), 21, false);
+    Table table = sampleTable();
+    table.prune(pruner);
+    assertTrue(pruner.isChunkPruned(table.indexOf("fr")));
+    assertTrue(pruner.isChunkPruned(table.indexOf("zh-rCN")));
+    assertFalse(pruner.isChunkPruned(table.indexOf("en-rGB")));
+    // entry 4 is only in de, its last value stays
+    assertFalse(pruner.isChunkPruned(table.indexOf("de")));
+    assertTrue(pruner.isChunkPruned(table.indexOf("xxhdpi")));
+    assertTrue(pruner.isChunkPruned(table.indexOf("hdpi")));
+    // every device has v21, so v19 and the unversioned values of entry 2 are never picked
+    assertTrue(pruner.isChunkPruned(table.indexOf("v19")));
+    assertTrue(pruner.getPrunedEntries(table.indexOf("default")).get(2));
+    assertTrue(pruner.getPrunedFiles().contains("res/drawable-xxhdpi/icon.png"));
+    assertFalse(pruner.getPrunedFiles().contains("res/drawable-xhdpi-v21/icon.png"));
+    assertEquals(0, pruner.getDuplicatedValueCount());
+  }
+
+  @Test
+  public void mergesTheValuesOfTheDefaultConfig() {
+    ConfigPruner pruner = new ConfigPruner(Collections.<Integer>emptyList(), Collections.<String>emptyList(), 0, true);
+    Table table = sampleTable();
+    table.prune(pruner);
+    // an en device of hdpi would pick H1 instead of the A1 of en
+    assertNull(pruner.getPrunedEntries(table.indexOf("en")));
+    // every density has the A3 of the default config
+    assertTrue(pruner.getPrunedEntries(table.indexOf("hdpi")).get(3));
+    assertTrue(pruner.getPrunedEntries(table.indexOf("xhdpi")).get(3));
+    assertEquals(2, pruner.getDuplicatedValueCount());
+    assertEquals(2 * ENTRY_SIZE, pruner.getDuplicatedValueBytes());
+    assertEquals(0, pruner.getPrunedEntryCount());
+  }
+
+  @Test
+  public void keepsTheChunksWithSharedOffsets() {
+    Table table = new Table();
+    table.add("default", config("", 0, 0), "A0", "A1", "A2", "A3");
+    // the values of entry 0 and 1 are deduplicated into one, entry 3 comes before entry 2
+    Chunk shared = table.add("en", config("en", 0, 0), "E0", "E0", "A2", "A3");
+    shared.offsets = new int[] {0, 0, 2 * ENTRY_SIZE, ENTRY_SIZE};
+    shared.entries = concat(value("E0"), value("A3"), value("A2"));
+    table.add("xxhdpi", config("", 480, 0), "X0", null, null, null);
+    table.add("hdpi", config("", 240, 0), "H0", null, null, null);
+
+    ConfigPruner pruner = new ConfigPruner(Collections.singletonList(480), Collections.singletonList("en"), 0, true);
+    table.prune(pruner);
+    assertNull(pruner.getPrunedEntries(table.indexOf("en")));
+    assertTrue(pruner.getDuplicatedValueBytes() >= 0);
+    assertTrue(pruner.isChunkPruned(table.indexOf("hdpi")));
+    assertSamePicks("shared offsets", table, pruner, Collections.singletonList(480),
+        Collections.singletonList("en"), 0);
+
+    // nothing is merged into a default config with shared offsets
+    Table defaults = new Table();
+    Chunk sharedDefaults = defaults.add("default", config("", 0, 0), "A0", "A0", "A2");
+    sharedDefaults.offsets = new int[] {0, 0, ENTRY_SIZE};
+    sharedDefaults.entries = concat(value("A0"), value("A2"));
+    defaults.add("en", config("en", 0, 0), "A0", "A0", "A2");
+    pruner = new ConfigPruner(Collections.<Integer>emptyList(), Collections.<String>emptyList(), 0, true);
+    defaults.prune(pruner);
+    assertEquals(0, pruner.getDuplicatedValueCount());
+    assertNull(pruner.getPrunedEntries(defaults.indexOf("en")));
+  }
+
+  /**
+   * entry 1 is an icon of every density, entry 4 is only translated to german
+   */
+  private static Table sampleTable() {
+    Table table = new Table();
+    table.add("default", config("", 0, 0), "A0", "A1", "A2", "A3", null);
+    table.add("en", config("en", 0, 0), "E0", "A1", null, null, null);
+    table.add("en-rGB", config("en", "GB", 0, 0), "G0", null, null, null, null);
+    table.add("fr", config("fr", 0, 0), "F0", null, "F2", null, null);
+    table.add("zh-rCN", config("zh", "CN", 0, 0), "Z0", "Z1", null, null, null);
+    table.add("de", config("de", 0, 0), null, null, null, null, "D4");
+    table.add("hdpi", config("", 240, 0), null, "H1", null, "A3", null);
+    table.add("xhdpi", config("", 320, 0), null, "X1", null, "A3", null);
+    table.add("xxhdpi", config("", 480, 0), null, "XX1", null, null, null);
+    table.add("en-xhdpi", config("en", 320, 0), null, "EX1", null, null, null);
+    table.add("v19", config("", 0, 19), null, null, "V19", null, null);
+    table.add("v21", config("", 0, 21), null, null, "V21", null, null);
+    table.add("xhdpi-v21", config("", 320, 21), null, "XV1", null, null, null);
+    table.files("hdpi", 1, "res/drawable-hdpi/icon.png");
+    table.files("xhdpi", 1, "res/drawable-xhdpi/icon.png");
+    table.files("xxhdpi", 1, "res/drawable-xxhdpi/icon.png");
+    table.files("xhdpi-v21", 1, "res/drawable-xhdpi-v21/icon.png");
+    return table;
+  }
+
+  private static void assertSamePicks(
+      String name, Table table, ConfigPruner pruner, List<Integer> keepDensities, List<String> keepLocales,
+      int minSdkVersion) {
+    List<String[]> locales = new ArrayList<>();
+    if (keepLocales.isEmpty()) {
+      for (String language : LANGUAGES) {
+        locales.add(new String[] {language, ""});
+      }
+    } else {
+      for (String locale : keepLocales) {
+        locales.add(ConfigPruner.parseLocale(locale));
+      }
+    }
+    List<Integer> densities = new ArrayList<>();
+    if (keepDensities.isEmpty()) {
+      for (int density : DENSITIES) {
+        densities.add(density);
+      }
+    } else {
+      densities.addAll(keepDensities);
+    }
+    for (String[] locale : locales) {
+      for (int density : densities) {
+        for (int sdkVersion : SDK_VERSIONS) {
+          if (sdkVersion < minSdkVersion) {
+            continue;
+          }
+          for (int entry = 0; entry < table.entryCount(); entry++) {
+            String device = String.format("%s: %s-%s %ddpi v%d entry %d",
+                name,
+                locale[0],
+                locale[1],
+                density,
+                sdkVersion,
+                entry
+            );
+            assertEquals(device,
+                table.pick(null, locale[0], locale[1], density, sdkVersion, entry),
+                table.pick(pruner, locale[0], locale[1], density, sdkVersion, entry)
+            );
+          }
+        }
+      }
+    }
+  }
+
+  private static byte[] config(String language, int density, int sdkVersion) {
+    return config(language, "", density, sdkVersion);
+  }
+
+  private static byte[] config(String language, String region, int density, int sdkVersion) {
+    byte[] config = new byte[CONFIG_SIZE];
+    config[0] = CONFIG_SIZE;
+    if (!language.isEmpty()) {
+      config[8] = (byte) language.charAt(0);
+      config[9] = (byte) language.charAt(1);
+    }
+    if (!region.isEmpty()) {
+      config[10] = (byte) region.charAt(0);
+      config[11] = (byte) region.charAt(1);
+    }
+    config[14] = (byte) density;
+    config[15] = (byte) (density >> 8);
+    config[24] = (byte) sdkVersion;
+    config[25] = (byte) (sdkVersion >> 8);
+    return config;
+  }
+
+  /**
+   * a ResTable_entry and its Res_value, the value tells which one it is
+   */
+  private static byte[] value(String value) {
+    return Arrays.copyOf(value.getBytes(StandardCharsets.UTF_8), ENTRY_SIZE);
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    int size = 0;
+    for (byte[] part : parts) {
+      size += part.length;
+    }
+    byte[] data = new byte[size];
+    int offset = 0;
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, data, offset, part.length);
+      offset += part.length;
+    }
+    return data;
+  }
+
+  private static class Chunk {
+    final String name;
+    final byte[] config;
+    final String[] values;
+    final String[] files;
+    int[] offsets;
+    byte[] entries;
+
+    Chunk(String name, byte[] config, String[] values) {
+      this.name = name;
+      this.config = config;
+      this.values = values;
+      files = new String[values.length];
+      offsets = new int[values.length];
+      List<byte[]> parts = new ArrayList<>();
+      int offset = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] == null) {
+          offsets[i] = ARSCDecoder.NO_ENTRY;
+        } else {
+          offsets[i] = offset;
+          offset += ENTRY_SIZE;
+          parts.add(value(values[i]));
+        }
+      }
+      entries = concat(parts.toArray(new byte[parts.size()][]));
+    }
+
+    int density() {
+      int density = (config[14] & 0xff) | (config[15] & 0xff) << 8;
+      return density == ConfigPruner.DENSITY_DEFAULT ? ConfigPruner.DENSITY_MEDIUM : density;
+    }
+
+    int sdkVersion() {
+      return (config[24] & 0xff) | (config[25] & 0xff) << 8;
+    }
+
+    String language() {
+      return config[8] == 0 ? "" : new String(new char[] {(char) config[8], (char) config[9]});
+    }
+
+    String region() {
+      return config[10] == 0 ? "" : new String(new char[] {(char) config[10], (char) config[11]});
+    }
+  }
+
+  private static class Table {
+    final List<Chunk> chunks = new ArrayList<>();
+
+    Chunk add(String name, byte[] config, String... values) {
+      Chunk chunk = new Chunk(name, config, values);
+      chunks.add(chunk);
+      return chunk;
+    }
+
+    void files(String name, int entry, String file) {
+      chunks.get(indexOf(name)).files[entry] = file;
+    }
+
+    int indexOf(String name) {
+      for (int i = 0; i < chunks.size(); i++) {
+        if (chunks.get(i).name.equals(name)) {
+          return i;
+        }
+      }
+      throw new IllegalArgumentException(name);
+    }
+
+    int entryCount() {
+      return chunks.get(0).values.length;
+    }
+
+    void prune(ConfigPruner pruner) {
+      for (Chunk chunk : chunks) {
+        pruner.addConfig(chunk.config,
+            chunk.offsets,
+            chunk.files,
+            pruner.isMergeDuplicatedValues() ? chunk.entries : null
+        );
+      }
+      pruner.endType();
+    }
+
+    /**
+     * ResourceTable::getEntry of the locale, density and sdk version qualifiers
+     *
+     * @param pruner null to pick from all the values
+     * @return the value the device picks, null if it has none
+     */
+    String pick(ConfigPruner pruner, String language, String region, int density, int sdkVersion, int entry) {
+      Chunk best = null;
+      for (int i = 0; i < chunks.size(); i++) {
+        Chunk chunk = chunks.get(i);
+        BitSet pruned = pruner == null ? null : pruner.getPrunedEntries(i);
+        if (chunk.values[entry] == null || (pruned != null && pruned.get(entry))) {
+          continue;
+        }
+        if (pruner != null && pruner.isChunkPruned(i)) {
+          continue;
+        }
+        boolean matches = (chunk.language().isEmpty() || chunk.language().equals(language))
+                          && (chunk.region().isEmpty() || chunk.region().equals(region))
+                          && chunk.sdkVersion() <= sdkVersion;
+        if (matches && (best == null || isBetter(chunk, best, density))) {
+          best = chunk;
+        }
+      }
+      return best == null ? null : best.values[entry];
+    }
+
+    private static boolean isBetter(Chunk chunk, Chunk other, int density) {
+      if (!chunk.language().equals(other.language())) {
+        return other.language().isEmpty();
+      }
+      if (!chunk.region().equals(other.region())) {
+        return other.region().isEmpty();
+      }
+      if (chunk.density() != other.density()) {
+        return ConfigPruner.isBetterDensity(chunk.density(), other.density(), density);
+      }
+      return chunk.sdkVersion() > other.sdkVersion();
+    }
+  }
+}
@@ -15,6 +15,25 @@ class AndResGuardExtension {
   String fixedResName
   boolean keepRoot
   boolean mergeDuplicatedRes
+  boolean usePipeline
+  boolean keepIntermediateApk
+  boolean useBinaryMapping
+  boolean useFrequencyNaming
+  boolean useSparseEncoding
+  boolean mergeDuplicatedValues
+  boolean optimizePng
+  String compressionLevel
+  File compressionCacheDir
+  int compressionCacheSize
+  String logLevel
+  int logExamples
+  String workerIsolation
+  Iterable<String> channels
+  Iterable<String> keepDensities
+  Iterable<String> keepLocales
+  Iterable<String> keepAbis
+  boolean pruneBelowMinSdk
+  String channelEntry
   Iterable<String> whiteList
   Iterable<String> compressFilePattern
   String finalApkBackupPath
@@ -30,6 +49,25 @@ class AndResGuardExtension {
     fixedResName = null
     keepRoot = false
     mergeDuplicatedRes = false
+    usePipeline = false
+    keepIntermediateApk = false
+    useBinaryMapping = false
+    useFrequencyNaming = false
+    useSparseEncoding = false
+    mergeDuplicatedValues = false
+    optimizePng = false
+    compressionLevel = "default"
+    compressionCacheDir = null
+    compressionCacheSize = 512
+    logLevel = "info"
+    logExamples = 5
+    workerIsolation = "classloader"
+    channels = []
+    keepDensities = []
+    keepLocales = []
+    keepAbis = []
+    pruneBelowMinSdk = false
+    channelEntry = "META-INF/channel"
     whiteList = []
     compressFilePattern = []
     mappingFile = null
@@ -72,6 +110,82 @@ class AndResGuardExtension {
     return mergeDuplicatedRes
   }
 
+  boolean getUsePipeline() {
+    return usePipeline
+  }
+
+  boolean getKeepIntermediateApk() {
+    return keepIntermediateApk
+  }
+
+  boolean getUseBinaryMapping() {
+    return useBinaryMapping
+  }
+
+  boolean getUseFrequencyNaming() {
+    return useFrequencyNaming
+  }
+
+  boolean getUseSparseEncoding() {
+    return useSparseEncoding
+  }
+
+  boolean getMergeDuplicatedValues() {
+    return mergeDuplicatedValues
+  }
+
+  boolean getOptimizePng() {
+    return optimizePng
+  }
+
+  String getCompressionLevel() {
+    return compressionLevel
+  }
+
+  File getCompressionCacheDir() {
+    return compressionCacheDir
+  }
+
+  int getCompressionCacheSize() {
+    return compressionCacheSize
+  }
+
+  String getLogLevel() {
+    return logLevel
+  }
+
+  int getLogExamples() {
+    return logExamples
+  }
+
+  String getWorkerIsolation() {
+    return workerIsolation
+  }
+
+  Iterable<String> getChannels() {
+    return channels
+  }
+
+  String getChannelEntry() {
+    return channelEntry
+  }
+
+  Iterable<String> getKeepDensities() {
+    return keepDensities
+  }
+
+  Iterable<String> getKeepLocales() {
+    return keepLocales
+  }
+
+  Iterable<String> getKeepAbis() {
+    return keepAbis
+  }
+
+  boolean getPruneBelowMinSdk() {
+    return pruneBelowMinSdk
+  }
+
   Iterable<String> getWhiteList() {
     return whiteList
   }
@@ -104,6 +218,25 @@ class AndResGuardExtension {
            | fixedResName = ${fixedResName}
            | keepRoot = ${keepRoot}
            | mergeDuplicatedRes = ${mergeDuplicatedRes}
+           | usePipeline = ${usePipeline}
+           | keepIntermediateApk = ${keepIntermediateApk}
+           | useBinaryMapping = ${useBinaryMapping}
+           | useFrequencyNaming = ${useFrequencyNaming}
+           | useSparseEncoding = ${useSparseEncoding}
+           | mergeDuplicatedValues = ${mergeDuplicatedValues}
+           | optimizePng = ${optimizePng}
+           | compressionLevel = ${compressionLevel}
+           | compressionCacheDir = ${compressionCacheDir}
+           | compressionCacheSize = ${compressionCacheSize}
+           | logLevel = ${logLevel}
+           | logExamples = ${logExamples}
+           | workerIsolation = ${workerIsolation}
+           | channels = ${channels}
+           | channelEntry = ${channelEntry}
+           | keepDensities = ${keepDensities}
+           | keepLocales = ${keepLocales}
+           | keepAbis = ${keepAbis}
+           | pruneBelowMinSdk = ${pruneBelowMinSdk}
            | whiteList = ${whiteList}
            | compressFilePattern = ${compressFilePattern}
            | finalApkBackupPath = ${finalApkBackupPath}
@@ -2,27 +2,51 @@ package com.tencent.gradle
 
 import com.tencent.mm.androlib.res.util.StringUtil
 import com.tencent.mm.directory.PathNotExist
+import com.tencent.mm.resourceproguard.Configuration
 import com.tencent.mm.resourceproguard.InputParam
-import com.tencent.mm.resourceproguard.Main
+import com.tencent.mm.util.Md5Util
 import org.gradle.api.DefaultTask
 import org.gradle.api.GradleException
 import org.gradle.api.provider.Property
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputDirectories
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
 import org.gradle.api.tasks.TaskAction
+import org.gradle.workers.IsolationMode
+import org.gradle.workers.WorkerExecutor
+
+import javax.inject.Inject
 
 /**
  * The configuration properties.
  *
  * @author Sim Sun (sunsj1231@gmail.com)
  */
+@CacheableTask
 class AndResGuardTask extends DefaultTask {
+  @Internal
   AndResGuardExtension configuration
+  @Internal
   def android
+  @Internal
   def buildConfigs = []
+  private final WorkerExecutor workerExecutor
 
-  AndResGuardTask() {
+  @Inject
+  AndResGuardTask(WorkerExecutor workerExecutor) {
+    this.workerExecutor = workerExecutor
     description = 'Assemble Resource Proguard APK'
     group = 'andresguard'
-    outputs.upToDateWhen { false }
+    // without finalApkBackupPath the resguarded apk replaces the source apk, which is an input of this task
+    outputs.upToDateWhen { StringUtil.isPresent(configuration.finalApkBackupPath) }
+    outputs.cacheIf { StringUtil.isPresent(configuration.finalApkBackupPath) }
     android = project.extensions.android
     configuration = project.andResGuard
 
@@ -86,12 +110,128 @@ class AndResGuardTask extends DefaultTask {
     return false
   }
 
+  /**
+   * @return the configs to resguard in this task, with the path of their source apk
+   */
+  private List<Map> getTargets() {
+    def targets = []
+    buildConfigs.each { config ->
+      if (config.taskName == AndResGuardPlugin.USE_APK_TASK_NAME) {
+        if (StringUtil.isBlank(configuration.sourceApk) || config.buildType != configuration.sourceBuildType) {
+          return
+        }
+        if (StringUtil.isBlank(configuration.sourceFlavor) ||
+            (config.flavors.size() > 0 && config.flavors.get(0).name == configuration.sourceFlavor)) {
+          targets << [config: config, apk: new File(configuration.sourceApk)]
+        }
+      } else if (config.file != null) {
+        targets << [config: config, apk: config.file]
+      }
+    }
+    return targets
+  }
+
+  @InputFiles
+  @PathSensitive(PathSensitivity.NONE)
+  List<File> getSourceApks() {
+    return getTargets().collect { it.apk as File }
+  }
+
+  @Input
+  List<String> getVariantSettings() {
+    return getTargets().collect {
+      def config = it.config
+      "${config.packageName}|${config.minSDKVersion}|${config.targetSDKVersion}".toString()
+    }
+  }
+
+  @Input
+  Map<String, String> getSettings() {
+    return [
+        use7zip            : configuration.use7zip,
+        useSign            : configuration.useSign,
+        metaName           : configuration.metaName,
+        fixedResName       : configuration.fixedResName,
+        keepRoot           : configuration.keepRoot,
+        mergeDuplicatedRes : configuration.mergeDuplicatedRes,
+        usePipeline        : configuration.usePipeline,
+        keepIntermediateApk: configuration.keepIntermediateApk,
+        useBinaryMapping   : configuration.useBinaryMapping,
+        useFrequencyNaming : configuration.useFrequencyNaming,
+        useSparseEncoding  : configuration.useSparseEncoding,
+        mergeDuplicatedValues: configuration.mergeDuplicatedValues,
+        optimizePng        : configuration.optimizePng,
+        compressionLevel   : configuration.compressionLevel,
+        compressFilePattern: configuration.compressFilePattern?.join(','),
+        digestalg          : configuration.digestalg,
+        channels           : configuration.channels?.join(','),
+        channelEntry       : configuration.channelEntry,
+        keepDensities      : configuration.keepDensities?.join(','),
+        keepLocales        : configuration.keepLocales?.join(','),
+        keepAbis           : configuration.keepAbis?.join(','),
+        pruneBelowMinSdk   : configuration.pruneBelowMinSdk,
+    ].collectEntries { key, value -> [(key): String.valueOf(value)] }
+  }
+
+  @Input
+  List<String> getWhiteList() {
+    return configuration.whiteList.collect { it.toString() }
+  }
+
+  @Optional
+  @InputFile
+  @PathSensitive(PathSensitivity.NONE)
+  File getMappingFile() {
+    return configuration.mappingFile
+  }
+
+  @InputFiles
+  @PathSensitive(PathSensitivity.NONE)
+  List<File> getSigningStoreFiles() {
+    if (!configuration.useSign) {
+      return []
+    }
+    return getTargets().collect { it.config.signConfig?.storeFile }.findAll { it != null }
+  }
+
+  /**
+   * the passwords are only tracked as their digest, the task history would keep them otherwise
+   */
+  @Input
+  List<String> getSigningSettings() {
+    if (!configuration.useSign) {
+      return []
+    }
+    return getTargets().collect {
+      def signConfig = it.config.signConfig
+      if (signConfig == null) {
+        return "none"
+      }
+      def v2 = signConfig.hasProperty('v2SigningEnabled') && signConfig.v2SigningEnabled
+      def v3 = signConfig.hasProperty('v3SigningEnabled') && signConfig.v3SigningEnabled
+      def passwords = Md5Util.getMD5Str("${signConfig.storePassword}|${signConfig.keyPassword}".toString())
+      "${signConfig.keyAlias}|${passwords}|${v2}|${v3}".toString()
+    }
+  }
+
+  @OutputDirectories
+  List<File> getOutputFolders() {
+    return getTargets().collect { new File(useFolder(it.config.file)) }
+  }
+
+  @Optional
+  @OutputFile
+  File getFinalApkBackupFile() {
+    return StringUtil.isPresent(configuration.finalApkBackupPath) ? new File(configuration.finalApkBackupPath) : null
+  }
+
   static useFolder(file) {
     //remove .apk from filename
     def fileName = file.name[0..-5]
     return "${file.parent}/AndResGuard_${fileName}/"
   }
 
+  @Internal
   def getZipAlignPath() {
     return "${android.getSdkDirectory().getAbsolutePath()}/build-tools/${android.buildToolsVersion}/zipalign"
   }
@@ -101,6 +241,7 @@ class AndResGuardTask extends DefaultTask {
     project.logger.info("[AndResGuard] configuartion:$configuration")
     project.logger.info("[AndResGuard] BuildConfigs:$buildConfigs")
 
+    List<InputParam> inputParams = []
     buildConfigs.each { config ->
       if (config.taskName == AndResGuardPlugin.USE_APK_TASK_NAME) {
         if (StringUtil.isBlank(configuration.sourceApk) || !new File(configuration.sourceApk).exists()) {
@@ -118,19 +259,29 @@ class AndResGuardTask extends DefaultTask {
               0 &&
               config.flavors.get(0).name ==
               configuration.sourceFlavor)) {
-            RunGradleTask(config, configuration.sourceApk, config.minSDKVersion, config.targetSDKVersion)
+            inputParams << createInputParam(config, configuration.sourceApk, config.minSDKVersion, config.targetSDKVersion)
           }
         }
       } else {
         if (config.file == null || !config.file.exists()) {
           throw new PathNotExist("Original APK not existed")
         }
-        RunGradleTask(config, config.file.getAbsolutePath(), config.minSDKVersion, config.targetSDKVersion)
+        inputParams << createInputParam(config, config.file.getAbsolutePath(), config.minSDKVersion, config.targetSDKVersion)
+      }
+    }
+    // every variant has its own output folder, they run at the same time, bounded by --max-workers
+    IsolationMode isolationMode = IsolationMode.valueOf(configuration.workerIsolation.toUpperCase())
+    inputParams.each { inputParam ->
+      workerExecutor.submit(AndResGuardWorker) { worker ->
+        worker.isolationMode = isolationMode
+        worker.displayName = "AndResGuard ${new File(inputParam.apkPath).name}"
+        worker.params(inputParam)
       }
     }
+    workerExecutor.await()
   }
 
-  def RunGradleTask(config, String absPath, int minSDKVersion, int targetSDKVersion) {
+  InputParam createInputParam(config, String absPath, int minSDKVersion, int targetSDKVersion) {
     def signConfig = config.signConfig
     String packageName = config.packageName
     ArrayList<String> whiteListFullName = new ArrayList<>()
@@ -151,6 +302,25 @@ class AndResGuardTask extends DefaultTask {
         .setFixedResName(configuration.fixedResName)
         .setKeepRoot(configuration.keepRoot)
         .setMergeDuplicatedRes(configuration.mergeDuplicatedRes)
+        .setUsePipeline(configuration.usePipeline)
+        .setKeepIntermediateApk(configuration.keepIntermediateApk)
+        .setUseBinaryMapping(configuration.useBinaryMapping)
+        .setUseFrequencyNaming(configuration.useFrequencyNaming)
+        .setUseSparseEncoding(configuration.useSparseEncoding)
+        .setMergeDuplicatedValues(configuration.mergeDuplicatedValues)
+        .setOptimizePng(configuration.optimizePng)
+        .setCompressionLevel(Configuration.parseCompressionLevel(configuration.compressionLevel))
+        .setCompressionCacheDir(configuration.compressionCacheDir ?:
+            new File(project.buildDir, "intermediates/andresguard/compression-cache"))
+        .setCompressionCacheSizeMb(configuration.compressionCacheSize)
+        .setLogLevel(Configuration.parseLogLevel(configuration.logLevel))
+        .setLogExamples(configuration.logExamples)
+        .setChannels(configuration.channels)
+        .setChannelEntry(configuration.channelEntry)
+        .setKeepDensities(configuration.keepDensities)
+        .setKeepLocales(configuration.keepLocales)
+        .setKeepAbis(configuration.keepAbis)
+        .setPruneBelowMinSdk(configuration.pruneBelowMinSdk)
         .setCompressFilePattern(configuration.compressFilePattern)
         .setZipAlign(getZipAlignPath())
         .setSevenZipPath(sevenzip.path)
@@ -181,7 +351,6 @@ class AndResGuardTask extends DefaultTask {
         builder.setSignatureType(InputParam.SignatureType.SchemaV2)
       }
     }
-    InputParam inputParam = builder.create()
-    Main.gradleRun(inputParam)
+    return builder.create()
   }
 }
\ No newline at end of file
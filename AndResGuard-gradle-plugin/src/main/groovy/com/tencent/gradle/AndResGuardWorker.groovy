@@ -0,0 +1,23 @@
+package com.tencent.gradle
+
+import com.tencent.mm.resourceproguard.InputParam
+import com.tencent.mm.resourceproguard.Main
+
+import javax.inject.Inject
+
+/**
+ * Resguards one variant in a gradle worker, every variant has its own output folder.
+ */
+class AndResGuardWorker implements Runnable {
+  private final InputParam inputParam
+
+  @Inject
+  AndResGuardWorker(InputParam inputParam) {
+    this.inputParam = inputParam
+  }
+
+  @Override
+  void run() {
+    Main.gradleRun(inputParam)
+  }
+}